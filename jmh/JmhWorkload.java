@@ -0,0 +1,66 @@
+// Theatre Management System
+// JMH Benchmark Workload
+import benchmarks.Workload;
+import java.sql.SQLException;
+import java.util.Map;
+
+/*
+BookingBenchmark's database and operations behind the Workload interface, for
+the JMH benchmarks in the benchmarks package, which load this class by name.
+*/
+public class JmhWorkload implements Workload {
+
+    private ConnectionPool pool;
+    private BookingBenchmark benchmark;
+
+    @Override
+    public void open(Map<String, String> options) throws Exception {
+        Map<String, String> merged = BookingBenchmark.defaultOptions();
+        merged.putAll(options);
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        pool = new ConnectionPool(merged.get("url"), merged.get("user"), merged.get("password"), 2,
+            Integer.parseInt(merged.getOrDefault("connections", "64")));
+        try {
+            benchmark = new BookingBenchmark(merged, pool);
+            benchmark.prepare();
+        } catch (SQLException | RuntimeException e) {
+            pool.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int book(int seats) throws SQLException {
+        return benchmark.book(seats);
+    }
+
+    @Override
+    public void cancel(int bookingId) throws SQLException {
+        benchmark.cancel(bookingId);
+    }
+
+    @Override
+    public int refreshFullBookings() throws SQLException {
+        return benchmark.refreshFullBookings();
+    }
+
+    @Override
+    public long refreshPagedBookings() throws SQLException {
+        return benchmark.refreshPagedBookings();
+    }
+
+    @Override
+    public Object dashboardCounters() throws SQLException {
+        return benchmark.dashboardCounters();
+    }
+
+    @Override
+    public long dashboardRecount() throws SQLException {
+        return benchmark.dashboardRecount();
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
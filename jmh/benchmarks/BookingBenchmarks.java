@@ -0,0 +1,96 @@
+// Theatre Management System
+// JMH Booking Benchmarks
+package benchmarks;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Booking latency on its own, and booking throughput with many clients on one
+show. Every booking is cancelled again outside the timed part, so the
+benchmark show never sells out and runs see the same availability. Each
+invocation is a database round trip of a millisecond or so, long enough for
+JMH's per-invocation setup not to distort it.
+*/
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BookingBenchmarks {
+
+    // Bookings made by createBooking and not cancelled yet
+    private static final int MAX_OUTSTANDING = 500;
+
+    @State(Scope.Thread)
+    public static class Outstanding {
+        final Deque<Integer> bookingIds = new ArrayDeque<>();
+
+        @Setup(Level.Invocation)
+        public void makeRoom(Database db) throws Exception {
+            if (bookingIds.size() >= MAX_OUTSTANDING) {
+                cancelAll(db);
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void cancelAll(Database db) throws Exception {
+            while (!bookingIds.isEmpty()) {
+                db.workload.cancel(bookingIds.remove());
+            }
+        }
+    }
+
+    // One booking made, untimed, for cancelBooking to cancel
+    @State(Scope.Thread)
+    public static class Booked {
+        int bookingId;
+
+        @Setup(Level.Invocation)
+        public void book(Database db) throws Exception {
+            bookingId = db.workload.book(2);
+        }
+    }
+
+    @Benchmark
+    public int createBooking(Database db, Outstanding outstanding) throws Exception {
+        int bookingId = db.workload.book(2);
+        if (bookingId != 0) {
+            outstanding.bookingIds.add(bookingId);
+        }
+        return bookingId;
+    }
+
+    @Benchmark
+    public void cancelBooking(Database db, Booked booked) throws Exception {
+        if (booked.bookingId != 0) {
+            db.workload.cancel(booked.bookingId);
+        }
+    }
+
+    // One seat booked and cancelled again per invocation, all threads on the same show; -t for other counts
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(8)
+    public void bookingContention(Database db) throws Exception {
+        int bookingId = db.workload.book(1);
+        if (bookingId != 0) {
+            db.workload.cancel(bookingId);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+// Theatre Management System
+// JMH Benchmark Database
+package benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+The seeded benchmark database, opened once per fork and shared by every
+benchmark thread. The volumes are JMH parameters, so they appear in the
+JSON results and can be changed with -p, e.g. -p bookings=2000000
+-p reseed=true. The connection comes from system properties, passed to the
+forked JVMs with -jvmArgsAppend:
+
+   -Dtheatre.bench.url=jdbc:mysql://host:3306/theatre_benchmark
+   -Dtheatre.bench.user=...  -Dtheatre.bench.password=...
+
+As with BookingBenchmark, the database name must contain "bench".
+*/
+@State(Scope.Benchmark)
+public class Database {
+
+    @Param("50000")
+    public int customers;
+
+    @Param("50")
+    public int theatres;
+
+    @Param("2000")
+    public int shows;
+
+    @Param("500000")
+    public int bookings;
+
+    @Param("false")
+    public boolean reseed;
+
+    // Pool size; at least as many as the most benchmark threads (-t)
+    @Param("64")
+    public int connections;
+
+    Workload workload;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String name : new String[]{"url", "user", "password"}) {
+            String value = System.getProperty("theatre.bench." + name);
+            if (value != null) {
+                options.put(name, value);
+            }
+        }
+        options.put("customers", String.valueOf(customers));
+        options.put("theatres", String.valueOf(theatres));
+        options.put("shows", String.valueOf(shows));
+        options.put("bookings", String.valueOf(bookings));
+        options.put("reseed", String.valueOf(reseed));
+        options.put("connections", String.valueOf(connections));
+        // By name: the class is in the unnamed package
+        workload = (Workload) Class.forName("JmhWorkload").getDeclaredConstructor().newInstance();
+        workload.open(options);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        workload.close();
+    }
+}
@@ -0,0 +1,45 @@
+// Theatre Management System
+// JMH Grid Refresh and Dashboard Benchmarks
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Opening the bookings grid, read in full as it once was and as the row count
+and first page KeysetTableModel reads now, and the dashboard, from
+stats_counters and recounted from the tables.
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RefreshBenchmarks {
+
+    @Benchmark
+    public int refreshFullBookings(Database db) throws Exception {
+        return db.workload.refreshFullBookings();
+    }
+
+    @Benchmark
+    public long refreshPagedBookings(Database db) throws Exception {
+        return db.workload.refreshPagedBookings();
+    }
+
+    @Benchmark
+    public Object dashboardCounters(Database db) throws Exception {
+        return db.workload.dashboardCounters();
+    }
+
+    @Benchmark
+    public long dashboardRecount(Database db) throws Exception {
+        return db.workload.dashboardRecount();
+    }
+}
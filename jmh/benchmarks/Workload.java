@@ -0,0 +1,32 @@
+// Theatre Management System
+// JMH Benchmark Workload Interface
+package benchmarks;
+
+import java.util.Map;
+
+/*
+What the benchmarks run, implemented by JmhWorkload in the application's
+unnamed package (JMH will not generate code for benchmarks there, and a
+named package cannot refer to it).
+*/
+public interface Workload extends AutoCloseable {
+
+    // Connects and seeds as BookingBenchmark does; options override its defaults
+    void open(Map<String, String> options) throws Exception;
+
+    // A booking on the benchmark show; returns its id, or 0 if the show was sold out
+    int book(int seats) throws Exception;
+
+    void cancel(int bookingId) throws Exception;
+
+    int refreshFullBookings() throws Exception;
+
+    long refreshPagedBookings() throws Exception;
+
+    Object dashboardCounters() throws Exception;
+
+    long dashboardRecount() throws Exception;
+
+    @Override
+    void close();
+}
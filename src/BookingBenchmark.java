@@ -0,0 +1,492 @@
+// Theatre Management System
+// Hot Path Benchmarks
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Times the booking, grid refresh and dashboard paths and writes the results
+as JSON, so runs before and after a change can be compared.
+
+Needs its own MySQL database, which it creates, migrates and seeds on the
+first run; its name must contain "bench" because reseeding truncates every
+table:
+   java -cp ".:lib/mysql-connector-j-8.x.x.jar" BookingBenchmark [key=value ...]
+
+   url, user, password   connection (default: local theatre_benchmark)
+   customers, theatres, shows, bookings
+                         seeded volumes (50000, 50, 2000, 500000)
+   reseed=true           truncate and seed again, e.g. after changing volumes
+   iterations            timed runs of each single-threaded benchmark (2000)
+   threads               client counts for the contention run (1,8,32)
+   seconds               length of each contention run (10)
+   out                   JSON results file (benchmark-results.json)
+
+Every benchmark is warmed up before it is timed. Booking benchmarks run
+against a dedicated high-capacity show with a seat map, and cancel what they
+book, so repeated runs see the same seat availability. Seeded bookings are
+inserted directly and do not consume seats.
+
+The same operations, on the same seeded database, are also JMH benchmarks in
+the jmh directory (see pom.xml), for forked, statistically summarised runs.
+*/
+public class BookingBenchmark {
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    // Latencies are sorted nanoseconds, one per operation
+    private record Result(String name, int threads, double seconds, long[] latencies) {
+        double opsPerSecond() {
+            return latencies.length / seconds;
+        }
+
+        double micros(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e3;
+        }
+
+        double meanMicros() {
+            return latencies.length == 0 ? 0 : Arrays.stream(latencies).average().orElse(0) / 1e3;
+        }
+    }
+
+    private static final int SEED_BATCH = 1_000;
+    private static final int BENCH_SHOW_SEATS = 20_000;
+    private static final int PAGE_SIZE = 200;
+    private static final int REFRESH_ITERATIONS = 5;
+
+    private final Map<String, String> options;
+    private final ConnectionPool pool;
+    private final SeatInventory seatInventory;
+    private final BookingService bookingService;
+    private final StatisticsService statistics;
+    private final List<Result> results = new ArrayList<>();
+    private int benchCustomerId;
+    private int benchShowId;
+
+    BookingBenchmark(Map<String, String> options, ConnectionPool pool) {
+        this.options = options;
+        this.pool = pool;
+        this.seatInventory = new SeatInventory(pool);
+        this.bookingService = new BookingService(pool, seatInventory);
+        this.statistics = new StatisticsService(pool, bookingService);
+    }
+
+    static Map<String, String> defaultOptions() {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("url", "jdbc:mysql://localhost:3306/theatre_benchmark"
+            + "?createDatabaseIfNotExist=true&rewriteBatchedStatements=true&useServerPrepStmts=true");
+        options.put("user", "root");
+        options.put("password", "12345678");
+        options.put("customers", "50000");
+        options.put("theatres", "50");
+        options.put("shows", "2000");
+        options.put("bookings", "500000");
+        options.put("reseed", "false");
+        options.put("iterations", "2000");
+        options.put("threads", "1,8,32");
+        options.put("seconds", "10");
+        options.put("out", "benchmark-results.json");
+        return options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = defaultOptions();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq))) {
+                System.err.println("Unknown option: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        int maxThreads = 1;
+        for (String threads : options.get("threads").split(",")) {
+            maxThreads = Math.max(maxThreads, Integer.parseInt(threads.trim()));
+        }
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        try (ConnectionPool pool = new ConnectionPool(options.get("url"), options.get("user"), options.get("password"),
+                2, maxThreads + 2)) {
+            BookingBenchmark benchmark = new BookingBenchmark(options, pool);
+            benchmark.prepare();
+            benchmark.runAll();
+            benchmark.writeJson(Path.of(options.get("out")));
+        }
+    }
+
+    private int option(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    void prepare() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            String database = conn.getCatalog();
+            if (database == null || !database.toLowerCase(Locale.ROOT).contains("bench")) {
+                throw new SQLException("Refusing to seed database '" + database + "': its name must contain 'bench'");
+            }
+        }
+        new SchemaMigrations(pool).migrate();
+        boolean reseed = Boolean.parseBoolean(options.get("reseed"));
+        try (Connection conn = pool.getConnection()) {
+            if (reseed) {
+                truncate(conn);
+            }
+            if (count(conn, "SELECT COUNT(*) FROM customers") == 0) {
+                seed(conn);
+            }
+            benchCustomerId = (int) count(conn, "SELECT MIN(customer_id) FROM customers");
+            benchShowId = (int) count(conn,
+                "SELECT MAX(s.show_id) FROM shows s JOIN show_seat_maps m ON m.show_id = s.show_id");
+        }
+        statistics.reconcile();
+    }
+
+    private static void truncate(Connection conn) throws SQLException {
+        String[] tables = {"booking_seats", "bookings", "seat_holds", "show_seat_maps", "shows",
+            "theatre_sections", "theatres", "customers", "stats_counters", "change_log"};
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET FOREIGN_KEY_CHECKS = 0");
+            try {
+                for (String table : tables) {
+                    stmt.execute("TRUNCATE TABLE " + table);
+                }
+            } finally {
+                stmt.execute("SET FOREIGN_KEY_CHECKS = 1");
+            }
+        }
+    }
+
+    private void seed(Connection conn) throws SQLException {
+        int customers = option("customers");
+        int theatres = option("theatres");
+        int shows = option("shows");
+        int bookings = option("bookings");
+        System.out.printf("Seeding %d customers, %d theatres, %d shows, %d bookings...%n",
+            customers, theatres, shows, bookings);
+        long start = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        conn.setAutoCommit(false);
+        try {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO customers (name, email, phone) VALUES (?, ?, ?)")) {
+                for (int i = 1; i <= customers; i++) {
+                    stmt.setString(1, "Customer " + i);
+                    stmt.setString(2, "customer" + i + "@bench.example");
+                    stmt.setString(3, String.format("555%07d", i));
+                    addToBatch(conn, stmt, i);
+                }
+                stmt.executeBatch();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO theatres (name, location, total_seats) VALUES (?, ?, ?)")) {
+                for (int i = 1; i <= theatres; i++) {
+                    stmt.setString(1, "Theatre " + i);
+                    stmt.setString(2, "District " + (i % 10));
+                    stmt.setInt(3, 500);
+                    addToBatch(conn, stmt, i);
+                }
+                stmt.executeBatch();
+            }
+            long firstTheatre = count(conn, "SELECT MIN(theatre_id) FROM theatres");
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO shows (title, genre, duration_minutes, ticket_price, theatre_id, show_date, show_time, "
+                    + "available_seats) VALUES (?, ?, ?, ?, ?, CURDATE() + INTERVAL ? DAY, '19:30', 500)")) {
+                for (int i = 1; i <= shows; i++) {
+                    stmt.setString(1, "Show " + i);
+                    stmt.setString(2, i % 3 == 0 ? "Musical" : i % 3 == 1 ? "Drama" : "Comedy");
+                    stmt.setInt(3, 90 + i % 60);
+                    stmt.setBigDecimal(4, BigDecimal.valueOf(15 + i % 40));
+                    stmt.setLong(5, firstTheatre + i % theatres);
+                    stmt.setInt(6, i % 365);
+                    addToBatch(conn, stmt, i);
+                }
+                stmt.executeBatch();
+            }
+            long firstCustomer = count(conn, "SELECT MIN(customer_id) FROM customers");
+            long firstShow = count(conn, "SELECT MIN(show_id) FROM shows");
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO bookings (customer_id, show_id, seats_booked, total_amount, status) VALUES (?, ?, ?, ?, ?)")) {
+                for (int i = 1; i <= bookings; i++) {
+                    int seats = random.nextInt(1, 5);
+                    stmt.setLong(1, firstCustomer + random.nextInt(customers));
+                    stmt.setLong(2, firstShow + random.nextInt(shows));
+                    stmt.setInt(3, seats);
+                    stmt.setBigDecimal(4, BigDecimal.valueOf(25L * seats));
+                    stmt.setString(5, random.nextInt(10) == 0 ? "CANCELLED" : "CONFIRMED");
+                    addToBatch(conn, stmt, i);
+                }
+                stmt.executeBatch();
+            }
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(true);
+        }
+
+        // The show every booking benchmark books into, with a seat map like newly created shows
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO theatres (name, location, total_seats) VALUES ('Benchmark Arena', 'Local', ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setInt(1, BENCH_SHOW_SEATS);
+            stmt.executeUpdate();
+            int theatreId;
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                keys.next();
+                theatreId = keys.getInt(1);
+            }
+            bookingService.inTransaction(tx -> {
+                int showId = ShowRepository.insert(tx, "Benchmark Show", null, null, 120, BigDecimal.TEN,
+                    theatreId, null, null);
+                seatInventory.createSeatMap(tx, showId, theatreId);
+                tx.commit();
+                return showId;
+            });
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ANALYZE TABLE customers, theatres, shows, bookings");
+        }
+        System.out.printf("Seeded in %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    private static void addToBatch(Connection conn, PreparedStatement stmt, int row) throws SQLException {
+        stmt.addBatch();
+        if (row % SEED_BATCH == 0) {
+            stmt.executeBatch();
+            if (row % (SEED_BATCH * 20) == 0) {
+                conn.commit();
+            }
+        }
+    }
+
+    // The benchmarked operations, shared with the JMH benchmarks
+
+    int book(int seats) throws SQLException {
+        return bookingService.createBooking(benchCustomerId, benchShowId, seats);
+    }
+
+    void cancel(int bookingId) throws SQLException {
+        bookingService.cancelBooking(bookingId);
+    }
+
+    // Returns the number of rows read
+    int refreshFullBookings() throws SQLException {
+        int rows = 0;
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(BookingRepository.GRID_SELECT + " ORDER BY b.booking_id DESC")) {
+            while (rs.next()) {
+                BookingRepository.map(rs);
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    // What KeysetTableModel does to open the grid: a row count and the first page
+    long refreshPagedBookings() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            long total = count(conn, "SELECT COUNT(*) FROM bookings");
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(BookingRepository.GRID_SELECT
+                     + " ORDER BY b.booking_id DESC LIMIT " + PAGE_SIZE)) {
+                while (rs.next()) {
+                    BookingRepository.map(rs);
+                }
+            }
+            return total;
+        }
+    }
+
+    StatisticsService.Snapshot dashboardCounters() throws SQLException {
+        return statistics.read();
+    }
+
+    // The totals counted from the tables, as the dashboard did before stats_counters
+    long dashboardRecount() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            return count(conn, "SELECT COUNT(*) FROM customers")
+                + count(conn, "SELECT COUNT(*) FROM theatres")
+                + count(conn, "SELECT COUNT(*) FROM shows")
+                + count(conn, "SELECT COUNT(*) FROM bookings")
+                + count(conn, "SELECT COUNT(*) FROM bookings WHERE status='CONFIRMED'")
+                + count(conn, "SELECT COALESCE(SUM(total_amount), 0) FROM bookings WHERE status='CONFIRMED'");
+        }
+    }
+
+    private void runAll() throws Exception {
+        int iterations = option("iterations");
+
+        Deque<Integer> booked = new ArrayDeque<>();
+        measure("create_booking", iterations, () -> booked.add(book(2)));
+        measure("cancel_booking", iterations, () -> cancel(booked.remove()));
+        // Warm-up bookings are cancelled too, untimed
+        while (!booked.isEmpty()) {
+            cancel(booked.remove());
+        }
+
+        for (String threads : options.get("threads").split(",")) {
+            measureContended(Integer.parseInt(threads.trim()), option("seconds"));
+        }
+
+        measure("refresh_full_bookings", REFRESH_ITERATIONS, this::refreshFullBookings);
+        measure("refresh_paged_bookings", iterations, this::refreshPagedBookings);
+        measure("dashboard_counters", iterations, this::dashboardCounters);
+        measure("dashboard_recount", REFRESH_ITERATIONS, this::dashboardRecount);
+    }
+
+    // Warms up with a tenth of the iterations (at least one), then times each operation
+    private void measure(String name, int iterations, Operation operation) throws Exception {
+        for (int i = 0; i < Math.max(1, iterations / 10); i++) {
+            operation.run();
+        }
+        long[] latencies = new long[iterations];
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            latencies[i] = System.nanoTime() - start;
+        }
+        record(new Result(name, 1, (System.nanoTime() - begin) / 1e9, sorted(latencies)));
+    }
+
+    // Each client books one seat and cancels it again, all on the same show, for the given time
+    private void measureContended(int clients, int seconds) throws Exception {
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long[][] perClient = new long[clients][];
+        List<Thread> threads = new ArrayList<>();
+        long warmUpUntil = System.nanoTime() + Math.min(2, seconds) * 1_000_000_000L;
+        long stopAt = warmUpUntil + seconds * 1_000_000_000L;
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            Thread t = new Thread(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                try {
+                    start.await();
+                    long now;
+                    while ((now = System.nanoTime()) < stopAt) {
+                        int bookingId = book(1);
+                        long took = System.nanoTime() - now;
+                        if (bookingId != BookingService.NOT_ENOUGH_SEATS) {
+                            cancel(bookingId);
+                        }
+                        if (now >= warmUpUntil) {
+                            if (count == latencies.length) {
+                                latencies = Arrays.copyOf(latencies, count * 2);
+                            }
+                            latencies[count++] = took;
+                        }
+                    }
+                } catch (SQLException e) {
+                    errors.incrementAndGet();
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                perClient[client] = Arrays.copyOf(latencies, count);
+            }, "bench-client-" + c);
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        long[] all = new long[0];
+        for (long[] latencies : perClient) {
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + latencies.length);
+            System.arraycopy(latencies, 0, all, offset, latencies.length);
+        }
+        if (errors.get() > 0) {
+            System.err.println(errors.get() + " clients failed during booking_contention_" + clients);
+        }
+        record(new Result("booking_contention_" + clients, clients, seconds, sorted(all)));
+    }
+
+    private static long[] sorted(long[] latencies) {
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private void record(Result result) {
+        results.add(result);
+        System.out.printf("%-26s %3d thr %10.1f ops/s  mean %9.1f us  p50 %9.1f us  p99 %9.1f us%n",
+            result.name(), result.threads(), result.opsPerSecond(), result.meanMicros(),
+            result.micros(50), result.micros(99));
+    }
+
+    private void writeJson(Path out) throws IOException, SQLException {
+        // Volumes as found, since a database seeded earlier is reused unless reseed=true
+        String databaseVersion;
+        String[] volumes = {"customers", "theatres", "shows", "bookings"};
+        long[] counts = new long[volumes.length];
+        try (Connection conn = pool.getConnection()) {
+            DatabaseMetaData meta = conn.getMetaData();
+            databaseVersion = meta.getDatabaseProductName() + " " + meta.getDatabaseProductVersion();
+            for (int i = 0; i < volumes.length; i++) {
+                counts[i] = count(conn, "SELECT COUNT(*) FROM " + volumes[i]);
+            }
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"timestamp\": ").append(quote(Instant.now().toString())).append(",\n");
+        json.append("  \"java\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+        json.append("  \"database\": ").append(quote(databaseVersion)).append(",\n");
+        json.append("  \"volumes\": {");
+        for (int i = 0; i < volumes.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(quote(volumes[i])).append(": ").append(counts[i]);
+        }
+        json.append("},\n");
+        json.append("  \"results\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            json.append(String.format(Locale.ROOT,
+                "    {\"name\": %s, \"threads\": %d, \"operations\": %d, \"seconds\": %.3f, \"opsPerSecond\": %.1f, "
+                + "\"meanMicros\": %.1f, \"p50Micros\": %.1f, \"p90Micros\": %.1f, \"p99Micros\": %.1f, \"maxMicros\": %.1f}",
+                quote(r.name()), r.threads(), r.latencies().length, r.seconds(), r.opsPerSecond(), r.meanMicros(),
+                r.micros(50), r.micros(90), r.micros(99), r.micros(100)));
+            json.append(i < results.size() - 1 ? ",\n" : "\n");
+        }
+        json.append("  ]\n}\n");
+        Files.writeString(out, json);
+        System.out.println("Results written to " + out.toAbsolutePath());
+    }
+
+    // Only our own names and version strings are quoted, but escape anyway
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static long count(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,713 @@
+// Theatre Management System
+// Booking Journal
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/*
+An append-only record of every booking, cancellation and seat adjustment on
+local disk, for auditing and for rebuilding availability and the dashboard
+counters when the tables cannot be trusted (see JournalReplayTool).
+
+Events are fixed RECORD_BYTES records with a CRC, written into memory-mapped
+segment files of segmentBytes each, named after their first sequence number.
+A full segment is forced to disk and a new one started. A flusher thread
+forces the active segment every FLUSH_INTERVAL_MILLIS when anything was
+written, so one fsync covers every event of that interval; awaitDurable()
+waits for it. Mapped pages outlive a crash of the process itself, so only an
+OS crash or power loss can lose that last interval.
+
+On open the active segment is scanned up to the first record that is blank,
+torn or out of sequence, and appending continues there. compact() folds old
+segments into a checkpoint of per-show seats and counter totals and deletes
+them; replay() starts from that checkpoint.
+
+Only one process at a time may append to a directory: opening takes a lock on
+its journal.lock file and fails while another process holds it, rather than
+letting two writers interleave records in the same segment.
+
+An event that could not be appended after its transaction committed is gone
+for good, so markIncomplete() leaves an INCOMPLETE file in the directory
+saying why. From then on replay() reports the journal as incomplete and
+JournalReplayTool will not apply it; the way back is a new journal started
+from a fresh baseline.
+
+Each event is appended after its transaction commits, so the journal never
+records a booking that rolled back. It covers the writes made by this
+process; with several clients writing to one database, each keeps its own
+journal, and JournalReplayTool only writes one back if it accounts for
+every booking and hold in the database.
+*/
+public class BookingJournal implements AutoCloseable {
+
+    public static final byte BOOKED = 1;
+    public static final byte CANCELLED = 2;
+    // seats is a delta, e.g. seats taken by a hold or given back when it expires
+    public static final byte SEATS_ADJUSTED = 3;
+    // seats is the show's absolute available count, e.g. on creation or in a baseline
+    public static final byte SEATS_SET = 4;
+
+    // sequence and timestampMillis are assigned by append; amountCents is the booking's total_amount in cents
+    public record Event(long sequence, long timestampMillis, byte type, int bookingId, int showId, int customerId,
+                        int seats, long amountCents) {
+        @Override
+        public String toString() {
+            String name = switch (type) {
+                case BOOKED -> "BOOKED";
+                case CANCELLED -> "CANCELLED";
+                case SEATS_ADJUSTED -> "SEATS_ADJUSTED";
+                case SEATS_SET -> "SEATS_SET";
+                default -> "TYPE_" + type;
+            };
+            return String.format("#%d %tFT%<tT.%<tL %s booking=%d show=%d customer=%d seats=%d amount=%s", sequence,
+                timestampMillis, name, bookingId, showId, customerId, seats,
+                BigDecimal.valueOf(amountCents, 2).toPlainString());
+        }
+    }
+
+    // What a journal adds up to: per-show available seats and the booking counters
+    public static final class State {
+        private long lastSequence;
+        private long events;
+        private long bookings;
+        private long confirmed;
+        private long cancelled;
+        private long seatsSold;
+        private long revenueCents;
+        private int maxBookingId;
+        private long heldSeats;
+        private String incomplete;
+        // show_id -> {seats, 1 if seats is absolute or 0 if only a delta is known}
+        private final Map<Integer, int[]> shows = new HashMap<>();
+
+        public long lastSequence() {
+            return lastSequence;
+        }
+
+        public long events() {
+            return events;
+        }
+
+        public long bookings() {
+            return bookings;
+        }
+
+        public long confirmed() {
+            return confirmed;
+        }
+
+        public long cancelled() {
+            return cancelled;
+        }
+
+        public long seatsSold() {
+            return seatsSold;
+        }
+
+        public BigDecimal revenue() {
+            return BigDecimal.valueOf(revenueCents, 2);
+        }
+
+        // Highest booking id journalled, or -1 if a checkpoint from an older version no longer says
+        public int maxBookingId() {
+            return maxBookingId;
+        }
+
+        // Why events are missing from the journal, or null if none are known to be
+        public String incomplete() {
+            return incomplete;
+        }
+
+        // Seats taken by holds that were neither booked nor given back yet
+        public long heldSeats() {
+            return heldSeats;
+        }
+
+        // Available seats per show, for shows whose journal has a SEATS_SET to start from
+        public Map<Integer, Integer> availableSeats() {
+            Map<Integer, Integer> available = new HashMap<>();
+            for (Map.Entry<Integer, int[]> entry : shows.entrySet()) {
+                if (entry.getValue()[1] == 1) {
+                    available.put(entry.getKey(), entry.getValue()[0]);
+                }
+            }
+            return available;
+        }
+
+        // Shows with adjustments but no starting figure, which a replay cannot set
+        public int showsWithoutBaseline() {
+            int count = 0;
+            for (int[] seats : shows.values()) {
+                count += seats[1] == 0 ? 1 : 0;
+            }
+            return count;
+        }
+
+        void apply(long sequence, byte type, int bookingId, int showId, int seats, long amountCents) {
+            lastSequence = sequence;
+            events++;
+            switch (type) {
+                case BOOKED -> {
+                    bookings++;
+                    if (maxBookingId >= 0) {
+                        maxBookingId = Math.max(maxBookingId, bookingId);
+                    }
+                    confirmed++;
+                    seatsSold += seats;
+                    revenueCents += amountCents;
+                    adjust(showId, -seats);
+                }
+                case CANCELLED -> {
+                    confirmed--;
+                    cancelled++;
+                    seatsSold -= seats;
+                    revenueCents -= amountCents;
+                    adjust(showId, seats);
+                }
+                case SEATS_ADJUSTED -> {
+                    heldSeats -= seats;
+                    adjust(showId, seats);
+                }
+                case SEATS_SET -> {
+                    int[] show = shows.computeIfAbsent(showId, k -> new int[2]);
+                    show[0] = seats;
+                    show[1] = 1;
+                }
+                default -> {
+                    // Written by a newer version; nothing this one knows how to apply
+                }
+            }
+        }
+
+        private void adjust(int showId, int delta) {
+            shows.computeIfAbsent(showId, k -> new int[2])[0] += delta;
+        }
+    }
+
+    private static final int RECORD_BYTES = 48;
+    private static final int CRC_OFFSET = RECORD_BYTES - 4;
+    private static final int HEADER_BYTES = 16;
+    private static final long SEGMENT_MAGIC = 0x544D534A524E4C31L; // "TMSJRNL1"
+    private static final int RECORD_MAGIC = 0x4A450000;
+    private static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+    private static final long FLUSH_INTERVAL_MILLIS = 10;
+    private static final String CHECKPOINT = "checkpoint.bin";
+    private static final String LOCK = "journal.lock";
+    private static final String INCOMPLETE = "INCOMPLETE";
+    private static final long CHECKPOINT_MAGIC_V1 = 0x544D534A43484B31L; // "TMSJCHK1"
+    private static final long CHECKPOINT_MAGIC = 0x544D534A43484B32L; // "TMSJCHK2", adds maxBookingId and heldSeats
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final CRC32C crc = new CRC32C();
+    private final ScheduledExecutorService flusher;
+    private final Object durableLock = new Object();
+    private final FileChannel lockChannel;
+
+    // Guarded by this
+    private FileChannel channel;
+    private long nextSequence;
+    private int position;
+    private boolean closed;
+
+    private volatile MappedByteBuffer buffer;
+    private volatile long appendedSequence;
+    private long durableSequence; // guarded by durableLock
+
+    private BookingJournal(Path directory, int segmentBytes) throws IOException {
+        if (segmentBytes < HEADER_BYTES + RECORD_BYTES) {
+            throw new IllegalArgumentException("Segment too small: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        lockChannel = lock(directory);
+
+        try {
+            List<Path> segments = segments(directory);
+            if (segments.isEmpty()) {
+                State checkpoint = readCheckpoint(directory);
+                openSegment(checkpoint.lastSequence + 1);
+            } else {
+                Path last = segments.get(segments.size() - 1);
+                channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), HEADER_BYTES));
+                long first = checkHeader(buffer, last);
+                long[] end = scan(buffer, first, null);
+                position = (int) end[0];
+                nextSequence = end[1];
+            }
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            lockChannel.close();
+            throw e;
+        }
+        appendedSequence = nextSequence - 1;
+        durableSequence = appendedSequence;
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "journal-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // The lock lasts as long as the returned channel is open, and ends with the process
+    private static FileChannel lock(Path directory) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Already open in this process
+            lock = null;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Journal " + directory.toAbsolutePath() + " is already in use");
+        }
+        return channel;
+    }
+
+    public static BookingJournal open(Path directory) throws IOException {
+        return new BookingJournal(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public static BookingJournal open(Path directory, int segmentBytes) throws IOException {
+        return new BookingJournal(directory, segmentBytes);
+    }
+
+    // Opens the journal, starting a new one from a baseline of the database
+    public static BookingJournal open(Path directory, ConnectionPool pool) throws IOException, SQLException {
+        BookingJournal journal = open(directory);
+        if (journal.isEmpty()) {
+            try (Connection conn = pool.getConnection()) {
+                journal.appendBaseline(conn);
+            } catch (SQLException | IOException | RuntimeException e) {
+                journal.close();
+                throw e;
+            }
+        }
+        return journal;
+    }
+
+    public static Event booked(int bookingId, int showId, int customerId, int seats, BigDecimal amount) {
+        return new Event(0, 0, BOOKED, bookingId, showId, customerId, seats, cents(amount));
+    }
+
+    public static Event cancelled(int bookingId, int showId, int customerId, int seats, BigDecimal amount) {
+        return new Event(0, 0, CANCELLED, bookingId, showId, customerId, seats, cents(amount));
+    }
+
+    public static Event seatsAdjusted(int showId, int delta) {
+        return new Event(0, 0, SEATS_ADJUSTED, 0, showId, 0, delta, 0);
+    }
+
+    public static Event seatsSet(int showId, int available) {
+        return new Event(0, 0, SEATS_SET, 0, showId, 0, available, 0);
+    }
+
+    private static long cents(BigDecimal amount) {
+        return amount == null ? 0 : amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    // True until the first event is written, including events already folded into a checkpoint
+    public synchronized boolean isEmpty() {
+        return nextSequence == 1;
+    }
+
+    public synchronized long append(Event event) throws IOException {
+        return appendAll(List.of(event));
+    }
+
+    // Appends events in order and returns the sequence number of the last
+    public synchronized long appendAll(List<Event> events) throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed");
+        }
+        long now = System.currentTimeMillis();
+        for (Event event : events) {
+            if (position + RECORD_BYTES > buffer.capacity()) {
+                rollover();
+            }
+            MappedByteBuffer out = buffer;
+            int at = position;
+            out.putInt(at, RECORD_MAGIC | (event.type() & 0xFF));
+            out.putLong(at + 4, nextSequence);
+            out.putLong(at + 12, now);
+            out.putInt(at + 20, event.bookingId());
+            out.putInt(at + 24, event.showId());
+            out.putInt(at + 28, event.customerId());
+            out.putInt(at + 32, event.seats());
+            out.putLong(at + 36, event.amountCents());
+            out.putInt(at + CRC_OFFSET, checksum(crc, out, at));
+            position += RECORD_BYTES;
+            nextSequence++;
+        }
+        appendedSequence = nextSequence - 1;
+        return appendedSequence;
+    }
+
+    // Records that committed changes are missing from the journal; best effort, as the disk may be what failed
+    public synchronized void markIncomplete(Throwable cause) {
+        String line = Instant.now() + " " + cause + System.lineSeparator();
+        try {
+            Files.writeString(directory.resolve(INCOMPLETE), line, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not mark journal " + directory + " incomplete: " + e);
+        }
+    }
+
+    // Blocks until everything up to sequence has been forced to disk by the flusher
+    public void awaitDurable(long sequence) throws InterruptedException {
+        synchronized (durableLock) {
+            while (durableSequence < sequence && !flusher.isShutdown()) {
+                durableLock.wait(FLUSH_INTERVAL_MILLIS * 10);
+            }
+        }
+    }
+
+    public void sync() {
+        flush();
+    }
+
+    private void flush() {
+        long target = appendedSequence;
+        synchronized (durableLock) {
+            if (target <= durableSequence) {
+                return;
+            }
+        }
+        // A segment that filled up meanwhile was forced by rollover
+        buffer.force();
+        synchronized (durableLock) {
+            durableSequence = Math.max(durableSequence, target);
+            durableLock.notifyAll();
+        }
+    }
+
+    private void rollover() throws IOException {
+        buffer.force();
+        channel.close();
+        openSegment(nextSequence);
+    }
+
+    private void openSegment(long firstSequence) throws IOException {
+        Path file = directory.resolve(segmentName(firstSequence));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        mapped.putLong(0, SEGMENT_MAGIC);
+        mapped.putLong(8, firstSequence);
+        mapped.force();
+        buffer = mapped;
+        position = HEADER_BYTES;
+        nextSequence = firstSequence;
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flush();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // The mapping stays valid and was just forced
+            }
+            try {
+                lockChannel.close();
+            } catch (IOException ignored) {
+                // Closing the channel released the lock either way
+            }
+        }
+        synchronized (durableLock) {
+            durableLock.notifyAll();
+        }
+    }
+
+    /*
+    Journals the current state of the database as a starting point: a BOOKED
+    (and CANCELLED) event per existing booking for the counters, a
+    SEATS_ADJUSTED per show with seats on hold, then a SEATS_SET per show with
+    its available seats as they are now. Read in one consistent snapshot;
+    meant for a new, empty journal.
+    */
+    public void appendBaseline(Connection conn) throws SQLException, IOException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+        }
+        try {
+            List<Event> batch = new ArrayList<>();
+            try (Statement stmt = conn.createStatement()) {
+                // Streams the rows instead of loading every booking into memory
+                stmt.setFetchSize(Integer.MIN_VALUE);
+                try (ResultSet rs = stmt.executeQuery("""
+                        SELECT booking_id, show_id, customer_id, seats_booked, total_amount, status
+                        FROM bookings ORDER BY booking_id
+                        """)) {
+                    while (rs.next()) {
+                        Event booked = booked(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4),
+                            rs.getBigDecimal(5));
+                        batch.add(booked);
+                        if ("CANCELLED".equals(rs.getString(6))) {
+                            batch.add(cancelled(booked.bookingId(), booked.showId(), booked.customerId(),
+                                booked.seats(), rs.getBigDecimal(5)));
+                        }
+                        if (batch.size() >= 10_000) {
+                            appendAll(batch);
+                            batch.clear();
+                        }
+                    }
+                }
+            }
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT show_id, SUM(seats) FROM seat_holds GROUP BY show_id")) {
+                while (rs.next()) {
+                    batch.add(seatsAdjusted(rs.getInt(1), -rs.getInt(2)));
+                }
+            }
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT show_id, available_seats FROM shows")) {
+                while (rs.next()) {
+                    batch.add(seatsSet(rs.getInt(1), rs.getInt(2)));
+                }
+            }
+            appendAll(batch);
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        sync();
+    }
+
+    // Adds up the checkpoint and every segment after it
+    public static State replay(Path directory) throws IOException {
+        State state = readCheckpoint(directory);
+        for (Path segment : segments(directory)) {
+            visit(segment, state.lastSequence, null, state);
+        }
+        Path marker = directory.resolve(INCOMPLETE);
+        if (Files.exists(marker)) {
+            List<String> reasons = Files.readAllLines(marker);
+            state.incomplete = reasons.isEmpty() ? "marked incomplete" : reasons.get(reasons.size() - 1);
+        }
+        return state;
+    }
+
+    // Every event still in segments, oldest first
+    public static void events(Path directory, Consumer<Event> consumer) throws IOException {
+        for (Path segment : segments(directory)) {
+            visit(segment, 0, consumer, null);
+        }
+    }
+
+    /*
+    Folds all but the newest keepSegments full segments into the checkpoint
+    and deletes them; returns how many were folded. Safe while the journal is
+    open elsewhere, which only ever writes the newest segment.
+    */
+    public static int compact(Path directory, int keepSegments) throws IOException {
+        List<Path> segments = segments(directory);
+        // The newest segment may still be written to
+        int foldable = Math.max(0, segments.size() - 1 - Math.max(0, keepSegments));
+        if (foldable == 0) {
+            return 0;
+        }
+        State state = readCheckpoint(directory);
+        List<Path> folded = segments.subList(0, foldable);
+        for (Path segment : folded) {
+            visit(segment, state.lastSequence, null, state);
+        }
+        writeCheckpoint(directory, state);
+        for (Path segment : folded) {
+            Files.delete(segment);
+        }
+        return foldable;
+    }
+
+    private static void visit(Path segment, long afterSequence, Consumer<Event> consumer, State state)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long first = checkHeader(in, segment);
+            scan(in, first, (at, sequence) -> {
+                if (sequence <= afterSequence) {
+                    return;
+                }
+                byte type = (byte) in.getInt(at);
+                if (state != null) {
+                    state.apply(sequence, type, in.getInt(at + 20), in.getInt(at + 24), in.getInt(at + 32),
+                        in.getLong(at + 36));
+                }
+                if (consumer != null) {
+                    consumer.accept(new Event(sequence, in.getLong(at + 12), type, in.getInt(at + 20),
+                        in.getInt(at + 24), in.getInt(at + 28), in.getInt(at + 32), in.getLong(at + 36)));
+                }
+            });
+        }
+    }
+
+    private interface RecordVisitor {
+        void visit(int offset, long sequence);
+    }
+
+    // Walks valid records from the header on; returns {end offset, next sequence}
+    private static long[] scan(ByteBuffer in, long firstSequence, RecordVisitor visitor) {
+        CRC32C crc = new CRC32C();
+        int at = HEADER_BYTES;
+        long expected = firstSequence;
+        while (at + RECORD_BYTES <= in.capacity()
+                && (in.getInt(at) & 0xFFFF0000) == RECORD_MAGIC
+                && in.getLong(at + 4) == expected
+                && in.getInt(at + CRC_OFFSET) == checksum(crc, in, at)) {
+            if (visitor != null) {
+                visitor.visit(at, expected);
+            }
+            at += RECORD_BYTES;
+            expected++;
+        }
+        return new long[]{at, expected};
+    }
+
+    private static int checksum(CRC32C crc, ByteBuffer buffer, int at) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(at + CRC_OFFSET).position(at);
+        crc.reset();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private static long checkHeader(ByteBuffer in, Path segment) throws IOException {
+        if (in.capacity() < HEADER_BYTES || in.getLong(0) != SEGMENT_MAGIC) {
+            throw new IOException("Not a journal segment: " + segment);
+        }
+        return in.getLong(8);
+    }
+
+    private static String segmentName(long firstSequence) {
+        return String.format("segment-%020d.journal", firstSequence);
+    }
+
+    // Oldest first; the zero-padded names sort in sequence order
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.journal")) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static State readCheckpoint(Path directory) throws IOException {
+        State state = new State();
+        Path file = directory.resolve(CHECKPOINT);
+        if (!Files.exists(file)) {
+            return state;
+        }
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            long magic = in.readLong();
+            if (magic != CHECKPOINT_MAGIC && magic != CHECKPOINT_MAGIC_V1) {
+                throw new IOException("Not a journal checkpoint: " + file);
+            }
+            state.lastSequence = in.readLong();
+            state.events = in.readLong();
+            state.bookings = in.readLong();
+            state.confirmed = in.readLong();
+            state.cancelled = in.readLong();
+            state.seatsSold = in.readLong();
+            state.revenueCents = in.readLong();
+            if (magic == CHECKPOINT_MAGIC) {
+                state.maxBookingId = in.readInt();
+                state.heldSeats = in.readLong();
+            } else {
+                state.maxBookingId = -1;
+            }
+            int shows = in.readInt();
+            for (int i = 0; i < shows; i++) {
+                state.shows.put(in.readInt(), new int[]{in.readInt(), in.readByte()});
+            }
+        }
+        return state;
+    }
+
+    // Written beside the old one and moved over it, so a crash leaves one or the other
+    private static void writeCheckpoint(Path directory, State state) throws IOException {
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temporary);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeLong(CHECKPOINT_MAGIC);
+            out.writeLong(state.lastSequence);
+            out.writeLong(state.events);
+            out.writeLong(state.bookings);
+            out.writeLong(state.confirmed);
+            out.writeLong(state.cancelled);
+            out.writeLong(state.seatsSold);
+            out.writeLong(state.revenueCents);
+            out.writeInt(state.maxBookingId);
+            out.writeLong(state.heldSeats);
+            out.writeInt(state.shows.size());
+            for (Map.Entry<Integer, int[]> entry : state.shows.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt(entry.getValue()[0]);
+                out.writeByte(entry.getValue()[1]);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+}
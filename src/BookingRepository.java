@@ -0,0 +1,160 @@
+// Theatre Management System
+// Booking Repository
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/*
+SQL for the bookings table, on the caller's connection and transaction like
+CustomerRepository. Seat counts and dashboard counters are the caller's job;
+BookingService is the only writer and keeps them in step.
+*/
+public class BookingRepository {
+
+    public record Booking(int id, String customerName, String showTitle, int seatsBooked,
+                          BigDecimal totalAmount, Timestamp bookingDate, String status) {
+    }
+
+    // A confirmed booking, as needed to cancel it; version is what the cancelling update must still find
+    public record Confirmed(int showId, int customerId, int seatsBooked, BigDecimal totalAmount, long version) {
+    }
+
+    // A confirmed booking as listed in a show's refund manifest; seats is empty for shows without a seat map
+    public record Refund(int bookingId, int customerId, String customerName, String email, int seatsBooked,
+                         BigDecimal totalAmount, int[] seats) {
+    }
+
+    public interface RefundVisitor {
+        void visit(Refund refund) throws SQLException;
+    }
+
+    // For KeysetTableModel, which adds its own WHERE and ORDER BY on b.booking_id
+    public static final String GRID_SELECT = """
+        SELECT b.booking_id, c.name AS customer_name, s.title AS show_title,
+               b.seats_booked, b.total_amount, b.booking_date, b.status
+        FROM bookings b
+        JOIN customers c ON b.customer_id = c.customer_id
+        JOIN shows s ON b.show_id = s.show_id
+        """;
+
+    public static Booking map(ResultSet rs) throws SQLException {
+        return new Booking(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getInt(4), rs.getBigDecimal(5),
+            rs.getTimestamp(6), rs.getString(7));
+    }
+
+    /*
+    Returns the new booking_id, priced from the show row by the insert itself;
+    0, inserting nothing, if the show's ticket_price is no longer price. A
+    show without a price books at zero.
+    */
+    public static int insert(Connection conn, int customerId, int showId, int seats, BigDecimal price)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                """
+                INSERT INTO bookings (customer_id, show_id, seats_booked, total_amount)
+                SELECT ?, show_id, ?, COALESCE(? * ticket_price, 0) FROM shows
+                WHERE show_id=? AND ticket_price <=> ?
+                """, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setInt(1, customerId);
+            stmt.setInt(2, seats);
+            stmt.setInt(3, seats);
+            stmt.setInt(4, showId);
+            stmt.setBigDecimal(5, price);
+            if (stmt.executeUpdate() == 0) {
+                return 0;
+            }
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        }
+    }
+
+    // One batch of bookings for a show; customerIds[i], seats[i] and amounts[i] describe booking i
+    public static int[] insertAll(Connection conn, int showId, int[] customerIds, int[] seats, BigDecimal[] amounts)
+            throws SQLException {
+        int[] bookingIds = new int[customerIds.length];
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO bookings (customer_id, show_id, seats_booked, total_amount) VALUES (?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            for (int i = 0; i < customerIds.length; i++) {
+                stmt.setInt(1, customerIds[i]);
+                stmt.setInt(2, showId);
+                stmt.setInt(3, seats[i]);
+                stmt.setBigDecimal(4, amounts[i]);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                for (int i = 0; i < bookingIds.length && keys.next(); i++) {
+                    bookingIds[i] = keys.getInt(1);
+                }
+            }
+        }
+        return bookingIds;
+    }
+
+    // A plain read, no lock; null unless the booking exists and is confirmed
+    public static Confirmed findConfirmed(Connection conn, int bookingId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT show_id, customer_id, seats_booked, total_amount, version FROM bookings WHERE booking_id=? AND status='CONFIRMED'")) {
+            stmt.setInt(1, bookingId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next()
+                    ? new Confirmed(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getBigDecimal(4), rs.getLong(5))
+                    : null;
+            }
+        }
+    }
+
+    /*
+    Streams the show's confirmed bookings to visitor in booking_id order,
+    locking each booking row (and, through the show_id index, the gaps new
+    bookings of the show would go into) as it is read. Nothing else may run
+    on conn until it returns; memory use does not grow with the bookings.
+    */
+    public static void forEachConfirmed(Connection conn, int showId, RefundVisitor visitor) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("""
+                SELECT b.booking_id, b.customer_id, c.name, c.email, b.seats_booked, b.total_amount, bs.seat_indexes
+                FROM bookings b
+                JOIN customers c ON b.customer_id = c.customer_id
+                LEFT JOIN booking_seats bs ON bs.booking_id = b.booking_id
+                WHERE b.show_id=? AND b.status='CONFIRMED'
+                ORDER BY b.booking_id
+                FOR UPDATE OF b
+                """)) {
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            stmt.setInt(1, showId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    byte[] seats = rs.getBytes(7);
+                    visitor.visit(new Refund(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4), rs.getInt(5),
+                        rs.getBigDecimal(6), seats == null ? new int[0] : SeatInventory.unpackSeats(seats)));
+                }
+            }
+        }
+    }
+
+    // Cancels every confirmed booking of the show in one statement; returns how many
+    public static int cancelAll(Connection conn, int showId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE bookings SET status='CANCELLED', version=version+1 WHERE show_id=? AND status='CONFIRMED'")) {
+            stmt.setInt(1, showId);
+            return stmt.executeUpdate();
+        }
+    }
+
+    // Compare-and-set: false if the booking is no longer confirmed at version
+    public static boolean cancel(Connection conn, int bookingId, long version) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE bookings SET status='CANCELLED', version=version+1 WHERE booking_id=? AND version=? AND status='CONFIRMED'")) {
+            stmt.setInt(1, bookingId);
+            stmt.setLong(2, version);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+}
@@ -0,0 +1,563 @@
+// Theatre Management System
+// Booking Transactions
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Seat-changing transactions, kept free of Swing so the UI, tools and any other
+client share exactly the same booking path.
+
+The SQL itself lives in the Show, Booking and Customer repositories.
+Seats are taken with a single conditional UPDATE guarded by
+available_seats >= ?, so the check and the decrement happen atomically under
+the row lock and two terminals can never both win the last seats. The booking
+row is inserted afterwards in the same transaction. Cancellation reads the
+booking without locking it and flips its status with a compare-and-set on
+bookings.version, so a booking changed in between (cancelled, or cancelled
+with its whole show) fails the check instead of being cancelled twice.
+Deadlocks, lock wait timeouts and failed version checks are retried as the
+RetryPolicy says; transaction times, retries by reason and given-up retries
+are recorded in Metrics.
+
+For shows with a seat map the same transaction also picks or checks the exact
+seats in SeatInventory; shows without one are sold by count only.
+
+Group bookings are validated together and written with JDBC batches, one
+transaction per show, so a large group costs a handful of round trips rather
+than three statements per booking. Cancelling a whole show is set-based the
+same way: one streamed read, one UPDATE of the bookings, one write each of
+the seat count and the seat map, whatever the number of bookings.
+
+Seats freed by a cancellation are offered to the show's Waitlist in the
+same transaction, so a waiting customer is booked before the seats can show
+up as available anywhere; cancelling a whole show withdraws its waitlist.
+
+Every booking and cancellation also moves the dashboard counters kept by
+StatisticsService, inside the same transaction, and once committed is
+appended to the BookingJournal if one is set.
+*/
+public class BookingService {
+
+    // Returned by createBooking when the show does not have enough seats left
+    public static final int NOT_ENOUGH_SEATS = 0;
+
+    // Header of the refund manifest written by cancelShow; seats are seat labels separated by spaces
+    static final String MANIFEST_HEADER = "booking_id,customer_id,customer_name,email,seats_booked,seats,refund\n";
+
+    // A compare-and-set found the row changed since it was read; retried like a deadlock
+    public static final class ConflictException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        public ConflictException(String message) {
+            super(message);
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final SeatInventory seatInventory;
+    private final RetryPolicy retryPolicy;
+    private final LatencyHistogram transactionLatency = Metrics.global().histogram("transaction");
+    private volatile BookingJournal journal;
+    private volatile Waitlist waitlist;
+    // Each show's ticket_price as last read; insertBooking has the database check it
+    private final Map<Integer, BigDecimal> prices = new ConcurrentHashMap<>();
+
+    public BookingService(ConnectionPool pool, SeatInventory seatInventory) {
+        this(pool, seatInventory, RetryPolicy.DEFAULT);
+    }
+
+    public BookingService(ConnectionPool pool, SeatInventory seatInventory, RetryPolicy retryPolicy) {
+        this.pool = pool;
+        this.seatInventory = seatInventory;
+        this.retryPolicy = retryPolicy;
+    }
+
+    public void setJournal(BookingJournal journal) {
+        this.journal = journal;
+    }
+
+    // Seats freed by cancelBooking go to this waitlist first
+    public void setWaitlist(Waitlist waitlist) {
+        this.waitlist = waitlist;
+    }
+
+    public Waitlist waitlist() {
+        return waitlist;
+    }
+
+    public SeatInventory seatInventory() {
+        return seatInventory;
+    }
+
+    public interface Transaction<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    public record BookingRequest(int customerId, int showId, int seats) {
+    }
+
+    // What cancelShow did; manifest is null when there was nothing to refund
+    public record ShowCancellation(int showId, int bookings, int seats, BigDecimal refunds, Path manifest) {
+    }
+
+    // bookingId is NOT_ENOUGH_SEATS and error says why when the request failed
+    public record BookingResult(BookingRequest request, int bookingId, String error) {
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+
+    // Returns the new booking_id, or NOT_ENOUGH_SEATS; seats are picked automatically
+    public int createBooking(int customerId, int showId, int seats) throws SQLException {
+        if (seats <= 0) {
+            throw new IllegalArgumentException("Seats must be positive");
+        }
+        return book(customerId, showId, seats, null);
+    }
+
+    // Books exactly the given seat indexes; NOT_ENOUGH_SEATS if any of them is taken
+    public int createBooking(int customerId, int showId, int[] seatIndexes) throws SQLException {
+        if (seatIndexes.length == 0) {
+            throw new IllegalArgumentException("No seats selected");
+        }
+        return book(customerId, showId, seatIndexes.length, seatIndexes);
+    }
+
+    private int book(int customerId, int showId, int seats, int[] seatIndexes) throws SQLException {
+        SeatInventory.Allocation[] allocation = new SeatInventory.Allocation[1];
+        BigDecimal[] amount = new BigDecimal[1];
+        int bookingId = inTransaction(conn -> {
+            if (!ShowRepository.takeSeats(conn, showId, seats)) {
+                conn.rollback();
+                return NOT_ENOUGH_SEATS;
+            }
+
+            allocation[0] = seatInventory.allocate(conn, showId, seatIndexes, seats);
+            if (allocation[0] == null) {
+                conn.rollback();
+                return NOT_ENOUGH_SEATS;
+            }
+
+            int id = insertBooking(conn, customerId, showId, seats, amount);
+            seatInventory.recordBookingSeats(conn, id, allocation[0].seats());
+            conn.commit();
+            return id;
+        });
+        if (bookingId != NOT_ENOUGH_SEATS) {
+            seatInventory.publish(allocation[0]);
+            journal(List.of(BookingJournal.booked(bookingId, showId, customerId, seats, amount[0])));
+        }
+        return bookingId;
+    }
+
+    /*
+    Inserts a booking at the show's current ticket_price, adds it to the
+    dashboard counters, and returns its id with its amount in amount[0]. The
+    INSERT ... SELECT reads the price from the show row itself, checked
+    against the price last seen for the show, so a booking costs no price
+    SELECT of its own; only the first booking of a show in this process, or
+    one after its price changed, reads the price first.
+    */
+    int insertBooking(Connection conn, int customerId, int showId, int seats, BigDecimal[] amount)
+            throws SQLException {
+        BigDecimal price = prices.get(showId);
+        int bookingId = price == null ? 0 : BookingRepository.insert(conn, customerId, showId, seats, price);
+        if (bookingId == 0) {
+            price = ShowRepository.ticketPrice(conn, showId);
+            if (price != null) {
+                prices.put(showId, price);
+            }
+            bookingId = BookingRepository.insert(conn, customerId, showId, seats, price);
+            if (bookingId == 0) {
+                throw new ConflictException("Ticket price of show " + showId + " changed during the booking");
+            }
+        }
+        amount[0] = amountFor(price, seats);
+        StatisticsService.bookingsCreated(conn, 1, seats, amount[0]);
+        return bookingId;
+    }
+
+    // Appends committed changes to the journal; if that fails the booking stands and the journal is marked incomplete
+    void journal(List<BookingJournal.Event> events) {
+        BookingJournal target = journal;
+        if (target == null || events.isEmpty()) {
+            return;
+        }
+        try {
+            target.appendAll(events);
+        } catch (IOException | RuntimeException e) {
+            Metrics.global().increment("journal.errors");
+            e.printStackTrace();
+            target.markIncomplete(e);
+        }
+    }
+
+    private static BigDecimal amountFor(BigDecimal ticketPrice, int seats) {
+        return ticketPrice == null ? BigDecimal.ZERO : ticketPrice.multiply(BigDecimal.valueOf(seats));
+    }
+
+    // One result per request, in request order; requests for different shows are independent
+    public List<BookingResult> createBookings(List<BookingRequest> requests) throws SQLException {
+        BookingResult[] results = new BookingResult[requests.size()];
+        Set<Integer> knownCustomers = existingCustomers(requests);
+
+        Map<Integer, List<Integer>> byShow = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            BookingRequest request = requests.get(i);
+            if (request.seats() <= 0) {
+                results[i] = new BookingResult(request, NOT_ENOUGH_SEATS, "Seats must be positive");
+            } else if (!knownCustomers.contains(request.customerId())) {
+                results[i] = new BookingResult(request, NOT_ENOUGH_SEATS, "Customer not found");
+            } else {
+                byShow.computeIfAbsent(request.showId(), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        for (Map.Entry<Integer, List<Integer>> entry : byShow.entrySet()) {
+            try {
+                bookShow(entry.getKey(), entry.getValue(), requests, results);
+            } catch (SQLException e) {
+                for (int index : entry.getValue()) {
+                    results[index] = new BookingResult(requests.get(index), NOT_ENOUGH_SEATS, e.getMessage());
+                }
+            }
+        }
+        return List.of(results);
+    }
+
+    private Set<Integer> existingCustomers(List<BookingRequest> requests) throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        for (BookingRequest request : requests) {
+            ids.add(request.customerId());
+        }
+        if (ids.isEmpty()) {
+            return ids;
+        }
+        try (Connection conn = pool.getConnection()) {
+            return CustomerRepository.existing(conn, ids);
+        }
+    }
+
+    private void bookShow(int showId, List<Integer> indexes, List<BookingRequest> requests,
+                          BookingResult[] results) throws SQLException {
+        SeatInventory.Allocation[] published = new SeatInventory.Allocation[1];
+        List<BookingJournal.Event> journalled = new ArrayList<>();
+        BookingResult[] showResults = inTransaction(conn -> {
+            journalled.clear();
+            BookingResult[] out = new BookingResult[indexes.size()];
+            ShowRepository.Availability show = ShowRepository.lockAvailability(conn, showId);
+            if (show == null) {
+                conn.rollback();
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = new BookingResult(requests.get(indexes.get(i)), NOT_ENOUGH_SEATS, "Show not found");
+                }
+                return out;
+            }
+            int available = show.availableSeats();
+
+            // First come, first served within the group
+            int[] counts = new int[indexes.size()];
+            int taken = 0;
+            for (int i = 0; i < counts.length; i++) {
+                int seats = requests.get(indexes.get(i)).seats();
+                if (taken + seats <= available) {
+                    counts[i] = seats;
+                    taken += seats;
+                }
+            }
+            SeatInventory.BatchAllocation seating = seatInventory.allocateAll(conn, showId, counts);
+            published[0] = seating.allocation();
+
+            taken = 0;
+            List<Integer> accepted = new ArrayList<>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0 && seating.seats()[i] != null) {
+                    accepted.add(i);
+                    taken += counts[i];
+                } else {
+                    out[i] = new BookingResult(requests.get(indexes.get(i)), NOT_ENOUGH_SEATS,
+                        "Not enough seats available");
+                }
+            }
+            if (accepted.isEmpty()) {
+                conn.rollback();
+                return out;
+            }
+
+            ShowRepository.addSeats(conn, showId, -taken);
+
+            int[] customerIds = new int[accepted.size()];
+            int[] seatCounts = new int[accepted.size()];
+            BigDecimal[] amounts = new BigDecimal[accepted.size()];
+            int[][] seatIndexes = new int[accepted.size()][];
+            BigDecimal total = BigDecimal.ZERO;
+            for (int k = 0; k < customerIds.length; k++) {
+                int i = accepted.get(k);
+                BookingRequest request = requests.get(indexes.get(i));
+                customerIds[k] = request.customerId();
+                seatCounts[k] = request.seats();
+                amounts[k] = amountFor(show.ticketPrice(), request.seats());
+                seatIndexes[k] = seating.seats()[i];
+                total = total.add(amounts[k]);
+            }
+            int[] bookingIds = BookingRepository.insertAll(conn, showId, customerIds, seatCounts, amounts);
+            seatInventory.recordBookingSeats(conn, bookingIds, seatIndexes);
+            StatisticsService.bookingsCreated(conn, bookingIds.length, taken, total);
+
+            conn.commit();
+            for (int k = 0; k < bookingIds.length; k++) {
+                int i = accepted.get(k);
+                out[i] = new BookingResult(requests.get(indexes.get(i)), bookingIds[k], null);
+                journalled.add(BookingJournal.booked(bookingIds[k], showId, customerIds[k], seatCounts[k], amounts[k]));
+            }
+            return out;
+        });
+        seatInventory.publish(published[0]);
+        journal(journalled);
+        for (int i = 0; i < showResults.length; i++) {
+            results[indexes.get(i)] = showResults[i];
+        }
+    }
+
+    // Returns false if the booking does not exist or was already cancelled
+    public boolean cancelBooking(int bookingId) throws SQLException {
+        SeatInventory.Allocation[] released = new SeatInventory.Allocation[1];
+        BookingRepository.Confirmed[] cancelledBooking = new BookingRepository.Confirmed[1];
+        List<Waitlist.Entry> served = new ArrayList<>();
+        List<BookingJournal.Event> events = new ArrayList<>();
+        boolean cancelled = inTransaction(conn -> {
+            served.clear();
+            events.clear();
+            BookingRepository.Confirmed booking = BookingRepository.findConfirmed(conn, bookingId);
+            if (booking == null) {
+                conn.rollback();
+                return false;
+            }
+            if (!BookingRepository.cancel(conn, bookingId, booking.version())) {
+                Metrics.global().increment("optimistic.conflicts");
+                throw new ConflictException("Booking " + bookingId + " changed while it was being cancelled");
+            }
+            cancelledBooking[0] = booking;
+            ShowRepository.addSeats(conn, booking.showId(), booking.seatsBooked());
+
+            released[0] = seatInventory.release(conn, booking.showId(), seatInventory.bookingSeats(conn, bookingId));
+            BigDecimal amount = booking.totalAmount();
+            StatisticsService.bookingCancelled(conn, booking.seatsBooked(), amount == null ? BigDecimal.ZERO : amount);
+            events.add(BookingJournal.cancelled(bookingId, booking.showId(), booking.customerId(),
+                booking.seatsBooked(), booking.totalAmount()));
+            released[0] = serveWaitlist(conn, booking.showId(), booking.seatsBooked(), released[0], served, events);
+            conn.commit();
+            return true;
+        });
+        if (cancelled) {
+            seatInventory.publish(released[0]);
+            if (!served.isEmpty()) {
+                waitlist.served(served);
+                Metrics.global().add("waitlist.served", served.size());
+            }
+            journal(events);
+        }
+        return cancelled;
+    }
+
+    /*
+    Books seats a cancellation has just freed for the show's waitlist, inside
+    the cancelling transaction, earliest request first among those that fit.
+    Each request is claimed and booked under a savepoint, so one that cannot
+    be seated (taken by another terminal, or no block of seats left in the
+    map) is undone on its own and the next is tried. Returns the newest seat
+    map written; the requests served and their journal events are added to
+    served and events.
+    */
+    private SeatInventory.Allocation serveWaitlist(Connection conn, int showId, int freed,
+                                                   SeatInventory.Allocation latest, List<Waitlist.Entry> served,
+                                                   List<BookingJournal.Event> events) throws SQLException {
+        Waitlist target = waitlist;
+        if (target == null) {
+            return latest;
+        }
+        target.sync(conn, showId);
+        Set<Integer> tried = new HashSet<>();
+        int free = freed;
+        Waitlist.Entry entry;
+        while (free > 0 && (entry = target.next(showId, free, tried)) != null) {
+            tried.add(entry.id());
+            Savepoint savepoint = conn.setSavepoint();
+            SeatInventory.Allocation allocation = null;
+            if (target.claim(conn, entry) && ShowRepository.takeSeats(conn, showId, entry.seats())) {
+                allocation = seatInventory.allocate(conn, showId, null, entry.seats());
+            }
+            if (allocation == null) {
+                conn.rollback(savepoint);
+                continue;
+            }
+            BigDecimal[] amount = new BigDecimal[1];
+            int id = insertBooking(conn, entry.customerId(), showId, entry.seats(), amount);
+            seatInventory.recordBookingSeats(conn, id, allocation.seats());
+            Waitlist.linkBooking(conn, entry, id);
+            conn.releaseSavepoint(savepoint);
+            if (allocation.map() != null) {
+                latest = allocation;
+            }
+            served.add(entry);
+            events.add(BookingJournal.booked(id, showId, entry.customerId(), entry.seats(), amount[0]));
+            free -= entry.seats();
+        }
+        return latest;
+    }
+
+    /*
+    Cancels every confirmed booking of a show in one transaction and writes a
+    refund manifest to manifest (CSV, one line per booking, MANIFEST_HEADER).
+    The bookings are streamed straight to the file while their seats are freed
+    in the show's seat map, so memory stays flat however large the show is;
+    the file only appears under its name once the transaction has committed.
+    The cancellations are then journalled by reading the manifest back.
+    */
+    public ShowCancellation cancelShow(int showId, Path manifest) throws SQLException, IOException {
+        Path partial = manifest.resolveSibling(manifest.getFileName() + ".partial");
+        Files.createDirectories(manifest.toAbsolutePath().getParent());
+        SeatInventory.Allocation[] released = new SeatInventory.Allocation[1];
+        ShowCancellation result;
+        try {
+            result = inTransaction(conn -> {
+                // Taken first, as every booking path does, so no booking of the show can start meanwhile
+                if (ShowRepository.lockAvailability(conn, showId) == null) {
+                    throw new SQLException("Show " + showId + " not found");
+                }
+                SeatMap map = seatInventory.lockMap(conn, showId);
+                Waitlist target = waitlist;
+                int withdrawn = target == null ? 0 : target.withdrawAll(conn, showId);
+                int[] totals = new int[2];
+                BigDecimal[] refunds = {BigDecimal.ZERO};
+                try (Writer out = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+                    out.write(MANIFEST_HEADER);
+                    BookingRepository.forEachConfirmed(conn, showId, refund -> {
+                        BigDecimal amount = refund.totalAmount() == null ? BigDecimal.ZERO : refund.totalAmount();
+                        StringBuilder seats = new StringBuilder();
+                        if (map != null && refund.seats().length > 0) {
+                            map.release(refund.seats());
+                            for (int seat : refund.seats()) {
+                                seats.append(seats.length() == 0 ? "" : " ").append(map.layout().label(seat));
+                            }
+                        }
+                        try {
+                            out.write(CsvImporter.toCsv(List.of(Integer.toString(refund.bookingId()),
+                                Integer.toString(refund.customerId()), refund.customerName(),
+                                refund.email() == null ? "" : refund.email(), Integer.toString(refund.seatsBooked()),
+                                seats.toString()), amount.toPlainString()));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        totals[0]++;
+                        totals[1] += refund.seatsBooked();
+                        refunds[0] = refunds[0].add(amount);
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (totals[0] == 0) {
+                    if (withdrawn > 0) {
+                        conn.commit();
+                    } else {
+                        conn.rollback();
+                    }
+                    return new ShowCancellation(showId, 0, 0, BigDecimal.ZERO, null);
+                }
+
+                if (BookingRepository.cancelAll(conn, showId) != totals[0]) {
+                    throw new SQLException("Bookings of show " + showId + " changed while it was being cancelled");
+                }
+                ShowRepository.addSeats(conn, showId, totals[1]);
+                released[0] = map == null ? null : seatInventory.storeMap(conn, showId, map);
+                StatisticsService.bookingsCancelled(conn, totals[0], totals[1], refunds[0]);
+                conn.commit();
+                return new ShowCancellation(showId, totals[0], totals[1], refunds[0], manifest);
+            });
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(partial);
+            throw e.getCause();
+        } catch (SQLException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        if (result.manifest() == null) {
+            Files.deleteIfExists(partial);
+            return result;
+        }
+        Files.move(partial, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        seatInventory.publish(released[0]);
+        journalCancellations(showId, manifest);
+        return result;
+    }
+
+    // A chunk at a time, so a large manifest is never held in memory
+    private void journalCancellations(int showId, Path manifest) throws IOException {
+        List<BookingJournal.Event> events = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            CsvImporter.CsvReader reader = new CsvImporter.CsvReader(in);
+            reader.next();
+            List<String> record;
+            while ((record = reader.next()) != null) {
+                events.add(BookingJournal.cancelled(Integer.parseInt(record.get(0)), showId,
+                    Integer.parseInt(record.get(1)), Integer.parseInt(record.get(4)), new BigDecimal(record.get(6))));
+                if (events.size() >= 1_000) {
+                    journal(events);
+                    events.clear();
+                }
+            }
+        }
+        journal(events);
+    }
+
+    // Runs work in its own transaction, retrying it on deadlock or lock wait timeout
+    public <T> T inTransaction(Transaction<T> work) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try (Connection conn = pool.getConnection()) {
+                    conn.setAutoCommit(false);
+                    try {
+                        return work.run(conn);
+                    } catch (SQLException | RuntimeException e) {
+                        conn.rollback();
+                        throw e;
+                    } finally {
+                        conn.setAutoCommit(true);
+                    }
+                } catch (SQLException e) {
+                    String reason = RetryPolicy.reason(e);
+                    if (reason == null) {
+                        throw e;
+                    }
+                    if (attempt >= retryPolicy.maxAttempts()) {
+                        Metrics.global().increment("transaction.retries_exhausted");
+                        throw e;
+                    }
+                    Metrics.global().increment("transaction.retries");
+                    Metrics.global().increment("transaction.retry:" + reason);
+                    retryPolicy.backoff(attempt);
+                }
+            }
+        } finally {
+            transactionLatency.record(System.nanoTime() - start);
+        }
+    }
+}
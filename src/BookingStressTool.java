@@ -0,0 +1,162 @@
+// Theatre Management System
+// Booking Concurrency Stress Tool
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Hammers one show with concurrent bookings through BookingService and checks
+that it never sells more seats than the theatre has.
+
+Run against a local database whose tables were created by the application:
+   java -cp ".:lib/mysql-connector-j-8.x.x.jar" BookingStressTool [url] [user] [password] [seats]
+
+For each of 1, 8, 50 and 64 concurrent clients it creates a scratch
+customer, theatre and show, books until the show is sold out, verifies that
+sold + available == capacity, reports bookings/sec and removes the scratch rows.
+Every tenth booking a client also cancels the latest booking any client made,
+so clients regularly race to cancel the same row and the optimistic version
+check has something to catch. Each run prints how many transactions were
+retried, by reason, and how many version checks failed. Exits with status 1
+if any run oversold.
+*/
+public class BookingStressTool {
+
+    private static final int[] CLIENT_COUNTS = {1, 8, 50, 64};
+    private static final int CANCEL_EVERY = 10;
+    private static final String[] RETRY_COUNTERS = {
+        "transaction.retries", "transaction.retry:deadlock", "transaction.retry:lock_wait_timeout",
+        "transaction.retry:conflict", "transaction.retries_exhausted", "optimistic.conflicts"
+    };
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "jdbc:mysql://localhost:3306/theatre_management";
+        String user = args.length > 1 ? args[1] : "root";
+        String password = args.length > 2 ? args[2] : "12345678";
+        int capacity = args.length > 3 ? Integer.parseInt(args[3]) : 5000;
+
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        boolean allPassed = true;
+        for (int clients : CLIENT_COUNTS) {
+            try (ConnectionPool pool = new ConnectionPool(url, user, password, 1, clients)) {
+                allPassed &= run(pool, clients, capacity);
+            }
+        }
+        System.exit(allPassed ? 0 : 1);
+    }
+
+    private static boolean run(ConnectionPool pool, int clients, int capacity) throws Exception {
+        BookingService service = new BookingService(pool, new SeatInventory(pool));
+        int customerId;
+        int theatreId;
+        int showId;
+        try (Connection conn = pool.getConnection()) {
+            customerId = insert(conn, "INSERT INTO customers (name) VALUES ('Stress Test Customer')");
+            theatreId = insert(conn, "INSERT INTO theatres (name, location, total_seats) VALUES ('Stress Test Theatre', 'Local', "
+                + capacity + ")");
+            showId = insert(conn, "INSERT INTO shows (title, ticket_price, theatre_id, available_seats) VALUES ('Stress Test Show', 10.00, "
+                + theatreId + ", " + capacity + ")");
+        }
+
+        AtomicInteger bookings = new AtomicInteger();
+        AtomicInteger cancellations = new AtomicInteger();
+        AtomicInteger latestBooking = new AtomicInteger();
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int made = 1; ; made++) {
+                        int seats = ThreadLocalRandom.current().nextInt(1, 5);
+                        int bookingId = service.createBooking(customerId, showId, seats);
+                        if (bookingId == BookingService.NOT_ENOUGH_SEATS) {
+                            // Drain the remainder one seat at a time before giving up
+                            bookingId = service.createBooking(customerId, showId, 1);
+                            if (bookingId == BookingService.NOT_ENOUGH_SEATS) {
+                                return;
+                            }
+                        }
+                        bookings.incrementAndGet();
+                        latestBooking.set(bookingId);
+                        if (made % CANCEL_EVERY == 0 && service.cancelBooking(latestBooking.get())) {
+                            cancellations.incrementAndGet();
+                        }
+                    }
+                } catch (SQLException e) {
+                    errors.incrementAndGet();
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "stress-client-" + i);
+            threads.add(t);
+            t.start();
+        }
+
+        Map<String, Long> countersBefore = Metrics.global().getCounters();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        boolean passed;
+        try (Connection conn = pool.getConnection()) {
+            int available = queryInt(conn, "SELECT available_seats FROM shows WHERE show_id=" + showId);
+            int sold = queryInt(conn, "SELECT COALESCE(SUM(seats_booked), 0) FROM bookings WHERE show_id="
+                + showId + " AND status='CONFIRMED'");
+            passed = available >= 0 && sold + available == capacity && errors.get() == 0;
+            System.out.printf("%3d clients: %6d bookings in %.2f s = %8.1f bookings/sec, sold %d/%d, available %d, errors %d -> %s%n",
+                clients, bookings.get(), seconds, bookings.get() / seconds, sold, capacity, available,
+                errors.get(), passed ? "OK" : "OVERSOLD");
+            Map<String, Long> countersAfter = Metrics.global().getCounters();
+            StringBuilder retries = new StringBuilder("             cancelled " + cancellations.get());
+            for (String counter : RETRY_COUNTERS) {
+                retries.append(", ").append(counter).append(' ')
+                    .append(countersAfter.getOrDefault(counter, 0L) - countersBefore.getOrDefault(counter, 0L));
+            }
+            System.out.println(retries);
+
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM bookings WHERE show_id=" + showId);
+                stmt.executeUpdate("DELETE FROM shows WHERE show_id=" + showId);
+                stmt.executeUpdate("DELETE FROM theatres WHERE theatre_id=" + theatreId);
+                stmt.executeUpdate("DELETE FROM customers WHERE customer_id=" + customerId);
+            }
+        }
+        // The scratch rows were removed behind the counters' back
+        try (StatisticsService statistics = new StatisticsService(pool, service)) {
+            statistics.reconcile();
+        }
+        return passed;
+    }
+
+    private static int insert(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        }
+    }
+
+    private static int queryInt(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+}
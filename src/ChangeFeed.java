@@ -0,0 +1,254 @@
+// Theatre Management System
+// Live Change Feed
+import javax.swing.SwingUtilities;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+Tells this client's screens which rows other terminals (and this one) have
+changed, a moment after they commit.
+
+One background thread per client reads the ChangeLog from its own cursor
+every pollMillis: a single range scan on the change_log primary key, which
+returns nothing at all when the box office is quiet. The row ids it finds are
+collected per table, and subscribers are called on the EDT with every id that
+changed since their last call. If the EDT is still busy with the previous
+delivery when the next poll lands, the two are merged, so a burst of bookings
+becomes one update of each screen rather than one per booking.
+
+A subscriber gets null instead of ids when the feed cannot say which rows
+changed - it fell too far behind, or more than MAX_ROWS rows of one table
+changed at once - and should reload whatever it shows of that table.
+
+A Follower, such as a grid's KeysetTableModel, is handed the changes to its
+table themselves, still inside the poll's snapshot, so whatever it reads to
+make sense of them agrees with them exactly; what it makes of them is applied
+on the EDT in poll order. So however many grids are open, each interval costs
+one read of the log.
+
+The poll interval can be changed without a rebuild:
+   -Dtheatre.feed.pollMillis=1000
+*/
+public class ChangeFeed implements AutoCloseable {
+
+    public interface Follower<T> {
+        /*
+        Runs on the feed's thread inside the poll's snapshot; changes are the
+        ones to the follower's table since its last read, oldest first, or null
+        when it has to start over. A null result means nothing to apply.
+        */
+        T read(Connection conn, List<ChangeLog.Change> changes) throws SQLException;
+
+        // On the EDT, for each result of a poll that completed
+        void apply(T result);
+    }
+
+    public static final long DEFAULT_POLL_MILLIS = Long.getLong("theatre.feed.pollMillis", 1_000);
+
+    // More changed rows of one table than this in one delivery are handed over as null
+    private static final int MAX_ROWS = 1_000;
+
+    private final ChangeLog changeLog;
+    private final long pollMillis;
+    private final ScheduledExecutorService poller;
+    private final Map<String, List<Consumer<Set<Integer>>>> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, List<Follower<?>>> followers = new ConcurrentHashMap<>();
+
+    // Rows changed but not yet delivered; a null set means the whole table. Guarded by this.
+    private Map<String, Set<Integer>> pending = new HashMap<>();
+    // Follower results not yet applied, in poll order. Guarded by this.
+    private List<Runnable> pendingUpdates = new ArrayList<>();
+    private boolean deliveryQueued;
+    private ChangeLog.Cursor cursor;
+    // Set when a poll fails after followers have read from it; they start over on the next one
+    private boolean restartFollowers;
+
+    public ChangeFeed(ChangeLog changeLog) {
+        this(changeLog, DEFAULT_POLL_MILLIS);
+    }
+
+    public ChangeFeed(ChangeLog changeLog, long pollMillis) {
+        this.changeLog = changeLog;
+        this.pollMillis = pollMillis;
+        this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "change-feed");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Calls listener on the EDT with the ids of table's rows that changed, or null for all of them
+    public void subscribe(String table, Consumer<Set<Integer>> listener) {
+        subscribers.computeIfAbsent(table, t -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    // Hands follower the changes to table from the next poll on; its first read starts over
+    public void follow(String table, Follower<?> follower) {
+        followers.computeIfAbsent(table, t -> new CopyOnWriteArrayList<>()).add(follower);
+    }
+
+    // Starts from the end of the log: anything older is already on screen
+    public void start() {
+        poller.scheduleWithFixedDelay(this::pollSafely, 0, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Polls as soon as the feed's thread is free, e.g. to show this terminal's own change without waiting
+    public void pollNow() {
+        poller.execute(this::pollSafely);
+    }
+
+    private void pollSafely() {
+        try {
+            poll();
+        } catch (SQLException | RuntimeException e) {
+            Metrics.global().increment("feed.errors");
+            System.err.println("Change feed poll failed: " + e);
+        }
+    }
+
+    private void poll() throws SQLException {
+        long start = System.nanoTime();
+        Map<String, Set<Integer>> changed = new HashMap<>();
+        List<Runnable> updates = new ArrayList<>();
+        ChangeLog.Cursor from = cursor;
+        boolean restart = restartFollowers;
+        restartFollowers = true;
+        cursor = changeLog.inSnapshot(conn -> {
+            List<ChangeLog.Change> changes = new ArrayList<>();
+            ChangeLog.Cursor position = from == null ? null : catchUp(conn, from, changes, changed);
+            if (position == null) {
+                if (from != null) {
+                    // Too far behind to say what changed: every subscriber reloads
+                    for (String table : subscribers.keySet()) {
+                        changed.put(table, null);
+                    }
+                }
+                position = changeLog.mark(conn);
+                changes = null;
+            }
+            for (Map.Entry<String, List<Follower<?>>> entry : followers.entrySet()) {
+                List<ChangeLog.Change> ofTable = null;
+                if (changes != null && !restart) {
+                    ofTable = new ArrayList<>();
+                    for (ChangeLog.Change change : changes) {
+                        if (change.table().equals(entry.getKey())) {
+                            ofTable.add(change);
+                        }
+                    }
+                }
+                for (Follower<?> follower : entry.getValue()) {
+                    Runnable update = read(follower, conn, ofTable);
+                    if (update != null) {
+                        updates.add(update);
+                    }
+                }
+            }
+            return position;
+        });
+        restartFollowers = false;
+        Metrics.global().histogram("feed.poll").record(System.nanoTime() - start);
+        if (!changed.isEmpty() || !updates.isEmpty()) {
+            queue(changed, updates);
+        }
+    }
+
+    // Reads every change after from into changes and changed; null if the log cannot say what changed
+    private ChangeLog.Cursor catchUp(Connection conn, ChangeLog.Cursor from, List<ChangeLog.Change> changes,
+                                     Map<String, Set<Integer>> changed) throws SQLException {
+        ChangeLog.Cursor position = from;
+        while (true) {
+            ChangeLog.Batch batch = changeLog.poll(conn, position);
+            if (batch == null) {
+                return null;
+            }
+            if (batch.changes().isEmpty()) {
+                return position;
+            }
+            for (ChangeLog.Change change : batch.changes()) {
+                merge(changed, change.table(), Set.of(change.rowId()));
+            }
+            changes.addAll(batch.changes());
+            Metrics.global().add("feed.changes", batch.changes().size());
+            position = batch.next();
+        }
+    }
+
+    private static <T> Runnable read(Follower<T> follower, Connection conn, List<ChangeLog.Change> changes)
+            throws SQLException {
+        T result = follower.read(conn, changes);
+        return result == null ? null : () -> follower.apply(result);
+    }
+
+    // Adds rows (null for all of them) to what into holds for table
+    private static void merge(Map<String, Set<Integer>> into, String table, Set<Integer> rows) {
+        if (into.containsKey(table) && into.get(table) == null) {
+            return;
+        }
+        if (rows == null) {
+            into.put(table, null);
+            return;
+        }
+        Set<Integer> merged = into.computeIfAbsent(table, t -> new HashSet<>());
+        merged.addAll(rows);
+        if (merged.size() > MAX_ROWS) {
+            into.put(table, null);
+        }
+    }
+
+    private synchronized void queue(Map<String, Set<Integer>> changed, List<Runnable> updates) {
+        for (Map.Entry<String, Set<Integer>> entry : changed.entrySet()) {
+            merge(pending, entry.getKey(), entry.getValue());
+        }
+        pendingUpdates.addAll(updates);
+        if (!deliveryQueued) {
+            deliveryQueued = true;
+            SwingUtilities.invokeLater(this::deliver);
+        }
+    }
+
+    private void deliver() {
+        Map<String, Set<Integer>> changed;
+        List<Runnable> updates;
+        synchronized (this) {
+            changed = pending;
+            pending = new HashMap<>();
+            updates = pendingUpdates;
+            pendingUpdates = new ArrayList<>();
+            deliveryQueued = false;
+        }
+        for (Runnable update : updates) {
+            try {
+                update.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        for (Map.Entry<String, Set<Integer>> entry : changed.entrySet()) {
+            Set<Integer> rows = entry.getValue() == null ? null : Set.copyOf(entry.getValue());
+            for (Consumer<Set<Integer>> listener : subscribers.getOrDefault(entry.getKey(), List.of())) {
+                try {
+                    listener.accept(rows);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        poller.shutdownNow();
+    }
+}
@@ -0,0 +1,260 @@
+// Theatre Management System
+// Row Change Log
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+Records which rows of customers, theatres, shows and bookings changed, so
+screens can catch up by reading only what happened since they last looked.
+
+Triggers append one change_log row per inserted, updated or deleted row, in
+the same transaction as the change, whichever code path made it. A reader
+keeps a Cursor: the highest change_id it has seen plus the ids below it that
+were still missing. AUTO_INCREMENT ids are handed out at insert time but
+become visible at commit, so a slow transaction can surface an id lower than
+one already read; missing ids are re-checked on every poll until they turn up
+or GAP_TIMEOUT_MILLIS passes (a rolled-back insert never fills its id).
+
+Polls and the reads that go with them should run in one snapshot
+(inSnapshot), so the changes and the table contents agree exactly. Entries
+older than RETENTION_HOURS are pruned; a cursor that has not polled for half
+that time, or that is too far behind, is told to reload instead.
+*/
+public class ChangeLog implements AutoCloseable {
+
+    public static final char INSERT = 'I';
+    public static final char UPDATE = 'U';
+    public static final char DELETE = 'D';
+
+    public record Change(long changeId, String table, int rowId, char op) {
+    }
+
+    // Immutable, so a poll whose result is thrown away leaves the reader's position alone
+    public static final class Cursor {
+        private final long highWaterMark;
+        private final Map<Long, Long> gaps;
+        private final long polledAtMillis;
+
+        private Cursor(long highWaterMark, Map<Long, Long> gaps, long polledAtMillis) {
+            this.highWaterMark = highWaterMark;
+            this.gaps = gaps;
+            this.polledAtMillis = polledAtMillis;
+        }
+
+        public long highWaterMark() {
+            return highWaterMark;
+        }
+
+        // The ids below the mark still missing, each with when it was first found missing
+        public Map<Long, Long> gaps() {
+            return gaps;
+        }
+    }
+
+    public record Batch(List<Change> changes, Cursor next) {
+    }
+
+    private static final int GAP_SCAN = 256;
+    private static final long GAP_TIMEOUT_MILLIS = 60_000;
+    private static final int MAX_BATCH = 5_000;
+    private static final int RETENTION_HOURS = 24;
+    private static final int PRUNE_CHUNK = 10_000;
+
+    private final ConnectionPool pool;
+    private final ScheduledExecutorService pruner;
+
+    public ChangeLog(ConnectionPool pool) {
+        this.pool = pool;
+        this.pruner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "change-log-prune");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void startPruning() {
+        pruner.scheduleWithFixedDelay(() -> {
+            try {
+                prune();
+            } catch (SQLException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, 1, 60, TimeUnit.MINUTES);
+    }
+
+    // Runs read in one read-only REPEATABLE READ transaction, so all its queries see the same snapshot
+    public <T> T inSnapshot(BookingService.Transaction<T> read) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            int isolation = conn.getTransactionIsolation();
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            conn.setAutoCommit(false);
+            try {
+                T result = read.run(conn);
+                conn.commit();
+                return result;
+            } finally {
+                conn.setAutoCommit(true);
+                conn.setTransactionIsolation(isolation);
+            }
+        }
+    }
+
+    // A cursor positioned at the end of the log as conn currently sees it
+    public Cursor mark(Connection conn) throws SQLException {
+        long highWaterMark;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(change_id), 0) FROM change_log")) {
+            rs.next();
+            highWaterMark = rs.getLong(1);
+        }
+        // Ids just below the mark may belong to transactions that have not committed yet
+        Set<Long> present = new HashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT change_id FROM change_log WHERE change_id > ?")) {
+            stmt.setLong(1, highWaterMark - GAP_SCAN);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    present.add(rs.getLong(1));
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        Map<Long, Long> gaps = new HashMap<>();
+        for (long id = Math.max(1, highWaterMark - GAP_SCAN + 1); id <= highWaterMark; id++) {
+            if (!present.contains(id)) {
+                gaps.put(id, now);
+            }
+        }
+        return new Cursor(highWaterMark, Collections.unmodifiableMap(gaps), now);
+    }
+
+    /*
+    A cursor continuing from the high-water mark and gaps a reader saved at
+    savedAtMillis, e.g. in a file, or null if it has to reload because the log
+    may have been pruned past it. The saved gaps are checked once more on the
+    first poll however old they are.
+    */
+    public Cursor resume(Connection conn, long highWaterMark, Map<Long, Long> gaps, long savedAtMillis)
+            throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - savedAtMillis > TimeUnit.HOURS.toMillis(RETENTION_HOURS) / 2) {
+            return null;
+        }
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MIN(change_id) FROM change_log")) {
+            rs.next();
+            long oldest = rs.getLong(1);
+            if (!rs.wasNull() && oldest > highWaterMark + 1) {
+                return null;
+            }
+        }
+        return new Cursor(highWaterMark, Collections.unmodifiableMap(new HashMap<>(gaps)), now);
+    }
+
+    private static void readChanges(ResultSet rs, List<Change> changes) throws SQLException {
+        while (rs.next()) {
+            changes.add(new Change(rs.getLong(1), rs.getString(2), rs.getInt(3), rs.getString(4).charAt(0)));
+        }
+    }
+
+    // Changes after cursor in change_id order, or null if the reader has to reload instead
+    public Batch poll(Connection conn, Cursor cursor) throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - cursor.polledAtMillis > TimeUnit.HOURS.toMillis(RETENTION_HOURS) / 2) {
+            return null;
+        }
+        List<Change> changes = new ArrayList<>();
+        if (cursor.gaps.isEmpty()) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT change_id, table_name, row_id, op FROM change_log WHERE change_id > ? "
+                    + "ORDER BY change_id LIMIT " + (MAX_BATCH + 1))) {
+                stmt.setLong(1, cursor.highWaterMark);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    readChanges(rs, changes);
+                }
+            }
+        } else {
+            StringBuilder sql = new StringBuilder("SELECT change_id, table_name, row_id, op FROM change_log WHERE ")
+                .append("change_id > ").append(cursor.highWaterMark).append(" OR change_id IN (");
+            boolean first = true;
+            for (long id : cursor.gaps.keySet()) {
+                sql.append(first ? "" : ",").append(id);
+                first = false;
+            }
+            sql.append(") ORDER BY change_id LIMIT ").append(MAX_BATCH + 1);
+            // Inlined ids: a prepared statement per distinct set of gaps would only churn the statement cache
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql.toString())) {
+                readChanges(rs, changes);
+            }
+        }
+        if (changes.size() > MAX_BATCH) {
+            return null;
+        }
+
+        Map<Long, Long> gaps = new HashMap<>();
+        for (Map.Entry<Long, Long> gap : cursor.gaps.entrySet()) {
+            if (now - gap.getValue() < GAP_TIMEOUT_MILLIS) {
+                gaps.put(gap.getKey(), gap.getValue());
+            }
+        }
+        long highWaterMark = cursor.highWaterMark;
+        for (Change change : changes) {
+            gaps.remove(change.changeId());
+            // A long run of missing ids comes from a large rollback, not from open transactions
+            for (long id = Math.max(highWaterMark + 1, change.changeId() - GAP_SCAN); id < change.changeId(); id++) {
+                gaps.put(id, now);
+            }
+            highWaterMark = Math.max(highWaterMark, change.changeId());
+        }
+        return new Batch(changes, new Cursor(highWaterMark, Collections.unmodifiableMap(gaps), now));
+    }
+
+    // Deletes expired entries a chunk at a time, walking the primary key from the oldest
+    public void prune() throws SQLException {
+        Timestamp cutoff = new Timestamp(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(RETENTION_HOURS));
+        try (Connection conn = pool.getConnection();
+             PreparedStatement probe = conn.prepareStatement(
+                 "SELECT change_id, changed_at FROM change_log ORDER BY change_id LIMIT 1 OFFSET " + (PRUNE_CHUNK - 1));
+             PreparedStatement deleteChunk = conn.prepareStatement(
+                 "DELETE FROM change_log WHERE change_id <= ? AND changed_at < ?")) {
+            while (true) {
+                long lastId;
+                boolean wholeChunkExpired;
+                try (ResultSet rs = probe.executeQuery()) {
+                    if (rs.next()) {
+                        lastId = rs.getLong(1);
+                        wholeChunkExpired = rs.getTimestamp(2).before(cutoff);
+                    } else {
+                        lastId = Long.MAX_VALUE;
+                        wholeChunkExpired = false;
+                    }
+                }
+                deleteChunk.setLong(1, lastId);
+                deleteChunk.setTimestamp(2, cutoff);
+                deleteChunk.executeUpdate();
+                if (!wholeChunkExpired) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        pruner.shutdownNow();
+    }
+}
@@ -0,0 +1,707 @@
+// Theatre Management System
+// JDBC Connection Pool
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+A small fixed-bounds connection pool.
+
+Connections handed out are wrappers (see DelegatingConnection): close()
+returns the physical connection to the pool after resetting auto-commit, so
+callers just use try-with-resources.
+Idle connections are validated on borrow and replaced transparently when the
+server has dropped them; new connections are opened with exponential backoff
+until the borrow timeout runs out. A housekeeping thread evicts connections
+idle past the idle timeout, tops the pool back up to its minimum size and,
+when a leak threshold is set, reports connections held longer than that with
+the stack that borrowed them. Recording that stack costs every borrow, so
+leak detection is off unless asked for:
+   -Dtheatre.pool.leakThresholdMillis=60000
+
+Each physical connection also keeps its recently used prepared statements.
+prepareStatement(sql) hands back an idle one for the same SQL when there is
+one, and closing it resets it and returns it to that cache, so code keeps
+closing statements with try-with-resources while each is only prepared once
+per connection. With useServerPrepStmts in the URL that also means one
+server-side prepare instead of one per call.
+
+Statements handed out, cached or plain, time their execute calls into
+Metrics per SQL statement along with update counts and rows read, and the
+time spent waiting for a connection goes into the pool.wait histogram.
+*/
+public class ConnectionPool implements AutoCloseable {
+
+    public record Stats(int total, int active, int idle, int waiting, long borrows,
+                        long timeouts, double avgWaitMillis, double maxWaitMillis,
+                        long created, long destroyed, long validationFailures,
+                        long reconnectAttempts, long leaksDetected, long statementsPrepared,
+                        long statementCacheHits) {
+        @Override
+        public String toString() {
+            return String.format(
+                "active %d/%d, idle %d, waiting %d, avg wait %.1f ms, max wait %.1f ms, timeouts %d, leaks %d, "
+                + "statements prepared %d, reused %d",
+                active, total, idle, waiting, avgWaitMillis, maxWaitMillis, timeouts, leaksDetected,
+                statementsPrepared, statementCacheHits);
+        }
+    }
+
+    private static final long HOUSEKEEPING_INTERVAL_MILLIS = 5_000;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private volatile long borrowTimeoutMillis = 10_000;
+    private volatile long idleTimeoutMillis = 5 * 60_000;
+    private volatile long leakThresholdMillis = Long.getLong("theatre.pool.leakThresholdMillis", 0);
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final AtomicInteger total = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong reconnectAttempts = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+    private final AtomicLong statementsPrepared = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final LatencyHistogram waitLatency = Metrics.global().histogram("pool.wait");
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize) throws SQLException {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        // Fail fast like a plain DriverManager connection would if the server is unreachable
+        for (int i = 0; i < minSize; i++) {
+            idle.offerFirst(new PooledConnection(openPhysical()));
+            total.incrementAndGet();
+        }
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, HOUSEKEEPING_INTERVAL_MILLIS,
+            HOUSEKEEPING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setBorrowTimeoutMillis(long millis) {
+        this.borrowTimeoutMillis = millis;
+    }
+
+    public void setIdleTimeoutMillis(long millis) {
+        this.idleTimeoutMillis = millis;
+    }
+
+    // 0 turns leak detection off; connections borrowed while it was off are reported without a stack
+    public void setLeakThresholdMillis(long millis) {
+        this.leakThresholdMillis = millis;
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+
+        waiting.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis
+                    + " ms waiting for a database connection (" + getStats() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        try {
+            PooledConnection pooled = takeValidIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(openPhysical(deadline));
+                total.incrementAndGet();
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowStack = leakThresholdMillis > 0
+                ? new Throwable("Connection borrowed by " + Thread.currentThread().getName()) : null;
+            borrowed.add(pooled);
+            recordWait(System.nanoTime() - start);
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeValidIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isValid(pooled)) {
+                return pooled;
+            }
+            validationFailures.incrementAndGet();
+            destroy(pooled);
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return !pooled.broken && pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection openPhysical() throws SQLException {
+        return openPhysical(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis));
+    }
+
+    // Retries with exponential backoff until the deadline so a server restart is ridden out
+    private Connection openPhysical(long deadlineNanos) throws SQLException {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        while (true) {
+            try {
+                Connection physical = DriverManager.getConnection(url, user, password);
+                created.incrementAndGet();
+                return physical;
+            } catch (SQLException e) {
+                reconnectAttempts.incrementAndGet();
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (closed || remainingMillis <= 0) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(Math.min(backoff, remainingMillis));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        try {
+            if (!pooled.broken && !pooled.physical.getAutoCommit()) {
+                // Never hand out a connection with a half-finished transaction
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            pooled.broken = true;
+        }
+
+        if (pooled.broken || closed) {
+            destroy(pooled);
+        } else {
+            pooled.lastUsedAt = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        }
+        permits.release();
+    }
+
+    private void destroy(PooledConnection pooled) {
+        total.decrementAndGet();
+        destroyed.incrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException ignored) {
+            // Already unusable
+        }
+    }
+
+    private void recordWait(long nanos) {
+        borrows.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        waitLatency.record(nanos);
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            // Evict from the cold end of the deque while above the minimum size
+            PooledConnection oldest;
+            while (total.get() > minSize && (oldest = idle.peekLast()) != null
+                    && now - oldest.lastUsedAt > idleTimeoutMillis) {
+                if (idle.removeLastOccurrence(oldest)) {
+                    destroy(oldest);
+                }
+            }
+
+            while (!closed && total.get() < minSize) {
+                idle.offerLast(new PooledConnection(openPhysical()));
+                total.incrementAndGet();
+            }
+
+            long leakThreshold = leakThresholdMillis;
+            for (PooledConnection pooled : borrowed) {
+                if (leakThreshold > 0 && !pooled.leakReported && now - pooled.borrowedAt > leakThreshold) {
+                    pooled.leakReported = true;
+                    leaksDetected.incrementAndGet();
+                    System.err.println("Possible connection leak: held for "
+                        + (now - pooled.borrowedAt) + " ms");
+                    Throwable stack = pooled.borrowStack;
+                    if (stack != null) {
+                        stack.printStackTrace();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            // Database still down; the next borrow or pass will retry
+            e.printStackTrace();
+        }
+    }
+
+    public Stats getStats() {
+        long borrowCount = borrows.get();
+        int active = borrowed.size();
+        return new Stats(total.get(), active, idle.size(), waiting.get(), borrowCount,
+            timeouts.get(),
+            borrowCount == 0 ? 0 : totalWaitNanos.get() / 1e6 / borrowCount,
+            maxWaitNanos.get() / 1e6,
+            created.get(), destroyed.get(), validationFailures.get(),
+            reconnectAttempts.get(), leaksDetected.get(), statementsPrepared.get(), statementCacheHits.get());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    private static boolean isConnectionError(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && state.startsWith("08");
+    }
+
+    // Marks the connection broken if e is a connection error; returns e for the caller to throw
+    private static SQLException failed(PooledConnection pooled, SQLException e) {
+        if (isConnectionError(e)) {
+            pooled.broken = true;
+        }
+        return e;
+    }
+
+    // Runs an execute call and records its time and update count
+    private static <R> R timed(Metrics.StatementStats stats, PooledConnection pooled,
+                               DelegatingStatement.Execution<R> execution) throws SQLException {
+        long start = System.nanoTime();
+        R result;
+        try {
+            result = execution.run();
+        } catch (SQLException e) {
+            stats.error();
+            throw failed(pooled, e);
+        } catch (RuntimeException e) {
+            stats.error();
+            throw e;
+        }
+        stats.record(System.nanoTime() - start, updateCount(result));
+        return result;
+    }
+
+    // Adds the rows read from results to the statement's figures when it is closed
+    private static ResultSet counted(ResultSet results, Metrics.StatementStats stats) {
+        return new CountingResultSet(results, stats);
+    }
+
+    private static long updateCount(Object result) {
+        long rows = 0;
+        if (result instanceof Integer || result instanceof Long) {
+            rows = ((Number) result).longValue();
+        } else if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                rows += Math.max(count, 0);
+            }
+        } else if (result instanceof long[]) {
+            for (long count : (long[]) result) {
+                rows += Math.max(count, 0);
+            }
+        }
+        return Math.max(rows, 0);
+    }
+
+    private final class PooledConnection {
+        final Connection physical;
+        volatile long lastUsedAt = System.currentTimeMillis();
+        volatile long borrowedAt;
+        volatile boolean broken;
+        volatile boolean leakReported;
+        // Only recorded while leak detection is on
+        volatile Throwable borrowStack;
+
+        // Prepared statements not currently in use, keyed by SQL, least recently used first
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection newHandle() {
+            leakReported = false;
+            return new Handle(this);
+        }
+
+        // A cached statement if one is idle, otherwise a new one; either way close() hands it back
+        PreparedStatement prepare(Handle owner, String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys + ":" + sql;
+            PreparedStatement statement;
+            synchronized (statements) {
+                statement = statements.remove(key);
+            }
+            if (statement != null) {
+                statementCacheHits.incrementAndGet();
+            } else {
+                try {
+                    statement = physical.prepareStatement(sql, autoGeneratedKeys);
+                } catch (SQLException e) {
+                    throw failed(this, e);
+                }
+                statementsPrepared.incrementAndGet();
+            }
+            return new CachedStatement(owner, this, key, sql, statement);
+        }
+
+        // Resets a statement its user closed and keeps it for the next prepare of the same SQL
+        void giveBack(Handle owner, String key, PreparedStatement statement) {
+            List<PreparedStatement> toClose = new ArrayList<>();
+            try {
+                if (broken || !owner.isOpen() || statement.isClosed()) {
+                    // The connection went back to the pool first; it may already be someone else's
+                    toClose.add(statement);
+                } else {
+                    ResultSet open = statement.getResultSet();
+                    if (open != null) {
+                        open.close();
+                    }
+                    statement.clearParameters();
+                    statement.clearBatch();
+                    statement.clearWarnings();
+                    if (statement.getFetchSize() != 0) {
+                        statement.setFetchSize(0);
+                    }
+                    synchronized (statements) {
+                        PreparedStatement previous = statements.put(key, statement);
+                        if (previous != null) {
+                            toClose.add(previous);
+                        }
+                        Iterator<PreparedStatement> eldest = statements.values().iterator();
+                        while (statements.size() > STATEMENT_CACHE_SIZE) {
+                            toClose.add(eldest.next());
+                            eldest.remove();
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                toClose.add(statement);
+            }
+            for (PreparedStatement stale : toClose) {
+                try {
+                    stale.close();
+                } catch (SQLException ignored) {
+                    // Closed along with the connection anyway
+                }
+            }
+        }
+    }
+
+    // One handle per borrow, so a stale reference cannot touch a connection after close()
+    private final class Handle extends DelegatingConnection {
+        private PooledConnection pooled;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        boolean isOpen() {
+            return pooled != null;
+        }
+
+        private PooledConnection current() throws SQLException {
+            PooledConnection current = pooled;
+            if (current == null) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            return current;
+        }
+
+        @Override
+        protected Connection target() throws SQLException {
+            return current().physical;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (pooled != null) {
+                    PooledConnection released = pooled;
+                    pooled = null;
+                    release(released);
+                }
+            }
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            PooledConnection current = pooled;
+            return current == null || current.physical.isClosed();
+        }
+
+        @Override
+        public String toString() {
+            PooledConnection current = pooled;
+            return "PooledConnection[" + (current == null ? "closed" : current.physical) + "]";
+        }
+
+        // prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) go through the statement cache
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            return current().prepare(this, sql, Statement.NO_GENERATED_KEYS);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+            return current().prepare(this, sql, autoGeneratedKeys);
+        }
+
+        @Override
+        public Statement createStatement() throws SQLException {
+            PooledConnection current = current();
+            try {
+                return new TimedStatement(current, current.physical.createStatement());
+            } catch (SQLException e) {
+                throw failed(current, e);
+            }
+        }
+
+        @Override
+        public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+            PooledConnection current = current();
+            try {
+                return new TimedStatement(current, current.physical.createStatement(resultSetType,
+                    resultSetConcurrency));
+            } catch (SQLException e) {
+                throw failed(current, e);
+            }
+        }
+
+        @Override
+        public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+                throws SQLException {
+            PooledConnection current = current();
+            try {
+                return new TimedStatement(current, current.physical.createStatement(resultSetType,
+                    resultSetConcurrency, resultSetHoldability));
+            } catch (SQLException e) {
+                throw failed(current, e);
+            }
+        }
+
+        // Where a dropped connection shows up outside statements; release() must not reuse it
+
+        @Override
+        public void setAutoCommit(boolean autoCommit) throws SQLException {
+            PooledConnection current = current();
+            try {
+                current.physical.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                throw failed(current, e);
+            }
+        }
+
+        @Override
+        public void commit() throws SQLException {
+            PooledConnection current = current();
+            try {
+                current.physical.commit();
+            } catch (SQLException e) {
+                throw failed(current, e);
+            }
+        }
+
+        @Override
+        public void rollback() throws SQLException {
+            PooledConnection current = current();
+            try {
+                current.physical.rollback();
+            } catch (SQLException e) {
+                throw failed(current, e);
+            }
+        }
+
+        @Override
+        public void rollback(Savepoint savepoint) throws SQLException {
+            PooledConnection current = current();
+            try {
+                current.physical.rollback(savepoint);
+            } catch (SQLException e) {
+                throw failed(current, e);
+            }
+        }
+    }
+
+    // The user's view of a cached statement: close() returns it to the connection's cache
+    private static final class CachedStatement extends DelegatingPreparedStatement {
+        private final Handle owner;
+        private final PooledConnection pooled;
+        private final String key;
+        private final PreparedStatement statement;
+        private final Metrics.StatementStats stats;
+        private boolean closed;
+
+        CachedStatement(Handle owner, PooledConnection pooled, String key, String sql, PreparedStatement statement) {
+            super(statement);
+            this.owner = owner;
+            this.pooled = pooled;
+            this.key = key;
+            this.statement = statement;
+            this.stats = Metrics.global().statement(sql);
+        }
+
+        @Override
+        protected PreparedStatement target() throws SQLException {
+            if (closed) {
+                throw new SQLException("Statement has already been closed");
+            }
+            return statement;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                pooled.giveBack(owner, key, statement);
+            }
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return closed || statement.isClosed();
+        }
+
+        @Override
+        protected <R> R executed(String sql, Execution<R> execution) throws SQLException {
+            return timed(stats, pooled, execution);
+        }
+
+        @Override
+        protected ResultSet results(ResultSet results) {
+            return counted(results, stats);
+        }
+    }
+
+    // A plain Statement, timed per SQL string; batches are recorded under one shared name
+    private static final class TimedStatement extends DelegatingStatement<Statement> {
+        private final PooledConnection pooled;
+        private Metrics.StatementStats stats;
+
+        TimedStatement(PooledConnection pooled, Statement statement) {
+            super(statement);
+            this.pooled = pooled;
+        }
+
+        @Override
+        protected <R> R executed(String sql, Execution<R> execution) throws SQLException {
+            stats = Metrics.global().statement(sql == null ? "(statement batch)" : sql);
+            return timed(stats, pooled, execution);
+        }
+
+        @Override
+        protected ResultSet results(ResultSet results) {
+            return counted(results, stats);
+        }
+    }
+
+    // Counts rows as they are read and adds them to the statement's figures on close
+    private static final class CountingResultSet extends DelegatingResultSet {
+        private final Metrics.StatementStats stats;
+        private long rows;
+        private boolean counted;
+
+        CountingResultSet(ResultSet results, Metrics.StatementStats stats) {
+            super(results);
+            this.stats = stats;
+        }
+
+        @Override
+        public boolean next() throws SQLException {
+            boolean more = super.next();
+            if (more) {
+                rows++;
+            }
+            return more;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                super.close();
+            } finally {
+                if (!counted) {
+                    counted = true;
+                    stats.addRows(rows);
+                }
+            }
+        }
+    }
+}
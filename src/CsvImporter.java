@@ -0,0 +1,685 @@
+// Theatre Management System
+// Streaming CSV Importer
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/*
+Bulk loads customers, theatres or shows from CSV files with a header row.
+
+Records are parsed one at a time, so memory stays flat however large the file
+is. Valid rows are inserted in JDBC batches and committed every
+COMMIT_INTERVAL rows; after each commit the number of records consumed is
+written to <file>.checkpoint, and a rerun resumes after that record.
+Customer emails are checked against the table (and earlier rows of the same
+file) one batch at a time through the email UNIQUE index; shows are checked
+a batch at a time against the ShowSchedule for overlaps in their theatre,
+brought up to date once the batch's theatres are locked so shows other
+terminals have just saved are seen too. Given a BookingService, each committed
+show's starting seat count is journalled, as adding a show by hand does.
+Rejected rows are
+appended to <file>.rejected.csv with the reason in an extra column, flushed
+together with each commit so a resumed run never reports a row twice.
+
+Command line:
+   java -cp ".:lib/mysql-connector-j-8.x.x.jar" CsvImporter customers|theatres|shows file.csv [url user password]
+*/
+public class CsvImporter {
+
+    public enum Table { CUSTOMERS, THEATRES, SHOWS }
+
+    public record Progress(long recordsRead, long inserted, long rejected, double rowsPerSecond) {
+        @Override
+        public String toString() {
+            return String.format("%,d read, %,d inserted, %,d rejected, %,.0f rows/sec",
+                recordsRead, inserted, rejected, rowsPerSecond);
+        }
+    }
+
+    static final int BATCH_SIZE = 1_000;
+    static final int COMMIT_INTERVAL = 20_000;
+
+    private final ConnectionPool pool;
+    private final SeatInventory seatInventory;
+    private final ShowSchedule schedule;
+    private final BookingService bookingService;
+
+    public CsvImporter(ConnectionPool pool, SeatInventory seatInventory, ShowSchedule schedule) {
+        this(pool, seatInventory, schedule, null);
+    }
+
+    // bookingService may be null, in which case imported shows are not journalled
+    public CsvImporter(ConnectionPool pool, SeatInventory seatInventory, ShowSchedule schedule,
+                       BookingService bookingService) {
+        this.pool = pool;
+        this.seatInventory = seatInventory;
+        this.schedule = schedule;
+        this.bookingService = bookingService;
+    }
+
+    public Progress importFile(Table table, Path csv, Consumer<Progress> progress) throws IOException, SQLException {
+        Path checkpoint = csv.resolveSibling(csv.getFileName() + ".checkpoint");
+        Path rejectsFile = csv.resolveSibling(csv.getFileName() + ".rejected.csv");
+        long resumeAfter = Files.exists(checkpoint)
+            ? Long.parseLong(Files.readString(checkpoint, StandardCharsets.UTF_8).trim()) : 0;
+
+        long start = System.nanoTime();
+        long read = 0;
+        long inserted = 0;
+        long rejected = 0;
+
+        try (BufferedReader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8);
+             Connection conn = pool.getConnection()) {
+            CsvReader reader = new CsvReader(in);
+            List<String> header = reader.next();
+            if (header == null) {
+                return new Progress(0, 0, 0, 0);
+            }
+            header = new ArrayList<>(header);
+            RowWriter writer = newWriter(table, conn, indexOf(header));
+
+            List<String> pendingRejects = new ArrayList<>();
+            List<String> record;
+            conn.setAutoCommit(false);
+            try {
+                while ((record = reader.next()) != null) {
+                    read++;
+                    if (read <= resumeAfter) {
+                        continue;
+                    }
+                    String error = writer.add(record);
+                    if (error != null) {
+                        pendingRejects.add(toCsv(record, error));
+                    }
+                    if (writer.pending() >= BATCH_SIZE) {
+                        writer.flush(pendingRejects);
+                    }
+                    if ((read - resumeAfter) % COMMIT_INTERVAL == 0) {
+                        writer.flush(pendingRejects);
+                        conn.commit();
+                        inserted += writer.takeInserted();
+                        rejected += pendingRejects.size();
+                        appendRejects(rejectsFile, header, pendingRejects);
+                        Files.writeString(checkpoint, Long.toString(read), StandardCharsets.UTF_8);
+                        if (progress != null) {
+                            progress.accept(progressOf(read, inserted, rejected, resumeAfter, start));
+                        }
+                    }
+                }
+                writer.flush(pendingRejects);
+                conn.commit();
+                inserted += writer.takeInserted();
+                rejected += pendingRejects.size();
+                appendRejects(rejectsFile, header, pendingRejects);
+            } catch (SQLException | IOException | RuntimeException e) {
+                // Before setAutoCommit(true) below, which would commit the open batch
+                conn.rollback();
+                writer.rolledBack();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+                writer.close();
+            }
+        }
+
+        // Finished cleanly, so the next import of this file starts from the top
+        Files.deleteIfExists(checkpoint);
+        Progress done = progressOf(read, inserted, rejected, resumeAfter, start);
+        if (progress != null) {
+            progress.accept(done);
+        }
+        return done;
+    }
+
+    private static Progress progressOf(long read, long inserted, long rejected, long resumeAfter, long start) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        return new Progress(read, inserted, rejected, (read - resumeAfter) / seconds);
+    }
+
+    private void appendRejects(Path file, List<String> header, List<String> rejects) throws IOException {
+        if (rejects.isEmpty()) {
+            return;
+        }
+        boolean writeHeader = !Files.exists(file);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (writeHeader) {
+                out.write(toCsv(header, "reason"));
+            }
+            for (String line : rejects) {
+                out.write(line);
+            }
+        }
+        rejects.clear();
+    }
+
+    private static Map<String, Integer> indexOf(List<String> header) {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(header.get(i).trim().toLowerCase(), i);
+        }
+        return columns;
+    }
+
+    private RowWriter newWriter(Table table, Connection conn, Map<String, Integer> columns) throws SQLException {
+        switch (table) {
+            case CUSTOMERS:
+                return new CustomerWriter(conn, columns);
+            case THEATRES:
+                return new TheatreWriter(conn, columns);
+            default:
+                return new ShowWriter(conn, columns);
+        }
+    }
+
+    // Validates and buffers rows for one table; flush() writes them as a JDBC batch
+    private abstract static class RowWriter {
+        final Connection conn;
+        final Map<String, Integer> columns;
+        final PreparedStatement insert;
+        final String counter;
+        int pending;
+        long inserted;
+
+        RowWriter(Connection conn, Map<String, Integer> columns, String counter, String sql,
+                  String... required) throws SQLException {
+            for (String column : required) {
+                if (!columns.containsKey(column)) {
+                    throw new SQLException("CSV header is missing column '" + column + "'");
+                }
+            }
+            this.conn = conn;
+            this.columns = columns;
+            this.counter = counter;
+            this.insert = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        }
+
+        String field(List<String> record, String column) {
+            Integer index = columns.get(column);
+            if (index == null || index >= record.size()) {
+                return null;
+            }
+            String value = record.get(index).trim();
+            return value.isEmpty() ? null : value;
+        }
+
+        // Returns a rejection reason, or null if the row was queued
+        abstract String add(List<String> record) throws SQLException;
+
+        // Executes the queued batch; rows rejected at write time are added to rejects
+        void flush(List<String> rejects) throws SQLException {
+            if (pending > 0) {
+                insert.executeBatch();
+                afterBatch();
+                StatisticsService.add(conn, counter, pending);
+                inserted += pending;
+                pending = 0;
+            }
+        }
+
+        void afterBatch() throws SQLException {
+        }
+
+        // Undoes any bookkeeping for rows inserted since the last commit
+        void rolledBack() {
+        }
+
+        int pending() {
+            return pending;
+        }
+
+        long takeInserted() {
+            long count = inserted;
+            inserted = 0;
+            return count;
+        }
+
+        void close() throws SQLException {
+            insert.close();
+        }
+    }
+
+    private static final class CustomerWriter extends RowWriter {
+        // Emails and rows of the current batch, checked against the table at flush time
+        private final Set<String> batchEmails = new HashSet<>();
+        private final List<String[]> batchRows = new ArrayList<>();
+        private final List<List<String>> batchRecords = new ArrayList<>();
+
+        CustomerWriter(Connection conn, Map<String, Integer> columns) throws SQLException {
+            super(conn, columns, StatisticsService.CUSTOMERS,
+                "INSERT INTO customers (name, email, phone) VALUES (?, ?, ?)", "name");
+        }
+
+        @Override
+        String add(List<String> record) {
+            String name = field(record, "name");
+            String email = field(record, "email");
+            String phone = field(record, "phone");
+            if (name == null) {
+                return "name is required";
+            }
+            if (name.length() > 100) {
+                return "name longer than 100 characters";
+            }
+            if (email != null) {
+                email = email.toLowerCase();
+                if (email.length() > 100 || email.indexOf('@') <= 0) {
+                    return "invalid email";
+                }
+                if (!batchEmails.add(email)) {
+                    return "duplicate email";
+                }
+            }
+            if (phone != null && phone.length() > 15) {
+                return "phone longer than 15 characters";
+            }
+            batchRows.add(new String[]{name, email, phone});
+            batchRecords.add(new ArrayList<>(record));
+            pending++;
+            return null;
+        }
+
+        @Override
+        void flush(List<String> rejects) throws SQLException {
+            if (batchRows.isEmpty()) {
+                return;
+            }
+            Set<String> existing = existingEmails();
+            for (int i = 0; i < batchRows.size(); i++) {
+                String[] row = batchRows.get(i);
+                if (row[1] != null && existing.contains(row[1])) {
+                    rejects.add(toCsv(batchRecords.get(i), "duplicate email"));
+                    pending--;
+                    continue;
+                }
+                insert.setString(1, row[0]);
+                insert.setString(2, row[1]);
+                insert.setString(3, row[2]);
+                insert.addBatch();
+            }
+            batchEmails.clear();
+            batchRows.clear();
+            batchRecords.clear();
+            super.flush(rejects);
+        }
+
+        /*
+        One indexed lookup per batch; sees rows inserted earlier in this
+        transaction. The IN list is padded to a power of two by repeating the
+        last email, so a whole import uses a handful of statements the
+        connection's statement cache can keep rather than one per batch size.
+        */
+        private Set<String> existingEmails() throws SQLException {
+            Set<String> existing = new HashSet<>();
+            if (batchEmails.isEmpty()) {
+                return existing;
+            }
+            int slots = 1;
+            while (slots < batchEmails.size()) {
+                slots <<= 1;
+            }
+            StringBuilder sql = new StringBuilder("SELECT LOWER(email) FROM customers WHERE email IN (");
+            for (int i = 0; i < slots; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            sql.append(')');
+            try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+                int index = 1;
+                String last = null;
+                for (String email : batchEmails) {
+                    stmt.setString(index++, email);
+                    last = email;
+                }
+                while (index <= slots) {
+                    stmt.setString(index++, last);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        existing.add(rs.getString(1));
+                    }
+                }
+            }
+            return existing;
+        }
+    }
+
+    private static final class TheatreWriter extends RowWriter {
+        TheatreWriter(Connection conn, Map<String, Integer> columns) throws SQLException {
+            super(conn, columns, StatisticsService.THEATRES,
+                "INSERT INTO theatres (name, location, total_seats) VALUES (?, ?, ?)",
+                "name", "total_seats");
+        }
+
+        @Override
+        String add(List<String> record) throws SQLException {
+            String name = field(record, "name");
+            String location = field(record, "location");
+            if (name == null) {
+                return "name is required";
+            }
+            if (name.length() > 100 || (location != null && location.length() > 200)) {
+                return "name or location too long";
+            }
+            int seats;
+            try {
+                seats = Integer.parseInt(field(record, "total_seats"));
+            } catch (NumberFormatException e) {
+                return "total_seats is not a number";
+            }
+            if (seats <= 0) {
+                return "total_seats must be positive";
+            }
+            insert.setString(1, name);
+            insert.setString(2, location);
+            insert.setInt(3, seats);
+            insert.addBatch();
+            pending++;
+            return null;
+        }
+    }
+
+    private final class ShowWriter extends RowWriter {
+        private final Map<Integer, Integer> theatreSeats = new HashMap<>();
+        // Rows of the current batch, checked against the schedule at flush time
+        private final List<Object[]> batchRows = new ArrayList<>();
+        private final List<List<String>> batchRecords = new ArrayList<>();
+        private final List<ShowSchedule.Slot> batchSlots = new ArrayList<>();
+        private final List<Integer> batchTheatres = new ArrayList<>();
+        private final List<ShowSchedule.Slot> insertedSlots = new ArrayList<>();
+        private final List<Integer> uncommitted = new ArrayList<>();
+        private final List<BookingJournal.Event> uncommittedEvents = new ArrayList<>();
+
+        ShowWriter(Connection conn, Map<String, Integer> columns) throws SQLException {
+            super(conn, columns, StatisticsService.SHOWS, """
+                INSERT INTO shows (title, description, genre, duration_minutes, ticket_price,
+                theatre_id, show_date, show_time, available_seats) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+                """, "title", "theatre_id");
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT theatre_id, total_seats FROM theatres")) {
+                while (rs.next()) {
+                    theatreSeats.put(rs.getInt(1), rs.getInt(2));
+                }
+            }
+            schedule.refresh();
+        }
+
+        @Override
+        String add(List<String> record) throws SQLException {
+            String title = field(record, "title");
+            if (title == null || title.length() > 150) {
+                return "title is required and at most 150 characters";
+            }
+            String genre = field(record, "genre");
+            if (genre != null && genre.length() > 50) {
+                return "genre longer than 50 characters";
+            }
+            int theatreId;
+            int duration;
+            double price;
+            Date date;
+            Time time;
+            try {
+                theatreId = Integer.parseInt(field(record, "theatre_id"));
+                String durationText = field(record, "duration_minutes");
+                duration = durationText == null ? 0 : Integer.parseInt(durationText);
+                String priceText = field(record, "ticket_price");
+                price = priceText == null ? 0.0 : Double.parseDouble(priceText);
+            } catch (NumberFormatException e) {
+                return "theatre_id, duration_minutes or ticket_price is not a number";
+            }
+            if (duration > ShowRepository.MAX_DURATION_MINUTES) {
+                return "duration_minutes is more than " + ShowRepository.MAX_DURATION_MINUTES;
+            }
+            try {
+                String dateText = field(record, "show_date");
+                date = dateText == null ? null : Date.valueOf(dateText);
+                String timeText = field(record, "show_time");
+                time = timeText == null ? null : Time.valueOf(timeText.length() == 5 ? timeText + ":00" : timeText);
+            } catch (IllegalArgumentException e) {
+                return "show_date must be YYYY-MM-DD and show_time HH:MM";
+            }
+            Integer seats = theatreSeats.get(theatreId);
+            if (seats == null) {
+                return "unknown theatre_id";
+            }
+            batchRows.add(new Object[]{title, field(record, "description"), genre, duration, price, theatreId,
+                date, time, seats});
+            batchRecords.add(new ArrayList<>(record));
+            // Unscheduled shows take no slot and cannot conflict
+            batchSlots.add(date == null || time == null || duration <= 0 ? null
+                : schedule.proposal(theatreId, date.toLocalDate().atTime(time.toLocalTime()), duration));
+            pending++;
+            return null;
+        }
+
+        // The whole batch is checked in one pass, against the schedule and against itself
+        @Override
+        void flush(List<String> rejects) throws SQLException {
+            if (batchRows.isEmpty()) {
+                return;
+            }
+            List<ShowSchedule.Slot> proposed = new ArrayList<>();
+            List<Integer> proposedRows = new ArrayList<>();
+            for (int i = 0; i < batchSlots.size(); i++) {
+                if (batchSlots.get(i) != null) {
+                    proposed.add(batchSlots.get(i));
+                    proposedRows.add(i);
+                }
+            }
+            // Locked until the commit, as TheatreManagementSystem does for one show
+            Set<Integer> theatres = new TreeSet<>();
+            for (ShowSchedule.Slot slot : proposed) {
+                theatres.add(slot.theatreId());
+            }
+            TheatreRepository.lockAll(conn, theatres);
+            if (!theatres.isEmpty()) {
+                schedule.refresh();
+            }
+            Map<Integer, ShowSchedule.Slot> clashes = new HashMap<>();
+            for (ShowSchedule.Conflict conflict : schedule.validate(proposed)) {
+                clashes.put(proposedRows.get(conflict.proposal()), conflict.clashesWith());
+            }
+            for (int i = 0; i < batchRows.size(); i++) {
+                ShowSchedule.Slot clash = clashes.get(i);
+                if (clash != null) {
+                    rejects.add(toCsv(batchRecords.get(i), "overlaps " + clash + " in the same theatre"));
+                    pending--;
+                    continue;
+                }
+                Object[] row = batchRows.get(i);
+                insert.setString(1, (String) row[0]);
+                insert.setString(2, (String) row[1]);
+                insert.setString(3, (String) row[2]);
+                insert.setInt(4, (Integer) row[3]);
+                insert.setDouble(5, (Double) row[4]);
+                insert.setInt(6, (Integer) row[5]);
+                if (row[6] == null) {
+                    insert.setNull(7, Types.DATE);
+                } else {
+                    insert.setDate(7, (Date) row[6]);
+                }
+                if (row[7] == null) {
+                    insert.setNull(8, Types.TIME);
+                } else {
+                    insert.setTime(8, (Time) row[7]);
+                }
+                insert.setInt(9, (Integer) row[8]);
+                insert.addBatch();
+                batchTheatres.add((Integer) row[5]);
+                insertedSlots.add(batchSlots.get(i));
+            }
+            batchRows.clear();
+            batchRecords.clear();
+            batchSlots.clear();
+            super.flush(rejects);
+        }
+
+        // Every imported show gets its seat map in the same transaction, and its slot in the schedule
+        @Override
+        void afterBatch() throws SQLException {
+            List<Integer> showIds = new ArrayList<>(batchTheatres.size());
+            try (ResultSet keys = insert.getGeneratedKeys()) {
+                while (keys.next()) {
+                    showIds.add(keys.getInt(1));
+                }
+            }
+            seatInventory.createSeatMaps(conn, showIds, batchTheatres);
+            for (int i = 0; i < showIds.size(); i++) {
+                uncommittedEvents.add(BookingJournal.seatsSet(showIds.get(i), theatreSeats.get(batchTheatres.get(i))));
+                ShowSchedule.Slot slot = insertedSlots.get(i);
+                if (slot != null) {
+                    schedule.put(new ShowSchedule.Slot(showIds.get(i), slot.theatreId(), slot.start(),
+                        slot.durationMinutes()));
+                }
+            }
+            uncommitted.addAll(showIds);
+            batchTheatres.clear();
+            insertedSlots.clear();
+        }
+
+        // Called once the rows are committed, so only shows that exist are journalled
+        @Override
+        long takeInserted() {
+            uncommitted.clear();
+            if (bookingService != null) {
+                bookingService.journal(uncommittedEvents);
+            }
+            uncommittedEvents.clear();
+            return super.takeInserted();
+        }
+
+        @Override
+        void rolledBack() {
+            for (int showId : uncommitted) {
+                schedule.remove(showId);
+            }
+            uncommitted.clear();
+            uncommittedEvents.clear();
+        }
+    }
+
+    // Minimal RFC 4180 reader: quoted fields, doubled quotes and line breaks inside quotes
+    static final class CsvReader {
+        private final Reader in;
+        private final List<String> fields = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+        private int peeked = -2;
+
+        CsvReader(Reader in) {
+            this.in = in;
+        }
+
+        private int read() throws IOException {
+            if (peeked != -2) {
+                int c = peeked;
+                peeked = -2;
+                return c;
+            }
+            return in.read();
+        }
+
+        // Returns the next record (reused between calls), or null at end of input
+        List<String> next() throws IOException {
+            fields.clear();
+            field.setLength(0);
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quoted field");
+                    }
+                    if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            peeked = next;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c == '\r' || c == -1) {
+                    if (c == '\r') {
+                        int next = read();
+                        if (next != '\n') {
+                            peeked = next;
+                        }
+                    }
+                    fields.add(field.toString());
+                    return fields;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+    }
+
+    static String toCsv(List<String> record, String extra) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : record) {
+            appendCsv(sb, value);
+            sb.append(',');
+        }
+        appendCsv(sb, extra);
+        return sb.append('\n').toString();
+    }
+
+    private static void appendCsv(StringBuilder sb, String value) {
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+        } else {
+            sb.append(value);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: CsvImporter customers|theatres|shows file.csv [url user password]");
+            System.exit(2);
+        }
+        Table table = Table.valueOf(args[0].toUpperCase());
+        String url = args.length > 2 ? args[2] : "jdbc:mysql://localhost:3306/theatre_management?rewriteBatchedStatements=true";
+        String user = args.length > 3 ? args[3] : "root";
+        String password = args.length > 4 ? args[4] : "12345678";
+
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        try (ConnectionPool pool = new ConnectionPool(url, user, password, 1, 2);
+             ChangeLog changeLog = new ChangeLog(pool)) {
+            Progress result = new CsvImporter(pool, new SeatInventory(pool), new ShowSchedule(changeLog))
+                .importFile(table, Path.of(args[1]), p -> System.out.println(p));
+            System.out.println("Done: " + result);
+        }
+    }
+}
@@ -0,0 +1,438 @@
+// Theatre Management System
+// Customer Prefix Index
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+Type-ahead search over customer names, emails and phone numbers.
+
+Every customer is stored once in a single char[] pool as
+"name\u0001email\u0001phone". A search key is just an (offset, end) pair into
+that pool - one per word of the name, plus the email and the phone - and the
+keys are held in primitive arrays sorted case-insensitively. A prefix lookup
+is a binary search followed by a short forward scan, so it costs the same
+whether there are a thousand customers or a million, and the index needs no
+objects per customer.
+
+The sorted arrays are immutable. Customers added, changed or deleted
+afterwards go into a small TreeMap overlay (and hide their old entries), and
+once the overlay grows past REBUILD_THRESHOLD the index is reloaded in the
+background. Changes made while a load is running are replayed on top of it.
+*/
+public class CustomerIndex {
+
+    public record Customer(int id, String name, String email, String phone) {
+    }
+
+    private static final char SEPARATOR = '\u0001';
+    private static final int REBUILD_THRESHOLD = 50_000;
+
+    private final ConnectionPool pool;
+    private final DbExecutor db;
+
+    private Snapshot base = Snapshot.EMPTY;
+    private boolean loaded;
+    // Overlay: "lowercase key\u0000id" -> id, and the customers behind it
+    private final TreeMap<String, Integer> addedKeys = new TreeMap<>();
+    private final Map<Integer, Customer> added = new HashMap<>();
+    private final Set<Integer> hidden = new HashSet<>();
+    // Changes made while a reload is running, replayed once it lands (null when not reloading)
+    private List<Object> replay;
+    private Runnable loadListener;
+
+    public CustomerIndex(ConnectionPool pool, DbExecutor db) {
+        this.pool = pool;
+        this.db = db;
+    }
+
+    // Called on the EDT whenever a (re)load completes
+    public synchronized void setLoadListener(Runnable listener) {
+        this.loadListener = listener;
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    // Rebuilds the sorted arrays from the customers table in the background
+    public synchronized void reload() {
+        if (replay != null) {
+            return;
+        }
+        replay = new ArrayList<>();
+        db.submit(null, "customers.index", this::load, snapshot -> {
+            Runnable listener;
+            synchronized (this) {
+                base = snapshot;
+                loaded = true;
+                addedKeys.clear();
+                added.clear();
+                hidden.clear();
+                List<Object> pending = replay;
+                replay = null;
+                for (Object change : pending) {
+                    if (change instanceof Customer customer) {
+                        put(customer);
+                    } else {
+                        remove((Integer) change);
+                    }
+                }
+                listener = loadListener;
+            }
+            if (listener != null) {
+                listener.run();
+            }
+        }, e -> {
+            synchronized (this) {
+                replay = null;
+            }
+            e.printStackTrace();
+        });
+    }
+
+    public synchronized void put(Customer customer) {
+        if (replay != null) {
+            replay.add(customer);
+        }
+        removeFromOverlay(customer.id());
+        hidden.add(customer.id());
+        added.put(customer.id(), customer);
+        for (String key : keysOf(customer)) {
+            addedKeys.put(key + '\u0000' + customer.id(), customer.id());
+        }
+        if (added.size() > REBUILD_THRESHOLD) {
+            reload();
+        }
+    }
+
+    public synchronized void remove(int customerId) {
+        if (replay != null) {
+            replay.add(customerId);
+        }
+        removeFromOverlay(customerId);
+        hidden.add(customerId);
+    }
+
+    private void removeFromOverlay(int customerId) {
+        Customer previous = added.remove(customerId);
+        if (previous != null) {
+            for (String key : keysOf(previous)) {
+                addedKeys.remove(key + '\u0000' + customerId);
+            }
+        }
+    }
+
+    // Up to limit customers with a name word, email or phone starting with prefix, in key order
+    public synchronized List<Customer> search(String prefix, int limit) {
+        String needle = lower(prefix.trim());
+        // Key text -> customer for the best candidates from both the arrays and the overlay
+        TreeMap<String, Customer> candidates = new TreeMap<>();
+        Set<Integer> seen = new HashSet<>();
+        for (int k = base.lowerBound(needle); k < base.keyCount() && seen.size() < limit
+                && base.keyStartsWith(k, needle); k++) {
+            int slot = base.keySlot[k];
+            int id = base.slotIds[slot];
+            if (!hidden.contains(id) && seen.add(id)) {
+                candidates.put(base.keyText(k) + '\u0000' + id, base.customer(slot));
+            }
+        }
+        seen.clear();
+        for (Map.Entry<String, Integer> entry : addedKeys.tailMap(needle, true).entrySet()) {
+            if (!entry.getKey().startsWith(needle) || seen.size() >= limit) {
+                break;
+            }
+            if (seen.add(entry.getValue())) {
+                candidates.put(entry.getKey(), added.get(entry.getValue()));
+            }
+        }
+
+        Map<Integer, Customer> results = new LinkedHashMap<>();
+        for (Customer customer : candidates.values()) {
+            if (results.size() == limit) {
+                break;
+            }
+            results.putIfAbsent(customer.id(), customer);
+        }
+        return new ArrayList<>(results.values());
+    }
+
+    // Re-reads the given customers in the background, e.g. after another terminal changed them; null reloads all
+    public void refresh(Set<Integer> customerIds) {
+        if (customerIds == null) {
+            reload();
+            return;
+        }
+        db.submit(null, null, () -> fetch(customerIds), customers -> {
+            synchronized (this) {
+                for (int id : customerIds) {
+                    Customer customer = customers.get(id);
+                    if (customer != null) {
+                        put(customer);
+                    } else {
+                        remove(id);
+                    }
+                }
+            }
+        }, Exception::printStackTrace);
+    }
+
+    private Map<Integer, Customer> fetch(Set<Integer> customerIds) throws SQLException {
+        Map<Integer, Customer> customers = new HashMap<>();
+        StringBuilder ids = new StringBuilder();
+        for (int id : customerIds) {
+            ids.append(ids.length() == 0 ? "" : ",").append(id);
+        }
+        // Inlined ids: a prepared statement per distinct IN list would only churn the statement cache
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                 "SELECT customer_id, name, email, phone FROM customers WHERE customer_id IN (" + ids + ")")) {
+            while (rs.next()) {
+                customers.put(rs.getInt(1), new Customer(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+            }
+        }
+        return customers;
+    }
+
+    private Snapshot load() throws SQLException {
+        Snapshot.Builder builder = new Snapshot.Builder();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                 "SELECT customer_id, name, email, phone FROM customers ORDER BY customer_id")) {
+            // Stream the rows instead of buffering the whole table in the driver
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    builder.add(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static List<String> keysOf(Customer customer) {
+        List<String> keys = new ArrayList<>();
+        String record = recordOf(customer.name(), customer.email(), customer.phone());
+        for (int start : keyStarts(record)) {
+            int end = record.indexOf(SEPARATOR, start);
+            keys.add(lower(record.substring(start, end < 0 ? record.length() : end)));
+        }
+        return keys;
+    }
+
+    // Char by char, to match how the sorted arrays compare
+    private static String lower(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static String recordOf(String name, String email, String phone) {
+        return (name == null ? "" : name) + SEPARATOR + (email == null ? "" : email) + SEPARATOR
+            + (phone == null ? "" : phone);
+    }
+
+    // Each word of the name, the whole email and the whole phone number
+    private static List<Integer> keyStarts(String record) {
+        List<Integer> starts = new ArrayList<>();
+        int nameEnd = record.indexOf(SEPARATOR);
+        for (int i = 0; i < nameEnd; i++) {
+            if (Character.isLetterOrDigit(record.charAt(i))
+                    && (i == 0 || !Character.isLetterOrDigit(record.charAt(i - 1)))) {
+                starts.add(i);
+            }
+        }
+        int emailStart = nameEnd + 1;
+        int phoneStart = record.indexOf(SEPARATOR, emailStart) + 1;
+        if (phoneStart - 1 > emailStart) {
+            starts.add(emailStart);
+        }
+        if (phoneStart < record.length()) {
+            starts.add(phoneStart);
+        }
+        return starts;
+    }
+
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Builder().build();
+
+        final char[] chars;
+        final int[] slotIds;
+        final int[] slotStart;
+        final int[] keyStart;
+        final int[] keyEnd;
+        final int[] keySlot;
+
+        Snapshot(char[] chars, int[] slotIds, int[] slotStart, int[] keyStart, int[] keyEnd, int[] keySlot) {
+            this.chars = chars;
+            this.slotIds = slotIds;
+            this.slotStart = slotStart;
+            this.keyStart = keyStart;
+            this.keyEnd = keyEnd;
+            this.keySlot = keySlot;
+        }
+
+        int keyCount() {
+            return keyStart.length;
+        }
+
+        // First key not ordered before needle (needle is lowercase)
+        int lowerBound(String needle) {
+            int low = 0;
+            int high = keyStart.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compareKey(mid, needle) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int compareKey(int k, String needle) {
+            int start = keyStart[k];
+            int length = keyEnd[k] - start;
+            int n = Math.min(length, needle.length());
+            for (int i = 0; i < n; i++) {
+                int diff = Character.toLowerCase(chars[start + i]) - needle.charAt(i);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return length - needle.length();
+        }
+
+        boolean keyStartsWith(int k, String needle) {
+            int start = keyStart[k];
+            if (keyEnd[k] - start < needle.length()) {
+                return false;
+            }
+            for (int i = 0; i < needle.length(); i++) {
+                if (Character.toLowerCase(chars[start + i]) != needle.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String keyText(int k) {
+            return lower(new String(chars, keyStart[k], keyEnd[k] - keyStart[k]));
+        }
+
+        Customer customer(int slot) {
+            int start = slotStart[slot];
+            int end = slot + 1 < slotStart.length ? slotStart[slot + 1] : chars.length;
+            String[] fields = new String(chars, start, end - start).split(String.valueOf(SEPARATOR), -1);
+            return new Customer(slotIds[slot], fields[0],
+                fields[1].isEmpty() ? null : fields[1], fields[2].isEmpty() ? null : fields[2]);
+        }
+
+        static final class Builder {
+            private final StringBuilder chars = new StringBuilder();
+            private int[] slotIds = new int[1024];
+            private int[] slotStart = new int[1024];
+            private int slots;
+            private int[] keyStart = new int[4096];
+            private int[] keyEnd = new int[4096];
+            private int[] keySlot = new int[4096];
+            private int keys;
+
+            void add(int id, String name, String email, String phone) {
+                String record = recordOf(name, email, phone);
+                int offset = chars.length();
+                if (slots == slotIds.length) {
+                    slotIds = Arrays.copyOf(slotIds, slots * 2);
+                    slotStart = Arrays.copyOf(slotStart, slots * 2);
+                }
+                slotIds[slots] = id;
+                slotStart[slots] = offset;
+                for (int start : keyStarts(record)) {
+                    int end = record.indexOf(SEPARATOR, start);
+                    if (keys == keyStart.length) {
+                        keyStart = Arrays.copyOf(keyStart, keys * 2);
+                        keyEnd = Arrays.copyOf(keyEnd, keys * 2);
+                        keySlot = Arrays.copyOf(keySlot, keys * 2);
+                    }
+                    keyStart[keys] = offset + start;
+                    keyEnd[keys] = offset + (end < 0 ? record.length() : end);
+                    keySlot[keys] = slots;
+                    keys++;
+                }
+                slots++;
+                chars.append(record);
+            }
+
+            Snapshot build() {
+                char[] pool = new char[chars.length()];
+                chars.getChars(0, pool.length, pool, 0);
+                int[] order = new int[keys];
+                for (int i = 0; i < keys; i++) {
+                    order[i] = i;
+                }
+                sort(order, new int[keys], 0, keys, pool);
+                int[] sortedStart = new int[keys];
+                int[] sortedEnd = new int[keys];
+                int[] sortedSlot = new int[keys];
+                for (int i = 0; i < keys; i++) {
+                    sortedStart[i] = keyStart[order[i]];
+                    sortedEnd[i] = keyEnd[order[i]];
+                    sortedSlot[i] = keySlot[order[i]];
+                }
+                return new Snapshot(pool, Arrays.copyOf(slotIds, slots), Arrays.copyOf(slotStart, slots),
+                    sortedStart, sortedEnd, sortedSlot);
+            }
+
+            // Merge sort on key numbers, so no boxing for millions of keys
+            private void sort(int[] order, int[] scratch, int from, int to, char[] pool) {
+                if (to - from < 2) {
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                sort(order, scratch, from, mid, pool);
+                sort(order, scratch, mid, to, pool);
+                if (compare(order[mid - 1], order[mid], pool) <= 0) {
+                    return;
+                }
+                System.arraycopy(order, from, scratch, from, to - from);
+                int i = from;
+                int j = mid;
+                for (int k = from; k < to; k++) {
+                    if (j >= to || (i < mid && compare(scratch[i], scratch[j], pool) <= 0)) {
+                        order[k] = scratch[i++];
+                    } else {
+                        order[k] = scratch[j++];
+                    }
+                }
+            }
+
+            private int compare(int a, int b, char[] pool) {
+                int lengthA = keyEnd[a] - keyStart[a];
+                int lengthB = keyEnd[b] - keyStart[b];
+                int n = Math.min(lengthA, lengthB);
+                for (int i = 0; i < n; i++) {
+                    int diff = Character.toLowerCase(pool[keyStart[a] + i]) - Character.toLowerCase(pool[keyStart[b] + i]);
+                    if (diff != 0) {
+                        return diff;
+                    }
+                }
+                return lengthA - lengthB;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+// Theatre Management System
+// Customer Repository
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+SQL for the customers table. Every method runs on the caller's connection,
+so it joins whatever transaction the caller has open; statements are closed
+as soon as they are used and come back from the pool's statement cache next
+time. Rows are mapped to records by column position.
+*/
+public class CustomerRepository {
+
+    public record Customer(int id, String name, String email, String phone, Timestamp createdAt) {
+    }
+
+    // For KeysetTableModel, which adds its own WHERE and ORDER BY on customer_id
+    public static final String GRID_SELECT = "SELECT customer_id, name, email, phone, created_at FROM customers";
+
+    public static Customer map(ResultSet rs) throws SQLException {
+        return new Customer(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getTimestamp(5));
+    }
+
+    // email and phone may be null; returns the new customer_id
+    public static int insert(Connection conn, String name, String email, String phone) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO customers (name, email, phone) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, name);
+            stmt.setString(2, email);
+            stmt.setString(3, phone);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        }
+    }
+
+    public static int update(Connection conn, int id, String name, String email, String phone) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE customers SET name=?, email=?, phone=? WHERE customer_id=?")) {
+            stmt.setString(1, name);
+            stmt.setString(2, email);
+            stmt.setString(3, phone);
+            stmt.setInt(4, id);
+            return stmt.executeUpdate();
+        }
+    }
+
+    public static int delete(Connection conn, int id) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM customers WHERE customer_id=?")) {
+            stmt.setInt(1, id);
+            return stmt.executeUpdate();
+        }
+    }
+
+    // The subset of ids that exist; ids are ints, so inlining them is safe and keeps it one query
+    public static Set<Integer> existing(Connection conn, Collection<Integer> ids) throws SQLException {
+        Set<Integer> existing = new HashSet<>();
+        if (ids.isEmpty()) {
+            return existing;
+        }
+        StringBuilder in = new StringBuilder();
+        for (int id : ids) {
+            in.append(in.length() == 0 ? "" : ",").append(id);
+        }
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT customer_id FROM customers WHERE customer_id IN (" + in + ")")) {
+            while (rs.next()) {
+                existing.add(rs.getInt(1));
+            }
+        }
+        return existing;
+    }
+}
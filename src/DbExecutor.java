@@ -0,0 +1,136 @@
+// Theatre Management System
+// Background Database Executor
+import javax.swing.SwingUtilities;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+Runs JDBC work off the Swing event thread and hands the results back on it.
+
+Every task belongs to a group (the tab that asked for it) so the UI can show a
+busy indicator per tab. Tasks submitted with a key supersede any earlier task
+with the same key: a queued one returns at once when its turn comes, a
+running one has its result dropped, so only the latest refresh of a table or
+combo ever reaches the model. Superseded tasks are never cancelled, so every
+task ends through the same finally and its tab's busy count always drops.
+
+Queue time goes into the db.queue histogram and run time into db.task:<key>,
+falling back to the group, so slow refreshes show up in Metrics by name.
+*/
+public class DbExecutor {
+
+    public interface DbTask<T> {
+        T run() throws Exception;
+    }
+
+    public interface BusyListener {
+        void busyChanged(String group, boolean busy);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Long> latestTicket = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong tickets = new AtomicLong();
+    private final LatencyHistogram queueLatency = Metrics.global().histogram("db.queue");
+    private volatile BusyListener busyListener;
+
+    public DbExecutor(int workers) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "db-worker-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    public void setBusyListener(BusyListener listener) {
+        this.busyListener = listener;
+    }
+
+    // Runs task in the background; onDone/onError are invoked on the EDT.
+    // A non-null key makes this task supersede any pending task with the same key.
+    public <T> Future<?> submit(String group, String key, DbTask<T> task,
+                                Consumer<T> onDone, Consumer<Exception> onError) {
+        long ticket = tickets.incrementAndGet();
+        if (key != null) {
+            latestTicket.put(key, ticket);
+        }
+
+        markBusy(group, 1);
+        long queuedAt = System.nanoTime();
+        Future<?> future;
+        try {
+            future = executor.submit(() -> {
+                long startedAt = System.nanoTime();
+                queueLatency.record(startedAt - queuedAt);
+                try {
+                    if (isSuperseded(key, ticket)) {
+                        return;
+                    }
+                    T result = task.run();
+                    Metrics.global().histogram("db.task:" + (key != null ? key : group != null ? group : "background"))
+                        .record(System.nanoTime() - startedAt);
+                    SwingUtilities.invokeLater(() -> {
+                        if (!isSuperseded(key, ticket) && onDone != null) {
+                            onDone.accept(result);
+                        }
+                    });
+                } catch (Exception e) {
+                    SwingUtilities.invokeLater(() -> {
+                        if (!isSuperseded(key, ticket) && onError != null) {
+                            onError.accept(e);
+                        }
+                    });
+                } finally {
+                    markBusy(group, -1);
+                    if (key != null) {
+                        latestTicket.remove(key, ticket);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            markBusy(group, -1);
+            throw e;
+        }
+
+        return future;
+    }
+
+    private boolean isSuperseded(String key, long ticket) {
+        if (key == null) {
+            return false;
+        }
+        Long latest = latestTicket.get(key);
+        return latest != null && latest != ticket;
+    }
+
+    private void markBusy(String group, int delta) {
+        if (group == null) {
+            return;
+        }
+        int now = inFlight.computeIfAbsent(group, g -> new AtomicInteger()).addAndGet(delta);
+        boolean changed = (delta > 0 && now == 1) || (delta < 0 && now == 0);
+        BusyListener listener = busyListener;
+        if (changed && listener != null) {
+            SwingUtilities.invokeLater(() ->
+                listener.busyChanged(group, inFlight.get(group).get() > 0));
+        }
+    }
+
+    public boolean isBusy(String group) {
+        AtomicInteger count = inFlight.get(group);
+        return count != null && count.get() > 0;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
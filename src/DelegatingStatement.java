@@ -0,0 +1,320 @@
+// Theatre Management System
+// Delegating JDBC Statement
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/*
+A Statement that passes every call on to target(), for ConnectionPool to
+extend without a reflective Proxy. Every execute method goes through
+executed(), and every result set from executeQuery through results(), so a
+subclass can time and count them by overriding those two.
+*/
+public class DelegatingStatement<S extends Statement> implements Statement {
+
+    protected interface Execution<R> {
+        R run() throws SQLException;
+    }
+
+    private final S statement;
+
+    public DelegatingStatement(S statement) {
+        this.statement = statement;
+    }
+
+    // The statement calls go to; overridden to refuse calls once this one is closed
+    protected S target() throws SQLException {
+        return statement;
+    }
+
+    // Runs an execute call; sql is null for prepared statements and batches
+    protected <R> R executed(String sql, Execution<R> execution) throws SQLException {
+        return execution.run();
+    }
+
+    protected ResultSet results(ResultSet results) throws SQLException {
+        return results;
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        return executed(sql, () -> results(target().executeQuery(sql)));
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        return executed(sql, () -> target().executeUpdate(sql));
+    }
+
+    @Override
+    public void close() throws SQLException {
+        target().close();
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return target().getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        target().setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return target().getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        target().setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        target().setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return target().getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        target().setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        target().cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return target().getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        target().clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        target().setCursorName(name);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        return executed(sql, () -> target().execute(sql));
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        return target().getResultSet();
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return target().getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        return target().getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        target().setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return target().getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        target().setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return target().getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return target().getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return target().getResultSetType();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        target().addBatch(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        target().clearBatch();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        return executed(null, () -> target().executeBatch());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return target().getConnection();
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        return target().getMoreResults(current);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return target().getGeneratedKeys();
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        return executed(sql, () -> target().executeUpdate(sql, autoGeneratedKeys));
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        return executed(sql, () -> target().executeUpdate(sql, columnIndexes));
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        return executed(sql, () -> target().executeUpdate(sql, columnNames));
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        return executed(sql, () -> target().execute(sql, autoGeneratedKeys));
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        return executed(sql, () -> target().execute(sql, columnIndexes));
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        return executed(sql, () -> target().execute(sql, columnNames));
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return target().getResultSetHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return target().isClosed();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        target().setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return target().isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        target().closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return target().isCloseOnCompletion();
+    }
+
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        return target().getLargeUpdateCount();
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        target().setLargeMaxRows(max);
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        return target().getLargeMaxRows();
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        return executed(null, () -> target().executeLargeBatch());
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        return executed(sql, () -> target().executeLargeUpdate(sql));
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        return executed(sql, () -> target().executeLargeUpdate(sql, autoGeneratedKeys));
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        return executed(sql, () -> target().executeLargeUpdate(sql, columnIndexes));
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        return executed(sql, () -> target().executeLargeUpdate(sql, columnNames));
+    }
+
+    @Override
+    public String enquoteLiteral(String val) throws SQLException {
+        return target().enquoteLiteral(val);
+    }
+
+    @Override
+    public String enquoteIdentifier(String identifier, boolean alwaysQuote) throws SQLException {
+        return target().enquoteIdentifier(identifier, alwaysQuote);
+    }
+
+    @Override
+    public boolean isSimpleIdentifier(String identifier) throws SQLException {
+        return target().isSimpleIdentifier(identifier);
+    }
+
+    @Override
+    public String enquoteNCharLiteral(String val) throws SQLException {
+        return target().enquoteNCharLiteral(val);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return target().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return target().isWrapperFor(iface);
+    }
+}
@@ -0,0 +1,158 @@
+// Theatre Management System
+// Event Thread Stall Detector
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.MouseEvent;
+import java.time.Instant;
+import javax.swing.AbstractButton;
+
+/*
+Times every event the Swing event thread dispatches and reports stalls.
+
+Installed as the system event queue, it records each dispatch into the
+edt.dispatch histogram and button and menu actions into ui.action:<label>.
+A watchdog thread looks at the dispatch in progress every POLL_MILLIS; once
+one has run longer than STALL_MILLIS it takes the event thread's stack, so the
+report shows what the UI was stuck on rather than where it ended up.
+
+A modal dialog pumps events from inside the dispatch that opened it; the time
+spent waiting for the next event there is not counted, so an open dialog is
+not a stall but real work done while it is open still is.
+*/
+public class EdtMonitor extends EventQueue {
+
+    private static final long STALL_MILLIS = 100;
+    private static final long POLL_MILLIS = 25;
+    private static final int MAX_DEPTH = 32;
+
+    private final Metrics metrics = Metrics.global();
+    private final LatencyHistogram dispatchLatency = metrics.histogram("edt.dispatch");
+    private final LatencyHistogram stallLatency = metrics.histogram("edt.stall");
+
+    // Per nesting level: time spent in nested dispatches and waiting for nested events
+    private final long[] excludedNanos = new long[MAX_DEPTH];
+    private int depth;
+
+    // Read by the watchdog: when the current stretch of work began (0 when idle) and what is running
+    private volatile long busySince;
+    private volatile AWTEvent current;
+    private volatile long dispatchCount;
+    private volatile Thread eventThread;
+
+    public static void install() {
+        EdtMonitor monitor = new EdtMonitor();
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(monitor);
+        monitor.startWatchdog();
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        eventThread = Thread.currentThread();
+        int level = depth++;
+        long start = System.nanoTime();
+        AWTEvent outer = current;
+        if (level < MAX_DEPTH) {
+            excludedNanos[level] = 0;
+        }
+        current = event;
+        dispatchCount++;
+        busySince = start;
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long end = System.nanoTime();
+            depth--;
+            current = outer;
+            busySince = outer == null ? 0 : end;
+            if (level < MAX_DEPTH) {
+                long own = end - start - excludedNanos[level];
+                dispatchLatency.record(own);
+                String action = actionLabel(event);
+                if (action != null) {
+                    metrics.histogram("ui.action:" + action).record(own);
+                }
+                if (own >= STALL_MILLIS * 1_000_000) {
+                    stallLatency.record(own);
+                }
+                if (level > 0) {
+                    // Nested dispatch belongs to the event it ran inside, not to that event's own time
+                    excludedNanos[level - 1] += end - start;
+                }
+            }
+        }
+    }
+
+    @Override
+    public AWTEvent getNextEvent() throws InterruptedException {
+        if (Thread.currentThread() != eventThread || depth == 0) {
+            return super.getNextEvent();
+        }
+        // A nested loop, typically a modal dialog, waiting for input
+        busySince = 0;
+        long waitStart = System.nanoTime();
+        try {
+            return super.getNextEvent();
+        } finally {
+            long waited = System.nanoTime() - waitStart;
+            if (depth <= MAX_DEPTH) {
+                excludedNanos[depth - 1] += waited;
+            }
+            busySince = System.nanoTime();
+        }
+    }
+
+    private void startWatchdog() {
+        Thread watchdog = new Thread(this::watch, "edt-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    private void watch() {
+        long reported = -1;
+        while (true) {
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long since = busySince;
+            long dispatch = dispatchCount;
+            Thread thread = eventThread;
+            if (since == 0 || thread == null || dispatch == reported) {
+                continue;
+            }
+            long blockedMillis = (System.nanoTime() - since) / 1_000_000;
+            if (blockedMillis >= STALL_MILLIS) {
+                reported = dispatch;
+                AWTEvent event = current;
+                metrics.recordStall(new Metrics.Stall(Instant.now(), blockedMillis,
+                    event == null ? "(unknown event)" : describe(event), Metrics.trimStack(thread.getStackTrace())));
+            }
+        }
+    }
+
+    // Buttons and menu items fire their action listeners inside the mouse release
+    private static String actionLabel(AWTEvent event) {
+        int id = event.getID();
+        if ((id == MouseEvent.MOUSE_RELEASED || id == ActionEvent.ACTION_PERFORMED)
+                && event.getSource() instanceof AbstractButton) {
+            String text = ((AbstractButton) event.getSource()).getText();
+            return text == null || text.isEmpty() ? null : text;
+        }
+        return null;
+    }
+
+    private static String describe(AWTEvent event) {
+        Object source = event.getSource();
+        String action = actionLabel(event);
+        if (action != null) {
+            return action;
+        }
+        if (event instanceof ActionEvent && ((ActionEvent) event).getActionCommand() != null) {
+            return ((ActionEvent) event).getActionCommand();
+        }
+        return event.getClass().getSimpleName() + " on " + (source == null ? "null" : source.getClass().getSimpleName());
+    }
+}
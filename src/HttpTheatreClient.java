@@ -0,0 +1,185 @@
+// Theatre Management System
+// Booking HTTP API Client
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+TheatreService over HTTP, talking to a TheatreApiServer.
+
+Status codes map back to the in-process results: 409 on a booking is
+NOT_ENOUGH_SEATS, 404 on availability, seats or cancel is null or false. Anything
+else the server rejects becomes an SQLException carrying its message, and a
+server that cannot be reached, or does not answer a read within
+REQUEST_TIMEOUT, is an SQLException with state 08S01, as a dropped database
+connection would be.
+
+Bookings and cancellations are different: the server always answers them
+with their real outcome, so they wait up to WRITE_TIMEOUT, well past the
+pool's wait for a connection. One that was sent but got no answer may still
+have committed, so it fails with state 08007 (transaction resolution
+unknown) and a message saying to check before retrying, never as a plain
+failure that invites booking twice.
+*/
+public class HttpTheatreClient implements TheatreService {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration WRITE_TIMEOUT = Duration.ofMinutes(2);
+    private static final String COMMUNICATION_FAILURE = "08S01";
+    private static final String OUTCOME_UNKNOWN = "08007";
+
+    private final URI baseUri;
+    private final HttpClient client;
+
+    public HttpTheatreClient(URI baseUri) {
+        String base = baseUri.toString();
+        this.baseUri = URI.create(base.endsWith("/") ? base : base + "/");
+        this.client = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+    }
+
+    @Override
+    public List<ShowRepository.Show> listShows(int limit) throws SQLException {
+        HttpResponse<String> response = send(get("shows?limit=" + limit));
+        requireStatus(response, 200);
+        List<ShowRepository.Show> shows = new ArrayList<>();
+        for (Object item : (List<?>) Json.parse(response.body())) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> show = (Map<String, Object>) item;
+            shows.add(new ShowRepository.Show(Json.intField(show, "id"), (String) show.get("title"),
+                (String) show.get("genre"), Json.intField(show, "durationMinutes"),
+                (BigDecimal) show.get("ticketPrice"), (String) show.get("theatreName"),
+                show.get("showDate") == null ? null : Date.valueOf((String) show.get("showDate")),
+                show.get("showTime") == null ? null : Time.valueOf((String) show.get("showTime")),
+                Json.intField(show, "availableSeats")));
+        }
+        return shows;
+    }
+
+    @Override
+    public ShowRepository.Availability availability(int showId) throws SQLException {
+        HttpResponse<String> response = send(get("shows/" + showId + "/availability"));
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        requireStatus(response, 200);
+        Map<String, Object> body = Json.parseObject(response.body());
+        return new ShowRepository.Availability(Json.intField(body, "availableSeats"),
+            (BigDecimal) body.get("ticketPrice"));
+    }
+
+    @Override
+    public int createBooking(int customerId, int showId, int seats) throws SQLException {
+        HttpResponse<String> response = send(post("bookings",
+            Json.object("customerId", customerId, "showId", showId, "seats", seats)));
+        if (response.statusCode() == 409) {
+            return BookingService.NOT_ENOUGH_SEATS;
+        }
+        requireStatus(response, 201);
+        return Json.intField(Json.parseObject(response.body()), "bookingId");
+    }
+
+    @Override
+    public int createBooking(int customerId, int showId, List<String> seatLabels) throws SQLException {
+        HttpResponse<String> response = send(post("bookings",
+            Json.object("customerId", customerId, "showId", showId, "seatLabels", seatLabels)));
+        if (response.statusCode() == 409) {
+            return BookingService.NOT_ENOUGH_SEATS;
+        }
+        requireStatus(response, 201);
+        return Json.intField(Json.parseObject(response.body()), "bookingId");
+    }
+
+    @Override
+    public List<String> suggestSeats(int showId, int count) throws SQLException {
+        HttpResponse<String> response = send(get("shows/" + showId + "/seats?count=" + count));
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        requireStatus(response, 200);
+        List<String> seats = new ArrayList<>();
+        for (Object label : (List<?>) Json.parseObject(response.body()).get("seats")) {
+            seats.add((String) label);
+        }
+        return seats;
+    }
+
+    @Override
+    public boolean cancelBooking(int bookingId) throws SQLException {
+        HttpResponse<String> response = send(post("bookings/" + bookingId + "/cancel", Json.object()));
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        requireStatus(response, 200);
+        return true;
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path)).timeout(REQUEST_TIMEOUT).GET().build();
+    }
+
+    private HttpRequest post(String path, Map<String, Object> body) {
+        return HttpRequest.newBuilder(baseUri.resolve(path)).timeout(WRITE_TIMEOUT)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(Json.write(body))).build();
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws SQLException {
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (ConnectException | HttpConnectTimeoutException e) {
+            // Never sent, so safe to retry
+            throw new SQLException("Booking service unreachable at " + baseUri + ": " + e,
+                COMMUNICATION_FAILURE, e);
+        } catch (IOException e) {
+            if (isWrite(request)) {
+                throw outcomeUnknown(e);
+            }
+            throw new SQLException("Booking service unreachable at " + baseUri + ": " + e,
+                COMMUNICATION_FAILURE, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (isWrite(request)) {
+                throw outcomeUnknown(e);
+            }
+            throw new SQLException("Interrupted while calling the booking service", COMMUNICATION_FAILURE, e);
+        }
+    }
+
+    private static boolean isWrite(HttpRequest request) {
+        return request.method().equals("POST");
+    }
+
+    private SQLException outcomeUnknown(Exception cause) {
+        return new SQLException("No answer from the booking service at " + baseUri + " (" + cause + "); "
+            + "it may still have gone through, so check the bookings before trying again", OUTCOME_UNKNOWN, cause);
+    }
+
+    private static void requireStatus(HttpResponse<String> response, int expected) throws SQLException {
+        if (response.statusCode() == expected) {
+            return;
+        }
+        String message = response.body();
+        try {
+            Object error = Json.parseObject(response.body()).get("error");
+            if (error != null) {
+                message = error.toString();
+            }
+        } catch (IllegalArgumentException ignored) {
+            // Not one of our error bodies; report it as it came
+        }
+        throw new SQLException("Booking service returned " + response.statusCode() + ": " + message);
+    }
+}
@@ -0,0 +1,104 @@
+// Theatre Management System
+// Query Plan Check
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+EXPLAINs the hot queries and checks that each still reads the index it was
+given, so a schema or query change that quietly turns one into a full scan
+is caught before it reaches users.
+
+Run against a database holding realistic volumes, for example after a CSV
+import; on near-empty tables MySQL rightly prefers a scan to any index:
+   java -cp ".:lib/mysql-connector-j-8.x.x.jar" IndexCheckTool [url] [user] [password]
+
+Brings the schema up to date first, refreshes the statistics of the tables
+involved, then prints each plan. Exits with status 1 if any query uses a
+different index, or none.
+*/
+public class IndexCheckTool {
+
+    // sql has its placeholders filled with sample values; table is the EXPLAIN row to check
+    private record HotQuery(String name, String table, String expectedKey, String sql) {
+    }
+
+    private static final List<HotQuery> QUERIES = List.of(
+        new HotQuery("show picker", "shows", "idx_shows_schedule",
+            sample(ReferenceDataCache.sqlFor(ReferenceDataCache.Kind.SHOWS))),
+        new HotQuery("customer picker", "customers", "idx_customers_name",
+            sample(ReferenceDataCache.sqlFor(ReferenceDataCache.Kind.CUSTOMERS))),
+        new HotQuery("theatre picker", "theatres", "idx_theatres_name",
+            sample(ReferenceDataCache.sqlFor(ReferenceDataCache.Kind.THEATRES))),
+        new HotQuery("shows by date", "shows", "idx_shows_schedule",
+            "SELECT show_id, title FROM shows WHERE show_date BETWEEN CURDATE() AND CURDATE() + INTERVAL 7 DAY "
+            + "ORDER BY show_date, show_time"),
+        new HotQuery("show overlap", "shows", "idx_shows_theatre_schedule",
+            "SELECT show_id FROM shows WHERE theatre_id = 1 AND show_date BETWEEN CURDATE() - INTERVAL 1 DAY "
+            + "AND CURDATE() AND show_id <> 0 AND duration_minutes > 0 "
+            + "AND TIMESTAMP(show_date, show_time) < NOW() + INTERVAL 2 HOUR "
+            + "AND TIMESTAMP(show_date, show_time) + INTERVAL duration_minutes MINUTE > NOW() LIMIT 1"),
+        new HotQuery("customer bookings", "bookings", "idx_bookings_customer_status",
+            "SELECT booking_id, show_id, seats_booked FROM bookings WHERE customer_id = 1 AND status = 'CONFIRMED' "
+            + "ORDER BY booking_date DESC"),
+        new HotQuery("show bookings", "bookings", "idx_bookings_show_status",
+            "SELECT booking_id, seats_booked FROM bookings WHERE show_id = 1 AND status = 'CONFIRMED'"),
+        new HotQuery("seat layout", "theatre_sections", "idx_sections_theatre_position",
+            "SELECT name, row_count, seats_per_row FROM theatre_sections WHERE theatre_id = 1 ORDER BY position")
+    );
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "jdbc:mysql://localhost:3306/theatre_management";
+        String user = args.length > 1 ? args[1] : "root";
+        String password = args.length > 2 ? args[2] : "12345678";
+
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        boolean allPassed = true;
+        try (ConnectionPool pool = new ConnectionPool(url, user, password, 1, 1)) {
+            new SchemaMigrations(pool).migrate();
+            try (Connection conn = pool.getConnection();
+                 Statement stmt = conn.createStatement()) {
+                Set<String> tables = new LinkedHashSet<>();
+                for (HotQuery query : QUERIES) {
+                    tables.add(query.table());
+                }
+                stmt.execute("ANALYZE TABLE " + String.join(", ", tables));
+                for (HotQuery query : QUERIES) {
+                    allPassed &= check(stmt, query);
+                }
+            }
+        }
+        System.out.println(allPassed ? "All hot queries use their indexes" : "Some hot queries lost their index");
+        System.exit(allPassed ? 0 : 1);
+    }
+
+    private static boolean check(Statement stmt, HotQuery query) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("EXPLAIN " + query.sql())) {
+            while (rs.next()) {
+                if (!query.table().equals(rs.getString("table"))) {
+                    continue;
+                }
+                String key = rs.getString("key");
+                boolean passed = query.expectedKey().equals(key);
+                System.out.printf("%-4s %-18s type=%s key=%s rows=%s extra=%s%n",
+                    passed ? "OK" : "FAIL", query.name(), rs.getString("type"), key,
+                    rs.getString("rows"), rs.getString("Extra"));
+                if (!passed) {
+                    System.out.println("     expected " + query.expectedKey() + " for: " + query.sql());
+                }
+                return passed;
+            }
+        }
+        System.out.println("FAIL " + query.name() + ": no plan row for table " + query.table());
+        return false;
+    }
+
+    // The pickers' LIMIT placeholder, at the value they run with
+    private static String sample(String sql) {
+        return sql.replace("?", String.valueOf(ReferenceDataCache.DEFAULT_MAX_ENTRIES));
+    }
+}
@@ -0,0 +1,188 @@
+// Theatre Management System
+// Booking Journal Replay Tool
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+/*
+Reads, replays and compacts the BookingJournal written by the application.
+
+   java -cp ".:lib/mysql-connector-j-8.x.x.jar" JournalReplayTool verify [journal-dir]
+   java -cp ".:lib/mysql-connector-j-8.x.x.jar" JournalReplayTool list [journal-dir] [booking-id]
+   java -cp ".:lib/mysql-connector-j-8.x.x.jar" JournalReplayTool apply [journal-dir] [url] [user] [password]
+   java -cp ".:lib/mysql-connector-j-8.x.x.jar" JournalReplayTool compact [journal-dir] [segments-to-keep]
+
+verify replays the journal and prints the totals it adds up to and how fast
+it read them; list prints the events, or only those of one booking. apply
+writes the replayed figures back in one transaction: available_seats for
+every show the journal has a starting figure for, and the booking counters
+in stats_counters (customer, theatre and show counts are left to
+StatisticsService's own reconciliation). compact folds all but the newest
+segments into the checkpoint. The journal directory defaults to ./journal.
+
+apply only writes anything if the journal accounts for every booking in the
+database. Each client journals its own writes, so the journal of one terminal
+knows nothing of what another terminal or the API server sold, and writing
+its figures back would give those seats away again. With every show row
+locked, so nothing can book, cancel or hold meanwhile, it compares the
+number of bookings, the highest booking_id, the cancellations and the seats
+on hold with the journal's, and refuses on any difference. It also refuses a
+journal marked incomplete because an append failed.
+*/
+public class JournalReplayTool {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: JournalReplayTool verify|list|apply|compact [journal-dir] ...");
+            System.exit(1);
+        }
+        Path directory = Path.of(args.length > 1 ? args[1] : "journal");
+        switch (args[0]) {
+            case "verify" -> report(replay(directory));
+            case "list" -> {
+                Integer bookingId = args.length > 2 ? Integer.valueOf(args[2]) : null;
+                BookingJournal.events(directory, event -> {
+                    if (bookingId == null || event.bookingId() == bookingId) {
+                        System.out.println(event);
+                    }
+                });
+            }
+            case "apply" -> {
+                String url = args.length > 2 ? args[2] : "jdbc:mysql://localhost:3306/theatre_management";
+                String user = args.length > 3 ? args[3] : "root";
+                String password = args.length > 4 ? args[4] : "12345678";
+                BookingJournal.State state = replay(directory);
+                report(state);
+                Class.forName("com.mysql.cj.jdbc.Driver");
+                try (ConnectionPool pool = new ConnectionPool(url, user, password, 1, 1)) {
+                    int shows = apply(pool, state);
+                    System.out.println("Updated available_seats for " + shows + " shows and the booking counters");
+                } catch (IllegalStateException e) {
+                    System.err.println("Not applied: " + e.getMessage());
+                    System.exit(1);
+                }
+            }
+            case "compact" -> {
+                int keep = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+                System.out.println("Folded " + BookingJournal.compact(directory, keep) + " segments into the checkpoint");
+            }
+            default -> {
+                System.err.println("Unknown command: " + args[0]);
+                System.exit(1);
+            }
+        }
+    }
+
+    private static BookingJournal.State replay(Path directory) throws Exception {
+        long start = System.nanoTime();
+        BookingJournal.State state = BookingJournal.replay(directory);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Replayed %d events up to #%d in %.3f s (%.0f events/s)%n", state.events(),
+            state.lastSequence(), seconds, state.events() / Math.max(seconds, 1e-9));
+        return state;
+    }
+
+    private static void report(BookingJournal.State state) {
+        System.out.printf("bookings %d, confirmed %d, cancelled %d, seats sold %d, revenue %s%n", state.bookings(),
+            state.confirmed(), state.cancelled(), state.seatsSold(), state.revenue().toPlainString());
+        System.out.printf("%d shows with availability, %d with adjustments but no starting figure%n",
+            state.availableSeats().size(), state.showsWithoutBaseline());
+        if (state.incomplete() != null) {
+            System.out.println("INCOMPLETE: events are missing since " + state.incomplete());
+        }
+    }
+
+    private static int apply(ConnectionPool pool, BookingJournal.State state) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                String shortfall = shortfall(conn, state);
+                if (shortfall != null) {
+                    throw new IllegalStateException("the journal does not cover the database: " + shortfall);
+                }
+                int shows = 0;
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "UPDATE shows SET available_seats=? WHERE show_id=?")) {
+                    for (Map.Entry<Integer, Integer> entry : state.availableSeats().entrySet()) {
+                        stmt.setInt(1, entry.getValue());
+                        stmt.setInt(2, entry.getKey());
+                        stmt.addBatch();
+                    }
+                    for (int count : stmt.executeBatch()) {
+                        shows += count > 0 || count == Statement.SUCCESS_NO_INFO ? 1 : 0;
+                    }
+                }
+
+                Map<String, BigDecimal> counters = Map.of(
+                    StatisticsService.BOOKINGS, BigDecimal.valueOf(state.bookings()),
+                    StatisticsService.CONFIRMED, BigDecimal.valueOf(state.confirmed()),
+                    StatisticsService.CANCELLED, BigDecimal.valueOf(state.cancelled()),
+                    StatisticsService.SEATS_SOLD, BigDecimal.valueOf(state.seatsSold()),
+                    StatisticsService.REVENUE, state.revenue());
+                try (PreparedStatement delete = conn.prepareStatement("DELETE FROM stats_counters WHERE name=?");
+                     PreparedStatement insert = conn.prepareStatement(
+                         "INSERT INTO stats_counters (name, shard, value) VALUES (?, 0, ?)")) {
+                    for (Map.Entry<String, BigDecimal> entry : counters.entrySet()) {
+                        delete.setString(1, entry.getKey());
+                        delete.addBatch();
+                        insert.setString(1, entry.getKey());
+                        insert.setBigDecimal(2, entry.getValue());
+                        insert.addBatch();
+                    }
+                    delete.executeBatch();
+                    insert.executeBatch();
+                }
+                conn.commit();
+                return shows;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Why the journal misses bookings the database has, or null if it has them all; locks every show row
+    private static String shortfall(Connection conn, BookingJournal.State state) throws SQLException {
+        if (state.incomplete() != null) {
+            return "it is marked incomplete (" + state.incomplete() + ")";
+        }
+        if (state.maxBookingId() < 0) {
+            return "its checkpoint predates booking ids being kept";
+        }
+        try (Statement stmt = conn.createStatement()) {
+            // Every booking, cancellation and hold updates its show's row, so these locks hold them all off
+            try (ResultSet rs = stmt.executeQuery("SELECT show_id FROM shows FOR UPDATE")) {
+                while (rs.next()) {
+                    // Only the locks are wanted
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("""
+                    SELECT COUNT(*), COALESCE(MAX(booking_id), 0), COALESCE(SUM(status = 'CANCELLED'), 0)
+                    FROM bookings
+                    """)) {
+                rs.next();
+                if (rs.getLong(1) != state.bookings()) {
+                    return rs.getLong(1) + " bookings, journal " + state.bookings();
+                }
+                if (rs.getInt(2) != state.maxBookingId()) {
+                    return "highest booking_id " + rs.getInt(2) + ", journal " + state.maxBookingId();
+                }
+                if (rs.getLong(3) != state.cancelled()) {
+                    return rs.getLong(3) + " cancelled bookings, journal " + state.cancelled();
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(SUM(seats), 0) FROM seat_holds")) {
+                rs.next();
+                if (rs.getLong(1) != state.heldSeats()) {
+                    return rs.getLong(1) + " seats on hold, journal " + state.heldSeats();
+                }
+            }
+        }
+        return null;
+    }
+}
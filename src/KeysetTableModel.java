@@ -0,0 +1,444 @@
+// Theatre Management System
+// Lazily Loaded, Keyset-Paginated Table Model
+import javax.swing.table.AbstractTableModel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+A read-only TableModel that only holds the pages a JTable has actually asked for.
+
+JTable only calls getValueAt for rows inside the viewport, so a missing page is
+fetched in the background the first time one of its rows is painted and the
+rows are repainted when it arrives. Pages are located by key, not OFFSET:
+every fetch reads one extra row whose key is where the next page starts, so
+scrolling walks the primary key index. Jumping to a page whose start key is
+not known yet resolves it with an index-only lookup on the key column.
+
+Loaded pages are kept in a small LRU, and the page beyond the last one
+requested in the current scroll direction is prefetched.
+
+The model follows the ChangeFeed instead of starting over: each poll hands
+it the changes to its table, inside the feed's snapshot, where it reads the
+changed rows, works out where inserted and deleted rows sit with index-only
+counts, and fires row-level events, so selection and scroll position survive
+and the cost follows the number of changes. Cached pages before the first
+moved row are kept (with updated rows replaced); the rest reload as they are
+painted. The first poll, or one after the feed fell too far behind, starts
+over with the total from the table's dashboard counter rather than a count.
+*/
+public class KeysetTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    public interface RowMapper {
+        Object[] map(ResultSet rs) throws SQLException;
+    }
+
+    public static final int DEFAULT_PAGE_SIZE = 200;
+    public static final int DEFAULT_MAX_PAGES = 20;
+
+    // More inserts or deletes than this in one refresh are cheaper to reload
+    private static final int MAX_MOVED_ROWS = 500;
+
+    private final ConnectionPool pool;
+    private final ChangeFeed feed;
+    private final DbExecutor db;
+    private final String group;
+    private final String[] columns;
+    private final String keyTable;
+    private final String keyColumn;
+    private final String qualifiedKey;
+    private final String select;
+    private final boolean descending;
+    private final RowMapper mapper;
+    private final int pageSize;
+
+    private final Map<Integer, LoadedPage> pages;
+    private final Map<Integer, Integer> pageStartKeys = new HashMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+    private int rowCount;
+    private int generation;
+    private int lastRequestedPage = -1;
+    // The row count as of the feed's last poll, -1 until counted; only used on the feed's thread
+    private int followedCount = -1;
+
+    // select is the SELECT ... FROM ... JOIN ... part without WHERE/ORDER BY;
+    // keyColumn belongs to keyTable and must be unique, qualifiedKey is how select refers to it
+    public KeysetTableModel(ConnectionPool pool, ChangeFeed feed, DbExecutor db, String group,
+                            String[] columns, String select, String keyTable, String keyColumn,
+                            String qualifiedKey, boolean descending, RowMapper mapper) {
+        this(pool, feed, db, group, columns, select, keyTable, keyColumn, qualifiedKey, descending, mapper,
+            DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    public KeysetTableModel(ConnectionPool pool, ChangeFeed feed, DbExecutor db, String group,
+                            String[] columns, String select, String keyTable, String keyColumn,
+                            String qualifiedKey, boolean descending, RowMapper mapper, int pageSize, int maxPages) {
+        this.pool = pool;
+        this.feed = feed;
+        this.db = db;
+        this.group = group;
+        this.columns = columns;
+        this.select = select;
+        this.keyTable = keyTable;
+        this.keyColumn = keyColumn;
+        this.qualifiedKey = qualifiedKey;
+        this.descending = descending;
+        this.mapper = mapper;
+        this.pageSize = pageSize;
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, LoadedPage> eldest) {
+                return size() > maxPages;
+            }
+        };
+        feed.follow(keyTable, new ChangeFeed.Follower<Delta>() {
+            @Override
+            public Delta read(Connection conn, List<ChangeLog.Change> changes) throws SQLException {
+                return loadDelta(conn, changes);
+            }
+
+            @Override
+            public void apply(Delta delta) {
+                KeysetTableModel.this.apply(delta);
+            }
+        });
+    }
+
+    // Brings the rows up to date with the next poll of the feed, which is asked to poll right away
+    public void refresh() {
+        feed.pollNow();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+
+    // Returns null while the row's page is still loading
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        int page = rowIndex / pageSize;
+        LoadedPage loaded = pages.get(page);
+        if (loaded == null) {
+            requestPage(page);
+            return null;
+        }
+        prefetchAround(page);
+        int offset = rowIndex % pageSize;
+        return offset < loaded.rows.size() ? loaded.rows.get(offset)[columnIndex] : null;
+    }
+
+    private void prefetchAround(int page) {
+        if (page == lastRequestedPage) {
+            return;
+        }
+        int next = page > lastRequestedPage ? page + 1 : page - 1;
+        lastRequestedPage = page;
+        if (next >= 0 && next * pageSize < rowCount && !pages.containsKey(next)) {
+            requestPage(next);
+        }
+    }
+
+    private void requestPage(int page) {
+        if (!loading.add(page)) {
+            return;
+        }
+        int gen = generation;
+        Integer knownStart = pageStartKeys.get(page);
+        db.submit(group, null, () -> loadPage(page, knownStart), loaded -> {
+            if (gen != generation) {
+                return;
+            }
+            loading.remove(page);
+            pages.put(page, loaded);
+            if (loaded.nextStartKey != null) {
+                pageStartKeys.put(page + 1, loaded.nextStartKey);
+            }
+            int first = page * pageSize;
+            int last = Math.min(rowCount, first + pageSize) - 1;
+            if (first <= last) {
+                fireTableRowsUpdated(first, last);
+            }
+        }, e -> {
+            if (gen == generation) {
+                loading.remove(page);
+            }
+            e.printStackTrace();
+        });
+    }
+
+    private static final class LoadedPage {
+        final List<Object[]> rows;
+        final List<Integer> keys;
+        final Integer nextStartKey;
+
+        LoadedPage(List<Object[]> rows, List<Integer> keys, Integer nextStartKey) {
+            this.rows = rows;
+            this.keys = keys;
+            this.nextStartKey = nextStartKey;
+        }
+    }
+
+    /*
+    Row positions are as in the model before (removals) and after (insertions)
+    the change. reloadedCount is -1 unless the model starts over with that many
+    rows, its cached pages dropped.
+    */
+    private record Delta(int reloadedCount, int[] removals, int[] insertions, Map<Integer, Object[]> updates) {
+        static Delta reloaded(int count) {
+            return new Delta(count, new int[0], new int[0], Map.of());
+        }
+    }
+
+    /*
+    The table's counter in stats_counters moves in the same transaction as its
+    rows, so inside the feed's snapshot it is the row count without scanning
+    the table. Only a table that has never been counted falls back to COUNT(*).
+    */
+    private int countRows(Connection conn) throws SQLException {
+        Long total = StatisticsService.total(conn, keyTable);
+        if (total != null) {
+            return (int) Math.max(0, total);
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM " + keyTable);
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // Runs inside the feed's snapshot, so the changes, rows and counts all describe the same state
+    private Delta loadDelta(Connection conn, List<ChangeLog.Change> changes) throws SQLException {
+        if (changes == null || followedCount < 0) {
+            followedCount = countRows(conn);
+            return Delta.reloaded(followedCount);
+        }
+        // Whether a row existed at the last poll follows from its first change since then
+        Map<Integer, Character> firstOps = new LinkedHashMap<>();
+        for (ChangeLog.Change change : changes) {
+            firstOps.putIfAbsent(change.rowId(), change.op());
+        }
+        if (firstOps.isEmpty()) {
+            return null;
+        }
+
+        Map<Integer, Object[]> current = fetchRows(conn, firstOps.keySet());
+        TreeSet<Integer> inserted = new TreeSet<>();
+        TreeSet<Integer> deleted = new TreeSet<>();
+        Map<Integer, Object[]> updates = new HashMap<>();
+        for (Map.Entry<Integer, Character> entry : firstOps.entrySet()) {
+            boolean existed = entry.getValue() != ChangeLog.INSERT;
+            Object[] row = current.get(entry.getKey());
+            if (existed && row == null) {
+                deleted.add(entry.getKey());
+            } else if (!existed && row != null) {
+                inserted.add(entry.getKey());
+            } else if (row != null) {
+                updates.put(entry.getKey(), row);
+            }
+        }
+        if (inserted.size() + deleted.size() > MAX_MOVED_ROWS) {
+            followedCount = countRows(conn);
+            return Delta.reloaded(followedCount);
+        }
+
+        int finalCount = followedCount + inserted.size() - deleted.size();
+        int[] removals = new int[deleted.size()];
+        int[] insertions = new int[inserted.size()];
+        if (removals.length + insertions.length > 0) {
+            long[] range = keyRange(conn);
+            int i = 0;
+            for (int key : deleted) {
+                removals[i++] = rowsBefore(conn, key, false, finalCount, range)
+                    - before(inserted, key) + before(deleted, key);
+            }
+            i = 0;
+            for (int key : inserted) {
+                insertions[i++] = rowsBefore(conn, key, true, finalCount, range);
+            }
+            Arrays.sort(removals);
+            Arrays.sort(insertions);
+        }
+        followedCount = finalCount;
+        return new Delta(-1, removals, insertions, updates);
+    }
+
+    private void apply(Delta delta) {
+        if (delta.reloadedCount() >= 0) {
+            // Rows reload as they are painted; pages still loading belong to the old rows
+            generation++;
+            pages.clear();
+            pageStartKeys.clear();
+            loading.clear();
+            lastRequestedPage = -1;
+            rowCount = delta.reloadedCount();
+            fireTableDataChanged();
+            return;
+        }
+        int firstMoved = Integer.MAX_VALUE;
+        if (delta.removals().length > 0) {
+            firstMoved = delta.removals()[0];
+        }
+        if (delta.insertions().length > 0) {
+            firstMoved = Math.min(firstMoved, delta.insertions()[0]);
+        }
+        if (firstMoved != Integer.MAX_VALUE) {
+            // Pages from the first moved row on now hold the wrong rows; in-flight loads are stale too
+            int firstPage = firstMoved / pageSize;
+            boolean startMoved = firstMoved % pageSize == 0;
+            generation++;
+            loading.clear();
+            lastRequestedPage = -1;
+            pages.keySet().removeIf(page -> page >= firstPage);
+            pageStartKeys.keySet().removeIf(page -> page > firstPage
+                || (page == firstPage && startMoved));
+        }
+
+        for (Map.Entry<Integer, LoadedPage> entry : pages.entrySet()) {
+            LoadedPage page = entry.getValue();
+            for (int i = 0; i < page.keys.size(); i++) {
+                Object[] row = delta.updates().get(page.keys.get(i));
+                if (row != null) {
+                    page.rows.set(i, row);
+                    int index = entry.getKey() * pageSize + i;
+                    fireTableRowsUpdated(index, index);
+                }
+            }
+        }
+        // Highest first, so earlier positions are still valid when their turn comes
+        for (int i = delta.removals().length - 1; i >= 0; i--) {
+            int index = delta.removals()[i];
+            rowCount--;
+            fireTableRowsDeleted(index, index);
+        }
+        for (int index : delta.insertions()) {
+            rowCount++;
+            fireTableRowsInserted(index, index);
+        }
+    }
+
+    private Map<Integer, Object[]> fetchRows(Connection conn, Set<Integer> keys) throws SQLException {
+        StringBuilder in = new StringBuilder();
+        for (int key : keys) {
+            in.append(in.length() == 0 ? "" : ",").append(key);
+        }
+        Map<Integer, Object[]> rows = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(select + " WHERE " + qualifiedKey + " IN (" + in + ")")) {
+            while (rs.next()) {
+                rows.put(rs.getInt(keyColumn), mapper.map(rs));
+            }
+        }
+        return rows;
+    }
+
+    private long[] keyRange(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                 "SELECT COALESCE(MIN(" + keyColumn + "), 0), COALESCE(MAX(" + keyColumn + "), 0) FROM " + keyTable)) {
+            rs.next();
+            return new long[]{rs.getLong(1), rs.getLong(2)};
+        }
+    }
+
+    /*
+    Number of rows ordered before key in the current state. Counts whichever
+    side of the key is likely smaller, judged from where the key falls between
+    the smallest and largest key, so new rows at either end stay cheap.
+    */
+    private int rowsBefore(Connection conn, int key, boolean exists, int finalCount, long[] range)
+            throws SQLException {
+        double fraction = range[1] > range[0] ? (double) (key - range[0]) / (range[1] - range[0]) : 0;
+        int others = finalCount - (exists ? 1 : 0);
+        int smaller = fraction < 0.5 ? countKeys(conn, key, "<") : others - countKeys(conn, key, ">");
+        return descending ? others - smaller : smaller;
+    }
+
+    private int countKeys(Connection conn, int key, String comparison) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT COUNT(*) FROM " + keyTable + " WHERE " + keyColumn + " " + comparison + " ?")) {
+            stmt.setInt(1, key);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    // How many of keys are ordered before key
+    private int before(TreeSet<Integer> keys, int key) {
+        return descending ? keys.tailSet(key, false).size() : keys.headSet(key, false).size();
+    }
+
+    private LoadedPage loadPage(int page, Integer knownStart) throws SQLException {
+        String order = descending ? " DESC" : " ASC";
+        try (Connection conn = pool.getConnection()) {
+            Integer startKey = knownStart;
+            if (startKey == null && page > 0) {
+                startKey = findStartKey(conn, page, order);
+                if (startKey == null) {
+                    return new LoadedPage(new ArrayList<>(), new ArrayList<>(), null);
+                }
+            }
+
+            String sql = select
+                + (startKey == null ? "" : " WHERE " + qualifiedKey + (descending ? " <= ?" : " >= ?"))
+                + " ORDER BY " + qualifiedKey + order + " LIMIT ?";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int index = 1;
+                if (startKey != null) {
+                    stmt.setInt(index++, startKey);
+                }
+                // One extra row tells us where the next page starts
+                stmt.setInt(index, pageSize + 1);
+                List<Object[]> rows = new ArrayList<>(pageSize);
+                List<Integer> keys = new ArrayList<>(pageSize);
+                Integer nextStart = null;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (rows.size() == pageSize) {
+                            nextStart = rs.getInt(keyColumn);
+                            break;
+                        }
+                        keys.add(rs.getInt(keyColumn));
+                        rows.add(mapper.map(rs));
+                    }
+                }
+                return new LoadedPage(rows, keys, nextStart);
+            }
+        }
+    }
+
+    // Only reads the key column's index, so this stays cheap even for deep pages
+    private Integer findStartKey(Connection conn, int page, String order) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT " + keyColumn + " FROM " + keyTable
+                + " ORDER BY " + keyColumn + order + " LIMIT 1 OFFSET ?")) {
+            stmt.setInt(1, page * pageSize);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+// Theatre Management System
+// Latency Histogram
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+A lock-free latency histogram in nanoseconds with log-linear buckets, after
+HdrHistogram: each power of two is split into SUB_BUCKETS equal buckets, so
+every recorded value is kept to within about 6% whatever its magnitude, and
+the whole range up to MAX_NANOS fits in under 600 counters.
+
+Recording is one array increment plus a sum, cheap enough for every SQL
+execution. Snapshots are plain copies; subtracting an earlier snapshot gives
+the distribution for just the interval in between.
+*/
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // About 18 minutes; anything longer is counted as this
+    private static final long MAX_NANOS = (1L << 40) - 1;
+    private static final int BUCKETS = indexOf(MAX_NANOS) + 1;
+
+    public record Snapshot(long[] counts, long count, long sumNanos) {
+
+        // Value at or below which the given percentage of recorded values fall, in nanoseconds
+        public long percentile(double percent) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return midpointOf(i);
+                }
+            }
+            return midpointOf(counts.length - 1);
+        }
+
+        public long maxNanos() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return midpointOf(i);
+                }
+            }
+            return 0;
+        }
+
+        public double meanNanos() {
+            return count == 0 ? 0 : (double) sumNanos / count;
+        }
+
+        // What was recorded after earlier was taken
+        public Snapshot minus(Snapshot earlier) {
+            if (earlier == null) {
+                return this;
+            }
+            long[] delta = new long[counts.length];
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(delta, count - earlier.count, sumNanos - earlier.sumNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                count, meanNanos() / 1e6, percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6,
+                maxNanos() / 1e6);
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_NANOS));
+        counts.incrementAndGet(indexOf(value));
+        sumNanos.addAndGet(value);
+    }
+
+    // Not atomic; a value recorded meanwhile may be in the sum but not yet in the counts
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sumNanos.get());
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    private static long midpointOf(int index) {
+        long lower = lowerBoundOf(index);
+        long upper = index + 1 < BUCKETS ? lowerBoundOf(index + 1) : MAX_NANOS + 1;
+        return lower + (upper - lower) / 2;
+    }
+}
@@ -0,0 +1,587 @@
+// Theatre Management System
+// Local Snapshot File
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32C;
+
+/*
+A local copy of the grid rows of a few tables, so the window has something
+to show before the database answers, or when it does not answer at all.
+
+Each Table is copied as the rows its grid displays, keyed by the row id in
+the first column; a table with maxRows keeps only that many of the newest
+rows (bookings keeps the recent ones). The file is a header with the format,
+the ChangeLog position the rows are current to (high-water mark and the ids
+below it still missing, up to MAX_SAVED_GAPS of them) and when they were
+saved, followed by a log of CRC-checked put and delete records. It is read
+through a memory mapping on startup, later records for a row replacing
+earlier ones.
+
+refresh() brings it up to date: from its saved position it reads only the
+rows the ChangeLog reports as changed, plus the rows that show something of
+a changed row of another table (a show's theatre name, say), and appends
+their records, then moves the header's position and end past them, so a
+crash mid-write leaves the previous state. It reloads everything, rewriting
+the file, only on first use, when the ChangeLog no longer reaches back to
+the position or it had too many gaps to save, or when superseded records
+outnumber live ones. A file written for different tables or columns, or in
+another format, is ignored and replaced.
+*/
+public class LocalSnapshot {
+
+    /*
+    table is the change_log table name; select and qualifiedKey as for
+    KeysetTableModel. shows maps each other table whose columns the rows
+    include to the column of select holding that table's id, so a change
+    there re-reads the rows that show it.
+    */
+    public record Table(String table, String[] columns, String select, String qualifiedKey,
+                        KeysetTableModel.RowMapper mapper, int maxRows, Map<String, String> shows) {
+    }
+
+    private static final long MAGIC = 0x544D53534E415031L; // "TMSSNAP1"
+    private static final int FORMAT_VERSION = 2;
+    private static final int MAX_SAVED_GAPS = 512;
+    // Fixed fields, then the gap count and MAX_SAVED_GAPS (id, first missing at) pairs
+    private static final int HEADER_BYTES = 56 + MAX_SAVED_GAPS * 16;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 0;
+    private static final int FETCH_CHUNK = 1_000;
+    private static final int MIN_COMPACT_RECORDS = 1_000;
+
+    private final Path file;
+    private final List<Table> tables;
+    private final long fingerprint;
+    private final List<NavigableMap<Integer, Object[]>> rows = new ArrayList<>();
+    private long changeLogMark;
+    // Null when there were too many to save, which makes the next refresh reload
+    private Map<Long, Long> changeLogGaps = Map.of();
+    private long savedAtMillis;
+    private long end;
+    private long recordsInFile;
+
+    private LocalSnapshot(Path file, List<Table> tables) {
+        this.file = file;
+        this.tables = List.copyOf(tables);
+        this.fingerprint = fingerprint(tables);
+        for (int i = 0; i < tables.size(); i++) {
+            rows.add(new TreeMap<>());
+        }
+    }
+
+    // Never fails: a missing, unreadable or outdated file gives an empty snapshot
+    public static LocalSnapshot open(Path file, List<Table> tables) {
+        LocalSnapshot snapshot = new LocalSnapshot(file, tables);
+        try {
+            snapshot.load();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring local snapshot " + file + ": " + e);
+            snapshot.clear();
+        }
+        return snapshot;
+    }
+
+    public synchronized boolean isEmpty() {
+        return savedAtMillis == 0;
+    }
+
+    // 0 if never saved
+    public synchronized long savedAtMillis() {
+        return savedAtMillis;
+    }
+
+    public boolean covers(String table) {
+        return indexOf(table) >= 0;
+    }
+
+    public String[] columns(String table) {
+        return tables.get(indexOf(table)).columns();
+    }
+
+    // Grid rows in the order the grids show them: newest first for tables with maxRows, else by id
+    public synchronized List<Object[]> rows(String table) {
+        int index = indexOf(table);
+        NavigableMap<Integer, Object[]> tableRows = rows.get(index);
+        return new ArrayList<>(tables.get(index).maxRows() > 0 ? tableRows.descendingMap().values() : tableRows.values());
+    }
+
+    // Brings the snapshot up to the database; returns how many rows changed
+    public int refresh(ChangeLog changeLog) throws SQLException, IOException {
+        long mark;
+        Map<Long, Long> gaps;
+        long saved;
+        List<Integer> oldestKept = new ArrayList<>();
+        synchronized (this) {
+            mark = changeLogMark;
+            gaps = changeLogGaps;
+            saved = savedAtMillis;
+            for (NavigableMap<Integer, Object[]> tableRows : rows) {
+                oldestKept.add(tableRows.isEmpty() ? null : tableRows.firstKey());
+            }
+        }
+        List<Map<Integer, Object[]>> changed = new ArrayList<>();
+        ChangeLog.Cursor[] position = new ChangeLog.Cursor[1];
+        boolean full = changeLog.inSnapshot(conn -> {
+            changed.clear();
+            ChangeLog.Cursor cursor = saved == 0 || gaps == null ? null : changeLog.resume(conn, mark, gaps, saved);
+            List<Set<Integer>> ids = new ArrayList<>();
+            Map<String, Set<Integer>> others = new HashMap<>();
+            for (int i = 0; i < tables.size(); i++) {
+                ids.add(new TreeSet<>());
+            }
+            while (cursor != null) {
+                ChangeLog.Batch batch = changeLog.poll(conn, cursor);
+                if (batch == null) {
+                    cursor = null;
+                    break;
+                }
+                if (batch.changes().isEmpty()) {
+                    break;
+                }
+                for (ChangeLog.Change change : batch.changes()) {
+                    int index = indexOf(change.table());
+                    if (index >= 0) {
+                        ids.get(index).add(change.rowId());
+                    }
+                    others.computeIfAbsent(change.table(), t -> new TreeSet<>()).add(change.rowId());
+                }
+                cursor = batch.next();
+            }
+            if (cursor == null) {
+                position[0] = changeLog.mark(conn);
+                for (Table table : tables) {
+                    changed.add(readAll(conn, table));
+                }
+                return true;
+            }
+            for (int i = 0; i < tables.size(); i++) {
+                Table table = tables.get(i);
+                Map<Integer, Object[]> tableChanged = readRows(conn, table, ids.get(i));
+                for (Map.Entry<String, String> shown : table.shows().entrySet()) {
+                    Set<Integer> otherIds = others.get(shown.getKey());
+                    if (otherIds != null) {
+                        readShowing(conn, table, shown.getValue(), otherIds, oldestKept.get(i), tableChanged);
+                    }
+                }
+                changed.add(tableChanged);
+            }
+            position[0] = cursor;
+            return false;
+        });
+        synchronized (this) {
+            return full ? replaceAll(changed, position[0]) : applyChanges(changed, position[0]);
+        }
+    }
+
+    private static Map<Integer, Object[]> readAll(Connection conn, Table table) throws SQLException {
+        String sql = table.select() + " ORDER BY " + table.qualifiedKey()
+            + (table.maxRows() > 0 ? " DESC LIMIT " + table.maxRows() : "");
+        Map<Integer, Object[]> result = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                Object[] row = table.mapper().map(rs);
+                result.put(((Number) row[0]).intValue(), row);
+            }
+        }
+        return result;
+    }
+
+    // Current rows for ids; ids with no row any more map to null
+    private static Map<Integer, Object[]> readRows(Connection conn, Table table, Set<Integer> ids) throws SQLException {
+        Map<Integer, Object[]> result = new HashMap<>();
+        List<Integer> all = new ArrayList<>(ids);
+        for (int from = 0; from < all.size(); from += FETCH_CHUNK) {
+            List<Integer> chunk = all.subList(from, Math.min(all.size(), from + FETCH_CHUNK));
+            StringBuilder sql = new StringBuilder(table.select()).append(" WHERE ").append(table.qualifiedKey())
+                .append(" IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "" : ",").append(chunk.get(i).intValue());
+            }
+            sql.append(')');
+            for (Integer id : chunk) {
+                result.put(id, null);
+            }
+            // Inlined ids: a prepared statement per distinct IN list would only churn the statement cache
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql.toString())) {
+                while (rs.next()) {
+                    Object[] row = table.mapper().map(rs);
+                    result.put(((Number) row[0]).intValue(), row);
+                }
+            }
+        }
+        return result;
+    }
+
+    /*
+    Adds to into the rows of table whose column holds one of ids, for a change
+    to the table that column refers to. A table with maxRows only re-reads
+    rows from oldestKept on; older ones are not in the snapshot.
+    */
+    private static void readShowing(Connection conn, Table table, String column, Set<Integer> ids,
+                                    Integer oldestKept, Map<Integer, Object[]> into) throws SQLException {
+        StringBuilder sql = new StringBuilder(table.select()).append(" WHERE ").append(column).append(" IN (");
+        boolean first = true;
+        for (int id : ids) {
+            sql.append(first ? "" : ",").append(id);
+            first = false;
+        }
+        sql.append(')');
+        if (table.maxRows() > 0) {
+            if (oldestKept == null) {
+                return;
+            }
+            sql.append(" AND ").append(table.qualifiedKey()).append(" >= ").append(oldestKept.intValue());
+        }
+        // Inlined ids: a prepared statement per distinct IN list would only churn the statement cache
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql.toString())) {
+            while (rs.next()) {
+                Object[] row = table.mapper().map(rs);
+                into.putIfAbsent(((Number) row[0]).intValue(), row);
+            }
+        }
+    }
+
+    // Where the rows are now current to; the gaps only fit in the header up to MAX_SAVED_GAPS
+    private void moveTo(ChangeLog.Cursor position) {
+        changeLogMark = position.highWaterMark();
+        changeLogGaps = position.gaps().size() <= MAX_SAVED_GAPS ? position.gaps() : null;
+    }
+
+    private int replaceAll(List<Map<Integer, Object[]>> loaded, ChangeLog.Cursor position) throws IOException {
+        int count = 0;
+        for (int i = 0; i < tables.size(); i++) {
+            NavigableMap<Integer, Object[]> tableRows = rows.get(i);
+            tableRows.clear();
+            tableRows.putAll(loaded.get(i));
+            count += tableRows.size();
+        }
+        moveTo(position);
+        savedAtMillis = System.currentTimeMillis();
+        rewrite();
+        return count;
+    }
+
+    private int applyChanges(List<Map<Integer, Object[]>> changed, ChangeLog.Cursor position) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int count = 0;
+        int written = 0;
+        for (int i = 0; i < tables.size(); i++) {
+            NavigableMap<Integer, Object[]> tableRows = rows.get(i);
+            int maxRows = tables.get(i).maxRows();
+            for (Map.Entry<Integer, Object[]> entry : new TreeMap<>(changed.get(i)).entrySet()) {
+                int id = entry.getKey();
+                Object[] row = entry.getValue();
+                if (row == null) {
+                    if (tableRows.remove(id) != null) {
+                        writeRecord(records, i, id, null);
+                        written++;
+                        count++;
+                    }
+                    continue;
+                }
+                // A change to a row older than every kept one is outside the window
+                if (maxRows > 0 && !tableRows.containsKey(id) && tableRows.size() >= maxRows
+                        && id < tableRows.firstKey()) {
+                    continue;
+                }
+                tableRows.put(id, row);
+                writeRecord(records, i, id, row);
+                written++;
+                count++;
+            }
+            while (maxRows > 0 && tableRows.size() > maxRows) {
+                writeRecord(records, i, tableRows.pollFirstEntry().getKey(), null);
+                written++;
+            }
+        }
+        moveTo(position);
+        savedAtMillis = System.currentTimeMillis();
+
+        if (recordsInFile > MIN_COMPACT_RECORDS && recordsInFile > 2L * liveRows()) {
+            rewrite();
+        } else {
+            append(records.toByteArray(), written);
+        }
+        return count;
+    }
+
+    private long liveRows() {
+        long live = 0;
+        for (NavigableMap<Integer, Object[]> tableRows : rows) {
+            live += tableRows.size();
+        }
+        return live;
+    }
+
+    // Records first, header last, each forced, so the header never points past what is on disk
+    private void append(byte[] records, int count) throws IOException {
+        if (!Files.exists(file)) {
+            rewrite();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.wrap(records);
+            long position = end;
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+            channel.force(false);
+            end = position;
+            recordsInFile += count;
+            writeHeader(channel);
+            channel.force(false);
+        }
+    }
+
+    // Writes every live row to a new file and moves it over the old one
+    private void rewrite() throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        long count = 0;
+        for (int i = 0; i < tables.size(); i++) {
+            for (Map.Entry<Integer, Object[]> entry : rows.get(i).entrySet()) {
+                writeRecord(records, i, entry.getKey(), entry.getValue());
+                count++;
+            }
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = parent.resolve(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.wrap(records.toByteArray());
+            long position = HEADER_BYTES;
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+            end = position;
+            recordsInFile = count;
+            writeHeader(channel);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putLong(MAGIC).putInt(FORMAT_VERSION).putInt(0).putLong(fingerprint).putLong(changeLogMark)
+            .putLong(savedAtMillis).putLong(end).putInt(changeLogGaps == null ? -1 : changeLogGaps.size()).putInt(0);
+        if (changeLogGaps != null) {
+            for (Map.Entry<Long, Long> gap : changeLogGaps.entrySet()) {
+                header.putLong(gap.getKey()).putLong(gap.getValue());
+            }
+        }
+        header.position(HEADER_BYTES).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return;
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getLong(0) != MAGIC || in.getInt(8) != FORMAT_VERSION || in.getLong(16) != fingerprint) {
+                return;
+            }
+            long fileEnd = in.getLong(40);
+            if (fileEnd < HEADER_BYTES || fileEnd > channel.size()) {
+                throw new IOException("Snapshot header points past the end of the file");
+            }
+            CRC32C crc = new CRC32C();
+            int position = HEADER_BYTES;
+            long count = 0;
+            while (position < fileEnd) {
+                int length = in.getInt(position);
+                ByteBuffer body = in.duplicate();
+                body.position(position + 4).limit(position + 4 + length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if (in.getInt(position + 4 + length) != (int) crc.getValue()) {
+                    throw new IOException("Corrupt snapshot record at offset " + position);
+                }
+                readRecord(body);
+                position += 8 + length;
+                count++;
+            }
+            changeLogMark = in.getLong(24);
+            int gapCount = in.getInt(48);
+            if (gapCount > MAX_SAVED_GAPS) {
+                throw new IOException("Snapshot header lists " + gapCount + " gaps");
+            }
+            if (gapCount < 0) {
+                changeLogGaps = null;
+            } else {
+                Map<Long, Long> gaps = new HashMap<>();
+                for (int i = 0; i < gapCount; i++) {
+                    gaps.put(in.getLong(56 + i * 16), in.getLong(64 + i * 16));
+                }
+                changeLogGaps = gaps;
+            }
+            savedAtMillis = in.getLong(32);
+            end = fileEnd;
+            recordsInFile = count;
+        }
+    }
+
+    private void clear() {
+        for (NavigableMap<Integer, Object[]> tableRows : rows) {
+            tableRows.clear();
+        }
+        changeLogMark = 0;
+        changeLogGaps = Map.of();
+        savedAtMillis = 0;
+        end = 0;
+        recordsInFile = 0;
+    }
+
+    private void readRecord(ByteBuffer body) {
+        int table = body.get();
+        int id = body.getInt();
+        if (table < 0 || table >= tables.size()) {
+            throw new IllegalStateException("Unknown snapshot table " + table);
+        }
+        if (body.get() == DELETE) {
+            rows.get(table).remove(id);
+            return;
+        }
+        Object[] row = new Object[body.getShort()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = readValue(body);
+        }
+        rows.get(table).put(id, row);
+    }
+
+    // [length][table, id, op, values...][crc of the bracketed body]
+    private static void writeRecord(ByteArrayOutputStream records, int table, int id, Object[] row) {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        try (DataOutputStream body = new DataOutputStream(bodyBytes)) {
+            body.writeByte(table);
+            body.writeInt(id);
+            body.writeByte(row == null ? DELETE : PUT);
+            if (row != null) {
+                body.writeShort(row.length);
+                for (Object value : row) {
+                    writeValue(body, value);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = bodyBytes.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        ByteBuffer framed = ByteBuffer.allocate(bytes.length + 8);
+        framed.putInt(bytes.length).put(bytes).putInt((int) crc.getValue());
+        records.writeBytes(framed.array());
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+        } else if (value instanceof Integer) {
+            out.writeByte(1);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(2);
+            out.writeLong((Long) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(4);
+            writeString(out, ((BigDecimal) value).toPlainString());
+        } else if (value instanceof Timestamp) {
+            out.writeByte(5);
+            out.writeLong(((Timestamp) value).getTime());
+        } else if (value instanceof Date) {
+            out.writeByte(6);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Time) {
+            out.writeByte(7);
+            out.writeLong(((Time) value).getTime());
+        } else {
+            out.writeByte(3);
+            writeString(out, value.toString());
+        }
+    }
+
+    private static Object readValue(ByteBuffer in) {
+        byte tag = in.get();
+        return switch (tag) {
+            case 0 -> null;
+            case 1 -> in.getInt();
+            case 2 -> in.getLong();
+            case 3 -> readString(in);
+            case 4 -> new BigDecimal(readString(in));
+            case 5 -> new Timestamp(in.getLong());
+            case 6 -> new Date(in.getLong());
+            case 7 -> new Time(in.getLong());
+            default -> throw new IllegalStateException("Unknown snapshot value type " + tag);
+        };
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int indexOf(String table) {
+        for (int i = 0; i < tables.size(); i++) {
+            if (tables.get(i).table().equals(table)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Changes whenever a table, its columns or its window do, so an old file is not misread
+    private static long fingerprint(List<Table> tables) {
+        StringBuilder sb = new StringBuilder();
+        for (Table table : tables) {
+            sb.append(table.table()).append('|').append(String.join(",", table.columns())).append('|')
+                .append(table.maxRows()).append('|').append(new TreeMap<>(table.shows())).append(';');
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        return crc.getValue() << 32 | bytes.length;
+    }
+}
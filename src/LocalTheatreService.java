@@ -0,0 +1,102 @@
+// Theatre Management System
+// In-Process Booking Service
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+TheatreService straight against the database, used by the Swing client and
+served over HTTP by TheatreApiServer.
+
+Availability is what kiosks and web pages poll, so it is answered from a
+short-lived per-show cache: at AVAILABILITY_TTL_MILLIS a hot show costs the
+database a few primary-key reads a second however many clients ask. Bookings
+and cancellations made through this instance drop the cached figure at
+once; ones made elsewhere show up within the TTL. Bookings always check
+seats in the database, so a stale figure can never oversell.
+*/
+public class LocalTheatreService implements TheatreService {
+
+    private static final long AVAILABILITY_TTL_MILLIS = 500;
+    private static final int MAX_CACHED_SHOWS = 10_000;
+
+    // availability is null for a show that does not exist
+    private record CachedAvailability(ShowRepository.Availability availability, long loadedAtNanos) {
+    }
+
+    private final ConnectionPool pool;
+    private final BookingService bookingService;
+    private final Map<Integer, CachedAvailability> availabilityCache = new ConcurrentHashMap<>();
+
+    public LocalTheatreService(ConnectionPool pool, BookingService bookingService) {
+        this.pool = pool;
+        this.bookingService = bookingService;
+    }
+
+    @Override
+    public List<ShowRepository.Show> listShows(int limit) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            return ShowRepository.list(conn, limit);
+        }
+    }
+
+    @Override
+    public ShowRepository.Availability availability(int showId) throws SQLException {
+        long now = System.nanoTime();
+        CachedAvailability cached = availabilityCache.get(showId);
+        if (cached != null && now - cached.loadedAtNanos() < AVAILABILITY_TTL_MILLIS * 1_000_000) {
+            return cached.availability();
+        }
+        ShowRepository.Availability availability;
+        try (Connection conn = pool.getConnection()) {
+            availability = ShowRepository.availability(conn, showId);
+        }
+        if (availabilityCache.size() >= MAX_CACHED_SHOWS) {
+            availabilityCache.clear();
+        }
+        availabilityCache.put(showId, new CachedAvailability(availability, now));
+        return availability;
+    }
+
+    @Override
+    public int createBooking(int customerId, int showId, int seats) throws SQLException {
+        try {
+            return bookingService.createBooking(customerId, showId, seats);
+        } finally {
+            availabilityCache.remove(showId);
+        }
+    }
+
+    @Override
+    public int createBooking(int customerId, int showId, List<String> seatLabels) throws SQLException {
+        int[] seats = bookingService.seatInventory().seatIndexes(showId, seatLabels);
+        try {
+            return bookingService.createBooking(customerId, showId, seats);
+        } finally {
+            availabilityCache.remove(showId);
+        }
+    }
+
+    // Answered from the cached seat map; the seats are checked again when they are booked
+    @Override
+    public List<String> suggestSeats(int showId, int count) throws SQLException {
+        SeatInventory seatInventory = bookingService.seatInventory();
+        if (seatInventory.getSeatMap(showId) == null) {
+            return null;
+        }
+        int[] seats = seatInventory.findAdjacentSeats(showId, count);
+        return seats == null ? List.of() : seatInventory.labels(showId, seats);
+    }
+
+    @Override
+    public boolean cancelBooking(int bookingId) throws SQLException {
+        boolean cancelled = bookingService.cancelBooking(bookingId);
+        if (cancelled) {
+            // The booking's show is not known here; cancellations are rare enough to drop everything
+            availabilityCache.clear();
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,380 @@
+// Theatre Management System
+// Metrics Registry
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+Process-wide latency histograms, counters and EDT stall reports, so a "the
+app is slow" report can be answered from numbers instead of guesses.
+
+The connection pool times every SQL execution per normalised statement
+(literals and IN lists folded to ?), with its row count; the pool, the
+transaction runner, DbExecutor and EdtMonitor add connection waits, retries,
+background task times, UI dispatch times and stalls. Everything is readable
+over JMX as TheatreManagement:type=Metrics, and startReporting() appends one
+JSON line per interval to a daily metrics file, keeping RETAINED_DAYS of them.
+
+Recording is a map lookup at most and a few atomic increments, so it stays
+on for the booking path. There is one registry per process: global().
+*/
+public class Metrics implements MetricsMXBean {
+
+    public static final class StatementStats {
+        private final String sql;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        private StatementStats(String sql) {
+            this.sql = sql;
+        }
+
+        public void record(long nanos, long rowCount) {
+            latency.record(nanos);
+            rows.addAndGet(rowCount);
+        }
+
+        public void addRows(long rowCount) {
+            rows.addAndGet(rowCount);
+        }
+
+        public void error() {
+            errors.incrementAndGet();
+        }
+    }
+
+    public record Stall(Instant at, long blockedMillis, String event, StackTraceElement[] stack) {
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(at).append(" EDT blocked ").append(blockedMillis).append(" ms in ").append(event);
+            for (StackTraceElement frame : stack) {
+                sb.append("\n    at ").append(frame);
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final Metrics GLOBAL = new Metrics();
+
+    private static final int MAX_STATEMENTS = 500;
+    private static final int MAX_RAW_SQL = 5_000;
+    private static final int MAX_SQL_LENGTH = 300;
+    private static final int RECENT_STALLS = 20;
+    private static final int STALL_FRAMES = 40;
+    private static final int RETAINED_DAYS = 7;
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<Object>> gauges = new ConcurrentHashMap<>();
+    private final Map<String, StatementStats> statements = new ConcurrentHashMap<>();
+    // Exact SQL text to its stats, so prepared statements skip normalising
+    private final Map<String, StatementStats> statementsByRawSql = new ConcurrentHashMap<>();
+    private final StatementStats otherStatements = new StatementStats("(other statements)");
+    private final Deque<Stall> recentStalls = new ArrayDeque<>();
+    private ScheduledExecutorService reporter;
+
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    public void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public void add(String counter, long delta) {
+        counters.computeIfAbsent(counter, c -> new AtomicLong()).addAndGet(delta);
+    }
+
+    public void gauge(String name, Supplier<Object> value) {
+        gauges.put(name, value);
+    }
+
+    public StatementStats statement(String sql) {
+        StatementStats stats = statementsByRawSql.get(sql);
+        if (stats != null) {
+            return stats;
+        }
+        String normalized = normalize(sql);
+        stats = statements.get(normalized);
+        if (stats == null) {
+            if (statements.size() >= MAX_STATEMENTS) {
+                return otherStatements;
+            }
+            stats = statements.computeIfAbsent(normalized, StatementStats::new);
+        }
+        if (statementsByRawSql.size() < MAX_RAW_SQL) {
+            statementsByRawSql.put(sql, stats);
+        }
+        return stats;
+    }
+
+    public void recordStall(Stall stall) {
+        increment("edt.stalls");
+        synchronized (recentStalls) {
+            recentStalls.addFirst(stall);
+            while (recentStalls.size() > RECENT_STALLS) {
+                recentStalls.removeLast();
+            }
+        }
+        System.err.println(stall);
+    }
+
+    static StackTraceElement[] trimStack(StackTraceElement[] stack) {
+        return stack.length <= STALL_FRAMES ? stack : Arrays.copyOf(stack, STALL_FRAMES);
+    }
+
+    /*
+    Folds literals so one statement shape is one entry: quoted strings and
+    numbers become ?, a run of ?s in a list becomes ?..., whitespace collapses.
+    */
+    static String normalize(String sql) {
+        StringBuilder out = new StringBuilder(Math.min(sql.length(), MAX_SQL_LENGTH + 16));
+        int i = 0;
+        int n = sql.length();
+        while (i < n && out.length() < MAX_SQL_LENGTH) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                i++;
+                while (i < n && (sql.charAt(i) != '\'' || (i + 1 < n && sql.charAt(i + 1) == '\''))) {
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                }
+                i++;
+                appendPlaceholder(out);
+            } else if (Character.isDigit(c) && !isIdentifierChar(out)) {
+                while (i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                appendPlaceholder(out);
+            } else if (c == '?') {
+                i++;
+                appendPlaceholder(out);
+            } else if (Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (out.length() > 0) {
+                    out.append(' ');
+                }
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString().strip();
+    }
+
+    private static boolean isIdentifierChar(StringBuilder out) {
+        if (out.length() == 0) {
+            return false;
+        }
+        char last = out.charAt(out.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_';
+    }
+
+    // "?, ?, ?" in an IN list or VALUES row collapses to "?..."
+    private static void appendPlaceholder(StringBuilder out) {
+        String text = out.toString().stripTrailing();
+        if (text.endsWith(",")) {
+            String before = text.substring(0, text.length() - 1).stripTrailing();
+            if (before.endsWith("?") || before.endsWith("?...")) {
+                out.setLength(0);
+                out.append(before.endsWith("?") ? before + "..." : before);
+                return;
+            }
+        }
+        out.append('?');
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("TheatreManagement:type=Metrics"));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Appends one line of interval figures every intervalSeconds to metrics-<date>.jsonl in directory
+    public synchronized void startReporting(Path directory, long intervalSeconds) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-report");
+            t.setDaemon(true);
+            return t;
+        });
+        Map<String, LatencyHistogram.Snapshot> previous = new HashMap<>();
+        Map<String, Long> previousCounters = new HashMap<>();
+        reporter.scheduleAtFixedRate(() -> {
+            try {
+                Files.createDirectories(directory);
+                String line = intervalJson(previous, previousCounters);
+                Path file = directory.resolve("metrics-" + LocalDate.now() + ".jsonl");
+                Files.writeString(file, line + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                deleteOldFiles(directory);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private String intervalJson(Map<String, LatencyHistogram.Snapshot> previous, Map<String, Long> previousCounters) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"time\":").append(quote(Instant.now().toString()));
+
+        json.append(",\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> counter : new TreeMap<>(getCounters()).entrySet()) {
+            long delta = counter.getValue() - previousCounters.getOrDefault(counter.getKey(), 0L);
+            previousCounters.put(counter.getKey(), counter.getValue());
+            json.append(first ? "" : ",").append(quote(counter.getKey())).append(':').append(delta);
+            first = false;
+        }
+
+        json.append("},\"latencies\":{");
+        first = true;
+        Map<String, LatencyHistogram> all = new TreeMap<>(histograms);
+        for (StatementStats stats : statements.values()) {
+            all.put("sql " + stats.sql, stats.latency);
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : all.entrySet()) {
+            LatencyHistogram.Snapshot now = entry.getValue().snapshot();
+            LatencyHistogram.Snapshot interval = now.minus(previous.put(entry.getKey(), now));
+            if (interval.count() == 0) {
+                continue;
+            }
+            json.append(first ? "" : ",").append(quote(entry.getKey())).append(':').append(String.format(
+                "{\"count\":%d,\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f}",
+                interval.count(), interval.meanNanos() / 1e6, interval.percentile(50) / 1e6,
+                interval.percentile(90) / 1e6, interval.percentile(99) / 1e6, interval.maxNanos() / 1e6));
+            first = false;
+        }
+
+        json.append("},\"gauges\":{");
+        first = true;
+        for (Map.Entry<String, String> gauge : new TreeMap<>(getGauges()).entrySet()) {
+            json.append(first ? "" : ",").append(quote(gauge.getKey())).append(':').append(quote(gauge.getValue()));
+            first = false;
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    private static void deleteOldFiles(Path directory) throws IOException {
+        LocalDate cutoff = LocalDate.now().minusDays(RETAINED_DAYS);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "metrics-*.jsonl")) {
+            for (Path file : files) {
+                LocalDate modified = LocalDate.ofInstant(Files.getLastModifiedTime(file).toInstant(),
+                    ZoneId.systemDefault());
+                if (modified.isBefore(cutoff)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().get());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, String> getGauges() {
+        Map<String, String> values = new TreeMap<>();
+        for (Map.Entry<String, Supplier<Object>> gauge : gauges.entrySet()) {
+            try {
+                values.put(gauge.getKey(), String.valueOf(gauge.getValue().get()));
+            } catch (RuntimeException e) {
+                values.put(gauge.getKey(), "error: " + e);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public String[] getLatencies() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            lines.add(entry.getKey() + " " + entry.getValue().snapshot());
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getStatements() {
+        List<StatementStats> all = new ArrayList<>(statements.values());
+        all.add(otherStatements);
+        all.sort(Comparator.comparingLong((StatementStats s) -> s.latency.snapshot().sumNanos()).reversed());
+        List<String> lines = new ArrayList<>();
+        for (StatementStats stats : all) {
+            LatencyHistogram.Snapshot snapshot = stats.latency.snapshot();
+            if (snapshot.count() == 0) {
+                continue;
+            }
+            lines.add(String.format("total=%.1fms %s rows=%d errors=%d | %s", snapshot.sumNanos() / 1e6, snapshot,
+                stats.rows.get(), stats.errors.get(), stats.sql));
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getRecentStalls() {
+        synchronized (recentStalls) {
+            List<String> lines = new ArrayList<>();
+            for (Stall stall : recentStalls) {
+                lines.add(stall.toString());
+            }
+            return lines.toArray(new String[0]);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+// Theatre Management System
+// Metrics JMX Interface
+import java.util.Map;
+
+/*
+What Metrics exposes over JMX as TheatreManagement:type=Metrics, readable
+from jconsole or any JMX client while the application runs.
+*/
+public interface MetricsMXBean {
+
+    Map<String, Long> getCounters();
+
+    Map<String, String> getGauges();
+
+    // One line per histogram: name, count, mean and percentiles in milliseconds
+    String[] getLatencies();
+
+    // Statements by total time spent, slowest first, with row and error counts
+    String[] getStatements();
+
+    String[] getRecentStalls();
+}
@@ -0,0 +1,219 @@
+// Theatre Management System
+// Shared Picker Data
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/*
+One in-process copy of the customer, theatre and show lists behind every
+picker.
+
+Each kind is loaded once, in the background, and handed to all subscribers;
+opening another tab or combo reuses it, and prefetch() loads them all ahead
+of the first tab that needs one. Writers call invalidate() after they
+commit, which reloads that kind once (repeated invalidations coalesce) and
+pushes the new list to every subscriber. Each list is capped at maxEntries
+rows so a very large customer table cannot fill the heap or the combo.
+The show list holds upcoming shows only, the soonest maxEntries of them
+sorted by title, so a cap that cuts in cuts off the far future rather than
+the end of the alphabet, and past shows never take up room. Shows without
+a date are listed too, after every dated one as far as the cap goes.
+Changes other terminals made arrive through refresh(), which re-reads only
+the rows named and patches the list, so a show that sells out elsewhere is
+marked sold out in the pickers without reloading them. Sold-out shows stay
+listed so their customers can still be put on the Waitlist.
+
+Entries carry the id, so pickers hand it straight to the booking code
+without formatting and parsing "id - name" strings. Only used from the EDT.
+*/
+public class ReferenceDataCache {
+
+    public enum Kind { CUSTOMERS, THEATRES, SHOWS }
+
+    // availableSeats is -1 where it does not apply
+    public record Entry(int id, String name, int availableSeats) {
+        @Override
+        public String toString() {
+            if (availableSeats < 0) {
+                return id + " - " + name;
+            }
+            return id + " - " + name + (availableSeats == 0 ? " (sold out)" : " (" + availableSeats + " seats left)");
+        }
+    }
+
+    public static final int DEFAULT_MAX_ENTRIES = 5_000;
+
+    // Close to the database's ORDER BY name; a patched row only has to land near its neighbours
+    private static final Comparator<Entry> BY_NAME =
+        Comparator.comparing(Entry::name, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER));
+
+    private final ConnectionPool pool;
+    private final DbExecutor db;
+    private final int maxEntries;
+    private final Map<Kind, List<Entry>> entries = new EnumMap<>(Kind.class);
+    private final Map<Kind, List<Consumer<List<Entry>>>> subscribers = new EnumMap<>(Kind.class);
+    private final Set<Kind> loading = EnumSet.noneOf(Kind.class);
+
+    public ReferenceDataCache(ConnectionPool pool, DbExecutor db) {
+        this(pool, db, DEFAULT_MAX_ENTRIES);
+    }
+
+    public ReferenceDataCache(ConnectionPool pool, DbExecutor db, int maxEntries) {
+        this.pool = pool;
+        this.db = db;
+        this.maxEntries = maxEntries;
+    }
+
+    // Calls listener with the current list now (or once loaded) and again after every reload
+    public void subscribe(Kind kind, Consumer<List<Entry>> listener) {
+        subscribers.computeIfAbsent(kind, k -> new ArrayList<>()).add(listener);
+        List<Entry> cached = entries.get(kind);
+        if (cached != null) {
+            listener.accept(cached);
+        } else if (!loading.contains(kind)) {
+            load(kind);
+        }
+    }
+
+    // Starts loading every kind not already cached or on its way, all in parallel
+    public void prefetch() {
+        for (Kind kind : Kind.values()) {
+            if (!entries.containsKey(kind) && !loading.contains(kind)) {
+                load(kind);
+            }
+        }
+    }
+
+    public void invalidate(Kind kind) {
+        entries.remove(kind);
+        if (subscribers.containsKey(kind)) {
+            load(kind);
+        }
+    }
+
+    // Re-reads the given rows of kind and patches the cached list; null ids, or a list at its cap, reload it
+    public void refresh(Kind kind, Set<Integer> ids) {
+        List<Entry> cached = entries.get(kind);
+        if (ids == null || cached == null || cached.size() >= maxEntries) {
+            invalidate(kind);
+            return;
+        }
+        db.submit(null, null, () -> query(kind, ids), rows -> {
+            List<Entry> current = entries.get(kind);
+            if (current == null) {
+                // Invalidated meanwhile; the reload covers these rows too
+                return;
+            }
+            List<Entry> patched = new ArrayList<>(current);
+            patched.removeIf(entry -> ids.contains(entry.id()));
+            for (Entry row : rows) {
+                int at = Collections.binarySearch(patched, row, BY_NAME);
+                patched.add(at < 0 ? -at - 1 : at, row);
+            }
+            List<Entry> updated = List.copyOf(patched);
+            entries.put(kind, updated);
+            for (Consumer<List<Entry>> listener : subscribers.getOrDefault(kind, List.of())) {
+                listener.accept(updated);
+            }
+        }, Exception::printStackTrace);
+    }
+
+    // A newer load of the same kind supersedes one still running, so only its callbacks fire
+    private void load(Kind kind) {
+        loading.add(kind);
+        db.submit(null, "reference." + kind, () -> query(kind), loaded -> {
+            loading.remove(kind);
+            entries.put(kind, loaded);
+            for (Consumer<List<Entry>> listener : subscribers.getOrDefault(kind, List.of())) {
+                listener.accept(loaded);
+            }
+        }, e -> {
+            loading.remove(kind);
+            e.printStackTrace();
+        });
+    }
+
+    private List<Entry> query(Kind kind) throws SQLException {
+        List<Entry> loaded = new ArrayList<>();
+        List<Entry> undated = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sqlFor(kind))) {
+            stmt.setInt(1, maxEntries);
+            if (kind == Kind.SHOWS) {
+                stmt.setInt(2, maxEntries);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Entry entry = new Entry(rs.getInt(1), rs.getString(2), rs.getInt(3));
+                    (kind == Kind.SHOWS && rs.getBoolean(4) ? undated : loaded).add(entry);
+                }
+            }
+        }
+        if (kind == Kind.SHOWS) {
+            // Undated shows only take the room the dated ones leave under the cap
+            loaded.addAll(undated.subList(0, Math.max(0, Math.min(undated.size(), maxEntries - loaded.size()))));
+            loaded.sort(BY_NAME);
+        }
+        return List.copyOf(loaded);
+    }
+
+    // The rows among ids that still exist (and, for shows, are still upcoming or undated)
+    private List<Entry> query(Kind kind, Set<Integer> ids) throws SQLException {
+        List<Entry> loaded = new ArrayList<>();
+        // Inlined ids: a prepared statement per distinct IN list would only churn the statement cache
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sqlForRows(kind, ids))) {
+            while (rs.next()) {
+                loaded.add(new Entry(rs.getInt(1), rs.getString(2), rs.getInt(3)));
+            }
+        }
+        return loaded;
+    }
+
+    private static String sqlForRows(Kind kind, Set<Integer> rowIds) {
+        StringBuilder ids = new StringBuilder();
+        for (int id : rowIds) {
+            ids.append(ids.length() == 0 ? "" : ",").append(id);
+        }
+        switch (kind) {
+            case CUSTOMERS:
+                return "SELECT customer_id, name, -1 FROM customers WHERE customer_id IN (" + ids + ")";
+            case THEATRES:
+                return "SELECT theatre_id, name, -1 FROM theatres WHERE theatre_id IN (" + ids + ")";
+            default:
+                return "SELECT show_id, title, available_seats FROM shows WHERE show_id IN (" + ids + ") "
+                    + "AND (show_date >= CURDATE() OR show_date IS NULL)";
+        }
+    }
+
+    // Each query reads its index in order and stops at the limit; IndexCheckTool watches that it still does
+    static String sqlFor(Kind kind) {
+        switch (kind) {
+            case CUSTOMERS:
+                return "SELECT customer_id, name, -1 FROM customers ORDER BY name LIMIT ?";
+            case THEATRES:
+                return "SELECT theatre_id, name, -1 FROM theatres ORDER BY name LIMIT ?";
+            default:
+                // The soonest shows, then undated ones flagged in the fourth column; query() puts them in title order
+                return """
+                    (SELECT show_id, title, available_seats, FALSE FROM shows WHERE show_date >= CURDATE()
+                     ORDER BY show_date, show_time LIMIT ?)
+                    UNION ALL
+                    (SELECT show_id, title, available_seats, TRUE FROM shows WHERE show_date IS NULL
+                     ORDER BY show_id LIMIT ?)
+                    """;
+        }
+    }
+}
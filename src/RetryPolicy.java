@@ -0,0 +1,63 @@
+// Theatre Management System
+// Transaction Retry Policy
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+Which failed transactions BookingService runs again, how often, and how long
+it waits in between.
+
+A transaction that lost a race is retried: a deadlock (MySQL error 1213,
+SQLSTATE 40001), a lock wait timeout (1205) or an optimistic version check
+that found the row changed (BookingService.ConflictException). Anything else
+fails at once. The wait before attempt n is drawn uniformly from
+[0, min(maxBackoffMillis, baseBackoffMillis * 2^n)] ("full jitter"), so
+clients that collided on the same hot show spread out instead of colliding
+again in lockstep, and the cap keeps a long run of conflicts from stalling a
+terminal for seconds.
+
+The defaults can be changed without a rebuild:
+   -Dtheatre.retry.attempts=5 -Dtheatre.retry.baseMillis=5 -Dtheatre.retry.maxMillis=200
+
+Each retry is counted in Metrics as transaction.retry:<reason>, next to the
+transaction.retries and transaction.retries_exhausted totals.
+*/
+public record RetryPolicy(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis) {
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(
+        Integer.getInteger("theatre.retry.attempts", 5),
+        Long.getLong("theatre.retry.baseMillis", 5),
+        Long.getLong("theatre.retry.maxMillis", 200));
+
+    public RetryPolicy {
+        if (maxAttempts < 1 || baseBackoffMillis < 0 || maxBackoffMillis < baseBackoffMillis) {
+            throw new IllegalArgumentException("Invalid retry policy: " + maxAttempts + " attempts, "
+                + baseBackoffMillis + ".." + maxBackoffMillis + " ms");
+        }
+    }
+
+    // Why e is worth retrying, as used in the metric name, or null if it is not
+    public static String reason(SQLException e) {
+        if (e instanceof BookingService.ConflictException) {
+            return "conflict";
+        }
+        if (e.getErrorCode() == 1205) {
+            return "lock_wait_timeout";
+        }
+        if ("40001".equals(e.getSQLState()) || e.getErrorCode() == 1213) {
+            return "deadlock";
+        }
+        return null;
+    }
+
+    // Sleeps before attempt + 1
+    public void backoff(int attempt) throws SQLException {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying transaction", e);
+        }
+    }
+}
@@ -0,0 +1,435 @@
+// Theatre Management System
+// Schema Migrations
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+Brings the database schema up to the version this build expects.
+
+Migrations are numbered and applied in order, each exactly once; the
+schema_version table records which ones ran and a SHA-256 checksum of their
+statements. Editing a migration after it shipped would leave databases that
+ran the old text silently different, so a changed checksum stops startup
+instead. Schema changes go in a new migration at the end of the list.
+
+When the database is already current, migrate() costs one SELECT and issues
+no DDL. Otherwise it takes a named server lock, so two instances starting
+together do not both apply the same migration. MySQL commits each DDL
+statement on its own, so a migration that fails part way leaves the earlier
+statements applied and is not recorded. The next start re-runs it from the
+beginning: the baseline is safe to repeat, later migrations may first need
+their partial changes undone by hand.
+*/
+public class SchemaMigrations {
+
+    public record Migration(int version, String description, List<String> statements) {
+        public String checksum() {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (String statement : statements) {
+                    digest.update(statement.strip().getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                }
+                return HexFormat.of().formatHex(digest.digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final String LOCK_NAME = "theatre_management.schema";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    // MySQL reports a missing table with this SQLState
+    private static final String NO_SUCH_TABLE = "42S02";
+
+    private static final List<Migration> MIGRATIONS = List.of(
+        new Migration(1, "Baseline tables and change log triggers", baseline()),
+
+        // Every index is built online; ALTER TABLE adds all of a table's indexes in one pass
+        new Migration(2, "Secondary indexes for pickers, booking lookups and show dates", List.of(
+            // Show picker: WHERE available_seats > 0 ORDER BY title, read in index order
+            // Date-range listings: WHERE show_date BETWEEN ? AND ? ORDER BY show_date, show_time
+            """
+            ALTER TABLE shows
+                ADD INDEX idx_shows_title_available (title, available_seats),
+                ADD INDEX idx_shows_schedule (show_date, show_time),
+                ALGORITHM=INPLACE, LOCK=NONE
+            """,
+
+            // A customer's or a show's bookings by status; these also serve the foreign keys,
+            // so MySQL drops the single-column indexes it created for them
+            """
+            ALTER TABLE bookings
+                ADD INDEX idx_bookings_customer_status (customer_id, status, booking_date),
+                ADD INDEX idx_bookings_show_status (show_id, status),
+                ALGORITHM=INPLACE, LOCK=NONE
+            """,
+
+            // Customer and theatre pickers: ORDER BY name LIMIT ?
+            """
+            ALTER TABLE customers
+                ADD INDEX idx_customers_name (name),
+                ALGORITHM=INPLACE, LOCK=NONE
+            """,
+            """
+            ALTER TABLE theatres
+                ADD INDEX idx_theatres_name (name),
+                ALGORITHM=INPLACE, LOCK=NONE
+            """,
+
+            // Seat layouts: WHERE theatre_id=? ORDER BY position
+            """
+            ALTER TABLE theatre_sections
+                ADD INDEX idx_sections_theatre_position (theatre_id, position),
+                ALGORITHM=INPLACE, LOCK=NONE
+            """
+        )),
+
+        // Bumped by every edit of a show's details and every status change of a booking, and checked
+        // by the update that makes it; seat counts are changed by guarded increments and leave it alone
+        new Migration(3, "Version columns for optimistic updates of shows and bookings", List.of(
+            "ALTER TABLE shows ADD COLUMN version BIGINT NOT NULL DEFAULT 0, ALGORITHM=INSTANT",
+            "ALTER TABLE bookings ADD COLUMN version BIGINT NOT NULL DEFAULT 0, ALGORITHM=INSTANT"
+        )),
+
+        // Requests for sold-out shows; the index serves a show's WAITING rows in id order
+        new Migration(4, "Waitlist for sold-out shows", List.of(
+            """
+            CREATE TABLE IF NOT EXISTS waitlist (
+                waitlist_id INT AUTO_INCREMENT PRIMARY KEY,
+                show_id INT NOT NULL,
+                customer_id INT NOT NULL,
+                seats INT NOT NULL,
+                requested_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+                status ENUM('WAITING', 'BOOKED', 'WITHDRAWN') NOT NULL DEFAULT 'WAITING',
+                booking_id INT NULL,
+                FOREIGN KEY (show_id) REFERENCES shows(show_id),
+                FOREIGN KEY (customer_id) REFERENCES customers(customer_id),
+                FOREIGN KEY (booking_id) REFERENCES bookings(booking_id),
+                INDEX idx_waitlist_show_status (show_id, status, waitlist_id)
+            )
+            """
+        )),
+
+        // The layout a show's seat map was created with, so later section or seat count changes
+        // of the theatre cannot move its seats; NULL for maps created before this column
+        new Migration(5, "Seat layout stored with each show's seat map", List.of(
+            "ALTER TABLE show_seat_maps ADD COLUMN layout BLOB NULL, ALGORITHM=INSTANT"
+        )),
+
+        // Overlap checks: WHERE theatre_id=? AND show_date BETWEEN ? AND ?, under the theatre's lock.
+        // It also serves the theatre_id foreign key, so MySQL drops the index it created for it.
+        new Migration(6, "Theatre schedule index for show overlap checks", List.of(
+            """
+            ALTER TABLE shows
+                ADD INDEX idx_shows_theatre_schedule (theatre_id, show_date, show_time),
+                ALGORITHM=INPLACE, LOCK=NONE
+            """
+        ))
+    );
+
+    public static final int CURRENT_VERSION = MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+
+    private final ConnectionPool pool;
+
+    public SchemaMigrations(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    // Applies whatever is missing; returns how many migrations ran
+    public int migrate() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            Map<Integer, String> applied = appliedMigrations(conn);
+            if (applied != null && isCurrent(applied)) {
+                return 0;
+            }
+            lock(conn);
+            try {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate("""
+                        CREATE TABLE IF NOT EXISTS schema_version (
+                            version INT PRIMARY KEY,
+                            description VARCHAR(200) NOT NULL,
+                            checksum CHAR(64) NOT NULL,
+                            applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                        )
+                        """);
+                }
+                // Another instance may have migrated while we waited for the lock
+                applied = appliedMigrations(conn);
+                isCurrent(applied);
+                int count = 0;
+                for (Migration migration : MIGRATIONS) {
+                    if (!applied.containsKey(migration.version())) {
+                        apply(conn, migration);
+                        count++;
+                    }
+                }
+                return count;
+            } finally {
+                unlock(conn);
+            }
+        }
+    }
+
+    // Version to checksum of every applied migration, or null if schema_version does not exist yet
+    private static Map<Integer, String> appliedMigrations(Connection conn) throws SQLException {
+        Map<Integer, String> applied = new TreeMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM schema_version")) {
+            while (rs.next()) {
+                applied.put(rs.getInt(1), rs.getString(2));
+            }
+        } catch (SQLException e) {
+            if (NO_SUCH_TABLE.equals(e.getSQLState())) {
+                return null;
+            }
+            throw e;
+        }
+        return applied;
+    }
+
+    // Checks applied migrations against this build; true if none are missing
+    private static boolean isCurrent(Map<Integer, String> applied) throws SQLException {
+        for (Map.Entry<Integer, String> entry : applied.entrySet()) {
+            if (entry.getKey() > CURRENT_VERSION) {
+                throw new SQLException("Database schema is at version " + entry.getKey()
+                    + ", newer than this application (" + CURRENT_VERSION + ")");
+            }
+        }
+        for (Migration migration : MIGRATIONS) {
+            String checksum = applied.get(migration.version());
+            if (checksum != null && !checksum.equals(migration.checksum())) {
+                throw new SQLException("Migration " + migration.version() + " (" + migration.description()
+                    + ") has changed since it was applied");
+            }
+        }
+        return applied.size() == MIGRATIONS.size();
+    }
+
+    private static void apply(Connection conn, Migration migration) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            List<String> statements = migration.statements();
+            for (int i = 0; i < statements.size(); i++) {
+                try {
+                    stmt.execute(statements.get(i));
+                } catch (SQLException e) {
+                    throw new SQLException("Migration " + migration.version() + " (" + migration.description()
+                        + ") failed at statement " + (i + 1) + ": " + e.getMessage(), e.getSQLState(), e);
+                }
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO schema_version (version, description, checksum) VALUES (?, ?, ?)")) {
+            stmt.setInt(1, migration.version());
+            stmt.setString(2, migration.description());
+            stmt.setString(3, migration.checksum());
+            stmt.executeUpdate();
+        }
+        Metrics.global().increment("schema.migrations");
+    }
+
+    private static void lock(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for another instance to finish migrating the schema");
+                }
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.executeQuery().close();
+        }
+    }
+
+    /*
+    The tables as they were created before migrations existed, so existing
+    databases pass through unchanged. Written out in full, triggers included:
+    the checksum covers this exact text, so it must not follow later code.
+    */
+    private static List<String> baseline() {
+        return List.of(
+            // Customers table
+            """
+            CREATE TABLE IF NOT EXISTS customers (
+                customer_id INT AUTO_INCREMENT PRIMARY KEY,
+                name VARCHAR(100) NOT NULL,
+                email VARCHAR(100) UNIQUE,
+                phone VARCHAR(15),
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            )
+            """,
+            
+            // Theatres table
+            """
+            CREATE TABLE IF NOT EXISTS theatres (
+                theatre_id INT AUTO_INCREMENT PRIMARY KEY,
+                name VARCHAR(100) NOT NULL,
+                location VARCHAR(200),
+                total_seats INT NOT NULL,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            )
+            """,
+            
+            // Shows table
+            """
+            CREATE TABLE IF NOT EXISTS shows (
+                show_id INT AUTO_INCREMENT PRIMARY KEY,
+                title VARCHAR(150) NOT NULL,
+                description TEXT,
+                genre VARCHAR(50),
+                duration_minutes INT,
+                ticket_price DECIMAL(10,2),
+                theatre_id INT,
+                show_date DATE,
+                show_time TIME,
+                available_seats INT,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                FOREIGN KEY (theatre_id) REFERENCES theatres(theatre_id)
+            )
+            """,
+            
+            // Bookings table
+            """
+            CREATE TABLE IF NOT EXISTS bookings (
+                booking_id INT AUTO_INCREMENT PRIMARY KEY,
+                customer_id INT,
+                show_id INT,
+                seats_booked INT,
+                total_amount DECIMAL(10,2),
+                booking_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                status ENUM('CONFIRMED', 'CANCELLED') DEFAULT 'CONFIRMED',
+                FOREIGN KEY (customer_id) REFERENCES customers(customer_id),
+                FOREIGN KEY (show_id) REFERENCES shows(show_id)
+            )
+            """,
+            
+            // Theatre seating sections, numbered in position order
+            """
+            CREATE TABLE IF NOT EXISTS theatre_sections (
+                section_id INT AUTO_INCREMENT PRIMARY KEY,
+                theatre_id INT NOT NULL,
+                name VARCHAR(50) NOT NULL,
+                position INT NOT NULL,
+                row_count INT NOT NULL,
+                seats_per_row INT NOT NULL,
+                FOREIGN KEY (theatre_id) REFERENCES theatres(theatre_id)
+            )
+            """,
+            
+            // One packed occupancy bitmap per show
+            """
+            CREATE TABLE IF NOT EXISTS show_seat_maps (
+                show_id INT PRIMARY KEY,
+                seat_count INT NOT NULL,
+                occupancy MEDIUMBLOB NOT NULL,
+                version BIGINT NOT NULL DEFAULT 0,
+                FOREIGN KEY (show_id) REFERENCES shows(show_id)
+            )
+            """,
+            
+            // Seat indexes held by each booking, packed
+            """
+            CREATE TABLE IF NOT EXISTS booking_seats (
+                booking_id INT PRIMARY KEY,
+                seat_indexes BLOB NOT NULL,
+                FOREIGN KEY (booking_id) REFERENCES bookings(booking_id)
+            )
+            """,
+            
+            // Seats held between selection and payment, expires_at in epoch millis
+            """
+            CREATE TABLE IF NOT EXISTS seat_holds (
+                hold_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                show_id INT NOT NULL,
+                seats INT NOT NULL,
+                seat_indexes BLOB,
+                expires_at BIGINT NOT NULL,
+                FOREIGN KEY (show_id) REFERENCES shows(show_id)
+            )
+            """,
+            
+            // Dashboard totals, each spread over a few shards to avoid one hot row
+            """
+            CREATE TABLE IF NOT EXISTS stats_counters (
+                name VARCHAR(50) NOT NULL,
+                shard TINYINT NOT NULL,
+                value DECIMAL(20,2) NOT NULL DEFAULT 0,
+                PRIMARY KEY (name, shard)
+            )
+            """,
+            
+            // One row per changed customer, theatre, show or booking, written by triggers
+            """
+            CREATE TABLE IF NOT EXISTS change_log (
+                change_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                table_name VARCHAR(20) NOT NULL,
+                row_id INT NOT NULL,
+                op CHAR(1) NOT NULL,
+                changed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            )
+            """,
+
+            // Change log triggers of customers
+            "DROP TRIGGER IF EXISTS customers_log_insert",
+            "CREATE TRIGGER customers_log_insert AFTER INSERT ON customers FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('customers', NEW.customer_id, 'I')",
+            "DROP TRIGGER IF EXISTS customers_log_update",
+            "CREATE TRIGGER customers_log_update AFTER UPDATE ON customers FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('customers', NEW.customer_id, 'U')",
+            "DROP TRIGGER IF EXISTS customers_log_delete",
+            "CREATE TRIGGER customers_log_delete AFTER DELETE ON customers FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('customers', OLD.customer_id, 'D')",
+
+            // Change log triggers of theatres
+            "DROP TRIGGER IF EXISTS theatres_log_insert",
+            "CREATE TRIGGER theatres_log_insert AFTER INSERT ON theatres FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('theatres', NEW.theatre_id, 'I')",
+            "DROP TRIGGER IF EXISTS theatres_log_update",
+            "CREATE TRIGGER theatres_log_update AFTER UPDATE ON theatres FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('theatres', NEW.theatre_id, 'U')",
+            "DROP TRIGGER IF EXISTS theatres_log_delete",
+            "CREATE TRIGGER theatres_log_delete AFTER DELETE ON theatres FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('theatres', OLD.theatre_id, 'D')",
+
+            // Change log triggers of shows
+            "DROP TRIGGER IF EXISTS shows_log_insert",
+            "CREATE TRIGGER shows_log_insert AFTER INSERT ON shows FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('shows', NEW.show_id, 'I')",
+            "DROP TRIGGER IF EXISTS shows_log_update",
+            "CREATE TRIGGER shows_log_update AFTER UPDATE ON shows FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('shows', NEW.show_id, 'U')",
+            "DROP TRIGGER IF EXISTS shows_log_delete",
+            "CREATE TRIGGER shows_log_delete AFTER DELETE ON shows FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('shows', OLD.show_id, 'D')",
+
+            // Change log triggers of bookings
+            "DROP TRIGGER IF EXISTS bookings_log_insert",
+            "CREATE TRIGGER bookings_log_insert AFTER INSERT ON bookings FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('bookings', NEW.booking_id, 'I')",
+            "DROP TRIGGER IF EXISTS bookings_log_update",
+            "CREATE TRIGGER bookings_log_update AFTER UPDATE ON bookings FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('bookings', NEW.booking_id, 'U')",
+            "DROP TRIGGER IF EXISTS bookings_log_delete",
+            "CREATE TRIGGER bookings_log_delete AFTER DELETE ON bookings FOR EACH ROW "
+                + "INSERT INTO change_log (table_name, row_id, op) VALUES ('bookings', OLD.booking_id, 'D')"
+        );
+    }
+}
@@ -0,0 +1,297 @@
+// Theatre Management System
+// Temporary Seat Holds
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+Holds seats for a customer between picking them and paying.
+
+A hold takes its seats off shows.available_seats (and the seat map) exactly
+like a booking, and is recorded in seat_holds so it survives a restart.
+Expiry is driven by one TimerWheel and one timer thread for all holds: every
+tick the due holds are collected and released together, with one locking
+SELECT, one DELETE, and one seat restore per show in the batch. Confirming or
+releasing a hold races safely with expiry because whoever deletes the
+seat_holds row first is the one that gets to act on it.
+*/
+public class SeatHoldManager implements AutoCloseable {
+
+    public record Hold(long holdId, int showId, int seats, int[] seatIndexes, long expiresAtMillis) {
+    }
+
+    private static final long TICK_MILLIS = 100;
+    private static final long RETRY_DELAY_MILLIS = 5_000;
+    private static final int RELEASE_BATCH_SIZE = 1_000;
+
+    private final BookingService bookingService;
+    private final SeatInventory seatInventory;
+    private final TimerWheel<Long> wheel;
+    private final Map<Long, TimerWheel.Timeout<Long>> timers = new ConcurrentHashMap<>();
+    private final Map<Long, Hold> holds = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker;
+
+    public SeatHoldManager(BookingService bookingService, SeatInventory seatInventory) {
+        this.bookingService = bookingService;
+        this.seatInventory = seatInventory;
+        this.wheel = new TimerWheel<>(TICK_MILLIS, System.currentTimeMillis());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "seat-hold-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public int activeHolds() {
+        return holds.size();
+    }
+
+    // Re-arms holds left by a previous run; ones already past their expiry go in the next tick
+    public void recover() throws SQLException {
+        List<Hold> recovered = new ArrayList<>();
+        bookingService.inTransaction(conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT hold_id, show_id, seats, seat_indexes, expires_at FROM seat_holds");
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    byte[] packed = rs.getBytes("seat_indexes");
+                    recovered.add(new Hold(rs.getLong("hold_id"), rs.getInt("show_id"), rs.getInt("seats"),
+                        packed == null ? new int[0] : SeatInventory.unpackSeats(packed), rs.getLong("expires_at")));
+                }
+            }
+            conn.commit();
+            return null;
+        });
+        long now = System.currentTimeMillis();
+        for (Hold hold : recovered) {
+            track(hold, now);
+        }
+    }
+
+    // Returns the hold, or null if the show does not have enough seats
+    public Hold hold(int showId, int seats, long ttlMillis) throws SQLException {
+        return hold(showId, seats, null, ttlMillis);
+    }
+
+    public Hold hold(int showId, int[] seatIndexes, long ttlMillis) throws SQLException {
+        return hold(showId, seatIndexes.length, seatIndexes, ttlMillis);
+    }
+
+    private Hold hold(int showId, int seats, int[] seatIndexes, long ttlMillis) throws SQLException {
+        if (seats <= 0) {
+            throw new IllegalArgumentException("Seats must be positive");
+        }
+        if (ttlMillis <= 0 || ttlMillis > wheel.maxDelayMillis()) {
+            throw new IllegalArgumentException("Invalid hold TTL: " + ttlMillis + " ms");
+        }
+        SeatInventory.Allocation[] allocation = new SeatInventory.Allocation[1];
+        Hold hold = bookingService.inTransaction(conn -> {
+            if (!ShowRepository.takeSeats(conn, showId, seats)) {
+                conn.rollback();
+                return null;
+            }
+            allocation[0] = seatInventory.allocate(conn, showId, seatIndexes, seats);
+            if (allocation[0] == null) {
+                conn.rollback();
+                return null;
+            }
+            int[] heldSeats = allocation[0].seats();
+            long expiresAt = System.currentTimeMillis() + ttlMillis;
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO seat_holds (show_id, seats, seat_indexes, expires_at) VALUES (?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setInt(1, showId);
+                stmt.setInt(2, seats);
+                stmt.setBytes(3, heldSeats.length == 0 ? null : SeatInventory.packSeats(heldSeats));
+                stmt.setLong(4, expiresAt);
+                stmt.executeUpdate();
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    keys.next();
+                    conn.commit();
+                    return new Hold(keys.getLong(1), showId, seats, heldSeats, expiresAt);
+                }
+            }
+        });
+        if (hold != null) {
+            seatInventory.publish(allocation[0]);
+            bookingService.journal(List.of(BookingJournal.seatsAdjusted(showId, -seats)));
+            track(hold, System.currentTimeMillis());
+        }
+        return hold;
+    }
+
+    // Turns a live hold into a booking; returns the booking_id, or 0 if the hold expired
+    public int confirm(long holdId, int customerId) throws SQLException {
+        Hold hold = holds.get(holdId);
+        if (hold == null) {
+            return BookingService.NOT_ENOUGH_SEATS;
+        }
+        BigDecimal[] amount = new BigDecimal[1];
+        int bookingId = bookingService.inTransaction(conn -> {
+            if (!deleteHold(conn, holdId)) {
+                conn.rollback();
+                return BookingService.NOT_ENOUGH_SEATS;
+            }
+            int id = bookingService.insertBooking(conn, customerId, hold.showId(), hold.seats(), amount);
+            seatInventory.recordBookingSeats(conn, id, hold.seatIndexes());
+            conn.commit();
+            return id;
+        });
+        forget(holdId);
+        if (bookingId != BookingService.NOT_ENOUGH_SEATS) {
+            // The held seats pass to the booking
+            bookingService.journal(List.of(BookingJournal.seatsAdjusted(hold.showId(), hold.seats()),
+                BookingJournal.booked(bookingId, hold.showId(), customerId, hold.seats(), amount[0])));
+        }
+        return bookingId;
+    }
+
+    // Gives the seats back immediately; returns false if the hold was already gone
+    public boolean release(long holdId) throws SQLException {
+        boolean released = releaseAll(List.of(holdId)) > 0;
+        forget(holdId);
+        return released;
+    }
+
+    private void track(Hold hold, long now) {
+        holds.put(hold.holdId(), hold);
+        timers.put(hold.holdId(), wheel.schedule(hold.holdId(), Math.max(0, hold.expiresAtMillis() - now), now));
+    }
+
+    private void forget(long holdId) {
+        holds.remove(holdId);
+        TimerWheel.Timeout<Long> timeout = timers.remove(holdId);
+        if (timeout != null) {
+            wheel.cancel(timeout);
+        }
+    }
+
+    private void tick() {
+        List<Long> expired = new ArrayList<>();
+        wheel.advance(System.currentTimeMillis(), expired);
+        if (expired.isEmpty()) {
+            return;
+        }
+        for (Long holdId : expired) {
+            timers.remove(holdId);
+        }
+        for (int from = 0; from < expired.size(); from += RELEASE_BATCH_SIZE) {
+            List<Long> batch = expired.subList(from, Math.min(expired.size(), from + RELEASE_BATCH_SIZE));
+            try {
+                releaseAll(batch);
+                for (Long holdId : batch) {
+                    holds.remove(holdId);
+                }
+            } catch (SQLException | RuntimeException e) {
+                // Keep the holds and try again shortly rather than leaking their seats
+                e.printStackTrace();
+                long now = System.currentTimeMillis();
+                for (Long holdId : batch) {
+                    if (holds.containsKey(holdId)) {
+                        timers.put(holdId, wheel.schedule(holdId, RETRY_DELAY_MILLIS, now));
+                    }
+                }
+            }
+        }
+    }
+
+    // Releases whichever of the given holds still exist, batched per show; returns how many
+    private int releaseAll(List<Long> holdIds) throws SQLException {
+        List<SeatInventory.Allocation> released = new ArrayList<>();
+        List<BookingJournal.Event> journalled = new ArrayList<>();
+        int count = bookingService.inTransaction(conn -> {
+            released.clear();
+            journalled.clear();
+            String ids = joinIds(holdIds);
+            Map<Integer, Integer> seatsByShow = new HashMap<>();
+            Map<Integer, List<int[]>> seatIndexesByShow = new HashMap<>();
+            int found = 0;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(
+                     "SELECT show_id, seats, seat_indexes FROM seat_holds WHERE hold_id IN (" + ids + ") FOR UPDATE")) {
+                while (rs.next()) {
+                    found++;
+                    int showId = rs.getInt("show_id");
+                    seatsByShow.merge(showId, rs.getInt("seats"), Integer::sum);
+                    byte[] packed = rs.getBytes("seat_indexes");
+                    if (packed != null) {
+                        seatIndexesByShow.computeIfAbsent(showId, k -> new ArrayList<>())
+                            .add(SeatInventory.unpackSeats(packed));
+                    }
+                }
+            }
+            if (found == 0) {
+                conn.rollback();
+                return 0;
+            }
+
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM seat_holds WHERE hold_id IN (" + ids + ")");
+            }
+            ShowRepository.addSeats(conn, seatsByShow);
+            for (Map.Entry<Integer, List<int[]>> entry : seatIndexesByShow.entrySet()) {
+                released.add(seatInventory.release(conn, entry.getKey(), concat(entry.getValue())));
+            }
+            conn.commit();
+            for (Map.Entry<Integer, Integer> entry : seatsByShow.entrySet()) {
+                journalled.add(BookingJournal.seatsAdjusted(entry.getKey(), entry.getValue()));
+            }
+            return found;
+        });
+        for (SeatInventory.Allocation allocation : released) {
+            seatInventory.publish(allocation);
+        }
+        bookingService.journal(journalled);
+        return count;
+    }
+
+    private static boolean deleteHold(Connection conn, long holdId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM seat_holds WHERE hold_id=?")) {
+            stmt.setLong(1, holdId);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    // Hold ids are generated longs, so inlining them is safe and keeps one statement per batch
+    private static String joinIds(List<Long> ids) {
+        StringBuilder sb = new StringBuilder();
+        for (Long id : ids) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(id.longValue());
+        }
+        return sb.toString();
+    }
+
+    private static int[] concat(List<int[]> parts) {
+        int length = 0;
+        for (int[] part : parts) {
+            length += part.length;
+        }
+        int[] all = new int[length];
+        int offset = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, all, offset, part.length);
+            offset += part.length;
+        }
+        return all;
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
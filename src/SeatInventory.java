@@ -0,0 +1,402 @@
+// Theatre Management System
+// Per-Seat Inventory
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Seat-level inventory on top of theatre_sections, show_seat_maps and booking_seats.
+
+Each show's occupancy is one packed SeatMap BLOB, so a show costs a single row
+however many seats it has. Transactions lock that row with SELECT ... FOR
+UPDATE, change the bitmap and write it back with a bumped version; a shared
+in-memory copy per show answers seat searches without touching the database
+and is only replaced by newer versions. Shows created before seat maps existed
+have no row and are left to the available_seats counter alone.
+
+Each map is stored with the layout it was created with, and is always
+decoded with that layout, never the theatre's current one: changing a
+theatre's sections or seat count only affects shows created afterwards, and
+seat indexes already in booking_seats stay valid. Maps written before the
+layout was stored are decoded with the theatre's layout if it still has the
+map's seat_count, and with a default layout of that many seats if not.
+*/
+public class SeatInventory {
+
+    // Seats chosen and the map as written, to be published once the transaction commits
+    public record Allocation(int showId, int[] seats, SeatMap map) {
+    }
+
+    private final ConnectionPool pool;
+    private final Map<Integer, SeatMap> maps = new ConcurrentHashMap<>();
+    private final Map<Integer, SeatLayout> layouts = new ConcurrentHashMap<>();
+    // Pinned layouts of shows' seat maps; they never change, so entries are never stale
+    private final Map<Integer, SeatLayout> showLayouts = new ConcurrentHashMap<>();
+
+    public SeatInventory(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /*
+    Replaces the theatre's sections inside the caller's transaction; no
+    sections means the default rows of its total seats. Only affects shows
+    created afterwards. Call evictLayout once the transaction commits.
+    */
+    public void defineSections(Connection conn, int theatreId, List<SeatLayout.Section> sections)
+            throws SQLException {
+        try (PreparedStatement delete = conn.prepareStatement(
+                "DELETE FROM theatre_sections WHERE theatre_id=?")) {
+            delete.setInt(1, theatreId);
+            delete.executeUpdate();
+        }
+        if (sections.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO theatre_sections (theatre_id, name, position, row_count, seats_per_row) VALUES (?, ?, ?, ?, ?)")) {
+            int position = 0;
+            for (SeatLayout.Section section : sections) {
+                insert.setInt(1, theatreId);
+                insert.setString(2, section.name());
+                insert.setInt(3, position++);
+                insert.setInt(4, section.rows());
+                insert.setInt(5, section.seatsPerRow());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    // The theatre's sections in position order; empty if it uses the default rows
+    public List<SeatLayout.Section> sections(Connection conn, int theatreId) throws SQLException {
+        List<SeatLayout.Section> sections = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT name, row_count, seats_per_row FROM theatre_sections WHERE theatre_id=? ORDER BY position")) {
+            stmt.setInt(1, theatreId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    sections.add(new SeatLayout.Section(rs.getString(1), rs.getInt(2), rs.getInt(3)));
+                }
+            }
+        }
+        return sections;
+    }
+
+    public SeatLayout getLayout(Connection conn, int theatreId) throws SQLException {
+        SeatLayout cached = layouts.get(theatreId);
+        if (cached != null) {
+            return cached;
+        }
+        SeatLayout layout = readLayout(conn, theatreId);
+        layouts.put(theatreId, layout);
+        return layout;
+    }
+
+    // Uncached, for new seat maps: another terminal may have just changed the theatre
+    private SeatLayout readLayout(Connection conn, int theatreId) throws SQLException {
+        List<SeatLayout.Section> sections = sections(conn, theatreId);
+        SeatLayout layout;
+        if (sections.isEmpty()) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT total_seats FROM theatres WHERE theatre_id=?")) {
+                stmt.setInt(1, theatreId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    layout = SeatLayout.defaultFor(rs.next() ? rs.getInt(1) : 0);
+                }
+            }
+        } else {
+            layout = SeatLayout.of(sections);
+        }
+        return layout;
+    }
+
+    // Called in the transaction that inserts the show
+    public void createSeatMap(Connection conn, int showId, int theatreId) throws SQLException {
+        SeatMap map = new SeatMap(readLayout(conn, theatreId));
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO show_seat_maps (show_id, seat_count, occupancy, version, layout) VALUES (?, ?, ?, 0, ?)")) {
+            stmt.setInt(1, showId);
+            stmt.setInt(2, map.capacity());
+            stmt.setBytes(3, map.toBytes());
+            stmt.setBytes(4, map.layout().toBytes());
+            stmt.executeUpdate();
+        }
+    }
+
+    // Batched form for bulk imports; showIds.get(i) belongs to theatreIds.get(i)
+    public void createSeatMaps(Connection conn, List<Integer> showIds, List<Integer> theatreIds) throws SQLException {
+        Map<Integer, SeatMap> empty = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO show_seat_maps (show_id, seat_count, occupancy, version, layout) VALUES (?, ?, ?, 0, ?)")) {
+            for (int i = 0; i < showIds.size(); i++) {
+                int theatreId = theatreIds.get(i);
+                SeatMap map = empty.get(theatreId);
+                if (map == null) {
+                    map = new SeatMap(readLayout(conn, theatreId));
+                    empty.put(theatreId, map);
+                }
+                stmt.setInt(1, showIds.get(i));
+                stmt.setInt(2, map.capacity());
+                stmt.setBytes(3, map.toBytes());
+                stmt.setBytes(4, map.layout().toBytes());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    // Cached view for searches; null if the show has no seat map
+    public SeatMap getSeatMap(int showId) throws SQLException {
+        SeatMap cached = maps.get(showId);
+        if (cached != null) {
+            return cached;
+        }
+        try (Connection conn = pool.getConnection()) {
+            SeatMap map = load(conn, showId, false);
+            if (map != null) {
+                publish(showId, map);
+            }
+            return map;
+        }
+    }
+
+    // Answered from memory; the seats are re-checked under lock when booked
+    public int[] findAdjacentSeats(int showId, int count) throws SQLException {
+        SeatMap map = getSeatMap(showId);
+        if (map == null) {
+            return null;
+        }
+        return map.findAdjacent(count);
+    }
+
+    // Labels of seats on the show's map, e.g. "Stalls R3-12"; empty if the show has no seat map
+    public List<String> labels(int showId, int[] seats) throws SQLException {
+        SeatMap map = getSeatMap(showId);
+        List<String> labels = new ArrayList<>(seats.length);
+        if (map != null) {
+            for (int seat : seats) {
+                labels.add(map.layout().label(seat));
+            }
+        }
+        return labels;
+    }
+
+    // The seats labels name; IllegalArgumentException if the show has no seat map or no such seat
+    public int[] seatIndexes(int showId, List<String> labels) throws SQLException {
+        SeatMap map = getSeatMap(showId);
+        if (map == null) {
+            throw new IllegalArgumentException("Show " + showId + " has no seat plan; book a number of seats instead");
+        }
+        int[] seats = new int[labels.size()];
+        for (int i = 0; i < seats.length; i++) {
+            seats[i] = map.layout().seatOf(labels.get(i));
+        }
+        return seats;
+    }
+
+    /*
+    Takes seats inside the caller's transaction. requested may be null to let
+    the inventory pick the best block of count seats. Returns null if the
+    seats are not free, or an allocation with no seats for shows without a map.
+    */
+    public Allocation allocate(Connection conn, int showId, int[] requested, int count) throws SQLException {
+        SeatMap map = load(conn, showId, true);
+        if (map == null) {
+            return new Allocation(showId, new int[0], null);
+        }
+        int[] seats = requested != null ? requested : map.findBest(count);
+        if (seats == null || !map.take(seats)) {
+            return null;
+        }
+        store(conn, showId, map);
+        return new Allocation(showId, seats, map);
+    }
+
+    /*
+    Picks seats for several requests against one load and one write of the map.
+    seats[i] is null where request i could not be seated. Shows without a map
+    get an empty seat list for every request.
+    */
+    public record BatchAllocation(int[][] seats, Allocation allocation) {
+    }
+
+    public BatchAllocation allocateAll(Connection conn, int showId, int[] counts) throws SQLException {
+        int[][] seats = new int[counts.length][];
+        SeatMap map = load(conn, showId, true);
+        if (map == null) {
+            for (int i = 0; i < counts.length; i++) {
+                seats[i] = new int[0];
+            }
+            return new BatchAllocation(seats, new Allocation(showId, new int[0], null));
+        }
+        boolean changed = false;
+        for (int i = 0; i < counts.length; i++) {
+            int[] picked = map.findBest(counts[i]);
+            if (picked != null && map.take(picked)) {
+                seats[i] = picked;
+                changed = true;
+            }
+        }
+        if (changed) {
+            store(conn, showId, map);
+        }
+        return new BatchAllocation(seats, new Allocation(showId, new int[0], changed ? map : null));
+    }
+
+    // Frees seats inside the caller's transaction; returns the updated map or null
+    public Allocation release(Connection conn, int showId, int[] seats) throws SQLException {
+        SeatMap map = load(conn, showId, true);
+        if (map == null || seats.length == 0) {
+            return new Allocation(showId, seats, null);
+        }
+        map.release(seats);
+        store(conn, showId, map);
+        return new Allocation(showId, seats, map);
+    }
+
+    /*
+    For freeing the seats of many bookings against one load and one write of
+    the map: lockMap, SeatMap.release for each booking, then storeMap. lockMap
+    returns null for shows without a seat map.
+    */
+    public SeatMap lockMap(Connection conn, int showId) throws SQLException {
+        return load(conn, showId, true);
+    }
+
+    public Allocation storeMap(Connection conn, int showId, SeatMap map) throws SQLException {
+        store(conn, showId, map);
+        return new Allocation(showId, new int[0], map);
+    }
+
+    public void recordBookingSeats(Connection conn, int bookingId, int[] seats) throws SQLException {
+        if (seats.length == 0) {
+            return;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO booking_seats (booking_id, seat_indexes) VALUES (?, ?)")) {
+            stmt.setInt(1, bookingId);
+            stmt.setBytes(2, packSeats(seats));
+            stmt.executeUpdate();
+        }
+    }
+
+    // Batched form; seats[i] belongs to bookingIds[i] and may be empty
+    public void recordBookingSeats(Connection conn, int[] bookingIds, int[][] seats) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO booking_seats (booking_id, seat_indexes) VALUES (?, ?)")) {
+            boolean any = false;
+            for (int i = 0; i < bookingIds.length; i++) {
+                if (seats[i].length > 0) {
+                    stmt.setInt(1, bookingIds[i]);
+                    stmt.setBytes(2, packSeats(seats[i]));
+                    stmt.addBatch();
+                    any = true;
+                }
+            }
+            if (any) {
+                stmt.executeBatch();
+            }
+        }
+    }
+
+    public int[] bookingSeats(Connection conn, int bookingId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT seat_indexes FROM booking_seats WHERE booking_id=?")) {
+            stmt.setInt(1, bookingId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? unpackSeats(rs.getBytes(1)) : new int[0];
+            }
+        }
+    }
+
+    // Call after commit; older versions never overwrite newer ones
+    public void publish(Allocation allocation) {
+        if (allocation != null && allocation.map() != null) {
+            publish(allocation.showId(), allocation.map());
+        }
+    }
+
+    private void publish(int showId, SeatMap map) {
+        maps.merge(showId, map, (current, candidate) ->
+            candidate.version() > current.version() ? candidate : current);
+    }
+
+    public void evict(int showId) {
+        maps.remove(showId);
+        showLayouts.remove(showId);
+    }
+
+    public void evictLayout(int theatreId) {
+        layouts.remove(theatreId);
+    }
+
+    public void evictAll() {
+        maps.clear();
+        showLayouts.clear();
+    }
+
+    // The layout is only read the first time; after that the pinned copy is used
+    private SeatMap load(Connection conn, int showId, boolean forUpdate) throws SQLException {
+        SeatLayout pinned = showLayouts.get(showId);
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT s.theatre_id, m.occupancy, m.version, m.seat_count"
+                + (pinned == null ? ", m.layout" : "") + " FROM show_seat_maps m "
+                + "JOIN shows s ON s.show_id = m.show_id WHERE m.show_id=?"
+                + (forUpdate ? " FOR UPDATE" : ""))) {
+            stmt.setInt(1, showId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                SeatLayout layout = pinned;
+                if (layout == null) {
+                    layout = pinnedLayout(conn, rs.getInt(1), rs.getInt(4), rs.getBytes(5));
+                    showLayouts.put(showId, layout);
+                }
+                SeatMap map = SeatMap.fromBytes(layout, rs.getBytes(2));
+                map.setVersion(rs.getLong(3));
+                return map;
+            }
+        }
+    }
+
+    // storedLayout is null for maps created before layouts were stored with them
+    private SeatLayout pinnedLayout(Connection conn, int theatreId, int seatCount, byte[] storedLayout)
+            throws SQLException {
+        if (storedLayout != null) {
+            return SeatLayout.fromBytes(storedLayout);
+        }
+        SeatLayout current = getLayout(conn, theatreId);
+        return current.capacity() == seatCount ? current : SeatLayout.defaultFor(seatCount);
+    }
+
+    private void store(Connection conn, int showId, SeatMap map) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE show_seat_maps SET occupancy=?, version=version+1 WHERE show_id=?")) {
+            stmt.setBytes(1, map.toBytes());
+            stmt.setInt(2, showId);
+            stmt.executeUpdate();
+        }
+        map.setVersion(map.version() + 1);
+    }
+
+    static byte[] packSeats(int[] seats) {
+        ByteBuffer buffer = ByteBuffer.allocate(seats.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(seats);
+        return buffer.array();
+    }
+
+    static int[] unpackSeats(byte[] bytes) {
+        int[] seats = new int[bytes.length / Integer.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(seats);
+        return seats;
+    }
+}
@@ -0,0 +1,207 @@
+// Theatre Management System
+// Theatre Seat Layout
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+The physical seats of a theatre, numbered 0..capacity-1 section by section,
+row by row. A seat index is what SeatMap stores a bit for; the layout turns it
+back into a section, row and seat number, and tells SeatMap where each row
+starts so "adjacent" never spans two rows.
+
+A layout is stored with every show's seat map (toBytes), so seat indexes
+already sold keep meaning the same seats after the theatre is reconfigured.
+*/
+public final class SeatLayout {
+
+    public static final int DEFAULT_SEATS_PER_ROW = 20;
+
+    // "Stalls 10x20": name, rows, seats per row
+    private static final Pattern SECTION = Pattern.compile("(.+?)\\s+(\\d{1,4})\\s*[xX]\\s*(\\d{1,4})");
+
+    public record Section(String name, int rows, int seatsPerRow) {
+    }
+
+    private final String[] rowSection;
+    private final int[] rowNumber;
+    private final int[] rowStart;
+    private final int capacity;
+
+    private SeatLayout(List<String> sections, List<Integer> numbers, List<Integer> lengths) {
+        int rows = lengths.size();
+        rowSection = sections.toArray(new String[0]);
+        rowNumber = new int[rows];
+        rowStart = new int[rows + 1];
+        for (int i = 0; i < rows; i++) {
+            rowNumber[i] = numbers.get(i);
+            rowStart[i + 1] = rowStart[i] + lengths.get(i);
+        }
+        capacity = rowStart[rows];
+    }
+
+    public static SeatLayout of(List<Section> sections) {
+        List<String> names = new ArrayList<>();
+        List<Integer> numbers = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        for (Section section : sections) {
+            for (int row = 1; row <= section.rows(); row++) {
+                names.add(section.name());
+                numbers.add(row);
+                lengths.add(section.seatsPerRow());
+            }
+        }
+        return new SeatLayout(names, numbers, lengths);
+    }
+
+    // Parses sections written as "Stalls 10x20, Circle 5x16": name, rows x seats per row
+    public static List<Section> parseSections(String text) {
+        List<Section> sections = new ArrayList<>();
+        for (String part : text.split(",")) {
+            String spec = part.trim();
+            if (spec.isEmpty()) {
+                continue;
+            }
+            Matcher matcher = SECTION.matcher(spec);
+            if (matcher.matches()) {
+                int rows = Integer.parseInt(matcher.group(2));
+                int seatsPerRow = Integer.parseInt(matcher.group(3));
+                if (rows > 0 && seatsPerRow > 0) {
+                    sections.add(new Section(matcher.group(1), rows, seatsPerRow));
+                    continue;
+                }
+            }
+            throw new IllegalArgumentException("Section \"" + spec + "\" is not written as \"name rowsxseats\"");
+        }
+        return sections;
+    }
+
+    // The form parseSections reads
+    public static String formatSections(List<Section> sections) {
+        StringBuilder sb = new StringBuilder();
+        for (Section section : sections) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(section.name()).append(' ').append(section.rows()).append('x').append(section.seatsPerRow());
+        }
+        return sb.toString();
+    }
+
+    // Used for theatres without configured sections: full rows plus a shorter last row
+    public static SeatLayout defaultFor(int totalSeats) {
+        List<String> names = new ArrayList<>();
+        List<Integer> numbers = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        for (int start = 0, row = 1; start < totalSeats; start += DEFAULT_SEATS_PER_ROW, row++) {
+            names.add("Main");
+            numbers.add(row);
+            lengths.add(Math.min(DEFAULT_SEATS_PER_ROW, totalSeats - start));
+        }
+        return new SeatLayout(names, numbers, lengths);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int rowCount() {
+        return rowNumber.length;
+    }
+
+    public int rowStart(int row) {
+        return rowStart[row];
+    }
+
+    public int rowEnd(int row) {
+        return rowStart[row + 1];
+    }
+
+    public int rowOf(int seat) {
+        if (seat < 0 || seat >= capacity) {
+            throw new IndexOutOfBoundsException("Seat " + seat + " outside 0.." + (capacity - 1));
+        }
+        int lo = 0;
+        int hi = rowNumber.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (rowStart[mid] <= seat) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    // Every row as section name, row number and length
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(rowNumber.length);
+            for (int row = 0; row < rowNumber.length; row++) {
+                out.writeUTF(rowSection[row]);
+                out.writeInt(rowNumber[row]);
+                out.writeInt(rowStart[row + 1] - rowStart[row]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static SeatLayout fromBytes(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int rows = in.readInt();
+            List<String> names = new ArrayList<>(rows);
+            List<Integer> numbers = new ArrayList<>(rows);
+            List<Integer> lengths = new ArrayList<>(rows);
+            for (int row = 0; row < rows; row++) {
+                names.add(in.readUTF());
+                numbers.add(in.readInt());
+                lengths.add(in.readInt());
+            }
+            return new SeatLayout(names, numbers, lengths);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // e.g. "Stalls R3-12"
+    public String label(int seat) {
+        int row = rowOf(seat);
+        return rowSection[row] + " R" + rowNumber[row] + "-" + (seat - rowStart[row] + 1);
+    }
+
+    // The seat label() names, ignoring case; IllegalArgumentException if this layout has no such seat
+    public int seatOf(String label) {
+        String text = label.trim();
+        int rowMark = text.toUpperCase().lastIndexOf(" R");
+        int dash = text.lastIndexOf('-');
+        if (rowMark > 0 && dash > rowMark) {
+            try {
+                String section = text.substring(0, rowMark);
+                int number = Integer.parseInt(text.substring(rowMark + 2, dash));
+                int seat = Integer.parseInt(text.substring(dash + 1));
+                for (int row = 0; row < rowNumber.length; row++) {
+                    if (rowNumber[row] == number && rowSection[row].equalsIgnoreCase(section)) {
+                        if (seat >= 1 && seat <= rowStart[row + 1] - rowStart[row]) {
+                            return rowStart[row] + seat - 1;
+                        }
+                        break;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+        }
+        throw new IllegalArgumentException("No seat " + text);
+    }
+}
@@ -0,0 +1,195 @@
+// Theatre Management System
+// Show Seat Occupancy Bitmap
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+Occupancy of every seat of one show as a packed bitmap (1 = taken).
+
+A 50,000-seat theatre needs 782 longs, so the whole map is a few kilobytes in
+memory and in its show_seat_maps BLOB. Adjacent-seat searches skip full rows
+using per-row free counters and then jump between runs with
+numberOfTrailingZeros, so they touch a handful of words rather than every seat.
+Not thread-safe; SeatInventory never modifies a map once it is shared.
+*/
+public final class SeatMap {
+
+    private final SeatLayout layout;
+    private final long[] words;
+    private final int[] freeInRow;
+    private int free;
+    private long version;
+
+    public SeatMap(SeatLayout layout) {
+        this.layout = layout;
+        this.words = new long[(layout.capacity() + 63) >>> 6];
+        this.freeInRow = new int[layout.rowCount()];
+        for (int row = 0; row < freeInRow.length; row++) {
+            freeInRow[row] = layout.rowEnd(row) - layout.rowStart(row);
+        }
+        this.free = layout.capacity();
+    }
+
+    public SeatLayout layout() {
+        return layout;
+    }
+
+    public int capacity() {
+        return layout.capacity();
+    }
+
+    public int freeSeats() {
+        return free;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
+    }
+
+    public boolean isTaken(int seat) {
+        return (words[seat >>> 6] & (1L << seat)) != 0;
+    }
+
+    // All-or-nothing: returns false and changes nothing if any seat is taken
+    public boolean take(int[] seats) {
+        for (int i = 0; i < seats.length; i++) {
+            int seat = seats[i];
+            if (seat < 0 || seat >= capacity() || isTaken(seat)) {
+                // Also catches a seat listed twice
+                for (int j = 0; j < i; j++) {
+                    release(seats[j]);
+                }
+                return false;
+            }
+            words[seat >>> 6] |= 1L << seat;
+            freeInRow[layout.rowOf(seat)]--;
+            free--;
+        }
+        return true;
+    }
+
+    public void release(int[] seats) {
+        for (int seat : seats) {
+            release(seat);
+        }
+    }
+
+    private void release(int seat) {
+        if (isTaken(seat)) {
+            words[seat >>> 6] &= ~(1L << seat);
+            freeInRow[layout.rowOf(seat)]++;
+            free++;
+        }
+    }
+
+    // First block of n free seats in one row, front rows first, or null
+    public int[] findAdjacent(int n) {
+        if (n <= 0 || n > free) {
+            return null;
+        }
+        for (int row = 0; row < freeInRow.length; row++) {
+            if (freeInRow[row] < n) {
+                continue;
+            }
+            int end = layout.rowEnd(row);
+            int p = nextFree(layout.rowStart(row), end);
+            while (p < end) {
+                int q = nextTaken(p, end);
+                if (q - p >= n) {
+                    return range(p, n);
+                }
+                p = nextFree(q, end);
+            }
+        }
+        return null;
+    }
+
+    // Adjacent seats when possible, otherwise the first n free seats anywhere
+    public int[] findBest(int n) {
+        int[] adjacent = findAdjacent(n);
+        if (adjacent != null || n <= 0 || n > free) {
+            return adjacent;
+        }
+        int[] seats = new int[n];
+        int p = 0;
+        for (int i = 0; i < n; i++) {
+            p = nextFree(p, capacity());
+            seats[i] = p++;
+        }
+        return seats;
+    }
+
+    private int nextFree(int from, int end) {
+        if (from >= end) {
+            return end;
+        }
+        int u = from >>> 6;
+        long word = ~words[u] & (-1L << from);
+        while (word == 0) {
+            if (++u >= words.length) {
+                return end;
+            }
+            word = ~words[u];
+        }
+        return Math.min(end, (u << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    private int nextTaken(int from, int end) {
+        if (from >= end) {
+            return end;
+        }
+        int u = from >>> 6;
+        long word = words[u] & (-1L << from);
+        while (word == 0) {
+            if (++u >= words.length || (u << 6) >= end) {
+                return end;
+            }
+            word = words[u];
+        }
+        return Math.min(end, (u << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    private static int[] range(int start, int n) {
+        int[] seats = new int[n];
+        for (int i = 0; i < n; i++) {
+            seats[i] = start + i;
+        }
+        return seats;
+    }
+
+    public SeatMap copy() {
+        SeatMap copy = new SeatMap(layout);
+        System.arraycopy(words, 0, copy.words, 0, words.length);
+        System.arraycopy(freeInRow, 0, copy.freeInRow, 0, freeInRow.length);
+        copy.free = free;
+        copy.version = version;
+        return copy;
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(words.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asLongBuffer().put(words);
+        return buffer.array();
+    }
+
+    public static SeatMap fromBytes(SeatLayout layout, byte[] bytes) {
+        SeatMap map = new SeatMap(layout);
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer()
+            .get(map.words, 0, Math.min(map.words.length, bytes.length / Long.BYTES));
+        for (int row = 0; row < map.freeInRow.length; row++) {
+            int taken = 0;
+            for (int seat = layout.rowStart(row); seat < layout.rowEnd(row); seat++) {
+                if (map.isTaken(seat)) {
+                    taken++;
+                }
+            }
+            map.freeInRow[row] -= taken;
+            map.free -= taken;
+        }
+        return map;
+    }
+}
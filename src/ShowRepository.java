@@ -0,0 +1,293 @@
+// Theatre Management System
+// Show Repository
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/*
+SQL for the shows table, on the caller's connection and transaction like
+CustomerRepository. The available_seats updates are the ones every booking
+path shares: takeSeats is the guarded decrement that keeps shows from being
+oversold, addSeats the unconditional adjustment once seats are known to be
+there (or are being given back).
+*/
+public class ShowRepository {
+
+    // theatreName is null for shows whose theatre no longer exists
+    public record Show(int id, String title, String genre, int durationMinutes, BigDecimal ticketPrice,
+                       String theatreName, Date showDate, Time showTime, int availableSeats) {
+    }
+
+    public record Availability(int availableSeats, BigDecimal ticketPrice) {
+    }
+
+    // The fields the show form edits that the grid does not show, and the version they were read at
+    public record Details(String description, int theatreId, long version) {
+    }
+
+    // Longest show that can be scheduled, so overlapping() only has to look one day back
+    public static final int MAX_DURATION_MINUTES = 24 * 60;
+
+    // For KeysetTableModel, which adds its own WHERE and ORDER BY on s.show_id
+    public static final String GRID_SELECT = """
+        SELECT s.show_id, s.title, s.genre, s.duration_minutes, s.ticket_price,
+               t.name AS theatre_name, s.show_date, s.show_time, s.available_seats
+        FROM shows s
+        LEFT JOIN theatres t ON s.theatre_id = t.theatre_id
+        """;
+
+    public static Show map(ResultSet rs) throws SQLException {
+        return new Show(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getInt(4), rs.getBigDecimal(5),
+            rs.getString(6), rs.getDate(7), rs.getTime(8), rs.getInt(9));
+    }
+
+    /*
+    Inserts a show with every seat of its theatre available and returns the
+    new show_id. description, genre, showDate and showTime may be null; the
+    date and time are passed as text for MySQL to parse.
+    */
+    public static int insert(Connection conn, String title, String description, String genre, int durationMinutes,
+                             BigDecimal ticketPrice, int theatreId, String showDate, String showTime) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                """
+                INSERT INTO shows (title, description, genre, duration_minutes, ticket_price,
+                theatre_id, show_date, show_time, available_seats)
+                SELECT ?, ?, ?, ?, ?, ?, ?, ?, total_seats FROM theatres WHERE theatre_id=?
+                """, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, title);
+            stmt.setString(2, description);
+            stmt.setString(3, genre);
+            stmt.setInt(4, durationMinutes);
+            stmt.setBigDecimal(5, ticketPrice);
+            stmt.setInt(6, theatreId);
+            stmt.setString(7, showDate);
+            stmt.setString(8, showTime);
+            stmt.setInt(9, theatreId);
+            if (stmt.executeUpdate() == 0) {
+                throw new SQLException("Theatre " + theatreId + " not found");
+            }
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        }
+    }
+
+    // Null if there is no such show
+    public static Details details(Connection conn, int showId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT description, theatre_id, version FROM shows WHERE show_id=?")) {
+            stmt.setInt(1, showId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new Details(rs.getString(1), rs.getInt(2), rs.getLong(3)) : null;
+            }
+        }
+    }
+
+    /*
+    Compare-and-set edit of a show's details: false if the show is gone or was
+    changed since it was read at version. The theatre and seat counts are not
+    editable here; they belong to the seat map and the bookings.
+    */
+    public static boolean update(Connection conn, int showId, long version, String title, String description,
+                                 String genre, int durationMinutes, BigDecimal ticketPrice, String showDate,
+                                 String showTime) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                """
+                UPDATE shows SET title=?, description=?, genre=?, duration_minutes=?, ticket_price=?,
+                show_date=?, show_time=?, version=version+1
+                WHERE show_id=? AND version=?
+                """)) {
+            stmt.setString(1, title);
+            stmt.setString(2, description);
+            stmt.setString(3, genre);
+            stmt.setInt(4, durationMinutes);
+            stmt.setBigDecimal(5, ticketPrice);
+            stmt.setString(6, showDate);
+            stmt.setString(7, showTime);
+            stmt.setInt(8, showId);
+            stmt.setLong(9, version);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    // Up to limit shows in schedule order, unscheduled ones last
+    public static List<Show> list(Connection conn, int limit) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(GRID_SELECT
+                + "ORDER BY s.show_date IS NULL, s.show_date, s.show_time, s.show_id LIMIT ?")) {
+            stmt.setInt(1, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<Show> shows = new ArrayList<>();
+                while (rs.next()) {
+                    shows.add(map(rs));
+                }
+                return shows;
+            }
+        }
+    }
+
+    /*
+    The time slot of every show with a date, a time and a duration, or of just
+    the given shows when showIds is not null. Shows without one are never in
+    conflict, so they are left out.
+    */
+    public static List<ShowSchedule.Slot> slots(Connection conn, Collection<Integer> showIds) throws SQLException {
+        StringBuilder sql = new StringBuilder("""
+            SELECT show_id, theatre_id, show_date, show_time, duration_minutes FROM shows
+            WHERE show_date IS NOT NULL AND show_time IS NOT NULL AND duration_minutes > 0
+            """);
+        if (showIds != null) {
+            if (showIds.isEmpty()) {
+                return new ArrayList<>();
+            }
+            sql.append("AND show_id IN (");
+            for (int showId : showIds) {
+                sql.append(sql.charAt(sql.length() - 1) == '(' ? "" : ",").append(showId);
+            }
+            sql.append(')');
+        }
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql.toString())) {
+            List<ShowSchedule.Slot> slots = new ArrayList<>();
+            while (rs.next()) {
+                slots.add(new ShowSchedule.Slot(rs.getInt(1), rs.getInt(2),
+                    rs.getDate(3).toLocalDate().atTime(rs.getTime(4).toLocalTime()), rs.getInt(5)));
+            }
+            return slots;
+        }
+    }
+
+    /*
+    The first show in slot's theatre, other than slot's own show, whose time
+    overlaps slot; null if none. Exact whatever this process's ShowSchedule
+    has seen, provided the caller took TheatreRepository.lock first: that
+    read starts the transaction's snapshot after every other writer of the
+    theatre has committed, and keeps new ones out until this one does.
+    Only the theatre's shows dated from MAX_DURATION_MINUTES before slot
+    starts to the day it ends are read, a range of idx_shows_theatre_schedule.
+    */
+    public static ShowSchedule.Slot overlapping(Connection conn, ShowSchedule.Slot slot) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                """
+                SELECT show_id, theatre_id, show_date, show_time, duration_minutes FROM shows
+                WHERE theatre_id=? AND show_date BETWEEN ? AND ?
+                AND show_id<>? AND duration_minutes > 0
+                AND TIMESTAMP(show_date, show_time) < ?
+                AND TIMESTAMP(show_date, show_time) + INTERVAL duration_minutes MINUTE > ?
+                LIMIT 1
+                """)) {
+            stmt.setInt(1, slot.theatreId());
+            stmt.setDate(2, Date.valueOf(slot.start().minusMinutes(MAX_DURATION_MINUTES).toLocalDate()));
+            stmt.setDate(3, Date.valueOf(slot.end().toLocalDate()));
+            stmt.setInt(4, slot.showId());
+            stmt.setTimestamp(5, Timestamp.valueOf(slot.end()));
+            stmt.setTimestamp(6, Timestamp.valueOf(slot.start()));
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return new ShowSchedule.Slot(rs.getInt(1), rs.getInt(2),
+                    rs.getDate(3).toLocalDate().atTime(rs.getTime(4).toLocalTime()), rs.getInt(5));
+            }
+        }
+    }
+
+    /*
+    Deletes the show with its seat map, seat holds and waitlist, unless bookings
+    (cancelled ones included) still refer to it; false if it was kept.
+    */
+    public static boolean deleteIfUnbooked(Connection conn, int showId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM bookings WHERE show_id=? LIMIT 1")) {
+            stmt.setInt(1, showId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return false;
+                }
+            }
+        }
+        for (String sql : List.of("DELETE FROM seat_holds WHERE show_id=?", "DELETE FROM show_seat_maps WHERE show_id=?",
+                "DELETE FROM waitlist WHERE show_id=?")) {
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setInt(1, showId);
+                stmt.executeUpdate();
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM shows WHERE show_id=?")) {
+            stmt.setInt(1, showId);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    // A plain read for display; null if there is no such show
+    public static Availability availability(Connection conn, int showId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT available_seats, ticket_price FROM shows WHERE show_id=?")) {
+            stmt.setInt(1, showId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new Availability(rs.getInt(1), rs.getBigDecimal(2)) : null;
+            }
+        }
+    }
+
+    // Locks the show row for the rest of the transaction; null if there is no such show
+    public static Availability lockAvailability(Connection conn, int showId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT available_seats, ticket_price FROM shows WHERE show_id=? FOR UPDATE")) {
+            stmt.setInt(1, showId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new Availability(rs.getInt(1), rs.getBigDecimal(2)) : null;
+            }
+        }
+    }
+
+    // Null when the show has no price set
+    public static BigDecimal ticketPrice(Connection conn, int showId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT ticket_price FROM shows WHERE show_id=?")) {
+            stmt.setInt(1, showId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Show " + showId + " not found");
+                }
+                return rs.getBigDecimal(1);
+            }
+        }
+    }
+
+    // Check and decrement in one statement; false if fewer than seats are left
+    public static boolean takeSeats(Connection conn, int showId, int seats) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE shows SET available_seats = available_seats - ? WHERE show_id=? AND available_seats >= ?")) {
+            stmt.setInt(1, seats);
+            stmt.setInt(2, showId);
+            stmt.setInt(3, seats);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    // seats may be negative
+    public static void addSeats(Connection conn, int showId, int seats) throws SQLException {
+        addSeats(conn, Map.of(showId, seats));
+    }
+
+    // One batch for several shows, keyed by show_id
+    public static void addSeats(Connection conn, Map<Integer, Integer> seatsByShow) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE shows SET available_seats = available_seats + ? WHERE show_id=?")) {
+            for (Map.Entry<Integer, Integer> entry : seatsByShow.entrySet()) {
+                stmt.setInt(1, entry.getValue());
+                stmt.setInt(2, entry.getKey());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+// Theatre Management System
+// Show Scheduling Index
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Finds shows that overlap in the same theatre without asking the database.
+
+Every show with a date, a time and a duration is kept as a Slot covering
+[start, start + duration) in a per-theatre TreeMap ordered by start. A slot
+can only overlap a candidate if it starts before the candidate ends and no
+more than the theatre's longest show before it starts, so a lookup is one
+O(log n) descent followed by a scan of that window - a handful of slots,
+however many the theatre has over the season. Shows saved before conflicts
+were checked may overlap each other; that is why the window reaches back by
+the longest duration rather than stopping at the previous slot.
+
+The index is loaded once and kept current by the callers that insert and
+delete shows (claim, put, remove), and by refresh(), which reads only the
+shows the ChangeLog reports as changed, so shows saved by other clients or
+by the CSV importer turn up too. Within one process claim() checks and
+reserves in one step, so two concurrent inserts cannot both take the same
+slot. Between two clients the index is only as fresh as the last refresh, so
+it is the quick first check: writers check again in their transaction, with
+the theatre row locked (ShowRepository.overlapping).
+*/
+public class ShowSchedule {
+
+    // showId is negative for a proposed show that has not been saved
+    public record Slot(int showId, int theatreId, LocalDateTime start, int durationMinutes) {
+        public LocalDateTime end() {
+            return start.plusMinutes(durationMinutes);
+        }
+
+        @Override
+        public String toString() {
+            return (showId > 0 ? "show " + showId : "proposed show") + " at " + start.toLocalDate() + " "
+                + start.toLocalTime() + "-" + end().toLocalTime();
+        }
+    }
+
+    // proposal is the index into the list given to validate()
+    public record Conflict(int proposal, Slot slot, Slot clashesWith) {
+    }
+
+    private final ChangeLog changeLog;
+    private final AtomicInteger proposals = new AtomicInteger();
+
+    // Keyed by start minute in the high half and show id in the low half, so equal starts do not collide
+    private final Map<Integer, NavigableMap<Long, Slot>> byTheatre = new HashMap<>();
+    private final Map<Integer, Slot> byShow = new HashMap<>();
+    // Only ever grows between loads, which keeps lookups correct after removals
+    private final Map<Integer, Integer> longest = new HashMap<>();
+    private ChangeLog.Cursor cursor;
+
+    public ShowSchedule(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    // A slot for a show about to be saved, with a placeholder id of its own
+    public Slot proposal(int theatreId, LocalDateTime start, int durationMinutes) {
+        return new Slot(-proposals.incrementAndGet(), theatreId, start, durationMinutes);
+    }
+
+    // Loads the index the first time it is needed
+    public void ensureLoaded() throws SQLException {
+        synchronized (this) {
+            if (cursor != null) {
+                return;
+            }
+        }
+        refresh();
+    }
+
+    // Applies shows changed since the last call, or loads every show the first time
+    public void refresh() throws SQLException {
+        ChangeLog.Cursor from;
+        synchronized (this) {
+            from = cursor;
+        }
+        List<Slot> slots = new ArrayList<>();
+        Set<Integer> changed = new TreeSet<>();
+        ChangeLog.Cursor[] next = new ChangeLog.Cursor[1];
+        boolean full = changeLog.inSnapshot(conn -> {
+            slots.clear();
+            changed.clear();
+            ChangeLog.Cursor position = from;
+            while (position != null) {
+                ChangeLog.Batch batch = changeLog.poll(conn, position);
+                if (batch == null) {
+                    position = null;
+                    break;
+                }
+                if (batch.changes().isEmpty()) {
+                    break;
+                }
+                for (ChangeLog.Change change : batch.changes()) {
+                    if (change.table().equals("shows")) {
+                        changed.add(change.rowId());
+                    }
+                }
+                position = batch.next();
+            }
+            if (position == null) {
+                next[0] = changeLog.mark(conn);
+                slots.addAll(ShowRepository.slots(conn, null));
+                return true;
+            }
+            next[0] = position;
+            slots.addAll(ShowRepository.slots(conn, changed));
+            return false;
+        });
+
+        synchronized (this) {
+            if (full) {
+                byTheatre.clear();
+                byShow.clear();
+                longest.clear();
+            }
+            for (int showId : changed) {
+                remove(showId);
+            }
+            for (Slot slot : slots) {
+                put(slot);
+            }
+            cursor = next[0];
+        }
+    }
+
+    // The first slot in the same theatre that overlaps slot, ignoring slot's own show; null if none
+    public synchronized Slot conflict(Slot slot) {
+        NavigableMap<Long, Slot> slots = byTheatre.get(slot.theatreId());
+        if (slots == null) {
+            return null;
+        }
+        long start = minute(slot.start());
+        long from = start - longest.get(slot.theatreId());
+        long to = start + slot.durationMinutes();
+        for (Map.Entry<Long, Slot> entry : slots.subMap(from << 32, true, to << 32, false).entrySet()) {
+            Slot other = entry.getValue();
+            if (other.showId() != slot.showId() && (entry.getKey() >> 32) + other.durationMinutes() > start) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    // Adds slot unless it overlaps another; returns the slot in the way, or null once it is added
+    public synchronized Slot claim(Slot slot) {
+        Slot clash = conflict(slot);
+        if (clash == null) {
+            put(slot);
+        }
+        return clash;
+    }
+
+    // The slot showId has in the index; null if none
+    public synchronized Slot slot(int showId) {
+        return byShow.get(showId);
+    }
+
+    // Adds slot, replacing whatever slot its show had
+    public synchronized void put(Slot slot) {
+        remove(slot.showId());
+        byTheatre.computeIfAbsent(slot.theatreId(), id -> new TreeMap<>()).put(key(slot), slot);
+        byShow.put(slot.showId(), slot);
+        longest.merge(slot.theatreId(), slot.durationMinutes(), Math::max);
+    }
+
+    public synchronized void remove(int showId) {
+        Slot slot = byShow.remove(showId);
+        if (slot != null) {
+            byTheatre.get(slot.theatreId()).remove(key(slot));
+        }
+    }
+
+    private static long key(Slot slot) {
+        return minute(slot.start()) << 32 | (slot.showId() & 0xFFFFFFFFL);
+    }
+
+    // Minutes since 1970 on the theatre's own clock; time zones do not matter within one theatre
+    private static long minute(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
+    /*
+    Checks a whole batch of proposed shows, against the index and against each
+    other, in one pass: the batch is sorted by theatre and start, so a proposal
+    can only overlap an earlier accepted one of the same theatre that is still
+    running, and the one ending last is enough to tell. Returns every conflict
+    found, in proposal order; the index is left unchanged.
+    */
+    public List<Conflict> validate(List<Slot> batch) {
+        Integer[] order = new Integer[batch.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingInt(i -> batch.get(i).theatreId())
+            .thenComparing(i -> batch.get(i).start()));
+
+        List<Conflict> conflicts = new ArrayList<>();
+        Slot latest = null;
+        for (int i : order) {
+            Slot slot = batch.get(i);
+            if (latest != null && latest.theatreId() != slot.theatreId()) {
+                latest = null;
+            }
+            Slot clash = conflict(slot);
+            if (clash == null && latest != null && latest.end().isAfter(slot.start())) {
+                clash = latest;
+            }
+            if (clash != null) {
+                conflicts.add(new Conflict(i, slot, clash));
+            } else if (latest == null || slot.end().isAfter(latest.end())) {
+                latest = slot;
+            }
+        }
+        conflicts.sort(Comparator.comparingInt(Conflict::proposal));
+        return conflicts;
+    }
+}
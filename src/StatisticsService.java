@@ -0,0 +1,231 @@
+// Theatre Management System
+// Dashboard Counters
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+Dashboard totals kept in the stats_counters summary table instead of being
+counted on every refresh.
+
+Every write that changes a total adds its delta to stats_counters in the same
+transaction, so the counters commit or roll back together with the rows they
+describe. Each counter is split over SHARDS rows and a writer picks one at
+random, which keeps concurrent bookings from queueing on a single hot row;
+reading is one GROUP BY over a few dozen rows whatever the table sizes.
+
+A reconciliation job recounts the real tables once an hour (and on first
+start), correcting any drift from rows changed outside the application. It
+reads the counters and recounts the tables in one consistent snapshot, where
+the two can only differ by that drift, since every booking moves both
+together; the difference is then added like any other delta. The long scans
+hold no locks, and bookings that commit meanwhile keep their own deltas.
+*/
+public class StatisticsService implements AutoCloseable {
+
+    public static final String CUSTOMERS = "customers";
+    public static final String THEATRES = "theatres";
+    public static final String SHOWS = "shows";
+    public static final String BOOKINGS = "bookings";
+    public static final String CONFIRMED = "bookings_confirmed";
+    public static final String CANCELLED = "bookings_cancelled";
+    public static final String SEATS_SOLD = "seats_sold";
+    public static final String REVENUE = "revenue";
+
+    public record Snapshot(long customers, long theatres, long shows, long bookings, long confirmed,
+                           long cancelled, long seatsSold, BigDecimal revenue) {
+    }
+
+    private static final int SHARDS = 16;
+    private static final long RECONCILE_INTERVAL_MINUTES = 60;
+
+    private final ConnectionPool pool;
+    private final BookingService bookingService;
+    private final ScheduledExecutorService reconciler;
+
+    public StatisticsService(ConnectionPool pool, BookingService bookingService) {
+        this.pool = pool;
+        this.bookingService = bookingService;
+        this.reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stats-reconcile");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Schedules reconciliation; an empty counter table is filled right away
+    public void start() throws SQLException {
+        boolean empty;
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM stats_counters LIMIT 1")) {
+            empty = !rs.next();
+        }
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (SQLException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, empty ? 0 : RECONCILE_INTERVAL_MINUTES, RECONCILE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public Snapshot read() throws SQLException {
+        Map<String, BigDecimal> values = new HashMap<>();
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name, SUM(value) FROM stats_counters GROUP BY name")) {
+            while (rs.next()) {
+                values.put(rs.getString(1), rs.getBigDecimal(2));
+            }
+        }
+        return snapshotOf(values);
+    }
+
+    // Recounts the real tables and adds any difference to the counters; returns the recounted totals
+    public Snapshot reconcile() throws SQLException {
+        Map<String, BigDecimal> kept = new HashMap<>();
+        Map<String, BigDecimal> actual = new LinkedHashMap<>();
+        try (Connection conn = pool.getConnection()) {
+            int isolation = conn.getTransactionIsolation();
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            conn.setAutoCommit(false);
+            try {
+                // Plain reads, so both queries see the snapshot the first one takes
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT name, SUM(value) FROM stats_counters GROUP BY name")) {
+                    while (rs.next()) {
+                        kept.put(rs.getString(1), rs.getBigDecimal(2));
+                    }
+                }
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("""
+                         SELECT (SELECT COUNT(*) FROM customers),
+                                (SELECT COUNT(*) FROM theatres),
+                                (SELECT COUNT(*) FROM shows),
+                                COUNT(*),
+                                COALESCE(SUM(status = 'CONFIRMED'), 0),
+                                COALESCE(SUM(status = 'CANCELLED'), 0),
+                                COALESCE(SUM(CASE WHEN status = 'CONFIRMED' THEN seats_booked END), 0),
+                                COALESCE(SUM(CASE WHEN status = 'CONFIRMED' THEN total_amount END), 0)
+                         FROM bookings
+                         """)) {
+                    rs.next();
+                    String[] names = {CUSTOMERS, THEATRES, SHOWS, BOOKINGS, CONFIRMED, CANCELLED, SEATS_SOLD, REVENUE};
+                    for (int i = 0; i < names.length; i++) {
+                        actual.put(names[i], rs.getBigDecimal(i + 1));
+                    }
+                }
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(true);
+                conn.setTransactionIsolation(isolation);
+            }
+        }
+
+        Map<String, BigDecimal> drift = new HashMap<>();
+        for (Map.Entry<String, BigDecimal> entry : actual.entrySet()) {
+            BigDecimal difference = entry.getValue().subtract(kept.getOrDefault(entry.getKey(), BigDecimal.ZERO));
+            if (difference.signum() != 0) {
+                drift.put(entry.getKey(), difference);
+            }
+        }
+        if (!drift.isEmpty()) {
+            bookingService.inTransaction(conn -> {
+                add(conn, drift);
+                conn.commit();
+                return null;
+            });
+            if (!kept.isEmpty()) {
+                for (Map.Entry<String, BigDecimal> entry : drift.entrySet()) {
+                    System.err.println("Statistics: corrected " + entry.getKey() + " by " + entry.getValue().toPlainString());
+                }
+            }
+        }
+        return snapshotOf(actual);
+    }
+
+    // One counter's total as the caller's transaction sees it, or null if it has never been written
+    public static Long total(Connection conn, String counter) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT SUM(value) FROM stats_counters WHERE name=?")) {
+            stmt.setString(1, counter);
+            try (ResultSet rs = stmt.executeQuery()) {
+                BigDecimal value = rs.next() ? rs.getBigDecimal(1) : null;
+                return value == null ? null : value.longValue();
+            }
+        }
+    }
+
+    // Adds delta to one counter inside the caller's transaction
+    public static void add(Connection conn, String counter, long delta) throws SQLException {
+        add(conn, Map.of(counter, BigDecimal.valueOf(delta)));
+    }
+
+    public static void bookingsCreated(Connection conn, int bookings, int seats, BigDecimal amount) throws SQLException {
+        add(conn, Map.of(
+            BOOKINGS, BigDecimal.valueOf(bookings),
+            CONFIRMED, BigDecimal.valueOf(bookings),
+            SEATS_SOLD, BigDecimal.valueOf(seats),
+            REVENUE, amount));
+    }
+
+    public static void bookingCancelled(Connection conn, int seats, BigDecimal amount) throws SQLException {
+        bookingsCancelled(conn, 1, seats, amount);
+    }
+
+    public static void bookingsCancelled(Connection conn, int bookings, long seats, BigDecimal amount)
+            throws SQLException {
+        add(conn, Map.of(
+            CONFIRMED, BigDecimal.valueOf(-bookings),
+            CANCELLED, BigDecimal.valueOf(bookings),
+            SEATS_SOLD, BigDecimal.valueOf(-seats),
+            REVENUE, amount.negate()));
+    }
+
+    // One multi-row upsert into a random shard
+    private static void add(Connection conn, Map<String, BigDecimal> deltas) throws SQLException {
+        int shard = ThreadLocalRandom.current().nextInt(SHARDS);
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO stats_counters (name, shard, value) VALUES (?, ?, ?) "
+                + "ON DUPLICATE KEY UPDATE value = value + VALUES(value)")) {
+            for (Map.Entry<String, BigDecimal> entry : deltas.entrySet()) {
+                if (entry.getValue().signum() == 0) {
+                    continue;
+                }
+                stmt.setString(1, entry.getKey());
+                stmt.setInt(2, shard);
+                stmt.setBigDecimal(3, entry.getValue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static Snapshot snapshotOf(Map<String, BigDecimal> values) {
+        return new Snapshot(
+            longOf(values, CUSTOMERS), longOf(values, THEATRES), longOf(values, SHOWS), longOf(values, BOOKINGS),
+            longOf(values, CONFIRMED), longOf(values, CANCELLED), longOf(values, SEATS_SOLD),
+            values.getOrDefault(REVENUE, BigDecimal.ZERO));
+    }
+
+    private static long longOf(Map<String, BigDecimal> values, String name) {
+        BigDecimal value = values.get(name);
+        return value == null ? 0 : value.longValue();
+    }
+
+    @Override
+    public void close() {
+        reconciler.shutdownNow();
+    }
+}
@@ -0,0 +1,409 @@
+// Theatre Management System
+// Booking HTTP API
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+Serves a TheatreService as a small JSON API over HTTP, so web front-ends and
+kiosks book through the same code as the Swing client without a database
+connection of their own.
+
+   GET  /shows?limit=N                 shows in schedule order (default 100)
+   GET  /shows/{id}/availability       {"showId", "availableSeats", "ticketPrice"}
+   GET  /shows/{id}/seats?count=N      {"showId", "seats": [labels of N free seats side by side]},
+                                       empty if no row has them, or 404 if the show has no seat plan
+   POST /bookings                      {"customerId", "showId", "seats"} -> 201 {"bookingId"}
+                                       or 409 when there are not enough seats; with
+                                       "seatLabels": ["Stalls R3-12", ...] instead of "seats",
+                                       books exactly those, or 409 if any is taken
+   POST /bookings/{id}/cancel          {"cancelled": true}, or 404
+
+Run next to the database:
+   java -cp ".:lib/mysql-connector-j-8.x.x.jar" TheatreApiServer [port] [url] [user] [password] [journal-dir]
+
+The journal defaults to ./api-journal, apart from the Swing client's
+./journal, since a journal directory can only be open in one process.
+
+Each request runs on its own thread: a virtual thread on Java 21 and later,
+before that one of POOL_MAX_SIZE platform threads, one per database
+connection, with further requests queued. The route runs right on that
+thread. A GET still running after REQUEST_TIMEOUT_MILLIS is answered with 503
+from the deadlines thread and interrupted, since reading again is harmless.
+Bookings and cancellations have no such timeout: a transaction can commit
+after the client was told it failed, and a client retrying it would book
+twice, so a write always answers with its real outcome (waits for a
+connection are still bounded by the pool). Request times per route are
+recorded in Metrics as http:<route>.
+*/
+public class TheatreApiServer implements AutoCloseable {
+
+    private static final long REQUEST_TIMEOUT_MILLIS = 5_000;
+    private static final int DEFAULT_SHOW_LIMIT = 100;
+    private static final int MAX_SHOW_LIMIT = 1_000;
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+    private static final int POOL_MIN_SIZE = 4;
+    private static final int POOL_MAX_SIZE = 32;
+
+    private static final Pattern AVAILABILITY = Pattern.compile("/shows/(\\d+)/availability");
+    private static final Pattern SEATS = Pattern.compile("/shows/(\\d+)/seats");
+    private static final Pattern CANCEL = Pattern.compile("/bookings/(\\d+)/cancel");
+
+    private record Response(int status, Object body) {
+    }
+
+    // An error the client caused, answered with status and message
+    private static final class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final TheatreService service;
+    private final HttpServer server;
+    private final ExecutorService requests;
+    private final ScheduledExecutorService deadlines;
+
+    public TheatreApiServer(TheatreService service, InetSocketAddress address) throws IOException {
+        this.service = service;
+        this.requests = newRequestExecutor();
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "api-deadlines");
+            t.setDaemon(true);
+            return t;
+        });
+        this.server = HttpServer.create(address, 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(requests);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        requests.shutdownNow();
+        deadlines.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        String url = args.length > 1 ? args[1]
+            : "jdbc:mysql://localhost:3306/theatre_management?rewriteBatchedStatements=true&useServerPrepStmts=true";
+        String user = args.length > 2 ? args[2] : "root";
+        String password = args.length > 3 ? args[3] : "12345678";
+        Path journal = Path.of(args.length > 4 ? args[4] : "api-journal");
+
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        ConnectionPool pool = new ConnectionPool(url, user, password, POOL_MIN_SIZE, POOL_MAX_SIZE);
+        new SchemaMigrations(pool).migrate();
+        BookingService bookingService = new BookingService(pool, new SeatInventory(pool));
+        bookingService.setJournal(BookingJournal.open(journal, pool));
+        bookingService.setWaitlist(new Waitlist(pool));
+        Metrics.global().registerMBean();
+        Metrics.global().gauge("pool", pool::getStats);
+        Metrics.global().startReporting(Path.of("metrics"), 60);
+
+        TheatreApiServer server = new TheatreApiServer(new LocalTheatreService(pool, bookingService),
+            new InetSocketAddress(port));
+        server.start();
+        System.out.println("Booking API listening on port " + server.getPort());
+    }
+
+    // Virtual threads where the runtime has them; looked up reflectively so this still runs on Java 17
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            ThreadFactory factory = r -> {
+                Thread t = new Thread(r, "api-request-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+            return Executors.newFixedThreadPool(POOL_MAX_SIZE, factory);
+        }
+    }
+
+    // Answers a read that overran with 503 unless the request thread answered first; only one of them does
+    private static final class Deadline implements Runnable {
+        private final HttpExchange exchange;
+        private final Thread worker = Thread.currentThread();
+        private boolean answered; // guarded by this
+
+        Deadline(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (answered) {
+                    return;
+                }
+                answered = true;
+                // Under the lock, so the interrupt cannot reach whatever the thread runs after this request
+                worker.interrupt();
+            }
+            Metrics.global().increment("http.timeouts");
+            try {
+                send(exchange, error(503, "Request timed out"));
+            } catch (IOException e) {
+                // The client is gone
+            }
+        }
+
+        // True if the request thread still gets to answer
+        synchronized boolean finish() {
+            if (answered) {
+                return false;
+            }
+            answered = true;
+            return true;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String method = exchange.getRequestMethod();
+        String route = "unknown";
+        Deadline deadline = null;
+        ScheduledFuture<?> timer = null;
+        Response response;
+        try {
+            String path = exchange.getRequestURI().getPath();
+            route = routeName(method, path);
+            String body = readBody(exchange);
+            if (method.equals("GET")) {
+                deadline = new Deadline(exchange);
+                timer = deadlines.schedule(deadline, REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            response = route(method, exchange.getRequestURI(), body);
+        } catch (ApiException e) {
+            response = error(e.status, e.getMessage());
+        } catch (SQLException | RuntimeException e) {
+            response = errorResponse(e);
+        }
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        boolean answer = deadline == null || deadline.finish();
+        // A deadline that fired left this thread interrupted
+        Thread.interrupted();
+        if (answer) {
+            send(exchange, response);
+        }
+        Metrics.global().histogram("http:" + route).record(System.nanoTime() - start);
+    }
+
+    private Response route(String method, URI uri, String body) throws SQLException {
+        String path = uri.getPath();
+        Matcher matcher;
+        if (path.equals("/shows")) {
+            requireMethod(method, "GET");
+            return new Response(200, showsJson(service.listShows(limitParameter(uri.getRawQuery()))));
+        }
+        if ((matcher = AVAILABILITY.matcher(path)).matches()) {
+            requireMethod(method, "GET");
+            int showId = parseId(matcher.group(1));
+            ShowRepository.Availability availability = service.availability(showId);
+            if (availability == null) {
+                return error(404, "Show " + showId + " not found");
+            }
+            return new Response(200, Json.object("showId", showId, "availableSeats", availability.availableSeats(),
+                "ticketPrice", availability.ticketPrice()));
+        }
+        if ((matcher = SEATS.matcher(path)).matches()) {
+            requireMethod(method, "GET");
+            int showId = parseId(matcher.group(1));
+            Integer count = intParameter(uri.getRawQuery(), "count");
+            if (count == null || count <= 0) {
+                return error(400, "count must be a positive number");
+            }
+            List<String> seats = service.suggestSeats(showId, count);
+            if (seats == null) {
+                return error(404, "Show " + showId + " has no seat plan");
+            }
+            return new Response(200, Json.object("showId", showId, "seats", seats));
+        }
+        if (path.equals("/bookings")) {
+            requireMethod(method, "POST");
+            Map<String, Object> request = Json.parseObject(body);
+            int customerId = Json.intField(request, "customerId");
+            int showId = Json.intField(request, "showId");
+            if (request.get("seatLabels") != null) {
+                int bookingId = service.createBooking(customerId, showId, seatLabels(request.get("seatLabels")));
+                if (bookingId == BookingService.NOT_ENOUGH_SEATS) {
+                    return error(409, "Not all of those seats are free");
+                }
+                return new Response(201, Json.object("bookingId", bookingId));
+            }
+            int seats = Json.intField(request, "seats");
+            if (seats <= 0) {
+                return error(400, "Seats must be positive");
+            }
+            int bookingId = service.createBooking(customerId, showId, seats);
+            if (bookingId == BookingService.NOT_ENOUGH_SEATS) {
+                return error(409, "Not enough seats available");
+            }
+            return new Response(201, Json.object("bookingId", bookingId));
+        }
+        if ((matcher = CANCEL.matcher(path)).matches()) {
+            requireMethod(method, "POST");
+            int bookingId = parseId(matcher.group(1));
+            if (!service.cancelBooking(bookingId)) {
+                return error(404, "Booking not found or already cancelled");
+            }
+            return new Response(200, Json.object("cancelled", true));
+        }
+        throw new ApiException(404, "No such resource: " + path);
+    }
+
+    static List<Map<String, Object>> showsJson(List<ShowRepository.Show> shows) {
+        List<Map<String, Object>> out = new ArrayList<>(shows.size());
+        for (ShowRepository.Show s : shows) {
+            out.add(Json.object("id", s.id(), "title", s.title(), "genre", s.genre(),
+                "durationMinutes", s.durationMinutes(), "ticketPrice", s.ticketPrice(), "theatreName", s.theatreName(),
+                "showDate", s.showDate(), "showTime", s.showTime(), "availableSeats", s.availableSeats()));
+        }
+        return out;
+    }
+
+    // Keeps metric names to a fixed set instead of one per id
+    private static String routeName(String method, String path) {
+        if (path.equals("/shows") || path.equals("/bookings")) {
+            return method + " " + path;
+        }
+        if (AVAILABILITY.matcher(path).matches()) {
+            return method + " /shows/{id}/availability";
+        }
+        if (SEATS.matcher(path).matches()) {
+            return method + " /shows/{id}/seats";
+        }
+        if (CANCEL.matcher(path).matches()) {
+            return method + " /bookings/{id}/cancel";
+        }
+        return "unknown";
+    }
+
+    private static void requireMethod(String method, String expected) {
+        if (!method.equals(expected)) {
+            throw new ApiException(405, "Use " + expected);
+        }
+    }
+
+    private static int parseId(String digits) {
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            throw new ApiException(404, "No such id: " + digits);
+        }
+    }
+
+    private static int limitParameter(String query) {
+        Integer limit = intParameter(query, "limit");
+        return limit == null ? DEFAULT_SHOW_LIMIT : Math.max(1, Math.min(MAX_SHOW_LIMIT, limit));
+    }
+
+    // Null if the query does not have the parameter
+    private static Integer intParameter(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) {
+                try {
+                    return Integer.parseInt(pair.substring(name.length() + 1));
+                } catch (NumberFormatException e) {
+                    throw new ApiException(400, name + " must be a number");
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<String> seatLabels(Object value) {
+        if (!(value instanceof List) || ((List<?>) value).isEmpty()) {
+            throw new ApiException(400, "seatLabels must be a list of seats");
+        }
+        List<String> labels = new ArrayList<>();
+        for (Object label : (List<?>) value) {
+            if (!(label instanceof String)) {
+                throw new ApiException(400, "seatLabels must be a list of seats");
+            }
+            labels.add((String) label);
+        }
+        return labels;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                throw new ApiException(413, "Request body too large");
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Response errorResponse(Throwable cause) {
+        if (cause instanceof ApiException) {
+            return error(((ApiException) cause).status, cause.getMessage());
+        }
+        if (cause instanceof IllegalArgumentException) {
+            return error(400, cause.getMessage());
+        }
+        if (cause instanceof SQLException) {
+            String state = ((SQLException) cause).getSQLState();
+            if (state != null && state.startsWith("23")) {
+                // Foreign key or constraint violation, e.g. an unknown customer
+                return error(422, cause.getMessage());
+            }
+        }
+        cause.printStackTrace();
+        return error(500, "Internal error: " + cause.getMessage());
+    }
+
+    private static Response error(int status, String message) {
+        return new Response(status, Json.object("error", message));
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        byte[] bytes = Json.write(response.body()).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status(), bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -1,126 +1,259 @@
 // Theatre Management System
 // Main Application Class
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.file.Path;
 import java.sql.*;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Vector;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class TheatreManagementSystem extends JFrame {
-    private Connection connection;
+    private ConnectionPool pool;
+    private SeatInventory seatInventory;
+    private BookingService bookingService;
+    private TheatreService theatreService;
+    private SeatHoldManager holdManager;
+    private StatisticsService statistics;
+    private ChangeLog changeLog;
+    private ChangeFeed changeFeed;
+    private ReferenceDataCache referenceData;
+    private CustomerIndex customerIndex;
+    private LocalSnapshot snapshot;
+    private ShowSchedule showSchedule;
     private JTabbedPane tabbedPane;
+    private final DbExecutor db = new DbExecutor(POOL_MAX_SIZE);
+    private final Map<String, JProgressBar> busyIndicators = new HashMap<>();
+    private final Map<String, Supplier<JPanel>> tabFactories = new LinkedHashMap<>();
+    private JMenuItem importItem;
+    private boolean databaseReady;
+    private boolean painted;
+    
+    // Tab names double as busy-indicator groups for background work
+    private static final String TAB_DASHBOARD = "Dashboard";
+    private static final String TAB_CUSTOMERS = "Customers";
+    private static final String TAB_THEATRES = "Theatres";
+    private static final String TAB_SHOWS = "Shows";
+    private static final String TAB_BOOKINGS = "Bookings";
     
     // Database connection details
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/theatre_management";
+    // rewriteBatchedStatements turns JDBC batches into multi-row INSERTs;
+    // useServerPrepStmts has the server parse each statement once per pooled connection
+    private static final String DB_URL =
+        "jdbc:mysql://localhost:3306/theatre_management?rewriteBatchedStatements=true&useServerPrepStmts=true";
     private static final String DB_USER = "root";
     private static final String DB_PASSWORD = "12345678";
+    private static final int POOL_MIN_SIZE = 2;
+    private static final int POOL_MAX_SIZE = 8;
+    private static final String METRICS_DIRECTORY = "metrics";
+    private static final String JOURNAL_DIRECTORY = "journal";
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final String REFUND_DIRECTORY = "refunds";
+    private static final int SNAPSHOT_REFRESH_MILLIS = 60_000;
+    private static final int SNAPSHOT_BOOKINGS = 1_000;
+    private static final long METRICS_INTERVAL_SECONDS = 60;
+    private static final long HOLD_TTL_MILLIS = 10 * 60_000;
+    private static final int CUSTOMER_MATCHES = 20;
+    private static final int WAITLIST_SHOWN = 500;
+    // Show times as the form takes them, e.g. 9:00 or 19:30:00
+    private static final DateTimeFormatter SHOW_TIME = DateTimeFormatter.ofPattern("H:mm[:ss]");
+    
+    private static final String[] THEATRE_COLUMNS = {"ID", "Name", "Location", "Total Seats", "Created At"};
+    private static final String[] SHOW_COLUMNS =
+        {"ID", "Title", "Genre", "Duration", "Price", "Theatre", "Date", "Time", "Available Seats"};
+    private static final String[] BOOKING_COLUMNS = {"ID", "Customer", "Show", "Seats", "Amount", "Date", "Status"};
     
     public TheatreManagementSystem() {
-        initializeDatabase();
         setupUI();
         setTitle("Theatre Management System");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(1200, 800);
         setLocationRelativeTo(null);
         setVisible(true);
+        recordStartup("frame shown");
+        connect();
     }
     
-    private void initializeDatabase() {
-        try {
-            // Load MySQL JDBC driver
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            createTables();
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "Database connection failed: " + e.getMessage());
+    // Connecting and migrating can take seconds; the window shows the local snapshot or placeholders meanwhile
+    private void connect() {
+        db.submit(null, null, () -> {
+            initializeDatabase();
+            return null;
+        }, ready -> onDatabaseReady(), e -> {
+            if (pool != null) {
+                pool.close();
+                pool = null;
+            }
+            // Read-only browsing of whatever the snapshot holds until the database is back
+            String message = "Database connection failed: " + e.getMessage();
+            for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+                String table = snapshotTable(tabbedPane.getTitleAt(i));
+                tabbedPane.setComponentAt(i, table != null && !snapshot.isEmpty()
+                    ? createSnapshotPanel(table, message + " - read-only", true)
+                    : createRetryPanel(message));
+            }
+            JOptionPane.showMessageDialog(this, message
+                + (snapshot.isEmpty() ? "" : "\nTheatres, shows and recent bookings saved earlier can still be browsed."));
             e.printStackTrace();
-        }
+        });
     }
     
-    private void createTables() throws SQLException {
-        String[] tables = {
-            // Customers table
-            """
-            CREATE TABLE IF NOT EXISTS customers (
-                customer_id INT AUTO_INCREMENT PRIMARY KEY,
-                name VARCHAR(100) NOT NULL,
-                email VARCHAR(100) UNIQUE,
-                phone VARCHAR(15),
-                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-            )
-            """,
-            
-            // Theatres table
-            """
-            CREATE TABLE IF NOT EXISTS theatres (
-                theatre_id INT AUTO_INCREMENT PRIMARY KEY,
-                name VARCHAR(100) NOT NULL,
-                location VARCHAR(200),
-                total_seats INT NOT NULL,
-                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-            )
-            """,
-            
-            // Shows table
-            """
-            CREATE TABLE IF NOT EXISTS shows (
-                show_id INT AUTO_INCREMENT PRIMARY KEY,
-                title VARCHAR(150) NOT NULL,
-                description TEXT,
-                genre VARCHAR(50),
-                duration_minutes INT,
-                ticket_price DECIMAL(10,2),
-                theatre_id INT,
-                show_date DATE,
-                show_time TIME,
-                available_seats INT,
-                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                FOREIGN KEY (theatre_id) REFERENCES theatres(theatre_id)
-            )
-            """,
-            
-            // Bookings table
-            """
-            CREATE TABLE IF NOT EXISTS bookings (
-                booking_id INT AUTO_INCREMENT PRIMARY KEY,
-                customer_id INT,
-                show_id INT,
-                seats_booked INT,
-                total_amount DECIMAL(10,2),
-                booking_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                status ENUM('CONFIRMED', 'CANCELLED') DEFAULT 'CONFIRMED',
-                FOREIGN KEY (customer_id) REFERENCES customers(customer_id),
-                FOREIGN KEY (show_id) REFERENCES shows(show_id)
-            )
-            """
-        };
-        
-        for (String table : tables) {
-            try (PreparedStatement stmt = connection.prepareStatement(table)) {
-                stmt.executeUpdate();
+    // Runs on a background thread, before any tab is built
+    private void initializeDatabase() throws Exception {
+        // Load MySQL JDBC driver
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        pool = new ConnectionPool(DB_URL, DB_USER, DB_PASSWORD, POOL_MIN_SIZE, POOL_MAX_SIZE);
+        Metrics.global().gauge("pool", pool::getStats);
+        new SchemaMigrations(pool).migrate();
+        seatInventory = new SeatInventory(pool);
+        bookingService = new BookingService(pool, seatInventory);
+        bookingService.setJournal(BookingJournal.open(Path.of(JOURNAL_DIRECTORY), pool));
+        bookingService.setWaitlist(new Waitlist(pool));
+        // -Dtheatre.api=http://host:8080 books and cancels through a TheatreApiServer instead
+        String api = System.getProperty("theatre.api");
+        theatreService = api == null ? new LocalTheatreService(pool, bookingService) : new HttpTheatreClient(URI.create(api));
+        changeLog = new ChangeLog(pool);
+        changeFeed = new ChangeFeed(changeLog);
+        showSchedule = new ShowSchedule(changeLog);
+        referenceData = new ReferenceDataCache(pool, db);
+        customerIndex = new CustomerIndex(pool, db);
+        changeLog.startPruning();
+        holdManager = new SeatHoldManager(bookingService, seatInventory);
+        holdManager.recover();
+        statistics = new StatisticsService(pool, bookingService);
+        statistics.start();
+        recordStartup("database ready");
+    }
+    
+    private void onDatabaseReady() {
+        // Warm every picker and the customer search side by side while the first tab loads
+        referenceData.prefetch();
+        customerIndex.reload();
+        databaseReady = true;
+        importItem.setEnabled(true);
+        buildSelectedTab();
+        recordStartup("interactive");
+        
+        // Snapshot tabs not yet opened keep showing the saved rows until they are selected
+        refreshInBackground();
+        refreshSchedule();
+        Timer refreshTimer = new Timer(SNAPSHOT_REFRESH_MILLIS, e -> refreshInBackground());
+        refreshTimer.start();
+        followChanges();
+    }
+    
+    // Keeps the local snapshot on disk reasonably current; the screens themselves follow the change feed
+    private void refreshInBackground() {
+        db.submit(null, "snapshot.refresh", () -> snapshot.refresh(changeLog), changed -> { },
+            e -> System.err.println("Local snapshot not updated: " + e));
+    }
+    
+    private void refreshSchedule() {
+        db.submit(null, "shows.schedule", () -> {
+            showSchedule.refresh();
+            return null;
+        }, done -> { }, e -> System.err.println("Show schedule not updated: " + e));
+    }
+    
+    /*
+    Pushes rows other terminals change into this one's caches as the change
+    feed reports them: pickers and the customer search re-read just those
+    rows, cached seat maps of changed shows are dropped, and the scheduling
+    index catches up. Each grid follows the feed itself (KeysetTableModel).
+    */
+    private void followChanges() {
+        changeFeed.subscribe("customers", rows -> {
+            referenceData.refresh(ReferenceDataCache.Kind.CUSTOMERS, rows);
+            customerIndex.refresh(rows);
+        });
+        changeFeed.subscribe("theatres", rows -> referenceData.refresh(ReferenceDataCache.Kind.THEATRES, rows));
+        changeFeed.subscribe("shows", rows -> {
+            referenceData.refresh(ReferenceDataCache.Kind.SHOWS, rows);
+            if (rows == null) {
+                seatInventory.evictAll();
+            } else {
+                rows.forEach(seatInventory::evict);
             }
-        }
+            refreshSchedule();
+        });
+        changeFeed.start();
+    }
+    
+    // Grid rows of the tabs kept in the local snapshot, read the same way as their table models read them
+    private static List<LocalSnapshot.Table> snapshotTables() {
+        return List.of(
+            new LocalSnapshot.Table("theatres", THEATRE_COLUMNS, TheatreRepository.GRID_SELECT, "theatre_id",
+                TheatreManagementSystem::theatreRow, 0, Map.of()),
+            new LocalSnapshot.Table("shows", SHOW_COLUMNS, ShowRepository.GRID_SELECT, "s.show_id",
+                TheatreManagementSystem::showRow, 0, Map.of("theatres", "s.theatre_id")),
+            new LocalSnapshot.Table("bookings", BOOKING_COLUMNS, BookingRepository.GRID_SELECT, "b.booking_id",
+                TheatreManagementSystem::bookingRow, SNAPSHOT_BOOKINGS,
+                Map.of("customers", "b.customer_id", "shows", "b.show_id")));
+    }
+    
+    private static String snapshotTable(String tab) {
+        return switch (tab) {
+            case TAB_THEATRES -> "theatres";
+            case TAB_SHOWS -> "shows";
+            case TAB_BOOKINGS -> "bookings";
+            default -> null;
+        };
     }
     
     private void setupUI() {
         tabbedPane = new JTabbedPane();
+        db.setBusyListener((tab, busy) -> {
+            JProgressBar indicator = busyIndicators.get(tab);
+            if (indicator != null) {
+                indicator.setVisible(busy);
+            }
+        });
         
-        // Add tabs
-        tabbedPane.addTab("Dashboard", createDashboardPanel());
-        tabbedPane.addTab("Customers", createCustomersPanel());
-        tabbedPane.addTab("Theatres", createTheatresPanel());
-        tabbedPane.addTab("Shows", createShowsPanel());
-        tabbedPane.addTab("Bookings", createBookingsPanel());
+        // Tabs start as placeholders and are built the first time they are selected
+        tabFactories.put(TAB_DASHBOARD, this::createDashboardPanel);
+        tabFactories.put(TAB_CUSTOMERS, this::createCustomersPanel);
+        tabFactories.put(TAB_THEATRES, this::createTheatresPanel);
+        tabFactories.put(TAB_SHOWS, this::createShowsPanel);
+        tabFactories.put(TAB_BOOKINGS, this::createBookingsPanel);
+        // Saved rows are shown at once where there are any; the real panels replace them once connected
+        snapshot = LocalSnapshot.open(Path.of(SNAPSHOT_FILE), snapshotTables());
+        for (String tab : tabFactories.keySet()) {
+            String table = snapshotTable(tab);
+            tabbedPane.addTab(tab, table != null && !snapshot.isEmpty()
+                ? createSnapshotPanel(table, "Connecting to the database...", false)
+                : createPlaceholder("Connecting to the database..."));
+        }
+        tabbedPane.addChangeListener(e -> buildSelectedTab());
         
         add(tabbedPane);
         
         // Menu bar
         JMenuBar menuBar = new JMenuBar();
         JMenu fileMenu = new JMenu("File");
+        importItem = new JMenuItem("Import CSV...");
+        importItem.setEnabled(false);
+        importItem.addActionListener(e -> importCsv());
+        fileMenu.add(importItem);
+        fileMenu.addSeparator();
         JMenuItem exitItem = new JMenuItem("Exit");
         exitItem.addActionListener(e -> System.exit(0));
         fileMenu.add(exitItem);
@@ -128,6 +261,100 @@ public class TheatreManagementSystem extends JFrame {
         setJMenuBar(menuBar);
     }
     
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!painted) {
+            painted = true;
+            recordStartup("first paint");
+        }
+    }
+    
+    private JPanel createPlaceholder(String message) {
+        JPanel panel = new JPanel(new GridBagLayout());
+        JPanel content = new JPanel(new BorderLayout(0, 10));
+        content.add(new JLabel(message, SwingConstants.CENTER), BorderLayout.NORTH);
+        JProgressBar progress = new JProgressBar();
+        progress.setIndeterminate(true);
+        content.add(progress, BorderLayout.CENTER);
+        panel.add(content);
+        return panel;
+    }
+    
+    private JPanel createRetryPanel(String message) {
+        JPanel panel = new JPanel(new GridBagLayout());
+        JPanel content = new JPanel(new BorderLayout(0, 10));
+        content.add(new JLabel(message, SwingConstants.CENTER), BorderLayout.NORTH);
+        content.add(createRetryButton(), BorderLayout.CENTER);
+        panel.add(content);
+        return panel;
+    }
+    
+    private JButton createRetryButton() {
+        JButton retryButton = new JButton("Retry");
+        retryButton.addActionListener(e -> {
+            for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+                String table = snapshotTable(tabbedPane.getTitleAt(i));
+                tabbedPane.setComponentAt(i, table != null && !snapshot.isEmpty()
+                    ? createSnapshotPanel(table, "Connecting to the database...", false)
+                    : createPlaceholder("Connecting to the database..."));
+            }
+            connect();
+        });
+        return retryButton;
+    }
+    
+    // The rows saved in the local snapshot, read-only, under a banner saying how old they are
+    private JPanel createSnapshotPanel(String table, String status, boolean offline) {
+        JPanel panel = new JPanel(new BorderLayout());
+        JPanel banner = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        String savedAt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").format(LocalDateTime.ofInstant(
+            Instant.ofEpochMilli(snapshot.savedAtMillis()), ZoneId.systemDefault()));
+        banner.add(new JLabel(status + " Showing data saved " + savedAt + "."));
+        if (offline) {
+            banner.add(createRetryButton());
+        } else {
+            JProgressBar progress = new JProgressBar();
+            progress.setIndeterminate(true);
+            banner.add(progress);
+        }
+        panel.add(banner, BorderLayout.NORTH);
+        
+        Vector<Vector<Object>> data = new Vector<>();
+        for (Object[] row : snapshot.rows(table)) {
+            data.add(new Vector<>(Arrays.asList(row)));
+        }
+        JTable grid = new JTable(data, new Vector<>(Arrays.asList(snapshot.columns(table)))) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        panel.add(new JScrollPane(grid), BorderLayout.CENTER);
+        return panel;
+    }
+    
+    // Swaps the selected tab's placeholder for the real panel, once the database is up
+    private void buildSelectedTab() {
+        int index = tabbedPane.getSelectedIndex();
+        if (!databaseReady || index < 0) {
+            return;
+        }
+        String tab = tabbedPane.getTitleAt(index);
+        Supplier<JPanel> factory = tabFactories.remove(tab);
+        if (factory != null) {
+            long start = System.nanoTime();
+            tabbedPane.setComponentAt(index, factory.get());
+            Metrics.global().histogram("startup.tab:" + tab).record(System.nanoTime() - start);
+        }
+    }
+    
+    // Time since the JVM started, so class loading and Swing setup are counted too
+    private static void recordStartup(String phase) {
+        long uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        Metrics.global().histogram("startup:" + phase).record(uptimeMillis * 1_000_000);
+    }
+    
     // Dashboard Panel
     private JPanel createDashboardPanel() {
         JPanel panel = new JPanel(new BorderLayout());
@@ -138,45 +365,49 @@ public class TheatreManagementSystem extends JFrame {
         panel.add(titleLabel, BorderLayout.NORTH);
         
         // Statistics panel
-        JPanel statsPanel = new JPanel(new GridLayout(2, 2, 10, 10));
+        JPanel statsPanel = new JPanel(new GridLayout(4, 2, 10, 10));
         statsPanel.setBorder(BorderFactory.createTitledBorder("Statistics"));
         
-        JLabel totalCustomers = new JLabel("Total Customers: " + getCount("customers"));
-        JLabel totalTheatres = new JLabel("Total Theatres: " + getCount("theatres"));
-        JLabel totalShows = new JLabel("Total Shows: " + getCount("shows"));
-        JLabel totalBookings = new JLabel("Total Bookings: " + getCount("bookings"));
-        
-        statsPanel.add(totalCustomers);
-        statsPanel.add(totalTheatres);
-        statsPanel.add(totalShows);
-        statsPanel.add(totalBookings);
+        JLabel[] statLabels = new JLabel[8];
+        for (int i = 0; i < statLabels.length; i++) {
+            statLabels[i] = new JLabel("...");
+            statsPanel.add(statLabels[i]);
+        }
+        JLabel poolStatus = new JLabel(" ");
+        refreshStatistics(statLabels, poolStatus);
         
         panel.add(statsPanel, BorderLayout.CENTER);
         
         // Refresh button
         JButton refreshBtn = new JButton("Refresh Statistics");
-        refreshBtn.addActionListener(e -> {
-            totalCustomers.setText("Total Customers: " + getCount("customers"));
-            totalTheatres.setText("Total Theatres: " + getCount("theatres"));
-            totalShows.setText("Total Shows: " + getCount("shows"));
-            totalBookings.setText("Total Bookings: " + getCount("bookings"));
-        });
+        refreshBtn.addActionListener(e -> refreshStatistics(statLabels, poolStatus));
         
         JPanel buttonPanel = new JPanel();
         buttonPanel.add(refreshBtn);
-        panel.add(buttonPanel, BorderLayout.SOUTH);
+        buttonPanel.add(createBusyIndicator(TAB_DASHBOARD));
+        
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(buttonPanel, BorderLayout.CENTER);
+        poolStatus.setBorder(BorderFactory.createEmptyBorder(0, 10, 5, 10));
+        southPanel.add(poolStatus, BorderLayout.SOUTH);
+        panel.add(southPanel, BorderLayout.SOUTH);
         
         return panel;
     }
     
-    private int getCount(String tableName) {
-        try (PreparedStatement stmt = connection.prepareStatement("SELECT COUNT(*) FROM " + tableName);
-             ResultSet rs = stmt.executeQuery()) {
-            return rs.next() ? rs.getInt(1) : 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return 0;
-        }
+    // Reads the maintained counters, so the cost does not grow with the tables
+    private void refreshStatistics(JLabel[] labels, JLabel poolStatus) {
+        db.submit(TAB_DASHBOARD, "dashboard.stats", () -> statistics.read(), stats -> {
+            labels[0].setText("Total Customers: " + stats.customers());
+            labels[1].setText("Total Theatres: " + stats.theatres());
+            labels[2].setText("Total Shows: " + stats.shows());
+            labels[3].setText("Total Bookings: " + stats.bookings());
+            labels[4].setText("Confirmed Bookings: " + stats.confirmed());
+            labels[5].setText("Cancelled Bookings: " + stats.cancelled());
+            labels[6].setText("Seats Sold: " + stats.seatsSold());
+            labels[7].setText("Revenue: " + stats.revenue());
+            poolStatus.setText("Connection pool: " + pool.getStats());
+        }, Exception::printStackTrace);
     }
     
     // Customers Panel
@@ -222,14 +453,13 @@ public class TheatreManagementSystem extends JFrame {
         panel.add(formPanel, BorderLayout.NORTH);
         
         // Table
-        DefaultTableModel customerModel = new DefaultTableModel(
-            new String[]{"ID", "Name", "Email", "Phone", "Created At"}, 0
-        );
+        KeysetTableModel customerModel = createCustomerModel();
         JTable customerTable = new JTable(customerModel);
         refreshCustomerTable(customerModel);
         
         JScrollPane scrollPane = new JScrollPane(customerTable);
         panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(createBusyIndicator(TAB_CUSTOMERS), BorderLayout.SOUTH);
         
         // Button actions
         addBtn.addActionListener(e -> {
@@ -237,17 +467,19 @@ public class TheatreManagementSystem extends JFrame {
                 JOptionPane.showMessageDialog(panel, "Name is required!");
                 return;
             }
-            addCustomer(nameField.getText(), emailField.getText(), phoneField.getText());
-            refreshCustomerTable(customerModel);
-            clearFields(nameField, emailField, phoneField);
+            addCustomer(nameField.getText(), emailField.getText(), phoneField.getText(), () -> {
+                refreshCustomerTable(customerModel);
+                clearFields(nameField, emailField, phoneField);
+            });
         });
         
         customerTable.getSelectionModel().addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting() && customerTable.getSelectedRow() != -1) {
                 int row = customerTable.getSelectedRow();
-                nameField.setText(customerModel.getValueAt(row, 1).toString());
-                emailField.setText(customerModel.getValueAt(row, 2).toString());
-                phoneField.setText(customerModel.getValueAt(row, 3).toString());
+                // Cells of a page that is still loading read as null
+                nameField.setText(Objects.toString(customerModel.getValueAt(row, 1), ""));
+                emailField.setText(Objects.toString(customerModel.getValueAt(row, 2), ""));
+                phoneField.setText(Objects.toString(customerModel.getValueAt(row, 3), ""));
             }
         });
         
@@ -257,10 +489,14 @@ public class TheatreManagementSystem extends JFrame {
                 JOptionPane.showMessageDialog(panel, "Please select a customer to update!");
                 return;
             }
-            int customerId = (Integer) customerModel.getValueAt(selectedRow, 0);
-            updateCustomer(customerId, nameField.getText(), emailField.getText(), phoneField.getText());
-            refreshCustomerTable(customerModel);
-            clearFields(nameField, emailField, phoneField);
+            Integer customerId = (Integer) customerModel.getValueAt(selectedRow, 0);
+            if (customerId == null) {
+                return;
+            }
+            updateCustomer(customerId, nameField.getText(), emailField.getText(), phoneField.getText(), () -> {
+                refreshCustomerTable(customerModel);
+                clearFields(nameField, emailField, phoneField);
+            });
         });
         
         deleteBtn.addActionListener(e -> {
@@ -269,12 +505,16 @@ public class TheatreManagementSystem extends JFrame {
                 JOptionPane.showMessageDialog(panel, "Please select a customer to delete!");
                 return;
             }
-            int customerId = (Integer) customerModel.getValueAt(selectedRow, 0);
+            Integer customerId = (Integer) customerModel.getValueAt(selectedRow, 0);
+            if (customerId == null) {
+                return;
+            }
             int confirm = JOptionPane.showConfirmDialog(panel, "Are you sure you want to delete this customer?");
             if (confirm == JOptionPane.YES_OPTION) {
-                deleteCustomer(customerId);
-                refreshCustomerTable(customerModel);
-                clearFields(nameField, emailField, phoneField);
+                deleteCustomer(customerId, () -> {
+                    refreshCustomerTable(customerModel);
+                    clearFields(nameField, emailField, phoneField);
+                });
             }
         });
         
@@ -294,6 +534,9 @@ public class TheatreManagementSystem extends JFrame {
         JTextField nameField = new JTextField(20);
         JTextField locationField = new JTextField(20);
         JTextField seatsField = new JTextField(20);
+        JTextField sectionsField = new JTextField(20);
+        sectionsField.setToolTipText("Optional, e.g. Stalls 10x20, Circle 5x16 (rows x seats per row); "
+            + "empty for rows of " + SeatLayout.DEFAULT_SEATS_PER_ROW);
         
         gbc.gridx = 0; gbc.gridy = 0;
         formPanel.add(new JLabel("Name:"), gbc);
@@ -310,11 +553,16 @@ public class TheatreManagementSystem extends JFrame {
         gbc.gridx = 1;
         formPanel.add(seatsField, gbc);
         
+        gbc.gridx = 0; gbc.gridy = 3;
+        formPanel.add(new JLabel("Sections:"), gbc);
+        gbc.gridx = 1;
+        formPanel.add(sectionsField, gbc);
+        
         JButton addBtn = new JButton("Add Theatre");
         JButton updateBtn = new JButton("Update Theatre");
         JButton deleteBtn = new JButton("Delete Theatre");
         
-        gbc.gridx = 0; gbc.gridy = 3;
+        gbc.gridx = 0; gbc.gridy = 4;
         formPanel.add(addBtn, gbc);
         gbc.gridx = 1;
         formPanel.add(updateBtn, gbc);
@@ -324,14 +572,13 @@ public class TheatreManagementSystem extends JFrame {
         panel.add(formPanel, BorderLayout.NORTH);
         
         // Table
-        DefaultTableModel theatreModel = new DefaultTableModel(
-            new String[]{"ID", "Name", "Location", "Total Seats", "Created At"}, 0
-        );
+        KeysetTableModel theatreModel = createTheatreModel();
         JTable theatreTable = new JTable(theatreModel);
         refreshTheatreTable(theatreModel);
         
         JScrollPane scrollPane = new JScrollPane(theatreTable);
         panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(createBusyIndicator(TAB_THEATRES), BorderLayout.SOUTH);
         
         // Button actions
         addBtn.addActionListener(e -> {
@@ -341,20 +588,46 @@ public class TheatreManagementSystem extends JFrame {
             }
             try {
                 int seats = Integer.parseInt(seatsField.getText());
-                addTheatre(nameField.getText(), locationField.getText(), seats);
-                refreshTheatreTable(theatreModel);
-                clearFields(nameField, locationField, seatsField);
+                List<SeatLayout.Section> sections = SeatLayout.parseSections(sectionsField.getText());
+                if (!checkSections(panel, sections, seats)) {
+                    return;
+                }
+                addTheatre(nameField.getText(), locationField.getText(), seats, sections, () -> {
+                    refreshTheatreTable(theatreModel);
+                    clearFields(nameField, locationField, seatsField, sectionsField);
+                });
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(panel, "Please enter a valid number for seats!");
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(panel, ex.getMessage());
             }
         });
         
+        // The theatre as it was when selected; the update only applies if nobody has changed it since
+        TheatreRepository.Theatre[] seen = new TheatreRepository.Theatre[1];
+        // Its sections as loaded, null until they arrive; an update only rewrites them if they were edited
+        String[] loadedSections = new String[1];
         theatreTable.getSelectionModel().addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting() && theatreTable.getSelectedRow() != -1) {
                 int row = theatreTable.getSelectedRow();
-                nameField.setText(theatreModel.getValueAt(row, 1).toString());
-                locationField.setText(theatreModel.getValueAt(row, 2).toString());
-                seatsField.setText(theatreModel.getValueAt(row, 3).toString());
+                // Cells of a page that is still loading read as null
+                nameField.setText(Objects.toString(theatreModel.getValueAt(row, 1), ""));
+                locationField.setText(Objects.toString(theatreModel.getValueAt(row, 2), ""));
+                seatsField.setText(Objects.toString(theatreModel.getValueAt(row, 3), ""));
+                Integer theatreId = (Integer) theatreModel.getValueAt(row, 0);
+                seen[0] = theatreId == null ? null : new TheatreRepository.Theatre(theatreId,
+                    (String) theatreModel.getValueAt(row, 1), (String) theatreModel.getValueAt(row, 2),
+                    (Integer) theatreModel.getValueAt(row, 3), (Timestamp) theatreModel.getValueAt(row, 4));
+                sectionsField.setText("");
+                loadedSections[0] = null;
+                if (theatreId != null) {
+                    loadSections(theatreId, text -> {
+                        if (seen[0] != null && seen[0].id() == theatreId) {
+                            sectionsField.setText(text);
+                            loadedSections[0] = text;
+                        }
+                    });
+                }
             }
         });
         
@@ -364,14 +637,27 @@ public class TheatreManagementSystem extends JFrame {
                 JOptionPane.showMessageDialog(panel, "Please select a theatre to update!");
                 return;
             }
+            Integer theatreId = (Integer) theatreModel.getValueAt(selectedRow, 0);
+            if (theatreId == null || seen[0] == null || seen[0].id() != theatreId) {
+                return;
+            }
             try {
-                int theatreId = (Integer) theatreModel.getValueAt(selectedRow, 0);
                 int seats = Integer.parseInt(seatsField.getText());
-                updateTheatre(theatreId, nameField.getText(), locationField.getText(), seats);
-                refreshTheatreTable(theatreModel);
-                clearFields(nameField, locationField, seatsField);
+                List<SeatLayout.Section> sections = SeatLayout.parseSections(sectionsField.getText());
+                if (!checkSections(panel, sections, seats)) {
+                    return;
+                }
+                boolean sectionsEdited = loadedSections[0] != null
+                    && !sectionsField.getText().trim().equals(loadedSections[0]);
+                updateTheatre(seen[0], nameField.getText(), locationField.getText(), seats,
+                        sectionsEdited ? sections : null, () -> {
+                    refreshTheatreTable(theatreModel);
+                    clearFields(nameField, locationField, seatsField, sectionsField);
+                }, () -> refreshTheatreTable(theatreModel));
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(panel, "Please enter a valid number for seats!");
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(panel, ex.getMessage());
             }
         });
         
@@ -381,12 +667,16 @@ public class TheatreManagementSystem extends JFrame {
                 JOptionPane.showMessageDialog(panel, "Please select a theatre to delete!");
                 return;
             }
-            int theatreId = (Integer) theatreModel.getValueAt(selectedRow, 0);
+            Integer theatreId = (Integer) theatreModel.getValueAt(selectedRow, 0);
+            if (theatreId == null) {
+                return;
+            }
             int confirm = JOptionPane.showConfirmDialog(panel, "Are you sure you want to delete this theatre?");
             if (confirm == JOptionPane.YES_OPTION) {
-                deleteTheatre(theatreId);
-                refreshTheatreTable(theatreModel);
-                clearFields(nameField, locationField, seatsField);
+                deleteTheatre(theatreId, () -> {
+                    refreshTheatreTable(theatreModel);
+                    clearFields(nameField, locationField, seatsField, sectionsField);
+                });
             }
         });
         
@@ -408,12 +698,12 @@ public class TheatreManagementSystem extends JFrame {
         JTextField genreField = new JTextField(20);
         JTextField durationField = new JTextField(20);
         JTextField priceField = new JTextField(20);
-        JComboBox<String> theatreCombo = new JComboBox<>();
+        JComboBox<ReferenceDataCache.Entry> theatreCombo = new JComboBox<>();
         JTextField dateField = new JTextField(20);
         JTextField timeField = new JTextField(20);
         
         // Populate theatre combo
-        refreshTheatreCombo(theatreCombo);
+        bindCombo(theatreCombo, ReferenceDataCache.Kind.THEATRES);
         
         int row = 0;
         gbc.gridx = 0; gbc.gridy = row;
@@ -478,14 +768,13 @@ public class TheatreManagementSystem extends JFrame {
         panel.add(formPanel, BorderLayout.NORTH);
         
         // Table
-        DefaultTableModel showModel = new DefaultTableModel(
-            new String[]{"ID", "Title", "Genre", "Duration", "Price", "Theatre", "Date", "Time", "Available Seats"}, 0
-        );
+        KeysetTableModel showModel = createShowModel();
         JTable showTable = new JTable(showModel);
         refreshShowTable(showModel);
         
         JScrollPane scrollPane = new JScrollPane(showTable);
         panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(createBusyIndicator(TAB_SHOWS), BorderLayout.SOUTH);
         
         // Button actions
         addBtn.addActionListener(e -> {
@@ -494,22 +783,98 @@ public class TheatreManagementSystem extends JFrame {
                 return;
             }
             try {
-                String theatreInfo = (String) theatreCombo.getSelectedItem();
-                int theatreId = Integer.parseInt(theatreInfo.split(" - ")[0]);
+                int theatreId = ((ReferenceDataCache.Entry) theatreCombo.getSelectedItem()).id();
                 
                 int duration = durationField.getText().isEmpty() ? 0 : Integer.parseInt(durationField.getText());
                 double price = priceField.getText().isEmpty() ? 0.0 : Double.parseDouble(priceField.getText());
                 
                 addShow(titleField.getText(), descriptionArea.getText(), genreField.getText(),
-                       duration, price, theatreId, dateField.getText(), timeField.getText());
-                refreshShowTable(showModel);
-                clearShowFields(titleField, descriptionArea, genreField, durationField, 
-                              priceField, dateField, timeField);
+                       duration, price, theatreId, dateField.getText(), timeField.getText(), () -> {
+                    refreshShowTable(showModel);
+                    clearShowFields(titleField, descriptionArea, genreField, durationField, 
+                                  priceField, dateField, timeField);
+                });
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(panel, "Please enter valid numbers for duration and price!");
             }
         });
         
+        // The selected show's details as last read; an update only applies at that version
+        ShowRepository.Details[] editing = new ShowRepository.Details[1];
+        int[] editingShow = {0};
+        showTable.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting() && showTable.getSelectedRow() != -1) {
+                int selectedRow = showTable.getSelectedRow();
+                Integer showId = (Integer) showModel.getValueAt(selectedRow, 0);
+                if (showId == null) {
+                    return;
+                }
+                titleField.setText(Objects.toString(showModel.getValueAt(selectedRow, 1), ""));
+                genreField.setText(Objects.toString(showModel.getValueAt(selectedRow, 2), ""));
+                durationField.setText(Objects.toString(showModel.getValueAt(selectedRow, 3), ""));
+                priceField.setText(Objects.toString(showModel.getValueAt(selectedRow, 4), ""));
+                dateField.setText(Objects.toString(showModel.getValueAt(selectedRow, 6), ""));
+                timeField.setText(Objects.toString(showModel.getValueAt(selectedRow, 7), ""));
+                descriptionArea.setText("");
+                editingShow[0] = showId;
+                editing[0] = null;
+                loadShowDetails(showId, details -> {
+                    if (editingShow[0] == showId) {
+                        editing[0] = details;
+                        descriptionArea.setText(details == null ? "" : Objects.toString(details.description(), ""));
+                    }
+                });
+            }
+        });
+        
+        updateBtn.addActionListener(e -> {
+            int selectedRow = showTable.getSelectedRow();
+            if (selectedRow == -1) {
+                JOptionPane.showMessageDialog(panel, "Please select a show to update!");
+                return;
+            }
+            Integer showId = (Integer) showModel.getValueAt(selectedRow, 0);
+            if (showId == null || editingShow[0] != showId || editing[0] == null) {
+                return;
+            }
+            if (titleField.getText().trim().isEmpty()) {
+                JOptionPane.showMessageDialog(panel, "Title is required!");
+                return;
+            }
+            try {
+                int duration = durationField.getText().isEmpty() ? 0 : Integer.parseInt(durationField.getText());
+                double price = priceField.getText().isEmpty() ? 0.0 : Double.parseDouble(priceField.getText());
+                
+                updateShow(showId, editing[0], titleField.getText(), descriptionArea.getText(), genreField.getText(),
+                          duration, price, dateField.getText(), timeField.getText(), () -> {
+                    refreshShowTable(showModel);
+                    clearShowFields(titleField, descriptionArea, genreField, durationField, 
+                                  priceField, dateField, timeField);
+                    editingShow[0] = 0;
+                    editing[0] = null;
+                }, () -> refreshShowTable(showModel));
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(panel, "Please enter valid numbers for duration and price!");
+            }
+        });
+        
+        deleteBtn.addActionListener(e -> {
+            int selectedRow = showTable.getSelectedRow();
+            if (selectedRow == -1) {
+                JOptionPane.showMessageDialog(panel, "Please select a show to delete!");
+                return;
+            }
+            Integer showId = (Integer) showModel.getValueAt(selectedRow, 0);
+            if (showId == null) {
+                return;
+            }
+            int confirm = JOptionPane.showConfirmDialog(panel,
+                "Cancel every booking of this show and delete it?\nA show with booking history is kept, with all its bookings cancelled.");
+            if (confirm == JOptionPane.YES_OPTION) {
+                deleteShow(showId, () -> refreshShowTable(showModel));
+            }
+        });
+        
         return panel;
     }
     
@@ -523,17 +888,23 @@ public class TheatreManagementSystem extends JFrame {
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.insets = new Insets(5, 5, 5, 5);
         
-        JComboBox<String> customerCombo = new JComboBox<>();
-        JComboBox<String> showCombo = new JComboBox<>();
+        JTextField customerSearch = new JTextField(15);
+        JComboBox<ReferenceDataCache.Entry> customerCombo = new JComboBox<>();
+        JComboBox<ReferenceDataCache.Entry> showCombo = new JComboBox<>();
         JTextField seatsField = new JTextField(10);
+        JTextField seatNumbersField = new JTextField(20);
+        seatNumbersField.setToolTipText("Optional, e.g. Stalls R3-12, Stalls R3-13; empty to have seats picked");
         
-        refreshCustomerCombo(customerCombo);
-        refreshShowCombo(showCombo);
+        bindCustomerSearch(customerSearch, customerCombo);
+        bindCombo(showCombo, ReferenceDataCache.Kind.SHOWS);
         
         gbc.gridx = 0; gbc.gridy = 0;
         formPanel.add(new JLabel("Customer:"), gbc);
         gbc.gridx = 1;
         formPanel.add(customerCombo, gbc);
+        gbc.gridx = 2;
+        formPanel.add(customerSearch, gbc);
+        customerSearch.setToolTipText("Type a name, email or phone number");
         
         gbc.gridx = 0; gbc.gridy = 1;
         formPanel.add(new JLabel("Show:"), gbc);
@@ -545,25 +916,52 @@ public class TheatreManagementSystem extends JFrame {
         gbc.gridx = 1;
         formPanel.add(seatsField, gbc);
         
+        JButton suggestBtn = new JButton("Suggest Seats");
+        gbc.gridx = 0; gbc.gridy = 3;
+        formPanel.add(new JLabel("Seat Numbers:"), gbc);
+        gbc.gridx = 1;
+        formPanel.add(seatNumbersField, gbc);
+        gbc.gridx = 2;
+        formPanel.add(suggestBtn, gbc);
+        
         JButton bookBtn = new JButton("Book Tickets");
         JButton cancelBtn = new JButton("Cancel Booking");
+        JButton holdBtn = new JButton("Hold Seats");
+        JButton releaseHoldBtn = new JButton("Release Hold");
+        JButton groupBtn = new JButton("Group Booking...");
+        JButton waitlistBtn = new JButton("Waitlist...");
+        JLabel holdLabel = new JLabel("No seats held");
         
-        gbc.gridx = 0; gbc.gridy = 3;
+        gbc.gridx = 0; gbc.gridy = 4;
         formPanel.add(bookBtn, gbc);
         gbc.gridx = 1;
         formPanel.add(cancelBtn, gbc);
+        gbc.gridx = 2;
+        formPanel.add(holdBtn, gbc);
+        gbc.gridx = 3;
+        formPanel.add(releaseHoldBtn, gbc);
+        gbc.gridx = 4;
+        formPanel.add(groupBtn, gbc);
+        gbc.gridx = 5;
+        formPanel.add(waitlistBtn, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 5; gbc.gridwidth = 6;
+        formPanel.add(holdLabel, gbc);
+        gbc.gridwidth = 1;
         
         panel.add(formPanel, BorderLayout.NORTH);
         
+        // The hold being sold at this terminal, confirmed by "Book Tickets"
+        SeatHoldManager.Hold[] activeHold = new SeatHoldManager.Hold[1];
+        
         // Table
-        DefaultTableModel bookingModel = new DefaultTableModel(
-            new String[]{"ID", "Customer", "Show", "Seats", "Amount", "Date", "Status"}, 0
-        );
+        KeysetTableModel bookingModel = createBookingModel();
         JTable bookingTable = new JTable(bookingModel);
         refreshBookingTable(bookingModel);
         
         JScrollPane scrollPane = new JScrollPane(bookingTable);
         panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(createBusyIndicator(TAB_BOOKINGS), BorderLayout.SOUTH);
         
         // Button actions
         bookBtn.addActionListener(e -> {
@@ -572,31 +970,142 @@ public class TheatreManagementSystem extends JFrame {
                 return;
             }
             try {
-                String customerInfo = (String) customerCombo.getSelectedItem();
-                String showInfo = (String) showCombo.getSelectedItem();
-                int customerId = Integer.parseInt(customerInfo.split(" - ")[0]);
-                int showId = Integer.parseInt(showInfo.split(" - ")[0]);
-                int seats = Integer.parseInt(seatsField.getText());
+                int customerId = ((ReferenceDataCache.Entry) customerCombo.getSelectedItem()).id();
+                int showId = ((ReferenceDataCache.Entry) showCombo.getSelectedItem()).id();
+                
+                SeatHoldManager.Hold hold = activeHold[0];
+                if (hold != null && hold.showId() == showId) {
+                    // The hold is used up whether it is confirmed or found expired
+                    activeHold[0] = null;
+                    holdLabel.setText("No seats held");
+                    confirmHold(hold.holdId(), customerId, () -> {
+                        refreshBookingTable(bookingModel);
+                        clearFields(seatsField, seatNumbersField);
+                    });
+                    return;
+                }
+                
+                List<String> seatLabels = seatLabels(seatNumbersField.getText());
+                if (!seatLabels.isEmpty()) {
+                    bookSeats(customerId, showId, seatLabels, () -> {
+                        refreshBookingTable(bookingModel);
+                        clearFields(seatsField, seatNumbersField);
+                    });
+                    return;
+                }
                 
-                createBooking(customerId, showId, seats);
-                refreshBookingTable(bookingModel);
-                seatsField.setText("");
+                int seats = Integer.parseInt(seatsField.getText());
+                createBooking(customerId, showId, seats, () -> {
+                    refreshBookingTable(bookingModel);
+                    seatsField.setText("");
+                });
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(panel, "Please enter a valid number of seats!");
             }
         });
         
+        suggestBtn.addActionListener(e -> {
+            if (showCombo.getSelectedItem() == null) {
+                JOptionPane.showMessageDialog(panel, "Please select a show!");
+                return;
+            }
+            try {
+                int showId = ((ReferenceDataCache.Entry) showCombo.getSelectedItem()).id();
+                int seats = Integer.parseInt(seatsField.getText());
+                suggestSeats(showId, seats, labels -> seatNumbersField.setText(String.join(", ", labels)));
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(panel, "Please enter a valid number of seats!");
+            }
+        });
+        
+        waitlistBtn.addActionListener(e -> {
+            if (showCombo.getSelectedItem() == null) {
+                JOptionPane.showMessageDialog(panel, "Please select a show!");
+                return;
+            }
+            showWaitlist(((ReferenceDataCache.Entry) showCombo.getSelectedItem()).id());
+        });
+        
+        holdBtn.addActionListener(e -> {
+            if (showCombo.getSelectedItem() == null) {
+                JOptionPane.showMessageDialog(panel, "Please select a show!");
+                return;
+            }
+            if (activeHold[0] != null) {
+                JOptionPane.showMessageDialog(panel, "Book or release the current hold first!");
+                return;
+            }
+            try {
+                ReferenceDataCache.Entry show = (ReferenceDataCache.Entry) showCombo.getSelectedItem();
+                int showId = show.id();
+                List<String> seatLabels = seatLabels(seatNumbersField.getText());
+                int seats = seatLabels.isEmpty() ? Integer.parseInt(seatsField.getText()) : seatLabels.size();
+                holdSeats(showId, seats, seatLabels, hold -> {
+                    activeHold[0] = hold;
+                    holdLabel.setText("Holding " + hold.seats() + " seat(s) on " + show.name() + " until "
+                        + new Timestamp(hold.expiresAtMillis()).toLocalDateTime()
+                            .format(DateTimeFormatter.ofPattern("HH:mm:ss")));
+                });
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(panel, "Please enter a valid number of seats!");
+            }
+        });
+        
+        groupBtn.addActionListener(e -> {
+            JTextArea requestArea = new JTextArea(15, 30);
+            int option = JOptionPane.showConfirmDialog(panel, new Object[]{
+                "One booking per line: customer ID, show ID, seats", new JScrollPane(requestArea)
+            }, "Group Booking", JOptionPane.OK_CANCEL_OPTION);
+            if (option != JOptionPane.OK_OPTION) {
+                return;
+            }
+            List<BookingService.BookingRequest> requests = new ArrayList<>();
+            String[] lines = requestArea.getText().split("\\R");
+            for (int i = 0; i < lines.length; i++) {
+                if (lines[i].isBlank()) {
+                    continue;
+                }
+                String[] parts = lines[i].split(",");
+                try {
+                    requests.add(new BookingService.BookingRequest(Integer.parseInt(parts[0].trim()),
+                        Integer.parseInt(parts[1].trim()), Integer.parseInt(parts[2].trim())));
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                    JOptionPane.showMessageDialog(panel, "Line " + (i + 1) + " is not \"customer ID, show ID, seats\"!");
+                    return;
+                }
+            }
+            if (!requests.isEmpty()) {
+                createGroupBooking(requests, () -> refreshBookingTable(bookingModel));
+            }
+        });
+        
+        releaseHoldBtn.addActionListener(e -> {
+            SeatHoldManager.Hold hold = activeHold[0];
+            if (hold == null) {
+                JOptionPane.showMessageDialog(panel, "No seats are held!");
+                return;
+            }
+            releaseHold(hold.holdId(), () -> {
+                activeHold[0] = null;
+                holdLabel.setText("No seats held");
+            });
+        });
+        
         cancelBtn.addActionListener(e -> {
             int selectedRow = bookingTable.getSelectedRow();
             if (selectedRow == -1) {
                 JOptionPane.showMessageDialog(panel, "Please select a booking to cancel!");
                 return;
             }
-            int bookingId = (Integer) bookingModel.getValueAt(selectedRow, 0);
+            Integer bookingId = (Integer) bookingModel.getValueAt(selectedRow, 0);
+            if (bookingId == null) {
+                return;
+            }
             int confirm = JOptionPane.showConfirmDialog(panel, "Are you sure you want to cancel this booking?");
             if (confirm == JOptionPane.YES_OPTION) {
-                cancelBooking(bookingId);
-                refreshBookingTable(bookingModel);
+                cancelBooking(bookingId, () -> {
+                    refreshBookingTable(bookingModel);
+                });
             }
         });
         
@@ -604,343 +1113,657 @@ public class TheatreManagementSystem extends JFrame {
     }
     
     // Database operations for Customers
-    private void addCustomer(String name, String email, String phone) {
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "INSERT INTO customers (name, email, phone) VALUES (?, ?, ?)")) {
-            stmt.setString(1, name);
-            stmt.setString(2, email.isEmpty() ? null : email);
-            stmt.setString(3, phone.isEmpty() ? null : phone);
-            stmt.executeUpdate();
+    private void addCustomer(String name, String email, String phone, Runnable onSuccess) {
+        String emailOrNull = email.isEmpty() ? null : email;
+        String phoneOrNull = phone.isEmpty() ? null : phone;
+        db.submit(TAB_CUSTOMERS, null, () -> bookingService.inTransaction(conn -> {
+            int customerId = CustomerRepository.insert(conn, name, emailOrNull, phoneOrNull);
+            StatisticsService.add(conn, StatisticsService.CUSTOMERS, 1);
+            conn.commit();
+            return customerId;
+        }), customerId -> {
             JOptionPane.showMessageDialog(this, "Customer added successfully!");
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Error adding customer: " + e.getMessage());
-        }
+            customerIndex.put(new CustomerIndex.Customer(customerId, name, emailOrNull, phoneOrNull));
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error adding customer: " + e.getMessage()));
     }
     
-    private void updateCustomer(int id, String name, String email, String phone) {
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "UPDATE customers SET name=?, email=?, phone=? WHERE customer_id=?")) {
-            stmt.setString(1, name);
-            stmt.setString(2, email.isEmpty() ? null : email);
-            stmt.setString(3, phone.isEmpty() ? null : phone);
-            stmt.setInt(4, id);
-            stmt.executeUpdate();
+    private void updateCustomer(int id, String name, String email, String phone, Runnable onSuccess) {
+        String emailOrNull = email.isEmpty() ? null : email;
+        String phoneOrNull = phone.isEmpty() ? null : phone;
+        db.submit(TAB_CUSTOMERS, null, () -> {
+            try (Connection conn = pool.getConnection()) {
+                return CustomerRepository.update(conn, id, name, emailOrNull, phoneOrNull);
+            }
+        }, rows -> {
             JOptionPane.showMessageDialog(this, "Customer updated successfully!");
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Error updating customer: " + e.getMessage());
-        }
+            if (rows > 0) {
+                customerIndex.put(new CustomerIndex.Customer(id, name, emailOrNull, phoneOrNull));
+            }
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error updating customer: " + e.getMessage()));
     }
     
-    private void deleteCustomer(int id) {
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "DELETE FROM customers WHERE customer_id=?")) {
-            stmt.setInt(1, id);
-            stmt.executeUpdate();
+    private void deleteCustomer(int id, Runnable onSuccess) {
+        db.submit(TAB_CUSTOMERS, null, () -> bookingService.inTransaction(conn -> {
+            int rows = CustomerRepository.delete(conn, id);
+            StatisticsService.add(conn, StatisticsService.CUSTOMERS, -rows);
+            conn.commit();
+            return rows;
+        }), rows -> {
             JOptionPane.showMessageDialog(this, "Customer deleted successfully!");
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Error deleting customer: " + e.getMessage());
-        }
+            if (rows > 0) {
+                customerIndex.remove(id);
+            }
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error deleting customer: " + e.getMessage()));
     }
     
-    private void refreshCustomerTable(DefaultTableModel model) {
-        model.setRowCount(0);
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "SELECT * FROM customers ORDER BY customer_id");
-             ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                model.addRow(new Object[]{
-                    rs.getInt("customer_id"),
-                    rs.getString("name"),
-                    rs.getString("email"),
-                    rs.getString("phone"),
-                    rs.getTimestamp("created_at")
-                });
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    private KeysetTableModel createCustomerModel() {
+        return new KeysetTableModel(pool, changeFeed, db, TAB_CUSTOMERS,
+            new String[]{"ID", "Name", "Email", "Phone", "Created At"},
+            CustomerRepository.GRID_SELECT,
+            "customers", "customer_id", "customer_id", false,
+            rs -> {
+                CustomerRepository.Customer c = CustomerRepository.map(rs);
+                return new Object[]{c.id(), c.name(), c.email(), c.phone(), c.createdAt()};
+            });
+    }
+    
+    private void refreshCustomerTable(KeysetTableModel model) {
+        model.refresh();
     }
     
     // Database operations for Theatres
-    private void addTheatre(String name, String location, int seats) {
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "INSERT INTO theatres (name, location, total_seats) VALUES (?, ?, ?)")) {
-            stmt.setString(1, name);
-            stmt.setString(2, location);
-            stmt.setInt(3, seats);
-            stmt.executeUpdate();
+    private void addTheatre(String name, String location, int seats, List<SeatLayout.Section> sections,
+                            Runnable onSuccess) {
+        db.submit(TAB_THEATRES, null, () -> bookingService.inTransaction(conn -> {
+            int theatreId = TheatreRepository.insert(conn, name, location, seats);
+            if (!sections.isEmpty()) {
+                seatInventory.defineSections(conn, theatreId, sections);
+            }
+            StatisticsService.add(conn, StatisticsService.THEATRES, 1);
+            conn.commit();
+            return theatreId;
+        }), theatreId -> {
             JOptionPane.showMessageDialog(this, "Theatre added successfully!");
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Error adding theatre: " + e.getMessage());
-        }
+            referenceData.invalidate(ReferenceDataCache.Kind.THEATRES);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error adding theatre: " + e.getMessage()));
     }
     
-    private void updateTheatre(int id, String name, String location, int seats) {
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "UPDATE theatres SET name=?, location=?, total_seats=? WHERE theatre_id=?")) {
-            stmt.setString(1, name);
-            stmt.setString(2, location);
-            stmt.setInt(3, seats);
-            stmt.setInt(4, id);
-            stmt.executeUpdate();
+    // onConflict runs instead of onSuccess if the theatre changed after it was selected; the form keeps the edits.
+    // sections is null to leave the theatre's sections as they are.
+    private void updateTheatre(TheatreRepository.Theatre seen, String name, String location, int seats,
+                               List<SeatLayout.Section> sections, Runnable onSuccess, Runnable onConflict) {
+        db.submit(TAB_THEATRES, null, () -> {
+            int updated = bookingService.inTransaction(conn -> {
+                int rows = TheatreRepository.update(conn, seen, name, location, seats);
+                if (rows > 0 && sections != null) {
+                    seatInventory.defineSections(conn, seen.id(), sections);
+                }
+                conn.commit();
+                return rows;
+            });
+            seatInventory.evictLayout(seen.id());
+            return updated;
+        }, rows -> {
+            if (rows == 0) {
+                JOptionPane.showMessageDialog(this,
+                    "This theatre was changed or deleted by someone else; reselect it to see the latest values.");
+                onConflict.run();
+                return;
+            }
             JOptionPane.showMessageDialog(this, "Theatre updated successfully!");
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Error updating theatre: " + e.getMessage());
+            referenceData.invalidate(ReferenceDataCache.Kind.THEATRES);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error updating theatre: " + e.getMessage()));
+    }
+    
+    // The theatre's sections as the Sections field shows them
+    private void loadSections(int theatreId, Consumer<String> onLoaded) {
+        db.submit(TAB_THEATRES, "theatres.sections", () -> {
+            try (Connection conn = pool.getConnection()) {
+                return SeatLayout.formatSections(seatInventory.sections(conn, theatreId));
+            }
+        }, onLoaded, e -> JOptionPane.showMessageDialog(this, "Error loading sections: " + e.getMessage()));
+    }
+    
+    // Sections, when given, must hold exactly the theatre's total seats
+    private static boolean checkSections(Component parent, List<SeatLayout.Section> sections, int seats) {
+        int capacity = SeatLayout.of(sections).capacity();
+        if (!sections.isEmpty() && capacity != seats) {
+            JOptionPane.showMessageDialog(parent, "The sections hold " + capacity + " seats, not " + seats + "!");
+            return false;
         }
+        return true;
     }
     
-    private void deleteTheatre(int id) {
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "DELETE FROM theatres WHERE theatre_id=?")) {
-            stmt.setInt(1, id);
-            stmt.executeUpdate();
+    private void deleteTheatre(int id, Runnable onSuccess) {
+        db.submit(TAB_THEATRES, null, () -> bookingService.inTransaction(conn -> {
+            int rows = TheatreRepository.delete(conn, id);
+            StatisticsService.add(conn, StatisticsService.THEATRES, -rows);
+            conn.commit();
+            return rows;
+        }), rows -> {
             JOptionPane.showMessageDialog(this, "Theatre deleted successfully!");
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Error deleting theatre: " + e.getMessage());
-        }
+            referenceData.invalidate(ReferenceDataCache.Kind.THEATRES);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error deleting theatre: " + e.getMessage()));
     }
     
-    private void refreshTheatreTable(DefaultTableModel model) {
-        model.setRowCount(0);
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "SELECT * FROM theatres ORDER BY theatre_id");
-             ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                model.addRow(new Object[]{
-                    rs.getInt("theatre_id"),
-                    rs.getString("name"),
-                    rs.getString("location"),
-                    rs.getInt("total_seats"),
-                    rs.getTimestamp("created_at")
-                });
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    private KeysetTableModel createTheatreModel() {
+        return new KeysetTableModel(pool, changeFeed, db, TAB_THEATRES,
+            THEATRE_COLUMNS, TheatreRepository.GRID_SELECT,
+            "theatres", "theatre_id", "theatre_id", false, TheatreManagementSystem::theatreRow);
+    }
+    
+    private static Object[] theatreRow(ResultSet rs) throws SQLException {
+        TheatreRepository.Theatre t = TheatreRepository.map(rs);
+        return new Object[]{t.id(), t.name(), t.location(), t.totalSeats(), t.createdAt()};
+    }
+    
+    private void refreshTheatreTable(KeysetTableModel model) {
+        model.refresh();
     }
     
     // Database operations for Shows
     private void addShow(String title, String description, String genre, int duration, 
-                        double price, int theatreId, String date, String time) {
-        try (PreparedStatement stmt = connection.prepareStatement(
-                """
-                INSERT INTO shows (title, description, genre, duration_minutes, ticket_price, 
-                theatre_id, show_date, show_time, available_seats) 
-                SELECT ?, ?, ?, ?, ?, ?, ?, ?, total_seats FROM theatres WHERE theatre_id=?
-                """)) {
-            stmt.setString(1, title);
-            stmt.setString(2, description.isEmpty() ? null : description);
-            stmt.setString(3, genre.isEmpty() ? null : genre);
-            stmt.setInt(4, duration);
-            stmt.setDouble(5, price);
-            stmt.setInt(6, theatreId);
-            stmt.setString(7, date.isEmpty() ? null : date);
-            stmt.setString(8, time.isEmpty() ? null : time);
-            stmt.setInt(9, theatreId);
-            stmt.executeUpdate();
+                        double price, int theatreId, String date, String time, Runnable onSuccess) {
+        db.submit(TAB_SHOWS, null, () -> {
+            String showDate = showDate(date);
+            String showTime = showTime(time);
+            // Reserve the show's time in this process first, so an overlap it knows of is turned down without a query
+            ShowSchedule.Slot slot = scheduleSlot(theatreId, showDate, showTime, duration);
+            if (slot != null) {
+                showSchedule.ensureLoaded();
+                ShowSchedule.Slot clash = showSchedule.claim(slot);
+                if (clash != null) {
+                    throw new SQLException("The theatre already has " + clash);
+                }
+            }
+            int[] seats = new int[1];
+            int newShowId;
+            try {
+                newShowId = bookingService.inTransaction(conn -> {
+                    // Other terminals may have scheduled shows the index has not heard of yet
+                    if (slot != null) {
+                        rejectOverlap(conn, slot);
+                    }
+                    int showId = ShowRepository.insert(conn, title, description.isEmpty() ? null : description,
+                        genre.isEmpty() ? null : genre, duration, BigDecimal.valueOf(price), theatreId,
+                        showDate, showTime);
+                    seatInventory.createSeatMap(conn, showId, theatreId);
+                    StatisticsService.add(conn, StatisticsService.SHOWS, 1);
+                    seats[0] = ShowRepository.availability(conn, showId).availableSeats();
+                    conn.commit();
+                    return showId;
+                });
+            } catch (SQLException | RuntimeException e) {
+                if (slot != null) {
+                    showSchedule.remove(slot.showId());
+                }
+                throw e;
+            }
+            if (slot != null) {
+                showSchedule.put(new ShowSchedule.Slot(newShowId, theatreId, slot.start(), duration));
+                showSchedule.remove(slot.showId());
+            }
+            bookingService.journal(List.of(BookingJournal.seatsSet(newShowId, seats[0])));
+            return newShowId;
+        }, showId -> {
             JOptionPane.showMessageDialog(this, "Show added successfully!");
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Error adding show: " + e.getMessage());
-        }
+            referenceData.invalidate(ReferenceDataCache.Kind.SHOWS);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error adding show: " + e.getMessage()));
     }
     
-    private void refreshShowTable(DefaultTableModel model) {
-        model.setRowCount(0);
-        try (PreparedStatement stmt = connection.prepareStatement(
-                """
-                SELECT s.show_id, s.title, s.genre, s.duration_minutes, s.ticket_price, 
-                       t.name as theatre_name, s.show_date, s.show_time, s.available_seats
-                FROM shows s 
-                JOIN theatres t ON s.theatre_id = t.theatre_id 
-                ORDER BY s.show_id
-                """);
-             ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                model.addRow(new Object[]{
-                    rs.getInt("show_id"),
-                    rs.getString("title"),
-                    rs.getString("genre"),
-                    rs.getInt("duration_minutes"),
-                    rs.getDouble("ticket_price"),
-                    rs.getString("theatre_name"),
-                    rs.getDate("show_date"),
-                    rs.getTime("show_time"),
-                    rs.getInt("available_seats")
-                });
+    private void loadShowDetails(int showId, Consumer<ShowRepository.Details> onLoaded) {
+        db.submit(TAB_SHOWS, "shows.details", () -> {
+            try (Connection conn = pool.getConnection()) {
+                return ShowRepository.details(conn, showId);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        }, onLoaded, e -> JOptionPane.showMessageDialog(this, "Error loading show: " + e.getMessage()));
     }
     
-    // Database operations for Bookings
-    private void createBooking(int customerId, int showId, int seats) {
-        try {
-            connection.setAutoCommit(false);
-            
-            // Check available seats
-            PreparedStatement checkStmt = connection.prepareStatement(
-                "SELECT available_seats, ticket_price FROM shows WHERE show_id=?");
-            checkStmt.setInt(1, showId);
-            ResultSet rs = checkStmt.executeQuery();
-            
-            if (rs.next()) {
-                int availableSeats = rs.getInt("available_seats");
-                double ticketPrice = rs.getDouble("ticket_price");
-                
-                if (availableSeats < seats) {
-                    JOptionPane.showMessageDialog(this, "Not enough seats available!");
-                    connection.rollback();
-                    connection.setAutoCommit(true);
-                    return;
+    /*
+    Saves the show form over the show as it was read at seen.version(). The new
+    time is claimed in the schedule first and checked again in the database
+    under the theatre's lock; the show's old slot is put back if the update does
+    not commit. onConflict runs instead of onSuccess if someone else changed or
+    deleted the show in the meantime.
+    */
+    private void updateShow(int showId, ShowRepository.Details seen, String title, String description,
+                            String genre, int duration, double price, String date, String time,
+                            Runnable onSuccess, Runnable onConflict) {
+        db.submit(TAB_SHOWS, null, () -> {
+            String showDate = showDate(date);
+            String showTime = showTime(time);
+            ShowSchedule.Slot proposal = scheduleSlot(seen.theatreId(), showDate, showTime, duration);
+            ShowSchedule.Slot slot = proposal == null ? null
+                : new ShowSchedule.Slot(showId, seen.theatreId(), proposal.start(), duration);
+            showSchedule.ensureLoaded();
+            ShowSchedule.Slot previous = showSchedule.slot(showId);
+            if (slot != null) {
+                ShowSchedule.Slot clash = showSchedule.claim(slot);
+                if (clash != null) {
+                    throw new SQLException("The theatre already has " + clash);
                 }
-                
-                // Create booking
-                PreparedStatement bookStmt = connection.prepareStatement(
-                    "INSERT INTO bookings (customer_id, show_id, seats_booked, total_amount) VALUES (?, ?, ?, ?)");
-                bookStmt.setInt(1, customerId);
-                bookStmt.setInt(2, showId);
-                bookStmt.setInt(3, seats);
-                bookStmt.setDouble(4, seats * ticketPrice);
-                bookStmt.executeUpdate();
-                
-                // Update available seats
-                PreparedStatement updateStmt = connection.prepareStatement(
-                    "UPDATE shows SET available_seats = available_seats - ? WHERE show_id=?");
-                updateStmt.setInt(1, seats);
-                updateStmt.setInt(2, showId);
-                updateStmt.executeUpdate();
-                
-                connection.commit();
-                connection.setAutoCommit(true);
-                JOptionPane.showMessageDialog(this, "Booking created successfully!");
             }
-        } catch (SQLException e) {
+            boolean updated = false;
             try {
-                connection.rollback();
-                connection.setAutoCommit(true);
-            } catch (SQLException ex) {
-                ex.printStackTrace();
+                updated = bookingService.inTransaction(conn -> {
+                    if (slot != null) {
+                        rejectOverlap(conn, slot);
+                    }
+                    boolean changed = ShowRepository.update(conn, showId, seen.version(), title,
+                        description.isEmpty() ? null : description, genre.isEmpty() ? null : genre, duration,
+                        BigDecimal.valueOf(price), showDate, showTime);
+                    conn.commit();
+                    return changed;
+                });
+            } finally {
+                // Unless the update committed, the show keeps the slot it had
+                ShowSchedule.Slot kept = updated ? slot : previous;
+                if (kept == null) {
+                    showSchedule.remove(showId);
+                } else {
+                    showSchedule.put(kept);
+                }
             }
-            JOptionPane.showMessageDialog(this, "Error creating booking: " + e.getMessage());
+            return updated;
+        }, updated -> {
+            if (!updated) {
+                JOptionPane.showMessageDialog(this,
+                    "This show was changed or deleted by someone else; reselect it to see the latest values.");
+                onConflict.run();
+                return;
+            }
+            JOptionPane.showMessageDialog(this, "Show updated successfully!");
+            referenceData.invalidate(ReferenceDataCache.Kind.SHOWS);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error updating show: " + e.getMessage()));
+    }
+    
+    private record ShowDeletion(BookingService.ShowCancellation cancellation, boolean deleted) {
+    }
+    
+    // Cancels the show's bookings in one transaction, then deletes the show if nothing refers to it any more
+    private void deleteShow(int showId, Runnable onSuccess) {
+        db.submit(TAB_SHOWS, null, () -> {
+            Path manifest = Path.of(REFUND_DIRECTORY, "show-" + showId + "-"
+                + DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").format(LocalDateTime.now()) + ".csv");
+            BookingService.ShowCancellation cancellation = bookingService.cancelShow(showId, manifest);
+            boolean deleted = bookingService.inTransaction(conn -> {
+                boolean removed = ShowRepository.deleteIfUnbooked(conn, showId);
+                if (removed) {
+                    StatisticsService.add(conn, StatisticsService.SHOWS, -1);
+                }
+                conn.commit();
+                return removed;
+            });
+            return new ShowDeletion(cancellation, deleted);
+        }, deletion -> {
+            BookingService.ShowCancellation cancellation = deletion.cancellation();
+            if (deletion.deleted()) {
+                seatInventory.evict(showId);
+                showSchedule.remove(showId);
+            }
+            if (cancellation.bookings() == 0) {
+                JOptionPane.showMessageDialog(this, deletion.deleted() ? "Show deleted successfully!"
+                    : "The show has no bookings left to cancel and is kept for its booking history.");
+            } else {
+                JOptionPane.showMessageDialog(this, String.format(
+                    "Cancelled %d bookings (%d seats), refunds totalling %s.%nRefund manifest: %s%s",
+                    cancellation.bookings(), cancellation.seats(), cancellation.refunds().toPlainString(),
+                    cancellation.manifest().toAbsolutePath(),
+                    deletion.deleted() ? "" : "\nThe show is kept for its booking history."));
+            }
+            referenceData.invalidate(ReferenceDataCache.Kind.SHOWS);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error deleting show: " + e.getMessage()));
+    }
+    
+    // Inside the saving transaction: locks the theatre, then fails if the database knows of a show in slot's way
+    private void rejectOverlap(Connection conn, ShowSchedule.Slot slot) throws SQLException {
+        if (!TheatreRepository.lock(conn, slot.theatreId())) {
+            throw new SQLException("Theatre " + slot.theatreId() + " no longer exists");
         }
+        ShowSchedule.Slot clash = ShowRepository.overlapping(conn, slot);
+        if (clash != null) {
+            showSchedule.put(clash);
+            throw new SQLException("The theatre already has " + clash);
+        }
+    }
+    
+    // The time a show would take in its theatre; null if it has no date, time or duration.
+    // date and time are as showDate and showTime return them.
+    private ShowSchedule.Slot scheduleSlot(int theatreId, String date, String time, int duration) {
+        if (duration > ShowRepository.MAX_DURATION_MINUTES) {
+            throw new IllegalArgumentException("A show can last at most " + ShowRepository.MAX_DURATION_MINUTES
+                + " minutes");
+        }
+        if (date == null || time == null || duration <= 0) {
+            return null;
+        }
+        return showSchedule.proposal(theatreId, LocalDate.parse(date).atTime(LocalTime.parse(time)), duration);
     }
     
-    private void cancelBooking(int bookingId) {
+    // The form's date as saved, null if empty; anything the overlap checks could not read is refused
+    private static String showDate(String text) {
+        if (text.isBlank()) {
+            return null;
+        }
         try {
-            connection.setAutoCommit(false);
-            
-            // Get booking details
-            PreparedStatement getBookingStmt = connection.prepareStatement(
-                "SELECT show_id, seats_booked FROM bookings WHERE booking_id=? AND status='CONFIRMED'");
-            getBookingStmt.setInt(1, bookingId);
-            ResultSet rs = getBookingStmt.executeQuery();
-            
-            if (rs.next()) {
-                int showId = rs.getInt("show_id");
-                int seatsBooked = rs.getInt("seats_booked");
-            
-                // Update booking status
-                PreparedStatement cancelStmt = connection.prepareStatement(
-                    "UPDATE bookings SET status='CANCELLED' WHERE booking_id=?");
-                cancelStmt.setInt(1, bookingId);
-                cancelStmt.executeUpdate();
-                
-                // Restore available seats
-                PreparedStatement restoreStmt = connection.prepareStatement(
-                    "UPDATE shows SET available_seats = available_seats + ? WHERE show_id=?");
-                restoreStmt.setInt(1, seatsBooked);
-                restoreStmt.setInt(2, showId);
-                restoreStmt.executeUpdate();
-                
-                connection.commit();
-                connection.setAutoCommit(true);
-                JOptionPane.showMessageDialog(this, "Booking cancelled successfully!");
+            return LocalDate.parse(text.trim()).toString();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Show date must be YYYY-MM-DD, not " + text);
+        }
+    }
+    
+    // The form's time as saved, null if empty; written out again so MySQL reads it as the overlap checks did
+    private static String showTime(String text) {
+        if (text.isBlank()) {
+            return null;
+        }
+        try {
+            return LocalTime.parse(text.trim(), SHOW_TIME).toString();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Show time must be HH:MM, not " + text);
+        }
+    }
+    
+    private KeysetTableModel createShowModel() {
+        return new KeysetTableModel(pool, changeFeed, db, TAB_SHOWS,
+            SHOW_COLUMNS, ShowRepository.GRID_SELECT,
+            "shows", "show_id", "s.show_id", false, TheatreManagementSystem::showRow);
+    }
+    
+    private static Object[] showRow(ResultSet rs) throws SQLException {
+        ShowRepository.Show s = ShowRepository.map(rs);
+        return new Object[]{s.id(), s.title(), s.genre(), s.durationMinutes(), s.ticketPrice(),
+            s.theatreName(), s.showDate(), s.showTime(), s.availableSeats()};
+    }
+    
+    private void refreshShowTable(KeysetTableModel model) {
+        model.refresh();
+    }
+    
+    // Database operations for Bookings
+    private void createBooking(int customerId, int showId, int seats, Runnable onSuccess) {
+        db.submit(TAB_BOOKINGS, null, () -> theatreService.createBooking(customerId, showId, seats), bookingId -> {
+            if (bookingId == BookingService.NOT_ENOUGH_SEATS) {
+                int join = JOptionPane.showConfirmDialog(this, "Not enough seats available!\n"
+                    + "Put the customer on the waitlist for " + seats + " seats? They are booked automatically "
+                    + "when enough seats are cancelled.", "Sold Out", JOptionPane.YES_NO_OPTION);
+                if (join == JOptionPane.YES_OPTION) {
+                    joinWaitlist(customerId, showId, seats);
+                }
+                return;
+            }
+            JOptionPane.showMessageDialog(this, "Booking created successfully!");
+            referenceData.invalidate(ReferenceDataCache.Kind.SHOWS);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error creating booking: " + e.getMessage()));
+    }
+    
+    private void bookSeats(int customerId, int showId, List<String> seatLabels, Runnable onSuccess) {
+        db.submit(TAB_BOOKINGS, null, () -> theatreService.createBooking(customerId, showId, seatLabels), bookingId -> {
+            if (bookingId == BookingService.NOT_ENOUGH_SEATS) {
+                JOptionPane.showMessageDialog(this, "Not all of those seats are free, please choose others!");
+                return;
+            }
+            JOptionPane.showMessageDialog(this, "Booking created successfully!");
+            referenceData.invalidate(ReferenceDataCache.Kind.SHOWS);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error creating booking: " + e.getMessage()));
+    }
+    
+    // Free seats side by side for the cashier to offer; nothing is taken until they are booked or held
+    private void suggestSeats(int showId, int seats, Consumer<List<String>> onFound) {
+        db.submit(TAB_BOOKINGS, "bookings.suggest", () -> theatreService.suggestSeats(showId, seats), labels -> {
+            if (labels == null) {
+                JOptionPane.showMessageDialog(this, "This show has no seat plan; its seats are sold by number only.");
+            } else if (labels.isEmpty()) {
+                JOptionPane.showMessageDialog(this, "No row has " + seats + " free seats side by side.");
             } else {
-                connection.rollback();
-                connection.setAutoCommit(true);
-                JOptionPane.showMessageDialog(this, "Booking not found or already cancelled!");
+                onFound.accept(labels);
             }
-        } catch (SQLException e) {
-            try {
-                connection.rollback();
-                connection.setAutoCommit(true);
-            } catch (SQLException ex) {
-                ex.printStackTrace();
+        }, e -> JOptionPane.showMessageDialog(this, "Error finding seats: " + e.getMessage()));
+    }
+    
+    // Seat numbers typed as "Stalls R3-12, Stalls R3-13"
+    private static List<String> seatLabels(String text) {
+        List<String> labels = new ArrayList<>();
+        for (String label : text.split(",")) {
+            if (!label.isBlank()) {
+                labels.add(label.trim());
             }
-            JOptionPane.showMessageDialog(this, "Error cancelling booking: " + e.getMessage());
         }
+        return labels;
     }
     
-    private void refreshBookingTable(DefaultTableModel model) {
-        model.setRowCount(0);
-        try (PreparedStatement stmt = connection.prepareStatement(
-                """
-                SELECT b.booking_id, c.name as customer_name, s.title as show_title,
-                       b.seats_booked, b.total_amount, b.booking_date, b.status
-                FROM bookings b 
-                JOIN customers c ON b.customer_id = c.customer_id
-                JOIN shows s ON b.show_id = s.show_id
-                ORDER BY b.booking_id DESC
-                """);
-             ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                model.addRow(new Object[]{
-                    rs.getInt("booking_id"),
-                    rs.getString("customer_name"),
-                    rs.getString("show_title"),
-                    rs.getInt("seats_booked"),
-                    rs.getDouble("total_amount"),
-                    rs.getTimestamp("booking_date"),
-                    rs.getString("status")
-                });
+    private void joinWaitlist(int customerId, int showId, int seats) {
+        db.submit(TAB_BOOKINGS, null, () -> {
+            try (Connection conn = pool.getConnection()) {
+                return Waitlist.join(conn, customerId, showId, seats);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        }, id -> JOptionPane.showMessageDialog(this, "Added to the waitlist as request " + id + "."),
+            e -> JOptionPane.showMessageDialog(this, "Error joining the waitlist: " + e.getMessage()));
     }
     
-    // Combo box refresh methods
-    private void refreshTheatreCombo(JComboBox<String> combo) {
-        combo.removeAllItems();
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "SELECT theatre_id, name FROM theatres ORDER BY name");
-             ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                combo.addItem(rs.getInt("theatre_id") + " - " + rs.getString("name"));
+    // Lists who is waiting for the show, in the order they will be served, with the option to withdraw one
+    private void showWaitlist(int showId) {
+        db.submit(TAB_BOOKINGS, "bookings.waitlist", () -> {
+            try (Connection conn = pool.getConnection()) {
+                return Waitlist.waiting(conn, showId, WAITLIST_SHOWN);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        }, entries -> {
+            if (entries.isEmpty()) {
+                JOptionPane.showMessageDialog(this, "Nobody is waiting for this show.");
+                return;
+            }
+            JList<Waitlist.Entry> list = new JList<>(new Vector<>(entries));
+            Object[] options = {"Withdraw Selected", "Close"};
+            int choice = JOptionPane.showOptionDialog(this, new JScrollPane(list), "Waitlist",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, options, options[1]);
+            Waitlist.Entry selected = list.getSelectedValue();
+            if (choice == 0 && selected != null) {
+                withdrawFromWaitlist(selected.id(), () -> showWaitlist(showId));
+            }
+        }, e -> JOptionPane.showMessageDialog(this, "Error loading the waitlist: " + e.getMessage()));
     }
     
-    private void refreshCustomerCombo(JComboBox<String> combo) {
-        combo.removeAllItems();
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "SELECT customer_id, name FROM customers ORDER BY name");
-             ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                combo.addItem(rs.getInt("customer_id") + " - " + rs.getString("name"));
+    private void withdrawFromWaitlist(int waitlistId, Runnable onSuccess) {
+        db.submit(TAB_BOOKINGS, null, () -> {
+            try (Connection conn = pool.getConnection()) {
+                return bookingService.waitlist().withdraw(conn, waitlistId);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        }, withdrawn -> {
+            if (!withdrawn) {
+                JOptionPane.showMessageDialog(this, "This request was already booked or withdrawn.");
+            }
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error withdrawing from the waitlist: " + e.getMessage()));
     }
     
-    private void refreshShowCombo(JComboBox<String> combo) {
-        combo.removeAllItems();
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "SELECT show_id, title FROM shows WHERE available_seats > 0 ORDER BY title");
-             ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                combo.addItem(rs.getInt("show_id") + " - " + rs.getString("title"));
+    private void cancelBooking(int bookingId, Runnable onSuccess) {
+        db.submit(TAB_BOOKINGS, null, () -> theatreService.cancelBooking(bookingId), cancelled -> {
+            if (!cancelled) {
+                JOptionPane.showMessageDialog(this, "Booking not found or already cancelled!");
+                return;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Booking cancelled successfully!");
+            referenceData.invalidate(ReferenceDataCache.Kind.SHOWS);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error cancelling booking: " + e.getMessage()));
+    }
+    
+    private void createGroupBooking(List<BookingService.BookingRequest> requests, Runnable onSuccess) {
+        db.submit(TAB_BOOKINGS, null, () -> bookingService.createBookings(requests), results -> {
+            StringBuilder failures = new StringBuilder();
+            int booked = 0;
+            for (int i = 0; i < results.size(); i++) {
+                BookingService.BookingResult result = results.get(i);
+                if (result.succeeded()) {
+                    booked++;
+                } else {
+                    failures.append("\nRequest ").append(i + 1).append(": ").append(result.error());
+                }
+            }
+            JOptionPane.showMessageDialog(this, booked + " of " + results.size() + " bookings created." + failures);
+            referenceData.invalidate(ReferenceDataCache.Kind.SHOWS);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error creating group booking: " + e.getMessage()));
+    }
+    
+    // Holds the seats named in seatLabels, or any seats if it is empty
+    private void holdSeats(int showId, int seats, List<String> seatLabels, Consumer<SeatHoldManager.Hold> onHeld) {
+        db.submit(TAB_BOOKINGS, null, () -> seatLabels.isEmpty()
+                ? holdManager.hold(showId, seats, HOLD_TTL_MILLIS)
+                : holdManager.hold(showId, seatInventory.seatIndexes(showId, seatLabels), HOLD_TTL_MILLIS), hold -> {
+            if (hold == null) {
+                JOptionPane.showMessageDialog(this, seatLabels.isEmpty() ? "Not enough seats available!"
+                    : "Not all of those seats are free, please choose others!");
+                return;
+            }
+            referenceData.invalidate(ReferenceDataCache.Kind.SHOWS);
+            onHeld.accept(hold);
+        }, e -> JOptionPane.showMessageDialog(this, "Error holding seats: " + e.getMessage()));
+    }
+    
+    private void confirmHold(long holdId, int customerId, Runnable onSuccess) {
+        db.submit(TAB_BOOKINGS, null, () -> holdManager.confirm(holdId, customerId), bookingId -> {
+            if (bookingId == BookingService.NOT_ENOUGH_SEATS) {
+                JOptionPane.showMessageDialog(this, "The hold has expired, please hold the seats again!");
+                return;
+            }
+            JOptionPane.showMessageDialog(this, "Booking created successfully!");
+            referenceData.invalidate(ReferenceDataCache.Kind.SHOWS);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error creating booking: " + e.getMessage()));
+    }
+    
+    private void releaseHold(long holdId, Runnable onSuccess) {
+        db.submit(TAB_BOOKINGS, null, () -> holdManager.release(holdId), released -> {
+            referenceData.invalidate(ReferenceDataCache.Kind.SHOWS);
+            onSuccess.run();
+        }, e -> JOptionPane.showMessageDialog(this, "Error releasing hold: " + e.getMessage()));
+    }
+    
+    // Runs in the background; progress is shown on the target tab's busy indicator
+    private void importCsv() {
+        CsvImporter.Table table = (CsvImporter.Table) JOptionPane.showInputDialog(this, "Import into:",
+            "Import CSV", JOptionPane.QUESTION_MESSAGE, null, CsvImporter.Table.values(), CsvImporter.Table.CUSTOMERS);
+        if (table == null) {
+            return;
         }
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        String tab = table == CsvImporter.Table.CUSTOMERS ? TAB_CUSTOMERS
+            : table == CsvImporter.Table.THEATRES ? TAB_THEATRES : TAB_SHOWS;
+        // Progress is shown on the target tab's busy bar, which exists once the tab is built
+        tabbedPane.setSelectedIndex(tabbedPane.indexOfTab(tab));
+        JProgressBar indicator = busyIndicators.get(tab);
+        db.submit(tab, null, () -> new CsvImporter(pool, seatInventory, showSchedule, bookingService).importFile(table, file,
+            progress -> SwingUtilities.invokeLater(() -> {
+                indicator.setStringPainted(true);
+                indicator.setString(progress.toString());
+            })), result -> {
+                indicator.setStringPainted(false);
+                if (table == CsvImporter.Table.CUSTOMERS) {
+                    customerIndex.reload();
+                } else {
+                    referenceData.invalidate(ReferenceDataCache.Kind.valueOf(table.name()));
+                }
+                JOptionPane.showMessageDialog(this, "Import finished: " + result
+                    + (result.rejected() > 0 ? "\nRejected rows were written to " + file.getFileName() + ".rejected.csv" : ""));
+            }, e -> {
+                indicator.setStringPainted(false);
+                JOptionPane.showMessageDialog(this, "Error importing " + file.getFileName() + ": " + e.getMessage()
+                    + "\nRun the import again to resume after the last committed row.");
+            });
+    }
+    
+    private KeysetTableModel createBookingModel() {
+        return new KeysetTableModel(pool, changeFeed, db, TAB_BOOKINGS,
+            BOOKING_COLUMNS, BookingRepository.GRID_SELECT,
+            "bookings", "booking_id", "b.booking_id", true, TheatreManagementSystem::bookingRow);
+    }
+    
+    private static Object[] bookingRow(ResultSet rs) throws SQLException {
+        BookingRepository.Booking b = BookingRepository.map(rs);
+        return new Object[]{b.id(), b.customerName(), b.showTitle(), b.seatsBooked(), b.totalAmount(),
+            b.bookingDate(), b.status()};
+    }
+    
+    private void refreshBookingTable(KeysetTableModel model) {
+        model.refresh();
+    }
+    
+    // Each keystroke asks the in-memory index for the best matches; no database round trip
+    private void bindCustomerSearch(JTextField search, JComboBox<ReferenceDataCache.Entry> combo) {
+        Runnable update = () -> {
+            Vector<ReferenceDataCache.Entry> matches = new Vector<>();
+            for (CustomerIndex.Customer customer : customerIndex.search(search.getText(), CUSTOMER_MATCHES)) {
+                String contact = customer.email() != null ? customer.email() : customer.phone();
+                matches.add(new ReferenceDataCache.Entry(customer.id(),
+                    contact == null ? customer.name() : customer.name() + " <" + contact + ">", -1));
+            }
+            combo.setModel(new DefaultComboBoxModel<>(matches));
+            if (search.isFocusOwner() && !matches.isEmpty()) {
+                combo.showPopup();
+            }
+        };
+        search.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                update.run();
+            }
+            
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                update.run();
+            }
+            
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                update.run();
+            }
+        });
+        customerIndex.setLoadListener(update);
+        update.run();
+    }
+    
+    // Pickers share the cached lists; the selection is kept across reloads when still present
+    private void bindCombo(JComboBox<ReferenceDataCache.Entry> combo, ReferenceDataCache.Kind kind) {
+        referenceData.subscribe(kind, entries -> {
+            ReferenceDataCache.Entry selected = (ReferenceDataCache.Entry) combo.getSelectedItem();
+            DefaultComboBoxModel<ReferenceDataCache.Entry> model = new DefaultComboBoxModel<>(new Vector<>(entries));
+            if (selected != null) {
+                for (ReferenceDataCache.Entry entry : entries) {
+                    if (entry.id() == selected.id()) {
+                        model.setSelectedItem(entry);
+                        break;
+                    }
+                }
+            }
+            combo.setModel(model);
+        });
     }
     
     // Utility methods
+    private JProgressBar createBusyIndicator(String tab) {
+        JProgressBar indicator = new JProgressBar();
+        indicator.setIndeterminate(true);
+        indicator.setVisible(db.isBusy(tab));
+        busyIndicators.put(tab, indicator);
+        return indicator;
+    }
+    
     private void clearFields(JTextField... fields) {
         for (JTextField field : fields) {
             field.setText("");
@@ -960,6 +1783,10 @@ public class TheatreManagementSystem extends JFrame {
     }
     
     public static void main(String[] args) {
+    // Instrumentation first, so startup itself is measured
+    EdtMonitor.install();
+    Metrics.global().registerMBean();
+    Metrics.global().startReporting(Path.of(METRICS_DIRECTORY), METRICS_INTERVAL_SECONDS);
     SwingUtilities.invokeLater(new Runnable() {
         @Override
         public void run() {
@@ -0,0 +1,105 @@
+// Theatre Management System
+// Theatre Repository
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Collection;
+
+/*
+SQL for the theatres table, on the caller's connection and transaction like
+CustomerRepository.
+*/
+public class TheatreRepository {
+
+    public record Theatre(int id, String name, String location, int totalSeats, Timestamp createdAt) {
+    }
+
+    // For KeysetTableModel, which adds its own WHERE and ORDER BY on theatre_id
+    public static final String GRID_SELECT = "SELECT theatre_id, name, location, total_seats, created_at FROM theatres";
+
+    public static Theatre map(ResultSet rs) throws SQLException {
+        return new Theatre(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getInt(4), rs.getTimestamp(5));
+    }
+
+    // Returns the new theatre_id
+    public static int insert(Connection conn, String name, String location, int totalSeats) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO theatres (name, location, total_seats) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, name);
+            stmt.setString(2, location);
+            stmt.setInt(3, totalSeats);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        }
+    }
+
+    /*
+    Compare-and-set against the row as the caller last saw it (seen), so an
+    edit made from a stale form does not silently overwrite someone else's;
+    returns 0 if the theatre is gone or no longer matches.
+    */
+    public static int update(Connection conn, Theatre seen, String name, String location, int totalSeats)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                """
+                UPDATE theatres SET name=?, location=?, total_seats=?
+                WHERE theatre_id=? AND name=? AND location <=> ? AND total_seats=?
+                """)) {
+            stmt.setString(1, name);
+            stmt.setString(2, location);
+            stmt.setInt(3, totalSeats);
+            stmt.setInt(4, seen.id());
+            stmt.setString(5, seen.name());
+            stmt.setString(6, seen.location());
+            stmt.setInt(7, seen.totalSeats());
+            return stmt.executeUpdate();
+        }
+    }
+
+    /*
+    Locks the theatre row until the caller's transaction ends. Every writer of
+    a scheduled show takes it before checking for overlaps, so two shows can
+    never be fitted into the same free slot at once; false if the theatre is gone.
+    */
+    public static boolean lock(Connection conn, int id) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT theatre_id FROM theatres WHERE theatre_id=? FOR UPDATE")) {
+            stmt.setInt(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    // lock() for several theatres, taken in id order so two callers cannot deadlock
+    public static void lockAll(Connection conn, Collection<Integer> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder("SELECT theatre_id FROM theatres WHERE theatre_id IN (");
+        for (int id : ids) {
+            sql.append(sql.charAt(sql.length() - 1) == '(' ? "" : ",").append(id);
+        }
+        sql.append(") ORDER BY theatre_id FOR UPDATE");
+        // Inlined ids: a prepared statement per distinct IN list would only churn the statement cache
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql.toString())) {
+            while (rs.next()) {
+                // Only the locks are wanted
+            }
+        }
+    }
+
+    public static int delete(Connection conn, int id) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM theatres WHERE theatre_id=?")) {
+            stmt.setInt(1, id);
+            return stmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+// Theatre Management System
+// Booking Service Interface
+import java.sql.SQLException;
+import java.util.List;
+
+/*
+The booking operations clients need, independent of where they run.
+
+LocalTheatreService runs them against the database through BookingService;
+HttpTheatreClient sends them to a TheatreApiServer, which serves a local
+instance over HTTP. Callers get the same results either way, including
+BookingService.NOT_ENOUGH_SEATS for a booking that did not fit. A service
+that cannot be reached fails with an SQLException in the 08 (connection)
+class, like a lost database connection would; a booking or cancellation
+whose answer was lost fails with 08007, since it may still have committed.
+*/
+public interface TheatreService {
+
+    // Up to limit shows in schedule order
+    List<ShowRepository.Show> listShows(int limit) throws SQLException;
+
+    // Null if there is no such show
+    ShowRepository.Availability availability(int showId) throws SQLException;
+
+    // The new booking_id, or BookingService.NOT_ENOUGH_SEATS
+    int createBooking(int customerId, int showId, int seats) throws SQLException;
+
+    // Books exactly the seats named, e.g. "Stalls R3-12"; BookingService.NOT_ENOUGH_SEATS if any is taken
+    int createBooking(int customerId, int showId, List<String> seatLabels) throws SQLException;
+
+    // Labels of count free seats side by side, empty if no row has them; null if the show has no seat plan
+    List<String> suggestSeats(int showId, int count) throws SQLException;
+
+    // False if the booking does not exist or was already cancelled
+    boolean cancelBooking(int bookingId) throws SQLException;
+}
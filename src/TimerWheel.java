@@ -0,0 +1,159 @@
+// Theatre Management System
+// Hierarchical Timer Wheel
+import java.util.List;
+
+/*
+A hierarchical hashed timer wheel (Varghese & Lauck), driven by one thread
+calling advance().
+
+Four levels of 64 slots: level 0 covers the next 64 ticks one slot per tick,
+each higher level covers 64 times the span of the one below. A timer lands in
+the lowest level whose span reaches its deadline and is cascaded down a level
+each time the wheel below wraps around to its slot. Scheduling and cancelling
+are O(1) whatever the number of pending timers, and each tick only touches the
+timers that are actually due.
+*/
+public final class TimerWheel<T> {
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    public static final class Timeout<T> {
+        private final T item;
+        private final long deadline;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+        private Timeout<T>[] bucketOwner;
+        private int bucket;
+
+        private Timeout(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+
+        public T item() {
+            return item;
+        }
+    }
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final Timeout<T>[][] wheels;
+    private long currentTick;
+    private int size;
+
+    // Generic arrays cannot be created; every slot only ever holds this wheel's Timeout<T>s
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.startMillis = nowMillis;
+        this.wheels = (Timeout<T>[][]) new Timeout<?>[LEVELS][SLOTS];
+    }
+
+    public long maxDelayMillis() {
+        return ((1L << (SLOT_BITS * LEVELS)) - 1) * tickMillis;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Fires on the first advance() at or after nowMillis + delayMillis (rounded up to a tick)
+    public synchronized Timeout<T> schedule(T item, long delayMillis, long nowMillis) {
+        if (delayMillis > maxDelayMillis()) {
+            throw new IllegalArgumentException("Delay " + delayMillis + " ms exceeds " + maxDelayMillis() + " ms");
+        }
+        long targetTick = Math.max(tickOf(nowMillis + delayMillis + tickMillis - 1), currentTick + 1);
+        Timeout<T> timeout = new Timeout<>(item, targetTick);
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    // Returns false if the timeout already fired or was cancelled
+    public synchronized boolean cancel(Timeout<T> timeout) {
+        if (timeout.bucketOwner == null) {
+            return false;
+        }
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    // Moves the wheel forward to nowMillis and adds every item that came due to expired
+    public synchronized void advance(long nowMillis, List<T> expired) {
+        long targetTick = tickOf(nowMillis);
+        while (currentTick < targetTick) {
+            currentTick++;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK));
+                }
+            }
+            Timeout<T>[] level0 = wheels[0];
+            int slot = (int) (currentTick & SLOT_MASK);
+            Timeout<T> node = level0[slot];
+            while (node != null) {
+                Timeout<T> next = node.next;
+                unlink(node);
+                size--;
+                expired.add(node.item);
+                node = next;
+            }
+        }
+    }
+
+    private long tickOf(long millis) {
+        return Math.max(0, (millis - startMillis) / tickMillis);
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout<T> node = wheels[level][slot];
+        wheels[level][slot] = null;
+        while (node != null) {
+            Timeout<T> next = node.next;
+            node.prev = null;
+            node.next = null;
+            node.bucketOwner = null;
+            place(node);
+            node = next;
+        }
+    }
+
+    private void place(Timeout<T> timeout) {
+        long delta = timeout.deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        // Due now (cascaded exactly on its deadline): fire on this tick's level-0 pass
+        long slotTick = Math.max(timeout.deadline, currentTick);
+        int slot = (int) ((slotTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        Timeout<T>[] bucket = wheels[level];
+        timeout.bucketOwner = bucket;
+        timeout.bucket = slot;
+        timeout.prev = null;
+        timeout.next = bucket[slot];
+        if (bucket[slot] != null) {
+            bucket[slot].prev = timeout;
+        }
+        bucket[slot] = timeout;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        Timeout<T>[] bucket = timeout.bucketOwner;
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            bucket[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucketOwner = null;
+    }
+}
@@ -0,0 +1,305 @@
+// Theatre Management System
+// Sold-Out Show Waitlist
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+Customers waiting for seats on a sold-out show, served first come first
+served when seats come back.
+
+Requests are rows of the waitlist table. Each show's WAITING rows are also
+held in memory, bucketed by party size, each bucket ordered by request time.
+When a cancellation frees n seats, next() looks at the head of every bucket
+of at most n seats and takes the earliest request, so a party too large for
+what was freed keeps its place while smaller parties behind it are seated;
+that is one look per distinct party size, however many thousands are
+waiting, and the table is never scanned.
+
+The copy in memory is kept current from the table cheaply: every sync()
+reads only rows with a higher waitlist_id than it has seen, on the
+(show_id, status, waitlist_id) index. sync() runs inside the cancelling
+transaction, so that is all it reads; once a show's rows are RELOAD_MILLIS
+old, they are read in full again on a background thread and connection of
+their own, which picks up requests withdrawn or served by other terminals
+and ids that committed out of order. Serving a request is a compare-and-set
+from WAITING in the same transaction as its booking, so a request served or
+withdrawn elsewhere in the meantime is skipped, never booked twice.
+*/
+public class Waitlist {
+
+    public record Entry(int id, int showId, int customerId, int seats, Timestamp requestedAt) {
+        @Override
+        public String toString() {
+            return "Request " + id + ": customer " + customerId + ", " + seats + " seats, since " + requestedAt;
+        }
+    }
+
+    // Earliest request first; ids break ties between requests made in the same millisecond
+    private static final Comparator<Entry> PRIORITY =
+        Comparator.comparing(Entry::requestedAt).thenComparingInt(Entry::id);
+
+    private static final long RELOAD_MILLIS = 60_000;
+
+    // The WAITING entries of one show
+    private static final class ShowQueue {
+        final TreeMap<Integer, TreeSet<Entry>> bySeats = new TreeMap<>();
+        final Map<Integer, Entry> byId = new HashMap<>();
+        final long loadedAtMillis = System.currentTimeMillis();
+        int highestId;
+
+        void add(Entry entry) {
+            if (byId.putIfAbsent(entry.id(), entry) == null) {
+                bySeats.computeIfAbsent(entry.seats(), s -> new TreeSet<>(PRIORITY)).add(entry);
+            }
+            highestId = Math.max(highestId, entry.id());
+        }
+
+        void remove(int waitlistId) {
+            Entry entry = byId.remove(waitlistId);
+            if (entry != null) {
+                TreeSet<Entry> party = bySeats.get(entry.seats());
+                party.remove(entry);
+                if (party.isEmpty()) {
+                    bySeats.remove(entry.seats());
+                }
+            }
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final ExecutorService reloader;
+    private final Map<Integer, ShowQueue> shows = new HashMap<>();
+    // Shows with a full reload queued or running
+    private final Set<Integer> reloading = new HashSet<>();
+
+    public Waitlist(ConnectionPool pool) {
+        this.pool = pool;
+        this.reloader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "waitlist-reload");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Adds a request for seats on showId; it is served by the next cancellations that free enough seats
+    public static int join(Connection conn, int customerId, int showId, int seats) throws SQLException {
+        if (seats <= 0) {
+            throw new IllegalArgumentException("Seats must be positive");
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO waitlist (show_id, customer_id, seats) VALUES (?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setInt(1, showId);
+            stmt.setInt(2, customerId);
+            stmt.setInt(3, seats);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        }
+    }
+
+    // Up to limit waiting requests for showId, in the order they will be served when enough seats free up
+    public static List<Entry> waiting(Connection conn, int showId, int limit) throws SQLException {
+        List<Entry> entries = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT waitlist_id, show_id, customer_id, seats, requested_at FROM waitlist "
+                + "WHERE show_id=? AND status='WAITING' ORDER BY waitlist_id LIMIT ?")) {
+            stmt.setInt(1, showId);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(map(rs));
+                }
+            }
+        }
+        return entries;
+    }
+
+    // False if the request was already served or withdrawn
+    public boolean withdraw(Connection conn, int waitlistId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE waitlist SET status='WITHDRAWN' WHERE waitlist_id=? AND status='WAITING'")) {
+            stmt.setInt(1, waitlistId);
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        drop(waitlistId);
+        return true;
+    }
+
+    // Withdraws every waiting request of a show that is being cancelled; returns how many
+    public int withdrawAll(Connection conn, int showId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE waitlist SET status='WITHDRAWN' WHERE show_id=? AND status='WAITING'")) {
+            stmt.setInt(1, showId);
+            int withdrawn = stmt.executeUpdate();
+            synchronized (this) {
+                shows.remove(showId);
+            }
+            return withdrawn;
+        }
+    }
+
+    /*
+    Brings the show's queue up to date with the requests made since it last
+    looked; a show seen for the first time is read in full. A queue
+    RELOAD_MILLIS old is also queued for a full reload in the background.
+    */
+    public void sync(Connection conn, int showId) throws SQLException {
+        ShowQueue queue;
+        synchronized (this) {
+            queue = shows.get(showId);
+            if (queue != null && System.currentTimeMillis() - queue.loadedAtMillis > RELOAD_MILLIS
+                    && reloading.add(showId)) {
+                reloader.execute(() -> reload(showId));
+            }
+        }
+        List<Entry> entries = read(conn, showId, queue == null ? 0 : queue.highestId);
+        synchronized (this) {
+            if (queue == null) {
+                // Unless a concurrent sync got there first, its entries are the whole queue
+                queue = shows.computeIfAbsent(showId, id -> new ShowQueue());
+            } else {
+                queue = shows.get(showId);
+                if (queue == null) {
+                    return;
+                }
+            }
+            for (Entry entry : entries) {
+                queue.add(entry);
+            }
+        }
+    }
+
+    /*
+    Replaces the show's queue with every request still waiting. Requests
+    claimed meanwhile may come back; their claim fails and drops them again.
+    Ones made meanwhile are read by the next sync(), which starts from what
+    this read saw.
+    */
+    private void reload(int showId) {
+        try (Connection conn = pool.getConnection()) {
+            List<Entry> entries = read(conn, showId, 0);
+            ShowQueue queue = new ShowQueue();
+            for (Entry entry : entries) {
+                queue.add(entry);
+            }
+            synchronized (this) {
+                // A show whose requests were all withdrawn meanwhile stays forgotten
+                if (shows.containsKey(showId)) {
+                    shows.put(showId, queue);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            Metrics.global().increment("waitlist.errors");
+            e.printStackTrace();
+        } finally {
+            synchronized (this) {
+                reloading.remove(showId);
+            }
+        }
+    }
+
+    // The show's waiting requests with an id above after, in id order
+    private static List<Entry> read(Connection conn, int showId, int after) throws SQLException {
+        List<Entry> entries = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT waitlist_id, show_id, customer_id, seats, requested_at FROM waitlist "
+                + "WHERE show_id=? AND status='WAITING' AND waitlist_id > ? ORDER BY waitlist_id")) {
+            stmt.setInt(1, showId);
+            stmt.setInt(2, after);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(map(rs));
+                }
+            }
+        }
+        return entries;
+    }
+
+    // The earliest request for at most seats seats, leaving out the ids in skip; null if none fits
+    public synchronized Entry next(int showId, int seats, Set<Integer> skip) {
+        ShowQueue queue = shows.get(showId);
+        if (queue == null) {
+            return null;
+        }
+        Entry best = null;
+        for (TreeSet<Entry> party : queue.bySeats.headMap(seats, true).values()) {
+            for (Entry entry : party) {
+                if (!skip.contains(entry.id())) {
+                    if (best == null || PRIORITY.compare(entry, best) < 0) {
+                        best = entry;
+                    }
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /*
+    Takes entry off the waitlist inside the transaction that books its seats,
+    before they are booked. False if it is no longer waiting: it was served
+    or withdrawn by another terminal, and is dropped from memory (its row
+    will not come back).
+    */
+    public boolean claim(Connection conn, Entry entry) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE waitlist SET status='BOOKED' WHERE waitlist_id=? AND status='WAITING'")) {
+            stmt.setInt(1, entry.id());
+            if (stmt.executeUpdate() > 0) {
+                return true;
+            }
+        }
+        drop(entry.id());
+        return false;
+    }
+
+    // Records which booking served a claimed entry
+    public static void linkBooking(Connection conn, Entry entry, int bookingId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("UPDATE waitlist SET booking_id=? WHERE waitlist_id=?")) {
+            stmt.setInt(1, bookingId);
+            stmt.setInt(2, entry.id());
+            stmt.executeUpdate();
+        }
+    }
+
+    // Forgets entries whose claims have committed
+    public synchronized void served(Collection<Entry> entries) {
+        for (Entry entry : entries) {
+            ShowQueue queue = shows.get(entry.showId());
+            if (queue != null) {
+                queue.remove(entry.id());
+            }
+        }
+    }
+
+    private synchronized void drop(int waitlistId) {
+        for (ShowQueue queue : shows.values()) {
+            queue.remove(waitlistId);
+        }
+    }
+
+    private static Entry map(ResultSet rs) throws SQLException {
+        return new Entry(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getTimestamp(5));
+    }
+}